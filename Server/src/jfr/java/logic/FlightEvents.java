@@ -0,0 +1,304 @@
+package logic;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Class of Java Flight Recorder events of requests. It is built from its own source set on JDK 11 or newer
+ * and is loaded by {@code Tracing} by reflection only if Java has JFR, so other classes never refer to it directly.
+ * All events are disabled by default, a recording enables them by settings, for example
+ * {@code -XX:StartFlightRecording:settings=res/requests.jfc,filename=requests.jfr} or {@code Recording.enable}.
+ */
+final class FlightEvents implements Tracing.Recorder {
+    /**Types of events by kinds of {@code Tracing}, their state is changed by recordings.*/
+    private static final EventType[] TYPES = {
+            EventType.getEventType(Accept.class),
+            EventType.getEventType(Request.class),
+            EventType.getEventType(LaneWait.class),
+            EventType.getEventType(FileList.class),
+            EventType.getEventType(FileOpen.class),
+            EventType.getEventType(FileRead.class),
+            EventType.getEventType(SocketWrite.class),
+            EventType.getEventType(ClientRequest.class)
+    };
+
+    /**Constructs {@code FlightEvents} object, it is called by {@code Tracing} by reflection.*/
+    FlightEvents() {
+    }
+
+    /**Event of accepted connection.*/
+    @Name("logic.Accept")
+    @Label("Connection Accepted")
+    @Category("File Server")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Accept extends Event {
+        /**Address of the client.*/
+        @Label("Remote Address")
+        String remoteAddress;
+    }
+
+    /**Event of one request from its command is received to its answer is sent.*/
+    @Name("logic.Request")
+    @Label("Request")
+    @Category("File Server")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Request extends Event {
+        /**Name of command.*/
+        @Label("Command")
+        String command;
+        /**Path given by client, {@code null} for search.*/
+        @Label("Path")
+        String path;
+        /**Number of bytes of answer.*/
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+    }
+
+    /**Event of waiting of request for a slot of lane.*/
+    @Name("logic.LaneWait")
+    @Label("Lane Wait")
+    @Category("File Server")
+    @Description("Time a request spends in the queue of the lane")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class LaneWait extends Event {
+        /**Name of lane.*/
+        @Label("Lane")
+        String lane;
+    }
+
+    /**Event of listing of directory.*/
+    @Name("logic.FileList")
+    @Label("File System List")
+    @Category({"File Server", "File System"})
+    @Enabled(false)
+    @StackTrace(false)
+    static final class FileList extends Event {
+        /**Path given by client.*/
+        @Label("Path")
+        String path;
+        /**Number of files in directory, {@code -1} if it is not a directory.*/
+        @Label("Entries")
+        int entries;
+    }
+
+    /**Event of opening of file.*/
+    @Name("logic.FileOpen")
+    @Label("File System Open")
+    @Category({"File Server", "File System"})
+    @Enabled(false)
+    @StackTrace(false)
+    static final class FileOpen extends Event {
+        /**Path given by client.*/
+        @Label("Path")
+        String path;
+        /**Size of file, {@code -1} if there is no such file.*/
+        @Label("Size")
+        @DataAmount
+        long size;
+    }
+
+    /**Event of reading of one portion of file.*/
+    @Name("logic.FileRead")
+    @Label("File System Read")
+    @Category({"File Server", "File System"})
+    @Enabled(false)
+    @StackTrace(false)
+    static final class FileRead extends Event {
+        /**Number of read bytes.*/
+        @Label("Bytes Read")
+        @DataAmount
+        long bytes;
+    }
+
+    /**Event of writing of one portion of answer to socket.*/
+    @Name("logic.SocketWrite")
+    @Label("Socket Write")
+    @Category({"File Server", "Socket"})
+    @Enabled(false)
+    @StackTrace(false)
+    static final class SocketWrite extends Event {
+        /**Number of written bytes.*/
+        @Label("Bytes Written")
+        @DataAmount
+        long bytes;
+    }
+
+    /**Event of one request made by client, from sending it to receiving the whole answer.*/
+    @Name("logic.ClientRequest")
+    @Label("Client Request")
+    @Category("File Server")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class ClientRequest extends Event {
+        /**Name of command.*/
+        @Label("Command")
+        String command;
+        /**Path of request.*/
+        @Label("Path")
+        String path;
+        /**Number of bytes of received content, {@code 0} for listings.*/
+        @Label("Bytes Read")
+        @DataAmount
+        long bytes;
+    }
+
+    /**
+     * Starts event if a recording has enabled its type.
+     * @param kind -- kind of event given by {@code Tracing}
+     * @return started event or {@code null} if it is disabled
+     */
+    @Override
+    public Object begin(int kind) {
+        if (!TYPES[kind].isEnabled()) {
+            return null;
+        }
+        Event event;
+        switch (kind) {
+            case Tracing.ACCEPT:
+                event = new Accept();
+                break;
+            case Tracing.REQUEST:
+                event = new Request();
+                break;
+            case Tracing.LANE_WAIT:
+                event = new LaneWait();
+                break;
+            case Tracing.FILE_LIST:
+                event = new FileList();
+                break;
+            case Tracing.FILE_OPEN:
+                event = new FileOpen();
+                break;
+            case Tracing.FILE_READ:
+                event = new FileRead();
+                break;
+            case Tracing.SOCKET_WRITE:
+                event = new SocketWrite();
+                break;
+            default:
+                event = new ClientRequest();
+                break;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commits event of accepted connection.
+     * @param event -- started event
+     * @param remoteAddress -- address of the client
+     */
+    @Override
+    public void accepted(Object event, Object remoteAddress) {
+        Accept accept = (Accept) event;
+        accept.remoteAddress = String.valueOf(remoteAddress);
+        accept.commit();
+    }
+
+    /**
+     * Commits event of request.
+     * @param event -- started event
+     * @param command -- number of command
+     * @param path -- path given by client
+     * @param bytesWritten -- number of bytes of answer
+     */
+    @Override
+    public void request(Object event, int command, String path, long bytesWritten) {
+        Request request = (Request) event;
+        request.command = Protocol.name(command);
+        request.path = path;
+        request.bytesWritten = bytesWritten;
+        request.commit();
+    }
+
+    /**
+     * Commits event of waiting for lane.
+     * @param event -- started event
+     * @param lane -- name of lane
+     */
+    @Override
+    public void laneWait(Object event, String lane) {
+        LaneWait wait = (LaneWait) event;
+        wait.lane = lane;
+        wait.commit();
+    }
+
+    /**
+     * Commits event of listing.
+     * @param event -- started event
+     * @param path -- path given by client
+     * @param entries -- number of files in directory
+     */
+    @Override
+    public void fileList(Object event, String path, int entries) {
+        FileList list = (FileList) event;
+        list.path = path;
+        list.entries = entries;
+        list.commit();
+    }
+
+    /**
+     * Commits event of opening.
+     * @param event -- started event
+     * @param path -- path given by client
+     * @param size -- size of file
+     */
+    @Override
+    public void fileOpen(Object event, String path, long size) {
+        FileOpen open = (FileOpen) event;
+        open.path = path;
+        open.size = size;
+        open.commit();
+    }
+
+    /**
+     * Commits event of reading.
+     * @param event -- started event
+     * @param bytes -- number of read bytes
+     */
+    @Override
+    public void fileRead(Object event, long bytes) {
+        FileRead read = (FileRead) event;
+        read.bytes = bytes;
+        read.commit();
+    }
+
+    /**
+     * Commits event of writing to socket.
+     * @param event -- started event
+     * @param bytes -- number of written bytes
+     */
+    @Override
+    public void socketWrite(Object event, long bytes) {
+        SocketWrite write = (SocketWrite) event;
+        write.bytes = bytes;
+        write.commit();
+    }
+
+    /**
+     * Commits event of client's request.
+     * @param event -- started event
+     * @param command -- number of command
+     * @param path -- path of request
+     * @param bytes -- number of bytes of received content
+     */
+    @Override
+    public void clientRequest(Object event, int command, String path, long bytes) {
+        ClientRequest request = (ClientRequest) event;
+        request.command = Protocol.name(command);
+        request.path = path;
+        request.bytes = bytes;
+        request.commit();
+    }
+}
@@ -0,0 +1,83 @@
+import logic.Client;
+import logic.Server;
+import logic.ServerSettings;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of flight recorder events. They are built from their own source set on JDK 11 or newer,
+ * as {@code FlightEvents} is, so {@code Tests} compiles for Java 8.
+ */
+public final class FlightEventsTests {
+    private static final int MAX_PORT = 20000;
+    private static final int MIN_PORT = 10000;
+    private static final Random RND = new Random();
+    private Path root;
+
+    @Before
+    public void root() throws IOException {
+        root = Files.createTempDirectory(".");
+        root.toFile().deleteOnExit();
+    }
+
+    @Test
+    public void test22_flight_events() throws Exception {
+        Files.createDirectories(root.resolve("dir"));
+        Files.write(root.resolve("dir").resolve("file.txt"), "content".getBytes());
+        Path dump = Files.createTempFile("requests", ".jfr");
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        Server server = Server.start(port, root, new ServerSettings());
+        Client client = new Client(new Socket("localhost", port));
+        try (Recording recording = new Recording()) {
+            client.list("dir");
+            for (String name : Arrays.asList("logic.Accept", "logic.Request", "logic.LaneWait", "logic.FileList",
+                    "logic.FileOpen", "logic.FileRead", "logic.SocketWrite", "logic.ClientRequest")) {
+                recording.enable(name);
+            }
+            recording.start();
+            assertArrayEquals("content".getBytes(), client.get("dir/file.txt"));
+            // request event is committed after the answer, the next answer means it is recorded
+            assertArrayEquals("content".getBytes(), client.get("dir/file.txt"));
+            recording.stop();
+            recording.dump(dump);
+            List<String> names = new ArrayList<>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+                String name = event.getEventType().getName();
+                names.add(name);
+                if (name.equals("logic.Request")) {
+                    assertEquals("get", event.getString("command"));
+                    assertEquals("dir/file.txt", event.getString("path"));
+                    assertEquals(4 + "content".length(), event.getLong("bytesWritten"));
+                }
+            }
+            for (String name : Arrays.asList("logic.Request", "logic.LaneWait", "logic.FileOpen",
+                    "logic.FileRead", "logic.SocketWrite", "logic.ClientRequest")) {
+                assertTrue(name, names.contains(name));
+            }
+            assertTrue(!names.contains("logic.FileList"));
+        } finally {
+            Files.delete(dump);
+            server.shutdown();
+            try {
+                client.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+}
@@ -1,18 +1,22 @@
 package gui;
 
 import exceptions.DataStreamException;
+import logic.ChangeEvent;
 import logic.Client;
 import logic.Manager;
+import logic.MirrorProgress;
 import org.apache.commons.io.IOUtils;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -26,6 +30,10 @@ public class ClientApp  extends JFrame implements WindowListener{
     private static final String PathToFile = "res/icon-file.png";
     /**Button which should be clicked to enter input data.*/
     private JButton button = new JButton("Enter");
+    /**Button which should be clicked to download shown directory with all its content.*/
+    private JButton mirrorButton = new JButton("Mirror");
+    /**Label with progress of the last mirroring.*/
+    private JLabel status = new JLabel(" ");
     /**TextField where should be entered input data.*/
     private JTextField input = new JTextField("", 15);
     /**Just label with information.*/
@@ -38,6 +46,12 @@ public class ClientApp  extends JFrame implements WindowListener{
     private Map<String, ImageIcon> imageMap;
     /**Path to file where should some file be downloaded.*/
     private String saveDirectory;
+    /**Subscription to changes of shown directory, {@code null} if no directory is shown.*/
+    private Closeable subscription;
+    /**Path to directory which changes are subscribed to.*/
+    private String subscribedPath;
+    /**Path to shown directory, {@code null} if no directory is shown.*/
+    private String shownPath;
 
     /**Inits main screen and creates {@code Manager} object.*/
     private ClientApp() {
@@ -52,6 +66,7 @@ public class ClientApp  extends JFrame implements WindowListener{
                     "Inane error", JOptionPane.ERROR_MESSAGE);
         }
 
+        mirrorButton.addActionListener(event -> mirrorShown());
         init();
         showHelp();
     }
@@ -62,7 +77,8 @@ public class ClientApp  extends JFrame implements WindowListener{
                 "Enter path to directory to get the list of files and folders in it.\n" +
                         "Enter path to file to download it.\n" +
                         "You can walk through the file tree.\n" +
-                        "Click the folder to get into, click the file to download it.",
+                        "Click the folder to get into, click the file to download it.\n" +
+                        "Click \"Mirror\" to download shown folder with all its content.",
                 "Info", JOptionPane.PLAIN_MESSAGE);
     }
 
@@ -92,6 +108,53 @@ public class ClientApp  extends JFrame implements WindowListener{
         c.weightx = 0;
         button.addActionListener(new ButtonEventListener());
         container.add(button, c);
+        container.add(mirrorButton, c);
+
+        status.setFont(font);
+        c.gridy = 2;
+        c.gridwidth = GridBagConstraints.REMAINDER;
+        c.weighty = 0;
+        container.add(status, c);
+    }
+
+    /**
+     * Downloads shown directory with all its content to directory which user selects.
+     * Mirroring works in a separate thread, its progress is shown under the list of files.
+     */
+    private void mirrorShown() {
+        if (shownPath == null) {
+            JOptionPane.showMessageDialog(null, "Please, open a directory first.",
+                    "Wrong input", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        String source = shownPath;
+        Path name = Paths.get(source).toAbsolutePath().normalize().getFileName();
+        String folderName = name == null ? "root" : name.toString();
+        saveDirectory = "";
+        DialogDownload dialog = new DialogDownload(ClientApp.this, folderName);
+        dialog.setVisible(true);
+        if (saveDirectory.isEmpty()) {
+            return;
+        }
+        Path target = Paths.get(saveDirectory).resolve(folderName);
+        mirrorButton.setEnabled(false);
+        Thread worker = new Thread(() -> {
+            String message;
+            try {
+                MirrorProgress progress = manager.mirror(source, target,
+                        current -> SwingUtilities.invokeLater(() -> status.setText(current.toString())));
+                message = "Folder was successfully downloaded.\n" + progress;
+            } catch (Exception ex) {
+                message = "Sorry, failed to download selected folder.\n" + ex.getMessage();
+            }
+            String result = message;
+            SwingUtilities.invokeLater(() -> {
+                mirrorButton.setEnabled(true);
+                JOptionPane.showMessageDialog(null, result);
+            });
+        }, "mirror");
+        worker.setDaemon(true);
+        worker.start();
     }
 
     /**Class needed to provide reaction on button clicks.*/
@@ -104,8 +167,18 @@ public class ClientApp  extends JFrame implements WindowListener{
          * @param e -- event of button performed.
          */
         public void actionPerformed(ActionEvent e) {
-            final String[] path = {input.getText()};
+            String text = input.getText();
             input.setText("");
+            show(text, e);
+        }
+
+        /**
+         * Shows list of files in given directory or downloads given file.
+         * @param text -- path to directory or file
+         * @param e -- event of button performed.
+         */
+        private void show(String text, ActionEvent e) {
+            final String[] path = {text};
             try {
                 File file = new File(path[0]);
                 if (file.isDirectory()) {
@@ -130,6 +203,8 @@ public class ClientApp  extends JFrame implements WindowListener{
                         }
                     });
                     setJFileList(fileList);
+                    shownPath = path[0];
+                    watchDirectory(path[0], e);
                 } else if (file.isFile()) {
                     // Download file
                     saveDirectory = "";
@@ -179,6 +254,45 @@ public class ClientApp  extends JFrame implements WindowListener{
                         "Inane error", JOptionPane.ERROR_MESSAGE);
             }
         }
+
+        /**
+         * Subscribes to changes of shown directory, so its listing is updated
+         * when files are added or removed, without polling.
+         * @param dir -- path to shown directory
+         * @param e -- event of button performed.
+         */
+        private void watchDirectory(String dir, ActionEvent e) {
+            if (dir.equals(subscribedPath)) {
+                return;
+            }
+            stopWatching();
+            try {
+                subscription = manager.subscribe(dir, false, event -> {
+                    if (event.getKind() != ChangeEvent.Kind.MODIFIED) {
+                        SwingUtilities.invokeLater(() -> {
+                            if (dir.equals(subscribedPath)) {
+                                show(dir, e);
+                            }
+                        });
+                    }
+                });
+                subscribedPath = dir;
+            } catch (Exception ignored) {
+                // Listing still works, it is just not updated live.
+            }
+        }
+    }
+
+    /**Stops subscription to changes of shown directory.*/
+    private void stopWatching() {
+        subscribedPath = null;
+        if (subscription != null) {
+            try {
+                subscription.close();
+            } catch (IOException ignored) {
+            }
+            subscription = null;
+        }
     }
 
     /**
@@ -222,7 +336,7 @@ public class ClientApp  extends JFrame implements WindowListener{
         c.fill = GridBagConstraints.HORIZONTAL;
         c.anchor = GridBagConstraints.PAGE_END;
         c.gridy = 1;
-        c.gridwidth = 4;
+        c.gridwidth = GridBagConstraints.REMAINDER;
         c.weighty = 100;
         c.fill = GridBagConstraints.BOTH;
         mainContainer.add(scroll, c);
@@ -296,6 +410,7 @@ public class ClientApp  extends JFrame implements WindowListener{
     /**Shutdowns manager before closing the application.*/
     @Override
     public void windowClosing(WindowEvent e) {
+        stopWatching();
         manager.shutdown();
     }
 
@@ -0,0 +1,248 @@
+package logic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Class which writes directory with all its content as zip archive while walking it, without temporary files.
+ * Small files are read by reader threads ahead of the writer, so waiting for disk overlaps with sending.
+ * At most {@code readAhead} files are kept in memory, bigger files are streamed by the writer itself.
+ */
+class ArchiveWriter {
+    /**Executor of reads ahead.*/
+    private final Executor readers;
+    /**Maximum number of files which are read ahead of the writer.*/
+    private final int readAhead;
+    /**Maximum size in bytes of a file which is read ahead.*/
+    private final long readAheadThreshold;
+
+    /**Class of one entry of archive, with content which is being read ahead if it is small file.*/
+    private static final class Entry {
+        /**Path to file relative to root.*/
+        private final String path;
+        /**Name of entry in archive, {@code '/'}-separated and ending by {@code '/'} for directory.*/
+        private final String name;
+        /**Whether it is a directory.*/
+        private final boolean isDirectory;
+        /**Time of the last modification in milliseconds.*/
+        private final long lastModified;
+        /**Whether file is small enough to be read ahead.*/
+        private final boolean isSmall;
+        /**Content which is read ahead, {@code null} if the writer reads it itself.*/
+        private FutureTask<byte[]> content;
+
+        /**
+         * Constructs {@code Entry} object by paths and attributes of file.
+         * @param path -- path to file relative to root
+         * @param name -- name of entry in archive
+         * @param isDirectory -- whether it is a directory
+         * @param lastModified -- time of the last modification in milliseconds
+         * @param isSmall -- whether file is small enough to be read ahead
+         */
+        Entry(String path, String name, boolean isDirectory, long lastModified, boolean isSmall) {
+            this.path = path;
+            this.name = name;
+            this.isDirectory = isDirectory;
+            this.lastModified = lastModified;
+            this.isSmall = isSmall;
+        }
+    }
+
+    /**
+     * Constructs {@code ArchiveWriter} object by readers and limits of reading ahead.
+     * @param readers -- executor of reads ahead
+     * @param readAhead -- maximum number of files which are read ahead, {@code 0} to read all files by the writer
+     * @param readAheadThreshold -- maximum size in bytes of a file which is read ahead
+     */
+    ArchiveWriter(Executor readers, int readAhead, long readAheadThreshold) {
+        this.readers = readers;
+        this.readAhead = readAhead;
+        this.readAheadThreshold = readAheadThreshold;
+    }
+
+    /**
+     * Writes directory as zip archive. Names of entries are relative to the directory.
+     * Files which disappear while walking are not included.
+     * @param handler -- executor of requests to root
+     * @param name -- path to directory relative to root
+     * @param compress -- whether entries are compressed, otherwise they are stored as deflate blocks without compression
+     * @param out -- stream to write archive to, it is not closed
+     * @return {@code false} if it is not a directory and nothing is written
+     * @throws IOException if an error appears while reading files or writing archive
+     */
+    boolean write(RequestHandler handler, String name, boolean compress, OutputStream out) throws IOException {
+        Client.Element[] top = handler.list(name);
+        if (top == null) {
+            return false;
+        }
+        ZipOutputStream zip = new ZipOutputStream(out);
+        zip.setLevel(compress ? Deflater.DEFAULT_COMPRESSION : Deflater.NO_COMPRESSION);
+        Deque<Entry> directories = new ArrayDeque<>();
+        Deque<Entry> window = new ArrayDeque<>();
+        Deque<Entry> files = new ArrayDeque<>();
+        enqueue(name, "", top, directories, files);
+        while (true) {
+            while (files.isEmpty() && !directories.isEmpty()) {
+                Entry directory = directories.poll();
+                window.add(directory);
+                Client.Element[] content = handler.list(directory.path);
+                if (content != null) {
+                    enqueue(directory.path, directory.name, content, directories, files);
+                }
+            }
+            while (window.size() <= readAhead && !files.isEmpty()) {
+                Entry file = files.poll();
+                startReading(handler, file);
+                window.add(file);
+            }
+            if (window.isEmpty()) {
+                break;
+            }
+            writeEntry(handler, window.poll(), zip);
+        }
+        zip.finish();
+        zip.flush();
+        return true;
+    }
+
+    /**
+     * Adds content of directory to queues of walk.
+     * @param path -- path to directory relative to root
+     * @param prefix -- name of directory in archive, empty for archived directory itself
+     * @param content -- content of directory with sizes of files
+     * @param directories -- queue of directories to walk
+     * @param files -- queue of files to write
+     */
+    private void enqueue(String path, String prefix, Client.Element[] content,
+                         Deque<Entry> directories, Deque<Entry> files) {
+        for (Client.Element element : content) {
+            String child = path.isEmpty() ? element.getName() : path + "/" + element.getName();
+            if (element.isDirectory()) {
+                directories.add(new Entry(child, prefix + element.getName() + "/", true,
+                        element.getLastModified(), false));
+            } else {
+                files.add(new Entry(child, prefix + element.getName(), false, element.getLastModified(),
+                        readAhead > 0 && element.getSize() <= readAheadThreshold));
+            }
+        }
+    }
+
+    /**
+     * Starts reading of small file by one of readers.
+     * @param handler -- executor of requests to root
+     * @param file -- entry of file
+     */
+    private void startReading(RequestHandler handler, Entry file) {
+        if (file.isSmall) {
+            file.content = new FutureTask<>(() -> read(handler, file.path));
+            readers.execute(file.content);
+        }
+    }
+
+    /**
+     * Reads the whole file.
+     * @param handler -- executor of requests to root
+     * @param path -- path to file relative to root
+     * @return content of file or {@code null} if it disappeared
+     * @throws IOException if the file could not be read
+     */
+    private static byte[] read(RequestHandler handler, String path) throws IOException {
+        try (FileBody body = handler.open(path)) {
+            if (body == null) {
+                return null;
+            }
+            byte[] content = new byte[(int) body.size()];
+            body.readFully(ByteBuffer.wrap(content));
+            return content;
+        }
+    }
+
+    /**
+     * Writes one entry to archive, waiting for its content if it is being read ahead.
+     * @param handler -- executor of requests to root
+     * @param entry -- entry to write
+     * @param zip -- archive
+     * @throws IOException if an error appears while reading file or writing archive
+     */
+    private static void writeEntry(RequestHandler handler, Entry entry, ZipOutputStream zip) throws IOException {
+        if (entry.isDirectory) {
+            zip.putNextEntry(newEntry(entry.name, entry.lastModified));
+            zip.closeEntry();
+            return;
+        }
+        if (entry.content != null) {
+            byte[] content = await(entry.content);
+            if (content != null) {
+                zip.putNextEntry(newEntry(entry.name, entry.lastModified));
+                zip.write(content);
+                zip.closeEntry();
+            }
+            return;
+        }
+        try (FileBody body = handler.open(entry.path)) {
+            if (body == null) {
+                return;
+            }
+            zip.putNextEntry(newEntry(entry.name, body.lastModified()));
+            try (InputStream content = body.stream()) {
+                copy(content, zip);
+            }
+            zip.closeEntry();
+        }
+    }
+
+    /**
+     * Creates entry of archive.
+     * @param name -- name of entry
+     * @param lastModified -- time of the last modification in milliseconds
+     * @return new {@code ZipEntry} object
+     */
+    private static ZipEntry newEntry(String name, long lastModified) {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(lastModified);
+        return entry;
+    }
+
+    /**
+     * Waits for content which is read ahead.
+     * @param content -- reading of content
+     * @return content of file or {@code null} if it disappeared
+     * @throws IOException if reading failed or waiting was interrupted
+     */
+    private static byte[] await(FutureTask<byte[]> content) throws IOException {
+        try {
+            return content.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading ahead");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    /**
+     * Copies the whole stream to archive.
+     * @param in -- content of file
+     * @param out -- archive
+     * @throws IOException if an error appears while reading or writing
+     */
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package logic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class of short-lived cache of attributes of requested files, missing files are cached too, and of listings
+ * of requested directories. Both are kept by {@code '/'}-separated paths relative to root, so a change reported
+ * by {@code DirectoryWatcher} forgets the changed file and everything under it at once, and listings of
+ * directories above it, which show its size or modification time.
+ * Time to live bounds how long attributes could be stale when a change was not reported yet.
+ * Files outside of root are not watched, so their attributes are never cached.
+ */
+class AttributeCache implements DirectoryWatcher.Listener, Closeable {
+    /**Character greater than any character of paths, it bounds ranges of prefixes.*/
+    private static final char MAX_CHAR = '\uffff';
+    /**Key of names which are outside of root, no relative path starts with separator.*/
+    private static final String OUTSIDE = "/";
+    /**Absolute normalized path to root directory.*/
+    private final Path root;
+    /**Time to live of attributes in nanoseconds.*/
+    private final long ttlNanos;
+    /**Maximum number of cached files.*/
+    private final int capacity;
+    /**Counters of hits and misses.*/
+    private final ServerStats stats;
+    /**Cached attributes by relative paths.*/
+    private final ConcurrentSkipListMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+    /**Number of cached files.*/
+    private final AtomicInteger count = new AtomicInteger();
+    /**Cached listings by relative paths of directories, empty path for root.*/
+    private final ConcurrentSkipListMap<String, Listing> listings = new ConcurrentSkipListMap<>();
+    /**Number of cached listings.*/
+    private final AtomicInteger listingCount = new AtomicInteger();
+    /**Reader of listings which are not cached.*/
+    private final Lister lister;
+    /**Relative paths by names given by clients, {@code OUTSIDE} for names outside of root.*/
+    private final Map<String, String> keys = new ConcurrentHashMap<>();
+    /**Number of changes received so far.*/
+    private final AtomicLong version = new AtomicLong();
+    /**Subscription to changes of root.*/
+    private final DirectoryWatcher.Watch watch;
+
+    /**Class of attributes of one file.*/
+    static final class Entry {
+        /**Whether file exists.*/
+        private final boolean exists;
+        /**Whether it is a directory.*/
+        private final boolean isDirectory;
+        /**Size of file in bytes.*/
+        private final long size;
+        /**Time of the last modification of file in milliseconds.*/
+        private final long lastModified;
+        /**Time in nanoseconds after which attributes should be read again.*/
+        private final long expires;
+
+        /**
+         * Constructs {@code Entry} object by attributes of file.
+         * @param exists -- whether file exists
+         * @param isDirectory -- whether it is a directory
+         * @param size -- size of file in bytes
+         * @param lastModified -- time of the last modification in milliseconds
+         * @param expires -- time in nanoseconds after which attributes are stale
+         */
+        private Entry(boolean exists, boolean isDirectory, long size, long lastModified, long expires) {
+            this.exists = exists;
+            this.isDirectory = isDirectory;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.expires = expires;
+        }
+
+        /**
+         * Whether it is an existing file which is not a directory.
+         * @return {@code true} if content of the file could be sent
+         */
+        boolean isFile() {
+            return exists && !isDirectory;
+        }
+
+        /**
+         * Get size of file.
+         * @return size in bytes
+         */
+        long size() {
+            return size;
+        }
+
+        /**
+         * Get time of the last modification of file.
+         * @return time in milliseconds
+         */
+        long lastModified() {
+            return lastModified;
+        }
+    }
+
+    /**Class of listing of one directory.*/
+    private static final class Listing {
+        /**Content of directory, it is shared by all requests and never changed.*/
+        private final Client.Element[] content;
+        /**Time in nanoseconds after which directory should be listed again.*/
+        private final long expires;
+
+        /**
+         * Constructs {@code Listing} object by content of directory.
+         * @param content -- content of directory
+         * @param expires -- time in nanoseconds after which listing is stale
+         */
+        private Listing(Client.Element[] content, long expires) {
+            this.content = content;
+            this.expires = expires;
+        }
+    }
+
+    /**Class which lists directories from file system.*/
+    interface Lister {
+        /**
+         * Lists given directory.
+         * @param name -- path to directory relative to root
+         * @return content of directory or {@code null} if it is not a directory
+         * @throws IOException if an error appears while reading directory
+         */
+        Client.Element[] list(String name) throws IOException;
+    }
+
+    /**
+     * Constructs {@code AttributeCache} object and subscribes to changes of root.
+     * @param root -- path to root directory
+     * @param ttlMillis -- time in milliseconds for which attributes are kept
+     * @param capacity -- maximum number of cached files and of cached listings
+     * @param lister -- reader of listings which are not cached
+     * @param watcher -- watcher which gives changes of root
+     * @param stats -- counters of hits and misses
+     * @throws IOException if root could not be watched
+     */
+    AttributeCache(Path root, long ttlMillis, int capacity, Lister lister, DirectoryWatcher watcher,
+                   ServerStats stats) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        this.ttlNanos = ttlMillis * 1_000_000;
+        this.capacity = capacity;
+        this.lister = lister;
+        this.stats = stats;
+        watch = watcher.watch(this.root, true, this);
+    }
+
+    /**
+     * Get attributes of file, reading them from file system only if cached ones are missing or too old.
+     * @param name -- path given by client
+     * @param file -- path to the file resolved against root
+     * @return attributes, which tell that file does not exist if there is no such file
+     * @throws IOException if attributes could not be read
+     */
+    Entry get(String name, Path file) throws IOException {
+        String key = toKey(name);
+        long now = System.nanoTime();
+        if (key != null) {
+            Entry known = entries.get(key);
+            if (known != null && known.expires - now > 0) {
+                stats.attributeHit(known.exists);
+                return known;
+            }
+        }
+        stats.attributeMiss();
+        long start = version.get();
+        Entry read;
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            read = new Entry(true, attributes.isDirectory(), attributes.size(),
+                    attributes.lastModifiedTime().toMillis(), now + ttlNanos);
+        } catch (NoSuchFileException e) {
+            read = new Entry(false, false, 0, 0, now + ttlNanos);
+        }
+        if (key != null) {
+            if (count.get() >= capacity) {
+                clear();
+            }
+            if (entries.put(key, read) == null) {
+                count.incrementAndGet();
+            }
+            if (version.get() != start) {
+                remove(key);
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Get content of directory, listing it only if cached listing is missing or too old.
+     * Returned array is shared by all requests, so it must not be changed.
+     * @param name -- path given by client
+     * @return content of directory or {@code null} if it is not a directory
+     * @throws IOException if an error appears while reading directory
+     */
+    Client.Element[] list(String name) throws IOException {
+        String key = toKey(name);
+        long now = System.nanoTime();
+        if (key != null) {
+            Listing known = listings.get(key);
+            if (known != null && known.expires - now > 0) {
+                stats.listingHit();
+                return known.content;
+            }
+        }
+        stats.listingMiss();
+        long start = version.get();
+        Client.Element[] content = lister.list(name);
+        if (key != null && content != null) {
+            if (listingCount.get() >= capacity) {
+                clearListings();
+            }
+            if (listings.put(key, new Listing(content, now + ttlNanos)) == null) {
+                listingCount.incrementAndGet();
+            }
+            if (version.get() != start) {
+                removeListing(key);
+            }
+        }
+        return content;
+    }
+
+    /**
+     * Forgets attributes of file which were found stale while it was used.
+     * @param name -- path given by client
+     */
+    void forget(String name) {
+        String key = toKey(name);
+        if (key != null) {
+            remove(key);
+        }
+    }
+
+    /**
+     * Receives change from watcher and forgets attributes of the changed file and of everything under it,
+     * so renamed or removed directory does not leave stale attributes of its content.
+     * Listings of the changed directory, of directories under it and of all directories above it are forgotten,
+     * since modification time of a directory changes with its content.
+     * @param event -- change with path relative to root
+     */
+    @Override
+    public void changed(ChangeEvent event) {
+        version.incrementAndGet();
+        if (event.getKind() == ChangeEvent.Kind.OVERFLOW) {
+            clear();
+            return;
+        }
+        String key = toKey(root.relativize(root.resolve(event.getPath()).normalize()));
+        remove(key);
+        for (String inside : entries.subMap(key + "/", key + "/" + MAX_CHAR).keySet()) {
+            remove(inside);
+        }
+        removeListing(key);
+        for (String inside : listings.subMap(key + "/", key + "/" + MAX_CHAR).keySet()) {
+            removeListing(inside);
+        }
+        for (int end = key.lastIndexOf('/'); end > 0; end = key.lastIndexOf('/', end - 1)) {
+            removeListing(key.substring(0, end));
+        }
+        removeListing("");
+    }
+
+    /**
+     * Converts name given by client to key of entries, remembering the result.
+     * @param name -- path given by client
+     * @return relative {@code '/'}-separated path, empty for root, or {@code null} if it is outside of root
+     */
+    private String toKey(String name) {
+        String key = keys.get(name);
+        if (key == null) {
+            Path file = root.resolve(name).normalize();
+            key = file.startsWith(root) ? toKey(root.relativize(file)) : OUTSIDE;
+            if (keys.size() >= capacity) {
+                keys.clear();
+            }
+            keys.put(name, key);
+        }
+        return key.equals(OUTSIDE) ? null : key;
+    }
+
+    /**
+     * Converts path relative to root to key of entries.
+     * @param relative -- path relative to root
+     * @return {@code '/'}-separated path
+     */
+    private static String toKey(Path relative) {
+        return relative.toString().replace(relative.getFileSystem().getSeparator(), "/");
+    }
+
+    /**
+     * Forgets attributes of one file.
+     * @param key -- relative path of the file
+     */
+    private void remove(String key) {
+        if (entries.remove(key) != null) {
+            count.decrementAndGet();
+        }
+    }
+
+    /**
+     * Forgets listing of one directory.
+     * @param key -- relative path of the directory
+     */
+    private void removeListing(String key) {
+        if (listings.remove(key) != null) {
+            listingCount.decrementAndGet();
+        }
+    }
+
+    /**Forgets all listings.*/
+    private void clearListings() {
+        for (String key : listings.keySet()) {
+            removeListing(key);
+        }
+    }
+
+    /**Forgets all attributes and listings.*/
+    private void clear() {
+        for (String key : entries.keySet()) {
+            remove(key);
+        }
+        clearListings();
+    }
+
+    /**Stops receiving changes.*/
+    @Override
+    public void close() {
+        watch.close();
+    }
+}
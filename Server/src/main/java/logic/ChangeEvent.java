@@ -0,0 +1,84 @@
+package logic;
+
+/**Class of event about change of a file in directory which client has subscribed to.*/
+public final class ChangeEvent {
+    /**Kinds of changes.*/
+    public enum Kind {
+        /**File or directory was created.*/
+        ADDED,
+        /**File or directory was removed.*/
+        REMOVED,
+        /**Content of file or directory was changed.*/
+        MODIFIED,
+        /**Some events were lost, content of the whole directory should be listed again.*/
+        OVERFLOW
+    }
+
+    /**Kind of change.*/
+    private final Kind kind;
+    /**Path to changed file relative to subscribed directory.*/
+    private final String path;
+    /**Type of changed file, whether it is directory or not.*/
+    private final boolean isDirectory;
+
+    /**
+     * Constructs {@code ChangeEvent} object by kind of change and changed file.
+     * @param kind -- kind of change
+     * @param path -- path to changed file relative to subscribed directory
+     * @param isDirectory -- type of changed file; {@code true} if file is directory and {@code false} if not
+     */
+    ChangeEvent(Kind kind, String path, boolean isDirectory) {
+        this.kind = kind;
+        this.path = path;
+        this.isDirectory = isDirectory;
+    }
+
+    /**
+     * Get kind of change.
+     * @return kind of change
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Get path to changed file.
+     * @return path relative to subscribed directory, empty for {@code OVERFLOW} event
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Get type of changed file.
+     * @return {@code true} if file is directory and {@code false} if not
+     */
+    public boolean isDirectory() {
+        return isDirectory;
+    }
+
+    /**
+     * Merges two consecutive changes of the same file into one.
+     * @param earlier -- kind of earlier change
+     * @param later -- kind of later change
+     * @return kind of merged change or {@code null} if changes cancel each other
+     */
+    static Kind coalesce(Kind earlier, Kind later) {
+        if (earlier == Kind.ADDED) {
+            return later == Kind.REMOVED ? null : Kind.ADDED;
+        }
+        if (earlier == Kind.REMOVED && later == Kind.ADDED) {
+            return Kind.MODIFIED;
+        }
+        return later;
+    }
+
+    /**
+     * Get event as one line.
+     * @return kind and path of change
+     */
+    @Override
+    public String toString() {
+        return kind + " " + path + (isDirectory ? "/" : "");
+    }
+}
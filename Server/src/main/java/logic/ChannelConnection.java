@@ -0,0 +1,167 @@
+package logic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Class of connection over blocking {@code SocketChannel}.
+ * Streams of {@code Channels} are not used because they lock the whole channel,
+ * so reading in one thread would block writing in another.
+ */
+class ChannelConnection implements Connection {
+    /**Channel of the connection.*/
+    private final SocketChannel channel;
+    /**Description of other side.*/
+    private final Object remoteAddress;
+    /**Stream to read data from the channel.*/
+    private final InputStream in = new InputStream() {
+        /**Views of arrays which are read to.*/
+        private final Views views = new Views();
+
+        @Override
+        public int read() throws IOException {
+            return read(views.single, 0, 1) == -1 ? -1 : views.single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            return channel.read(views.wrap(b, off, len));
+        }
+    };
+    /**Stream to write data to the channel.*/
+    private final OutputStream out = new OutputStream() {
+        /**Views of arrays which are written from.*/
+        private final Views views = new Views();
+
+        @Override
+        public void write(int b) throws IOException {
+            views.single[0] = (byte) b;
+            write(views.single, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = views.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    };
+
+    /**
+     * Class of reused views of arrays for one stream, so a request of fixed size is sent and received
+     * without allocating buffers: {@code DataInputStream} and {@code DataOutputStream} pass the same few arrays again.
+     */
+    private static final class Views {
+        /**Number of remembered views.*/
+        private static final int SIZE = 4;
+        /**Array for single bytes.*/
+        private final byte[] single = new byte[1];
+        /**Arrays which are viewed by {@code views}.*/
+        private final byte[][] wrapped = new byte[SIZE][];
+        /**Views of recently used arrays.*/
+        private final ByteBuffer[] views = new ByteBuffer[SIZE];
+        /**Index of view which is replaced next.*/
+        private int next;
+
+        /**
+         * Constructs {@code Views} object with view of array for single bytes.
+         */
+        Views() {
+            wrapped[0] = single;
+            views[0] = ByteBuffer.wrap(single);
+            next = 1;
+        }
+
+        /**
+         * Get view of a part of array, reusing the view if the array was used recently.
+         * @param b -- array to view
+         * @param off -- start of the part
+         * @param len -- length of the part
+         * @return buffer over the part
+         */
+        ByteBuffer wrap(byte[] b, int off, int len) {
+            ByteBuffer view = null;
+            for (int i = 0; i < SIZE && view == null; i++) {
+                if (wrapped[i] == b) {
+                    view = views[i];
+                }
+            }
+            if (view == null) {
+                view = ByteBuffer.wrap(b);
+                wrapped[next] = b;
+                views[next] = view;
+                next = next + 1 < SIZE ? next + 1 : 1;
+            }
+            view.clear();
+            view.position(off);
+            view.limit(off + len);
+            return view;
+        }
+    }
+
+    /**
+     * Constructs {@code ChannelConnection} object by connected channel.
+     * @param channel -- connected blocking channel
+     * @param remoteAddress -- description of other side
+     */
+    ChannelConnection(SocketChannel channel, Object remoteAddress) {
+        this.channel = channel;
+        this.remoteAddress = remoteAddress;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return InetAddress.getLoopbackAddress();
+    }
+
+    @Override
+    public Object getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**Channels have no read timeout, so idle and hung connections are closed by server's reaper only.*/
+    @Override
+    public void setReadTimeout(int millis) {
+    }
+
+    /**Options are set only where channel supports them, e.g. Unix sockets have no Nagle's algorithm.*/
+    @Override
+    public void tune(TransportProfile profile) throws IOException {
+        if (channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, !profile.isNagle());
+        }
+        if (profile.getSocketBuffer() <= 0) {
+            return;
+        }
+        if (channel.supportedOptions().contains(StandardSocketOptions.SO_SNDBUF)) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, profile.getSocketBuffer());
+        }
+        if (channel.supportedOptions().contains(StandardSocketOptions.SO_RCVBUF)) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, profile.getSocketBuffer());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,69 @@
+package logic;
+
+import java.lang.reflect.Constructor;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * Class which creates checksums of blocks of checked transfers.
+ * {@code CRC32C}, which is computed by a CPU instruction, is used since Java 9,
+ * it is taken by reflection, so the project still runs on Java 8 with {@code CRC32}.
+ * Both sides agree on the algorithm: client asks for the best one it has, server answers with the one it uses.
+ */
+final class Checksums {
+    /**Number of algorithm {@code CRC32}, which every Java has.*/
+    static final byte CRC32 = 0;
+    /**Number of algorithm {@code CRC32C}.*/
+    static final byte CRC32C = 1;
+    /**Constructor of {@code java.util.zip.CRC32C}, {@code null} if Java does not have it.*/
+    private static final Constructor<? extends Checksum> CRC32C_CONSTRUCTOR;
+
+    static {
+        Constructor<? extends Checksum> constructor = null;
+        try {
+            constructor = Class.forName("java.util.zip.CRC32C").asSubclass(Checksum.class).getConstructor();
+        } catch (ReflectiveOperationException ignored) {
+        }
+        CRC32C_CONSTRUCTOR = constructor;
+    }
+
+    private Checksums() {
+    }
+
+    /**
+     * Get the best algorithm of running Java.
+     * @return {@code CRC32C} if Java has it, otherwise {@code CRC32}
+     */
+    static byte best() {
+        return CRC32C_CONSTRUCTOR != null ? CRC32C : CRC32;
+    }
+
+    /**
+     * Chooses algorithm which both sides have.
+     * @param requested -- algorithm asked by other side
+     * @return requested algorithm if running Java has it, otherwise {@code CRC32}
+     */
+    static byte agree(byte requested) {
+        return requested == CRC32C && CRC32C_CONSTRUCTOR != null ? CRC32C : CRC32;
+    }
+
+    /**
+     * Creates checksum of given algorithm. One checksum is reused for all blocks of a transfer by {@code reset}.
+     * @param algorithm -- number of algorithm
+     * @return new {@code Checksum} object
+     * @throws IllegalArgumentException if running Java does not have the algorithm
+     */
+    static Checksum create(byte algorithm) {
+        if (algorithm == CRC32) {
+            return new CRC32();
+        }
+        if (algorithm != CRC32C || CRC32C_CONSTRUCTOR == null) {
+            throw new IllegalArgumentException("Unknown checksum algorithm " + algorithm);
+        }
+        try {
+            return CRC32C_CONSTRUCTOR.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
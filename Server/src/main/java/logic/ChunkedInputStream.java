@@ -0,0 +1,90 @@
+package logic;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Class of stream which reads data sent by {@code ChunkedOutputStream}.
+ * It ends at the end mark, so connection could be used for further requests.
+ * Closing the stream skips unread data up to the end mark, connection itself is not closed.
+ */
+class ChunkedInputStream extends InputStream {
+    /**Stream of the connection.*/
+    private final DataInputStream in;
+    /**Number of bytes of current chunk which are not read yet.*/
+    private int remaining;
+    /**Whether the end mark is read.*/
+    private boolean finished;
+
+    /**
+     * Constructs {@code ChunkedInputStream} object by connection's stream.
+     * @param in -- stream of the connection
+     */
+    ChunkedInputStream(DataInputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads size of the next chunk if current one is read.
+     * @return {@code false} if the end mark is read
+     * @throws IOException if an error appears while reading
+     */
+    private boolean nextChunk() throws IOException {
+        while (!finished && remaining == 0) {
+            int size = in.readInt();
+            if (size < 0) {
+                throw new IOException("Invalid size of chunk: " + size);
+            }
+            remaining = size;
+            finished = size == 0;
+        }
+        return !finished;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextChunk()) {
+            return -1;
+        }
+        remaining--;
+        return in.readUnsignedByte();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextChunk()) {
+            return -1;
+        }
+        int count = in.read(b, off, Math.min(len, remaining));
+        if (count < 0) {
+            throw new IOException("Connection closed in the middle of chunk");
+        }
+        remaining -= count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return remaining;
+    }
+
+    /**
+     * Skips the rest of data up to the end mark.
+     * @throws IOException if an error appears while reading
+     */
+    @Override
+    public void close() throws IOException {
+        while (nextChunk()) {
+            int skipped = in.skipBytes(remaining);
+            if (skipped == 0) {
+                in.readByte();
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+}
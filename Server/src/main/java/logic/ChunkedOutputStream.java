@@ -0,0 +1,127 @@
+package logic;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Class of stream which sends data of unknown length over connection which is used for further requests.
+ * Data is sent by chunks: size of chunk and its bytes, empty chunk marks the end.
+ * Every chunk passes bandwidth limits of the connection.
+ * Data is made in the lane: the lane is entered by the first write and after every sent chunk,
+ * and left before a chunk is sent, so waiting for bandwidth or for the client does not hold a slot.
+ * Closing the stream sends the end mark, connection itself is not closed.
+ */
+class ChunkedOutputStream extends OutputStream {
+    /**Stream of the connection.*/
+    private final DataOutputStream out;
+    /**Bandwidth limiter of the connection.*/
+    private final Shaper shaper;
+    /**Lane of making the data.*/
+    private final Lane lane;
+    /**Whether a slot of the lane is held.*/
+    private boolean admitted;
+    /**Data which is not sent yet.*/
+    private final byte[] chunk;
+    /**Number of bytes in {@code chunk}.*/
+    private int count;
+    /**Whether the end mark is sent.*/
+    private boolean closed;
+
+    /**
+     * Constructs {@code ChunkedOutputStream} object by connection's stream.
+     * @param out -- stream of the connection
+     * @param shaper -- bandwidth limiter of the connection
+     * @param size -- maximum size of one chunk in bytes
+     * @param lane -- lane of making the data
+     */
+    ChunkedOutputStream(DataOutputStream out, Shaper shaper, int size, Lane lane) {
+        this.out = out;
+        this.shaper = shaper;
+        this.lane = lane;
+        this.chunk = new byte[size];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        admit();
+        if (count == chunk.length) {
+            sendChunk();
+        }
+        chunk[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        admit();
+        while (len > 0) {
+            if (count == chunk.length) {
+                sendChunk();
+            }
+            int part = Math.min(len, chunk.length - count);
+            System.arraycopy(b, off, chunk, count, part);
+            count += part;
+            off += part;
+            len -= part;
+        }
+    }
+
+    /**
+     * Enters the lane if its slot is not held yet.
+     * @throws IOException if thread was interrupted while waiting for the lane
+     */
+    private void admit() throws IOException {
+        if (!admitted) {
+            lane.enter();
+            admitted = true;
+        }
+    }
+
+    /**Leaves the lane if its slot is held, so failed making of data does not keep the slot.*/
+    void release() {
+        if (admitted) {
+            admitted = false;
+            lane.leave();
+        }
+    }
+
+    /**
+     * Sends buffered data as one chunk outside of the lane, then enters the lane again for making the next one.
+     * @throws IOException if an error appears while writing
+     */
+    private void sendChunk() throws IOException {
+        release();
+        send();
+        admit();
+    }
+
+    /**
+     * Sends buffered data as one chunk.
+     * @throws IOException if an error appears while writing
+     */
+    private void send() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        out.writeInt(count);
+        shaper.copy(ByteBuffer.wrap(chunk, 0, count), out);
+        count = 0;
+    }
+
+    /**
+     * Sends buffered data and the end mark, so client knows that the stream is finished.
+     * @throws IOException if an error appears while writing
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        release();
+        send();
+        out.writeInt(0);
+        out.flush();
+    }
+}
@@ -3,19 +3,80 @@ package logic;
 import exceptions.DataStreamException;
 import exceptions.SocketException;
 
+import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PushbackInputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+import java.util.zip.Checksum;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 /** Class of client which execute requests of server. */
 public class Client implements AutoCloseable {
+    /**Size in bytes of block of checked get, each block is verified and could be asked again by itself.*/
+    public static final int CHECKED_BLOCK = 64 * 1024;
+    /**Number of times one corrupted block is asked again before checked get fails.*/
+    private static final int MAX_BLOCK_RETRIES = 3;
+    /**Size in bytes of chunk of upload.*/
+    private static final int UPLOAD_CHUNK = 64 * 1024;
+    /**Number of echoes by which auto profile measures round trip time when client connects.*/
+    private static final int ECHOES = 3;
     /**Stream needed to read data from.*/
     private DataInputStream in;
     /**Stream needed to write data.*/
     private DataOutputStream out;
-    /**Socket needed to connect to server.*/
-    private final Socket socket;
+    /**Connection to server, {@code null} for client in the same JVM.*/
+    private Connection connection;
+    /**Transport which client connected by, it is used to connect again; {@code null} if connection was given.*/
+    private Transport transport;
+    /**Time in milliseconds which connecting again could take, {@code 0} to wait as long as system does.*/
+    private int connectTimeout;
+    /**Time in milliseconds which waiting for a part of answer could take, {@code 0} to wait forever.*/
+    private int readTimeout;
+    /**
+     * Whether server is taken to know compact listing. It is set only for clients made by {@code connect},
+     * which could connect again if an older server closes connection on it, and cleared when server does not know it.
+     */
+    private boolean compactListing;
+    /**Executor of requests which is called directly, {@code null} for remote client.*/
+    private final RequestHandler local;
+    /**Number of blocks of checked gets which came corrupted and were asked again.*/
+    private long retriedBlocks;
+    /**Elements of recent listings by hashes of names, so listing the same directory again reuses them.*/
+    private final Element[] listed = new Element[NameReader.SLOTS];
+    /**Reader of names of plain listings, which does not allocate names received again.*/
+    private final NameReader names = new NameReader();
+    /**Decoder of compact listings, which reuses its buffers.*/
+    private final ListingCodec listings = new ListingCodec();
+    /**Reused buffer for content of uploads, created by the first put.*/
+    private ByteBuffer uploadBuffer;
+    /**Parameters of transport which connection is tuned by now, {@code null} for client in the same JVM.*/
+    private TransportProfile profile;
+    /**Measurements of link of auto profile, {@code null} for fixed profiles.*/
+    private final LinkMeter meter;
 
     /**Class to keep information about files.*/
     public static final class Element {
@@ -23,6 +84,10 @@ public class Client implements AutoCloseable {
         private final String name;
         /**Type of file, whether it is directory or not.*/
         private final boolean isDirectory;
+        /**Size of file in bytes, {@code 0} for directory or if it is unknown.*/
+        private final long size;
+        /**Time of the last modification of file in milliseconds, {@code 0} if it is unknown.*/
+        private final long lastModified;
 
         /**
          * Get name of file or directory.
@@ -46,8 +111,37 @@ public class Client implements AutoCloseable {
          * @param isDirectory -- type of given file; {@code true} if file is directory and {@code false} if not
          */
         Element(String name, boolean isDirectory) {
+            this(name, isDirectory, 0, 0);
+        }
+
+        /**
+         * Construct {@code Element} object by name, type, size and modification time of file.
+         * @param name -- name of given file
+         * @param isDirectory -- type of given file; {@code true} if file is directory and {@code false} if not
+         * @param size -- size of file in bytes
+         * @param lastModified -- time of the last modification of file in milliseconds
+         */
+        Element(String name, boolean isDirectory, long size, long lastModified) {
             this.name = name;
             this.isDirectory = isDirectory;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Get size of file. It is known only for elements given by {@code listDetailed}.
+         * @return size in bytes, {@code 0} for directory or if it is unknown
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Get time of the last modification of file. It is known only for elements given by {@code listDetailed}.
+         * @return time in milliseconds, {@code 0} if it is unknown
+         */
+        public long getLastModified() {
+            return lastModified;
         }
 
         /**
@@ -80,16 +174,86 @@ public class Client implements AutoCloseable {
         }
     }
 
+    /**Class to keep information about files found by search.*/
+    public static final class Match {
+        /**Path relative to root, separated by {@code '/'}.*/
+        private final String path;
+        /**Type of file, whether it is directory or not.*/
+        private final boolean isDirectory;
+        /**Size of file in bytes, {@code 0} for directory.*/
+        private final long size;
+
+        /**
+         * Construct {@code Match} object by path, type and size of file.
+         * @param path -- path relative to root
+         * @param isDirectory -- type of given file; {@code true} if file is directory and {@code false} if not
+         * @param size -- size of file in bytes
+         */
+        Match(String path, boolean isDirectory, long size) {
+            this.path = path;
+            this.isDirectory = isDirectory;
+            this.size = size;
+        }
+
+        /**
+         * Get path of file.
+         * @return path relative to root, separated by {@code '/'}
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Get type of file
+         * @return {@code true} if file is directory and {@code false} if not
+         */
+        public boolean isDirectory() {
+            return isDirectory;
+        }
+
+        /**
+         * Get size of file.
+         * @return size in bytes, {@code 0} for directory
+         */
+        public long getSize() {
+            return size;
+        }
+    }
+
     /**
      * Construct {@code logic.Client} object by socket to connect to server.
      * @param socket -- socket needed to connect to server
      * @throws DataStreamException if there is an error with using {@code DataInputStream} or {@code DataOutputStream}
      */
     public Client(Socket socket) throws DataStreamException {
-        this.socket = socket;
+        this(new SocketConnection(socket));
+    }
+
+    /**
+     * Construct {@code logic.Client} object by established connection to server with auto transport profile.
+     * @param connection -- connection to server over any transport
+     * @throws DataStreamException if there is an error with using {@code DataInputStream} or {@code DataOutputStream}
+     */
+    public Client(Connection connection) throws DataStreamException {
+        this(connection, TransportProfile.AUTO);
+    }
+
+    /**
+     * Construct {@code logic.Client} object by established connection to server, tuning it by given profile.
+     * Connection which could not be tuned keeps working with options of system.
+     * @param connection -- connection to server over any transport
+     * @param profile -- parameters of transport
+     * @throws DataStreamException if there is an error with using {@code DataInputStream} or {@code DataOutputStream}
+     */
+    public Client(Connection connection, TransportProfile profile) throws DataStreamException {
+        this.connection = connection;
+        this.local = null;
+        this.profile = profile;
+        this.meter = profile.isAuto() ? new LinkMeter() : null;
+        tune(profile);
         try {
-            in = new DataInputStream(socket.getInputStream());
-            out = new DataOutputStream(socket.getOutputStream());
+            in = new DataInputStream(profile.buffer(connection.getInputStream()));
+            out = new DataOutputStream(profile.buffer(connection.getOutputStream()));
         } catch (IOException e) {
             try {
                 if (in != null) {
@@ -112,26 +276,342 @@ public class Client implements AutoCloseable {
         }
     }
 
+    /**
+     * Construct {@code logic.Client} object which calls server's executor of requests directly.
+     * @param local -- executor of requests of server in the same JVM
+     */
+    Client(RequestHandler local) {
+        this.connection = null;
+        this.local = local;
+        this.meter = null;
+    }
+
+    /**
+     * Connects to server over given transport.
+     * @param transport -- transport which server listens on
+     * @return new {@code logic.Client} object connected to server
+     * @throws SocketException if connection could not be established
+     * @throws DataStreamException if there is an error with using {@code DataInputStream} or {@code DataOutputStream}
+     */
+    public static Client connect(Transport transport) throws SocketException, DataStreamException {
+        return connect(transport, TransportProfile.AUTO);
+    }
+
+    /**
+     * Connects to server over given transport and tunes connection by given profile.
+     * Auto profile takes time of connecting and of echo with server as samples of round trip time.
+     * @param transport -- transport which server listens on
+     * @param profile -- parameters of transport
+     * @return new {@code logic.Client} object connected to server
+     * @throws SocketException if connection could not be established
+     * @throws DataStreamException if there is an error with using {@code DataInputStream} or {@code DataOutputStream}
+     */
+    public static Client connect(Transport transport, TransportProfile profile)
+            throws SocketException, DataStreamException {
+        return connect(transport, profile, 0, 0);
+    }
+
+    /**
+     * Connects to server over given transport, tunes connection by given profile and bounds waiting for server,
+     * so a server which accepts connections but does not answer fails requests instead of hanging them.
+     * Auto profile takes time of connecting and of echo with server as samples of round trip time.
+     * @param transport -- transport which server listens on
+     * @param profile -- parameters of transport
+     * @param connectTimeoutMillis -- time in milliseconds which connecting could take, {@code 0} to wait
+     * as long as system does
+     * @param readTimeoutMillis -- time in milliseconds which waiting for a part of answer could take,
+     * {@code 0} to wait forever, see {@code setReadTimeout}
+     * @return new {@code logic.Client} object connected to server
+     * @throws SocketException if connection could not be established in time
+     * @throws DataStreamException if there is an error with using streams or echo was not answered in time
+     */
+    public static Client connect(Transport transport, TransportProfile profile, int connectTimeoutMillis,
+                                 int readTimeoutMillis) throws SocketException, DataStreamException {
+        Connection connection;
+        long start = System.nanoTime();
+        try {
+            connection = transport.connect(connectTimeoutMillis);
+        } catch (IOException e) {
+            throw new SocketException("Error when connecting to " + transport + " in logic.Client.connect");
+        }
+        long connected = System.nanoTime() - start;
+        Client client = new Client(connection, profile);
+        client.transport = transport;
+        client.compactListing = true;
+        client.connectTimeout = connectTimeoutMillis;
+        try {
+            client.setReadTimeout(readTimeoutMillis);
+            if (client.meter != null) {
+                client.retune(client.meter.rtt(connected));
+                // the first round trips also pay for cold code on both sides, the minimum of a few does not
+                for (int i = 0; i < ECHOES; i++) {
+                    if (!client.echo()) {
+                        break;
+                    }
+                }
+            }
+        } catch (SocketException | DataStreamException e) {
+            try {
+                client.close();
+            } catch (DataStreamException | SocketException ignored) {
+                // connection is not used anymore
+            }
+            throw e;
+        }
+        return client;
+    }
+
+    /**
+     * Set time which waiting for a part of answer could take. Request which times out fails
+     * with {@code DataStreamException}, and the rest of its answer is left unread, so client should be closed.
+     * Transports without timeouts ignore it. Subscriptions wait for changes, so they need client without timeout.
+     * @param millis -- time in milliseconds, {@code 0} to wait forever
+     * @throws SocketException if timeout could not be set
+     */
+    public void setReadTimeout(int millis) throws SocketException {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Read timeout could not be negative");
+        }
+        readTimeout = millis;
+        if (connection != null) {
+            try {
+                connection.setReadTimeout(millis);
+            } catch (IOException e) {
+                throw new SocketException("Error when setting read timeout in logic.Client.setReadTimeout");
+            }
+        }
+    }
+
+    /**
+     * Measures round trip time by echo, so auto profiles of both sides are tuned by the link; echo is the only
+     * sample of round trip time which server takes. Server older than echo closes connection on it,
+     * then client connects again without echo.
+     * @return {@code false} if server does not know echo
+     * @throws DataStreamException if there is an error with using {@code DataInputStream} or {@code DataOutputStream}
+     */
+    private boolean echo() throws DataStreamException {
+        try {
+            long start = System.nanoTime();
+            out.writeInt(Protocol.ECHO);
+            out.flush();
+            try {
+                in.readByte();
+            } catch (EOFException e) {
+                reconnect();
+                return false;
+            }
+            long rtt = System.nanoTime() - start;
+            out.writeByte(0);
+            out.flush();
+            retune(meter.rtt(rtt));
+            return true;
+        } catch (IOException e) {
+            throw new DataStreamException("Error when handling streams in logic.Client.connect");
+        }
+    }
+
+    /**
+     * Get parameters of transport which connection is tuned by now; auto profile changes with measurements.
+     * @return transport profile, {@code null} for client in the same JVM
+     */
+    public TransportProfile getTransportProfile() {
+        return profile;
+    }
+
+    /**
+     * Applies options of transport profile to the connection, keeping options of system if it fails.
+     * @param profile -- parameters of transport
+     */
+    private void tune(TransportProfile profile) {
+        try {
+            connection.tune(profile);
+        } catch (IOException ignored) {
+            // connection works with options of system, only slower
+        }
+    }
+
+    /**
+     * Retunes connection by profile chosen from measurements.
+     * @param chosen -- new auto profile or {@code null} if it has not changed
+     */
+    private void retune(TransportProfile chosen) {
+        if (chosen != null) {
+            tune(chosen);
+            profile = chosen;
+        }
+    }
+
     /**
      * Get list of all files in root directory.
+     * Client made by {@code connect} receives listing in compact format, by few large frames; server which has
+     * no common format of compact listing is listed by plain list command, and server older than compact listing,
+     * which closes connection on it, is connected again and listed by plain command from then on.
+     * Client made by a given connection could not connect again, so it always uses plain list command,
+     * which every server knows. Elements of names listed recently are reused.
      * @param path -- path to root directory
-     * @return list of all files and directories as {@code Element} array
+     * @return list of all files and directories as {@code Element} array, empty if it is not a directory
      * @throws DataStreamException if there is an error with using {@code DataInputStream} or {@code DataOutputStream}
      */
     public Element[] list(String path) throws DataStreamException {
         try {
-            out.writeInt(1);
+            if (local != null) {
+                Element[] result = local.list(path);
+                return result == null ? new Element[0] : result;
+            }
+            if (!compactListing) {
+                return listPlain(path);
+            }
+            Object trace = Tracing.begin(Tracing.CLIENT_REQUEST);
+            out.writeInt(Protocol.LIST_COMPACT);
             out.writeUTF(path);
+            out.writeByte(ListingCodec.FORMAT);
+            out.flush();
+            byte format;
+            try {
+                format = in.readByte();
+            } catch (EOFException e) {
+                compactListing = false;
+                reconnect();
+                return listPlain(path);
+            }
+            if (format == ListingCodec.NONE) {
+                compactListing = false;
+                return listPlain(path);
+            }
+            Element[] result = listings.read(in, format, listed);
+            Tracing.clientRequest(trace, Protocol.LIST_COMPACT, path, 0);
+            return result == null ? new Element[0] : result;
+        } catch (IOException e){
+            throw new DataStreamException("Error when handling streams in logic.Client.list");
+        }
+    }
+
+    /**
+     * Get list of files in given directory by plain list command, which every server knows.
+     * Server closes connection after answering that it is not a directory.
+     * @param path -- path to directory
+     * @return list of all files and directories, empty if it is not a directory
+     * @throws IOException if an error appears while working with streams
+     */
+    private Element[] listPlain(String path) throws IOException {
+        Object trace = Tracing.begin(Tracing.CLIENT_REQUEST);
+        out.writeInt(Protocol.LIST);
+        out.writeUTF(path);
+        out.flush();
+        int count = in.readInt();
+        Element[] result = new Element[Math.max(0, count)];
+        for (int i = 0; i < result.length; i++) {
+            String name = names.read(in);
+            boolean isDirectory = in.readBoolean();
+            int slot = name.hashCode() & (listed.length - 1);
+            Element known = listed[slot];
+            if (known == null || known.name != name || known.isDirectory != isDirectory) {
+                known = new Element(name, isDirectory);
+                listed[slot] = known;
+            }
+            result[i] = known;
+        }
+        Tracing.clientRequest(trace, Protocol.LIST, path, 0);
+        return result;
+    }
+
+    /**
+     * Replaces connection closed by server with a new one over the same transport and profile.
+     * @throws IOException if client was not connected by transport or it could not connect again
+     */
+    private void reconnect() throws IOException {
+        if (transport == null) {
+            throw new EOFException("Connection was closed by server");
+        }
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+            // connection is already closed by server
+        }
+        connection = transport.connect(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        tune(profile);
+        in = new DataInputStream(profile.buffer(connection.getInputStream()));
+        out = new DataOutputStream(profile.buffer(connection.getOutputStream()));
+    }
+
+    /**
+     * Get list of files in given directory with their sizes and modification times.
+     * @param path -- path to directory
+     * @return all files and directories as {@code Element} array, empty if it is not a directory
+     * @throws DataStreamException if there is an error with using {@code DataInputStream} or {@code DataOutputStream}
+     */
+    public Element[] listDetailed(String path) throws DataStreamException {
+        try {
+            if (local != null) {
+                Element[] result = local.list(path);
+                return result == null ? new Element[0] : result;
+            }
+            Object trace = Tracing.begin(Tracing.CLIENT_REQUEST);
+            out.writeInt(Protocol.LIST_DETAILED);
+            out.writeUTF(path);
+            out.flush();
             int count = in.readInt();
-            Element[] result = new Element[count];
+            Element[] result = new Element[Math.max(0, count)];
             for (int i = 0; i < count; i++) {
-                String name = in.readUTF();
-                boolean isDirectory = in.readBoolean();
-                result[i] = new Element(name, isDirectory);
+                result[i] = new Element(in.readUTF(), in.readBoolean(), in.readLong(), in.readLong());
             }
+            Tracing.clientRequest(trace, Protocol.LIST_DETAILED, path, 0);
             return result;
-        } catch (IOException e){
-            throw new DataStreamException("Error when handling streams in logic.Client.list");
+        } catch (IOException e) {
+            throw new DataStreamException("Error when handling streams in logic.Client.listDetailed");
+        }
+    }
+
+    /**
+     * Get listing of given directory since the previous one. Server keeps journal of changes of directories
+     * listed this way, so refresh of big directory sends only its changed files; the whole listing is sent
+     * the first time and when server does not know changes since the token anymore.
+     * @param path -- path to directory
+     * @param token -- token of the previous listing, {@code 0} for the first one
+     * @return listing with token for the next request, {@code null} if it is not a directory
+     * @throws DataStreamException if there is an error with using {@code DataInputStream} or {@code DataOutputStream}
+     */
+    public ListingDelta listSince(String path, long token) throws DataStreamException {
+        try {
+            if (local != null) {
+                return local.listSince(path, token);
+            }
+            Object trace = Tracing.begin(Tracing.CLIENT_REQUEST);
+            out.writeInt(Protocol.LIST_SINCE);
+            out.writeUTF(path);
+            out.writeLong(token);
+            out.flush();
+            ListingDelta result = in.readBoolean() ? ListingDelta.read(in) : null;
+            Tracing.clientRequest(trace, Protocol.LIST_SINCE, path, 0);
+            return result;
+        } catch (IOException e) {
+            throw new DataStreamException("Error when handling streams in logic.Client.listSince");
+        }
+    }
+
+    /**
+     * Finds files and directories of the whole root of server.
+     * @param query -- filters of paths and sizes
+     * @return matches sorted by paths
+     * @throws DataStreamException if there is an error with using {@code DataInputStream} or {@code DataOutputStream}
+     */
+    public Match[] search(SearchQuery query) throws DataStreamException {
+        try {
+            if (local != null) {
+                return local.search(query).toArray(new Match[0]);
+            }
+            out.writeInt(Protocol.SEARCH);
+            query.write(out);
+            out.flush();
+            int count = in.readInt();
+            Match[] result = new Match[count];
+            for (int i = 0; i < count; i++) {
+                result[i] = new Match(in.readUTF(), in.readBoolean(), in.readLong());
+            }
+            return result;
+        } catch (IOException e) {
+            throw new DataStreamException("Error when handling streams in logic.Client.search");
         }
     }
 
@@ -143,20 +623,719 @@ public class Client implements AutoCloseable {
      */
     public byte[] get(String path) throws DataStreamException {
         try {
-            out.writeInt(2);
+            if (local != null) {
+                try (FileBody body = local.open(path)) {
+                    if (body == null) {
+                        return new byte[0];
+                    }
+                    byte[] result = new byte[(int) body.size()];
+                    body.readFully(ByteBuffer.wrap(result));
+                    return result;
+                }
+            }
+            Object trace = Tracing.begin(Tracing.CLIENT_REQUEST);
+            out.writeInt(Protocol.GET);
             out.writeUTF(path);
+            out.flush();
+            long sent = System.nanoTime();
             int length = in.readInt();
             byte[] result = new byte[length];
             int position = 0;
             while (position < result.length) {
                 position += in.read(result, position, result.length - position);
             }
+            if (meter != null) {
+                // latency of get contains work of server, so only its throughput is measured
+                retune(meter.transfer(length, System.nanoTime() - sent));
+            }
+            Tracing.clientRequest(trace, Protocol.GET, path, length);
             return result;
         } catch (IOException e){
             throw new DataStreamException("Error when handling streams in logic.Client.get");
         }
     }
 
+    /**
+     * Downloads content of given file to target by chunks of given buffer, so memory used does not depend
+     * on size of file. If target fails, the rest of content stays unread and client should be closed.
+     * @param path -- path to given file
+     * @param target -- stream to write content to, it is not closed
+     * @param buffer -- buffer which content passes through
+     * @return number of written bytes, {@code 0} if it is not a file
+     * @throws DataStreamException if there is an error with using streams or with writing to target
+     */
+    public long save(String path, OutputStream target, byte[] buffer) throws DataStreamException {
+        try {
+            if (local != null) {
+                try (FileBody body = local.open(path)) {
+                    if (body == null) {
+                        return 0;
+                    }
+                    long position = 0;
+                    int count;
+                    while (position < body.size() && (count = body.read(ByteBuffer.wrap(buffer), position)) > 0) {
+                        target.write(buffer, 0, count);
+                        position += count;
+                    }
+                    return position;
+                }
+            }
+            Object trace = Tracing.begin(Tracing.CLIENT_REQUEST);
+            out.writeInt(Protocol.GET);
+            out.writeUTF(path);
+            out.flush();
+            long sent = System.nanoTime();
+            int length = in.readInt();
+            long position = 0;
+            while (position < length) {
+                int count = in.read(buffer, 0, (int) Math.min(buffer.length, length - position));
+                if (count < 0) {
+                    throw new EOFException("Connection closed in the middle of file");
+                }
+                target.write(buffer, 0, count);
+                position += count;
+            }
+            if (meter != null) {
+                retune(meter.transfer(length, System.nanoTime() - sent));
+            }
+            Tracing.clientRequest(trace, Protocol.GET, path, length);
+            return length;
+        } catch (IOException e) {
+            throw new DataStreamException("Error when handling streams in logic.Client.save");
+        }
+    }
+
+    /**
+     * Get content of given file, verifying checksum of every block of {@code CHECKED_BLOCK} bytes.
+     * @param path -- path to given file
+     * @return content of file as array of bytes
+     * @throws DataStreamException if there is an error with using streams or some block stays corrupted
+     */
+    public byte[] getChecked(String path) throws DataStreamException {
+        return getChecked(path, CHECKED_BLOCK);
+    }
+
+    /**
+     * Get content of given file, verifying checksum of every block while it arrives.
+     * Corrupted blocks are asked again one by one after the whole file is received,
+     * so a bit flip costs one block, not the whole file.
+     * Client in the same JVM as server reads the file directly, there is nothing to verify.
+     * @param path -- path to given file
+     * @param blockSize -- size of block in bytes, server keeps it between 4 KB and 4 MB
+     * @return content of file as array of bytes
+     * @throws DataStreamException if there is an error with using streams, some block stays corrupted
+     * or file is changed while corrupted blocks are asked again
+     */
+    public byte[] getChecked(String path, int blockSize) throws DataStreamException {
+        if (local != null) {
+            return get(path);
+        }
+        try {
+            Object trace = Tracing.begin(Tracing.CLIENT_REQUEST);
+            out.writeInt(Protocol.GET_CHECKED);
+            out.writeUTF(path);
+            out.writeByte(Checksums.best());
+            out.writeInt(blockSize);
+            out.flush();
+            int length = in.readInt();
+            long lastModified = in.readLong();
+            byte algorithm = in.readByte();
+            int block = in.readInt();
+            Checksum checksum = Checksums.create(algorithm);
+            byte[] result = new byte[length];
+            List<Integer> corrupted = new ArrayList<>();
+            for (int offset = 0; offset < length; offset += block) {
+                int size = Math.min(block, length - offset);
+                in.readFully(result, offset, size);
+                if (!matches(checksum, result, offset, size, in.readInt())) {
+                    corrupted.add(offset);
+                }
+            }
+            for (int offset : corrupted) {
+                retryBlock(path, lastModified, algorithm, checksum, result, offset, Math.min(block, length - offset));
+            }
+            Tracing.clientRequest(trace, Protocol.GET_CHECKED, path, length);
+            return result;
+        } catch (IOException e) {
+            throw new DataStreamException("Error when handling streams in logic.Client.getChecked");
+        }
+    }
+
+    /**
+     * Asks server for one corrupted block again until it comes correct.
+     * @param path -- path to file
+     * @param lastModified -- modification time of the file given by checked get
+     * @param algorithm -- checksum algorithm given by checked get
+     * @param checksum -- checksum of the algorithm
+     * @param result -- content of file, block is written to it
+     * @param offset -- position of block
+     * @param size -- size of block
+     * @throws IOException if an error appears while working with streams
+     * @throws DataStreamException if file was changed or block stays corrupted
+     */
+    private void retryBlock(String path, long lastModified, byte algorithm, Checksum checksum,
+                            byte[] result, int offset, int size) throws IOException, DataStreamException {
+        for (int attempt = 0; attempt < MAX_BLOCK_RETRIES; attempt++) {
+            retriedBlocks++;
+            out.writeInt(Protocol.GET_BLOCK);
+            out.writeUTF(path);
+            out.writeLong(lastModified);
+            out.writeByte(algorithm);
+            out.writeLong(offset);
+            out.writeInt(size);
+            out.flush();
+            if (in.readInt() != size) {
+                throw new DataStreamException("File " + path + " was changed while it was downloaded "
+                        + "in logic.Client.getChecked");
+            }
+            in.readFully(result, offset, size);
+            if (matches(checksum, result, offset, size, in.readInt())) {
+                return;
+            }
+        }
+        throw new DataStreamException("Block at " + offset + " of " + path + " stays corrupted "
+                + "in logic.Client.getChecked");
+    }
+
+    /**
+     * Checks block against its checksum.
+     * @param checksum -- checksum of the algorithm, it is reset before use
+     * @param data -- array with block
+     * @param offset -- position of block in array
+     * @param size -- size of block
+     * @param expected -- checksum sent by server
+     * @return {@code true} if checksums are equal
+     */
+    private static boolean matches(Checksum checksum, byte[] data, int offset, int size, int expected) {
+        checksum.reset();
+        checksum.update(data, offset, size);
+        return (int) checksum.getValue() == expected;
+    }
+
+    /**
+     * Get number of blocks of checked gets which came corrupted and were asked again.
+     * @return number of retried blocks since client was created
+     */
+    public long getRetriedBlocks() {
+        return retriedBlocks;
+    }
+
+    /**
+     * Get SHA-256 hash of content of given file. Server computes it once for each version of file,
+     * so asking for hash is much cheaper than downloading the file.
+     * @param path -- path to given file
+     * @return hash or {@code null} if it is not a file
+     * @throws DataStreamException if there is an error with using {@code DataInputStream} or {@code DataOutputStream}
+     */
+    public byte[] hash(String path) throws DataStreamException {
+        try {
+            if (local != null) {
+                return local.hash(path);
+            }
+            Object trace = Tracing.begin(Tracing.CLIENT_REQUEST);
+            out.writeInt(Protocol.HASH);
+            out.writeUTF(path);
+            out.flush();
+            int length = in.readInt();
+            byte[] result = null;
+            if (length != 0) {
+                result = new byte[length];
+                in.readFully(result);
+            }
+            Tracing.clientRequest(trace, Protocol.HASH, path, length);
+            return result;
+        } catch (IOException e) {
+            throw new DataStreamException("Error when handling streams in logic.Client.hash");
+        }
+    }
+
+    /**
+     * Get digest of given directory: its content with hashes of its subdirectories and hash of the whole subtree.
+     * @param path -- path to directory
+     * @return digest or {@code null} if it is not a directory
+     * @throws DataStreamException if there is an error with using {@code DataInputStream} or {@code DataOutputStream}
+     */
+    public DirectoryDigest digest(String path) throws DataStreamException {
+        try {
+            if (local != null) {
+                return local.digest(path);
+            }
+            Object trace = Tracing.begin(Tracing.CLIENT_REQUEST);
+            out.writeInt(Protocol.DIGEST);
+            out.writeUTF(path);
+            out.flush();
+            DirectoryDigest result = in.readBoolean() ? DirectoryDigest.read(in) : null;
+            Tracing.clientRequest(trace, Protocol.DIGEST, path, 0);
+            return result;
+        } catch (IOException e) {
+            throw new DataStreamException("Error when handling streams in logic.Client.digest");
+        }
+    }
+
+    /**
+     * Finds differences between remote directory and local one by comparing their Merkle trees.
+     * Digest is asked only for remote directories which hashes differ from local ones,
+     * so comparison of equal trees takes one request however big they are.
+     * Differences are {@code "added: p"} for files and directories which only remote tree has,
+     * {@code "removed: p"} for ones which only local tree has, {@code "type changed: p"}
+     * and {@code "modified: p"} for files with other size or modification time; paths are relative and
+     * {@code '/'}-separated, directories which are added or removed are given without their content.
+     * @param path -- path to remote directory
+     * @param localDir -- local directory
+     * @return differences in order of paths, empty if trees are equal
+     * @throws DataStreamException if there is an error with using streams or remote path is not a directory
+     * @throws IOException if local directory could not be read
+     */
+    public List<String> compare(String path, Path localDir) throws DataStreamException, IOException {
+        Map<String, DirectoryDigest> localDigests = new HashMap<>();
+        DirectoryDigest.ofLocal(localDir, localDigests);
+        DirectoryDigest remote = digest(path);
+        if (remote == null) {
+            throw new DataStreamException("Error when comparing " + path + ": it is not a directory "
+                    + "in logic.Client.compare");
+        }
+        List<String> differences = new ArrayList<>();
+        compare(path, "", remote, localDigests, differences);
+        differences.sort(Comparator.comparing(difference -> difference.substring(difference.indexOf(": ") + 2)));
+        return differences;
+    }
+
+    /**
+     * Compares one remote directory with local one, descending into subdirectories with different hashes.
+     * @param path -- path to remote directory
+     * @param relative -- path of directory relative to compared ones
+     * @param remote -- digest of remote directory
+     * @param localDigests -- digests of local directories by relative paths
+     * @param differences -- list to add differences to
+     * @throws DataStreamException if there is an error with using streams
+     */
+    private void compare(String path, String relative, DirectoryDigest remote,
+                         Map<String, DirectoryDigest> localDigests, List<String> differences)
+            throws DataStreamException {
+        DirectoryDigest local = localDigests.get(relative);
+        if (local != null && remote.sameAs(local)) {
+            return;
+        }
+        Map<String, Element> localElements = new HashMap<>();
+        if (local != null) {
+            for (Element element : local.getElements()) {
+                localElements.put(element.getName(), element);
+            }
+        }
+        String prefix = relative.isEmpty() ? "" : relative + "/";
+        for (Element element : remote.getElements()) {
+            String name = element.getName();
+            Element mine = localElements.remove(name);
+            if (mine == null) {
+                differences.add("added: " + prefix + name);
+            } else if (mine.isDirectory() != element.isDirectory()) {
+                differences.add("type changed: " + prefix + name);
+            } else if (!element.isDirectory()) {
+                if (mine.getSize() != element.getSize() || mine.getLastModified() != element.getLastModified()) {
+                    differences.add("modified: " + prefix + name);
+                }
+            } else if (!Arrays.equals(remote.getHash(name), local.getHash(name))) {
+                String child = path.isEmpty() ? name : path + "/" + name;
+                DirectoryDigest remoteChild = digest(child);
+                if (remoteChild != null) {
+                    compare(child, prefix + name, remoteChild, localDigests, differences);
+                }
+            }
+        }
+        for (String name : localElements.keySet()) {
+            differences.add("removed: " + prefix + name);
+        }
+    }
+
+    /**
+     * Uploads local file to given path of server, verifying SHA-256 hash of the whole content.
+     * @param path -- path to remote file, missing directories are created
+     * @param source -- local file
+     * @return number of bytes sent by this call
+     * @throws DataStreamException if server rejected upload, content came corrupted or streams failed
+     * @throws IOException if local file could not be read
+     */
+    public long put(String path, Path source) throws DataStreamException, IOException {
+        return put(path, source, true);
+    }
+
+    /**
+     * Uploads local file to given path of server. Server writes content into a hidden temporary file and
+     * replaces its file only when the whole content has arrived, so readers never see a partial file.
+     * If an earlier upload of the same content to the same path was interrupted, only its remaining part is sent.
+     * Content is read and sent by chunks through one reused buffer, so memory does not depend on size of file.
+     * @param path -- path to remote file, missing directories are created
+     * @param source -- local file
+     * @param verify -- whether server checks SHA-256 hash of content before replacing its file
+     * @return number of bytes sent by this call
+     * @throws DataStreamException if server rejected upload, content came corrupted or streams failed
+     * @throws IOException if local file could not be read
+     */
+    public long put(String path, Path source, boolean verify) throws DataStreamException, IOException {
+        long size = Files.size(source);
+        byte[] hash = null;
+        if (verify) {
+            try (InputStream content = Files.newInputStream(source)) {
+                hash = ContentHashes.digest(content);
+            }
+        }
+        if (uploadBuffer == null) {
+            uploadBuffer = ByteBuffer.allocate(UPLOAD_CHUNK);
+        }
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            if (local != null) {
+                return putLocal(path, size, hash, channel);
+            }
+            Object trace = Tracing.begin(Tracing.CLIENT_REQUEST);
+            byte status;
+            long position;
+            try {
+                out.writeInt(Protocol.PUT);
+                out.writeUTF(path);
+                out.writeLong(size);
+                out.writeBoolean(hash != null);
+                if (hash != null) {
+                    out.write(hash);
+                }
+                out.flush();
+                status = in.readByte();
+                position = in.readLong();
+            } catch (IOException e) {
+                throw new DataStreamException("Error when handling streams in logic.Client.put");
+            }
+            if (status != Uploads.ACCEPTED) {
+                throw new DataStreamException("Error when uploading " + path + ": server rejected it "
+                        + "in logic.Client.put");
+            }
+            long start = position;
+            byte result;
+            try {
+                while (position < size) {
+                    int count = readChunk(channel, position, size);
+                    out.writeInt(count);
+                    out.write(uploadBuffer.array(), 0, count);
+                    position += count;
+                }
+                out.writeInt(0);
+                out.flush();
+                result = in.readByte();
+                in.readLong();
+            } catch (IOException e) {
+                throw new DataStreamException("Error when handling streams in logic.Client.put");
+            }
+            checkUpload(path, result);
+            Tracing.clientRequest(trace, Protocol.PUT, path, size - start);
+            return size - start;
+        }
+    }
+
+    /**
+     * Uploads file to server in the same JVM, writing content to temporary file directly.
+     * @param path -- path to file relative to root
+     * @param size -- size of content
+     * @param hash -- expected hash of content or {@code null}
+     * @param channel -- channel of local file
+     * @return number of written bytes
+     * @throws DataStreamException if upload is rejected, content is corrupted or it could not be written
+     * @throws IOException if local file could not be read
+     */
+    private long putLocal(String path, long size, byte[] hash, FileChannel channel)
+            throws DataStreamException, IOException {
+        Uploads.Upload upload;
+        try {
+            upload = local.beginUpload(path, size, hash);
+        } catch (IOException e) {
+            throw new DataStreamException("Error when creating temporary file in logic.Client.put");
+        }
+        if (upload == null) {
+            throw new DataStreamException("Error when uploading " + path + ": server rejected it "
+                    + "in logic.Client.put");
+        }
+        try (Uploads.Upload session = upload) {
+            long start = session.received();
+            while (session.received() < size) {
+                readChunk(channel, session.received(), size);
+                session.write(uploadBuffer);
+            }
+            checkUpload(path, local.finishUpload(path, session));
+            return size - start;
+        }
+    }
+
+    /**
+     * Reads next chunk of local file into buffer of uploads.
+     * @param channel -- channel of local file
+     * @param position -- position of chunk
+     * @param size -- size of content announced to server
+     * @return number of read bytes, buffer is flipped for reading them
+     * @throws IOException if file could not be read or became shorter than announced size
+     */
+    private int readChunk(FileChannel channel, long position, long size) throws IOException {
+        uploadBuffer.clear();
+        uploadBuffer.limit((int) Math.min(uploadBuffer.capacity(), size - position));
+        while (uploadBuffer.hasRemaining()) {
+            if (channel.read(uploadBuffer, position + uploadBuffer.position()) < 0) {
+                throw new IOException("File became shorter than " + size + " bytes while uploading");
+            }
+        }
+        uploadBuffer.flip();
+        return uploadBuffer.remaining();
+    }
+
+    /**
+     * Checks result of upload.
+     * @param path -- path to remote file
+     * @param result -- result given by server
+     * @throws DataStreamException if file was not replaced
+     */
+    private static void checkUpload(String path, byte result) throws DataStreamException {
+        if (result == Uploads.CORRUPTED) {
+            throw new DataStreamException("Error when uploading " + path + ": content did not match its hash "
+                    + "in logic.Client.put");
+        }
+        if (result != Uploads.COMMITTED) {
+            throw new DataStreamException("Error when uploading " + path + ": content is not complete "
+                    + "in logic.Client.put");
+        }
+    }
+
+    /**
+     * Get content of given file as buffer.
+     * Client in the same JVM as server gets read-only memory mapped view of the file without any copying,
+     * remote client gets buffer over downloaded bytes.
+     * @param path -- path to given file
+     * @return content of file as {@code ByteBuffer} object
+     * @throws DataStreamException if there is an error with using {@code DataInputStream} or {@code DataOutputStream}
+     */
+    public ByteBuffer getBuffer(String path) throws DataStreamException {
+        if (local == null) {
+            return ByteBuffer.wrap(get(path));
+        }
+        try (FileBody body = local.open(path)) {
+            return body == null ? ByteBuffer.allocate(0) : body.buffer();
+        } catch (IOException e) {
+            throw new DataStreamException("Error when mapping a file in logic.Client.getBuffer");
+        }
+    }
+
+    /**
+     * Downloads directory with all its content as zip archive, which server makes while walking the directory.
+     * Archive is copied to target as it arrives, so memory used does not depend on size of directory.
+     * @param path -- path to directory
+     * @param compress -- whether entries are compressed, it costs server's time and saves bandwidth
+     * @param target -- stream to write archive to, it is not closed
+     * @return {@code false} if it is not a directory and nothing is written
+     * @throws DataStreamException if there is an error with using streams or archive is not finished by server
+     */
+    public boolean saveArchive(String path, boolean compress, OutputStream target) throws DataStreamException {
+        try {
+            if (local != null) {
+                return new ArchiveWriter(Runnable::run, 0, 0).write(local, path, compress, target);
+            }
+            requestArchive(path, compress);
+            long total = 0;
+            try (InputStream archive = new ChunkedInputStream(in)) {
+                byte[] buffer = new byte[64 * 1024];
+                int count;
+                while ((count = archive.read(buffer)) != -1) {
+                    target.write(buffer, 0, count);
+                    total += count;
+                }
+            }
+            return total > 0;
+        } catch (IOException e) {
+            throw new DataStreamException("Error when handling streams in logic.Client.saveArchive");
+        }
+    }
+
+    /**
+     * Downloads directory with all its content and extracts it to local directory while archive arrives,
+     * so memory used does not depend on size of directory. Existing files are replaced.
+     * @param path -- path to directory
+     * @param compress -- whether entries are compressed, it costs server's time and saves bandwidth
+     * @param target -- local directory, it is created if needed
+     * @return number of extracted files or {@code -1} if it is not a directory
+     * @throws DataStreamException if there is an error with using streams, archive is broken
+     * or local files could not be written
+     */
+    public int extractArchive(String path, boolean compress, Path target) throws DataStreamException {
+        try {
+            if (local != null) {
+                return extractLocal(path, compress, target);
+            }
+            requestArchive(path, compress);
+            try (InputStream archive = new ChunkedInputStream(in)) {
+                return extract(archive, target);
+            }
+        } catch (IOException e) {
+            throw new DataStreamException("Error when handling streams in logic.Client.extractArchive");
+        }
+    }
+
+    /**
+     * Sends request of archive.
+     * @param path -- path to directory
+     * @param compress -- whether entries are compressed
+     * @throws IOException if an error appears while writing
+     */
+    private void requestArchive(String path, boolean compress) throws IOException {
+        out.writeInt(Protocol.ARCHIVE);
+        out.writeUTF(path);
+        out.writeBoolean(compress);
+        out.flush();
+    }
+
+    /**
+     * Extracts archive made by server in the same JVM. Archive is passed through a pipe from writing thread,
+     * so it is not kept in memory as a whole.
+     * @param path -- path to directory
+     * @param compress -- whether entries are compressed
+     * @param target -- local directory
+     * @return number of extracted files or {@code -1} if it is not a directory
+     * @throws IOException if writing or extracting failed
+     */
+    private int extractLocal(String path, boolean compress, Path target) throws IOException {
+        PipedOutputStream sink = new PipedOutputStream();
+        try (PipedInputStream source = new PipedInputStream(sink, 64 * 1024)) {
+            FutureTask<Boolean> writing = new FutureTask<>(() -> {
+                try (OutputStream archive = sink) {
+                    return new ArchiveWriter(Runnable::run, 0, 0).write(local, path, compress, archive);
+                }
+            });
+            Thread writer = new Thread(writing, "local-archive");
+            writer.setDaemon(true);
+            writer.start();
+            int count = extract(source, target);
+            try {
+                return writing.get() ? count : -1;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for archive");
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Extracts zip archive to local directory. Entries which lead outside of the directory are rejected.
+     * @param archive -- stream of archive
+     * @param target -- local directory
+     * @return number of extracted files or {@code -1} if stream is empty
+     * @throws IOException if archive is broken or local files could not be written
+     */
+    private static int extract(InputStream archive, Path target) throws IOException {
+        PushbackInputStream source = new PushbackInputStream(archive);
+        int first = source.read();
+        if (first == -1) {
+            return -1;
+        }
+        source.unread(first);
+        Path base = target.toAbsolutePath().normalize();
+        Files.createDirectories(base);
+        int files = 0;
+        ZipInputStream zip = new ZipInputStream(source);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            Path file = base.resolve(entry.getName()).normalize();
+            if (!file.startsWith(base)) {
+                throw new IOException("Entry " + entry.getName() + " is outside of " + base);
+            }
+            if (entry.isDirectory()) {
+                Files.createDirectories(file);
+            } else {
+                Files.createDirectories(file.getParent());
+                Files.copy(zip, file, StandardCopyOption.REPLACE_EXISTING);
+                Files.setLastModifiedTime(file, FileTime.fromMillis(entry.getTime()));
+                files++;
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Subscribes to changes of given directory. Changes are given to listener in a separate thread
+     * until returned object is closed.
+     * Remote client sends no other requests after subscription, closing of returned object closes the client.
+     * @param path -- path to directory
+     * @param recursive -- whether changes in subdirectories are needed too
+     * @param listener -- receiver of changes
+     * @return object which stops the subscription when it is closed
+     * @throws DataStreamException if there is an error with using {@code DataInputStream} or {@code DataOutputStream}
+     * or given path is not a directory
+     */
+    public Closeable subscribe(String path, boolean recursive, Consumer<ChangeEvent> listener)
+            throws DataStreamException {
+        if (local != null) {
+            return subscribeLocal(path, recursive, listener);
+        }
+        try {
+            out.writeInt(Protocol.SUBSCRIBE);
+            out.writeUTF(path);
+            out.writeBoolean(recursive);
+            out.flush();
+            if (!in.readBoolean()) {
+                throw new DataStreamException("Given path is not a directory in logic.Client.subscribe");
+            }
+        } catch (IOException e) {
+            throw new DataStreamException("Error when handling streams in logic.Client.subscribe");
+        }
+        ChangeEvent.Kind[] kinds = ChangeEvent.Kind.values();
+        Thread reader = new Thread(() -> {
+            try {
+                while (true) {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        ChangeEvent.Kind kind = kinds[in.readByte()];
+                        listener.accept(new ChangeEvent(kind, in.readUTF(), in.readBoolean()));
+                    }
+                }
+            } catch (IOException ignored) {
+            }
+        }, "subscription-" + path);
+        reader.setDaemon(true);
+        reader.start();
+        return () -> {
+            try {
+                close();
+            } catch (DataStreamException | SocketException e) {
+                throw new IOException(e.getMessage());
+            }
+        };
+    }
+
+    /**
+     * Subscribes to changes of given directory by direct call of server in the same JVM.
+     * @param path -- path to directory
+     * @param recursive -- whether changes in subdirectories are needed too
+     * @param listener -- receiver of changes
+     * @return object which stops the subscription when it is closed
+     * @throws DataStreamException if directory could not be watched or given path is not a directory
+     */
+    private Closeable subscribeLocal(String path, boolean recursive, Consumer<ChangeEvent> listener)
+            throws DataStreamException {
+        Subscription subscription;
+        try {
+            subscription = local.subscribe(path, recursive);
+        } catch (IOException e) {
+            throw new DataStreamException("Error when watching a directory in logic.Client.subscribe");
+        }
+        if (subscription == null) {
+            throw new DataStreamException("Given path is not a directory in logic.Client.subscribe");
+        }
+        Thread deliverer = new Thread(() -> {
+            try {
+                while (!subscription.isClosed()) {
+                    subscription.take(RunnableTask.HEARTBEAT_MILLIS).forEach(listener);
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }, "subscription-" + path);
+        deliverer.setDaemon(true);
+        deliverer.start();
+        return subscription;
+    }
+
     /**
      * Closes all streams and shutdowns the socket.
      * @throws DataStreamException if there is an error with using {@code DataInputStream} or {@code DataOutputStream}
@@ -164,6 +1343,9 @@ public class Client implements AutoCloseable {
      */
     @Override
     public void close() throws DataStreamException, SocketException {
+        if (local != null) {
+            return;
+        }
         try {
             out.close();
             in.close();
@@ -171,11 +1353,9 @@ public class Client implements AutoCloseable {
             throw new DataStreamException("Error when handling streams in logic.Client.close");
         }
         try {
-            socket.shutdownInput();
-            socket.shutdownOutput();
-            socket.close();
+            connection.close();
         } catch (IOException e){
-            throw new SocketException("Error when trying to shut down a Socket object in logic.Client.close");
+            throw new SocketException("Error when trying to shut down a connection in logic.Client.close");
         }
     }
 }
@@ -0,0 +1,454 @@
+package logic;
+
+import exceptions.DataStreamException;
+import exceptions.SocketException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class of client of several servers with the same content, for example servers of replicated roots.
+ * Each request is sent to one of two randomly chosen healthy nodes, the one with less outstanding requests
+ * weighted by its smoothed latency, so slow or busy nodes get less load without a global scan.
+ * Node which fails several requests in a row is ejected for some time; when the time passes, one request
+ * is sent to it as probe and it is ejected again for longer time if the probe fails.
+ * All requests are idempotent, so a failed one is retried on other nodes.
+ * Connecting and waiting for answers are bounded by timeouts, so a node which accepts connections but hangs
+ * fails requests as a broken one does instead of blocking callers forever.
+ * Connections are pooled per node, so object could be used by many threads at once.
+ */
+public class ClusterClient implements AutoCloseable {
+    /**Default number of failures in a row after which node is ejected.*/
+    public static final int FAILURE_THRESHOLD = 3;
+    /**Default time in milliseconds for which node is ejected the first time.*/
+    public static final long EJECTION_MILLIS = 5_000;
+    /**Default time in milliseconds which connecting to node could take.*/
+    public static final int CONNECT_TIMEOUT_MILLIS = 5_000;
+    /**Default time in milliseconds which waiting for a part of answer of node could take.*/
+    public static final int READ_TIMEOUT_MILLIS = 30_000;
+    /**Maximum factor by which ejection time grows for node which fails probes again and again.*/
+    private static final int MAX_BACKOFF = 16;
+    /**Time in nanoseconds after which latency of node which got no requests is counted as half as big.*/
+    private static final long LATENCY_HALF_LIFE = TimeUnit.MILLISECONDS.toNanos(100);
+    /**Maximum number of nodes which one request is sent to.*/
+    private static final int MAX_ATTEMPTS = 3;
+    /**Nodes of cluster.*/
+    private final List<Node> nodes;
+    /**Number of failures in a row after which node is ejected.*/
+    private final int failureThreshold;
+    /**Time in nanoseconds for which node is ejected the first time.*/
+    private final long ejectionNanos;
+    /**Time in milliseconds which connecting to node could take.*/
+    private final int connectTimeoutMillis;
+    /**Time in milliseconds which waiting for a part of answer could take.*/
+    private final int readTimeoutMillis;
+    /**Whether client was closed.*/
+    private volatile boolean closed;
+
+    /**Interface of one request made by a pooled client.*/
+    private interface Request<T> {
+        /**
+         * Makes request.
+         * @param client -- client connected to chosen node
+         * @return result of request
+         * @throws DataStreamException if an error appears while working with streams
+         */
+        T run(Client client) throws DataStreamException;
+    }
+
+    /**Class of one server of cluster with its pooled connections and counters.*/
+    public static final class Node {
+        /**Transport which server listens on.*/
+        private final Transport transport;
+        /**Connections which are free now.*/
+        private final Queue<Client> idle = new ConcurrentLinkedQueue<>();
+        /**Number of requests being made now.*/
+        private final AtomicInteger outstanding = new AtomicInteger();
+        /**Number of finished requests.*/
+        private final AtomicLong requests = new AtomicLong();
+        /**Number of failed requests.*/
+        private final AtomicLong failures = new AtomicLong();
+        /**Number of failures since the last success.*/
+        private final AtomicInteger failuresInRow = new AtomicInteger();
+        /**Number of ejections since the last success.*/
+        private final AtomicInteger ejections = new AtomicInteger();
+        /**Time in nanoseconds when ejection ends, {@code 0} if node is healthy.*/
+        private final AtomicLong ejectedUntil = new AtomicLong();
+        /**Smoothed latency of successful requests in nanoseconds, {@code 0} before the first one.*/
+        private final AtomicLong latencyNanos = new AtomicLong();
+        /**Time in nanoseconds of the last successful request.*/
+        private final AtomicLong sampledAt = new AtomicLong();
+
+        /**
+         * Constructs {@code Node} object by transport.
+         * @param transport -- transport which server listens on
+         */
+        private Node(Transport transport) {
+            this.transport = transport;
+        }
+
+        /**
+         * Get transport of node.
+         * @return transport which server listens on
+         */
+        public Transport getTransport() {
+            return transport;
+        }
+
+        /**
+         * Get number of requests being made now.
+         * @return number of outstanding requests
+         */
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        /**
+         * Get number of finished requests, both successful and failed.
+         * @return number of requests
+         */
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * Get number of failed requests.
+         * @return number of failures
+         */
+        public long getFailures() {
+            return failures.get();
+        }
+
+        /**
+         * Get smoothed latency of successful requests.
+         * @return time in microseconds
+         */
+        public long getLatencyMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(latencyNanos.get());
+        }
+
+        /**
+         * Whether node is ejected now.
+         * @return {@code true} if requests are not sent to node
+         */
+        public boolean isEjected() {
+            return ejectedUntil.get() != 0;
+        }
+
+        /**
+         * Get load of node which chooses between two nodes. Latency is halved for every {@code LATENCY_HALF_LIFE}
+         * since the last successful request, so a node which was slow once is not starved of requests forever.
+         * @param now -- current time in nanoseconds
+         * @return outstanding requests weighted by latency
+         */
+        private long load(long now) {
+            long age = Math.max(0, now - sampledAt.get());
+            long latency = latencyNanos.get() >> Math.min(63, age / LATENCY_HALF_LIFE);
+            return (outstanding.get() + 1) * (latency + 1);
+        }
+
+        /**
+         * Registers successful request: smooths latency by one eighth of the new sample and ends ejection.
+         * @param nanos -- time of request in nanoseconds
+         */
+        private void succeeded(long nanos) {
+            requests.incrementAndGet();
+            latencyNanos.accumulateAndGet(nanos, (old, sample) -> old == 0 ? sample : old + (sample - old) / 8);
+            failuresInRow.set(0);
+            ejections.set(0);
+            ejectedUntil.set(0);
+            sampledAt.set(System.nanoTime());
+        }
+
+        /**Closes free connections, they are likely broken when node has failed.*/
+        private void closeIdle() {
+            Client client;
+            while ((client = idle.poll()) != null) {
+                closeQuietly(client);
+            }
+        }
+
+        /**
+         * Get description of node.
+         * @return transport and counters as {@code String} object
+         */
+        @Override
+        public String toString() {
+            return transport + "{requests=" + getRequests()
+                    + " failures=" + getFailures()
+                    + " outstanding=" + getOutstanding()
+                    + " latencyMicros=" + getLatencyMicros()
+                    + " ejected=" + isEjected() + "}";
+        }
+    }
+
+    /**
+     * Constructs {@code ClusterClient} object by transports of servers with default ejection.
+     * Connections are made by the first requests.
+     * @param endpoints -- transports which servers listen on
+     */
+    public ClusterClient(List<? extends Transport> endpoints) {
+        this(endpoints, FAILURE_THRESHOLD, EJECTION_MILLIS);
+    }
+
+    /**
+     * Constructs {@code ClusterClient} object by transports of servers with default timeouts.
+     * Connections are made by the first requests.
+     * @param endpoints -- transports which servers listen on
+     * @param failureThreshold -- number of failures in a row after which node is ejected
+     * @param ejectionMillis -- time in milliseconds for which node is ejected the first time
+     */
+    public ClusterClient(List<? extends Transport> endpoints, int failureThreshold, long ejectionMillis) {
+        this(endpoints, failureThreshold, ejectionMillis, CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Constructs {@code ClusterClient} object by transports of servers.
+     * Connections are made by the first requests. Request which times out counts as failure of its node.
+     * @param endpoints -- transports which servers listen on
+     * @param failureThreshold -- number of failures in a row after which node is ejected
+     * @param ejectionMillis -- time in milliseconds for which node is ejected the first time
+     * @param connectTimeoutMillis -- time in milliseconds which connecting to node could take
+     * @param readTimeoutMillis -- time in milliseconds which waiting for a part of answer could take
+     */
+    public ClusterClient(List<? extends Transport> endpoints, int failureThreshold, long ejectionMillis,
+                         int connectTimeoutMillis, int readTimeoutMillis) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("Cluster should have at least one node");
+        }
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException("Failure threshold should be positive");
+        }
+        if (ejectionMillis < 0) {
+            throw new IllegalArgumentException("Ejection time could not be negative");
+        }
+        if (connectTimeoutMillis <= 0 || readTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Timeouts should be positive");
+        }
+        List<Node> list = new ArrayList<>();
+        for (Transport transport : endpoints) {
+            list.add(new Node(transport));
+        }
+        this.nodes = Collections.unmodifiableList(list);
+        this.failureThreshold = failureThreshold;
+        this.ejectionNanos = TimeUnit.MILLISECONDS.toNanos(ejectionMillis);
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Get nodes of cluster with their counters.
+     * @return nodes in order of transports
+     */
+    public List<Node> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Get list of files in given directory from one of nodes.
+     * @param path -- path to directory
+     * @return list of files and directories as {@code Element} array
+     * @throws DataStreamException if all tried nodes failed
+     */
+    public Client.Element[] list(String path) throws DataStreamException {
+        return execute(client -> client.list(path));
+    }
+
+    /**
+     * Get list of files in given directory with sizes and modification times from one of nodes.
+     * @param path -- path to directory
+     * @return list of files and directories as {@code Element} array
+     * @throws DataStreamException if all tried nodes failed
+     */
+    public Client.Element[] listDetailed(String path) throws DataStreamException {
+        return execute(client -> client.listDetailed(path));
+    }
+
+    /**
+     * Get content of given file from one of nodes.
+     * @param path -- path to file
+     * @return content of file as array of bytes
+     * @throws DataStreamException if all tried nodes failed
+     */
+    public byte[] get(String path) throws DataStreamException {
+        return execute(client -> client.get(path));
+    }
+
+    /**
+     * Get content of given file from one of nodes, verifying checksum of every block.
+     * @param path -- path to file
+     * @return content of file as array of bytes
+     * @throws DataStreamException if all tried nodes failed or some block stayed corrupted
+     */
+    public byte[] getChecked(String path) throws DataStreamException {
+        return execute(client -> client.getChecked(path));
+    }
+
+    /**
+     * Get SHA-256 hash of content of given file from one of nodes.
+     * @param path -- path to file
+     * @return hash or {@code null} if it is not a file
+     * @throws DataStreamException if all tried nodes failed
+     */
+    public byte[] hash(String path) throws DataStreamException {
+        return execute(client -> client.hash(path));
+    }
+
+    /**
+     * Get digest of given directory from one of nodes.
+     * @param path -- path to directory
+     * @return digest or {@code null} if it is not a directory
+     * @throws DataStreamException if all tried nodes failed
+     */
+    public DirectoryDigest digest(String path) throws DataStreamException {
+        return execute(client -> client.digest(path));
+    }
+
+    /**
+     * Finds files and directories of the whole root on one of nodes.
+     * @param query -- filters of paths and sizes
+     * @return matches sorted by paths
+     * @throws DataStreamException if all tried nodes failed
+     */
+    public Client.Match[] search(SearchQuery query) throws DataStreamException {
+        return execute(client -> client.search(query));
+    }
+
+    /**
+     * Makes request on chosen node, retrying it on other nodes if it fails or times out.
+     * Connection which failed is closed, successful one is returned to the pool of its node.
+     * @param request -- request to make
+     * @param <T> -- type of result
+     * @return result of request
+     * @throws DataStreamException if client is closed or all tried nodes failed
+     */
+    private <T> T execute(Request<T> request) throws DataStreamException {
+        List<Node> tried = new ArrayList<>(MAX_ATTEMPTS);
+        String failure = "no node is available";
+        while (tried.size() < Math.min(MAX_ATTEMPTS, nodes.size())) {
+            if (closed) {
+                throw new DataStreamException("Error when making request: client is closed "
+                        + "in logic.ClusterClient.execute");
+            }
+            Node node = choose(tried);
+            tried.add(node);
+            node.outstanding.incrementAndGet();
+            Client client = null;
+            try {
+                client = node.idle.poll();
+                if (client == null) {
+                    client = Client.connect(node.transport, TransportProfile.AUTO, connectTimeoutMillis,
+                            readTimeoutMillis);
+                }
+                long start = System.nanoTime();
+                T result = request.run(client);
+                node.succeeded(System.nanoTime() - start);
+                release(node, client);
+                return result;
+            } catch (DataStreamException | SocketException e) {
+                failed(node, client);
+                failure = node.transport + ": " + e.getMessage();
+            } finally {
+                node.outstanding.decrementAndGet();
+            }
+        }
+        throw new DataStreamException("Error when making request on " + tried.size() + " nodes, the last failure "
+                + "is " + failure + " in logic.ClusterClient.execute");
+    }
+
+    /**
+     * Chooses node for request. Node whose ejection has ended is taken as probe by one request only,
+     * otherwise the less loaded of two random healthy nodes is taken.
+     * If all nodes not tried yet are ejected, the one whose ejection ends first is taken anyway.
+     * @param tried -- nodes which this request has already failed on
+     * @return chosen node
+     */
+    private Node choose(List<Node> tried) {
+        long now = System.nanoTime();
+        List<Node> healthy = new ArrayList<>(nodes.size());
+        Node soonest = null;
+        for (Node node : nodes) {
+            if (tried.contains(node)) {
+                continue;
+            }
+            long until = node.ejectedUntil.get();
+            if (until == 0) {
+                healthy.add(node);
+            } else if (until - now <= 0 && node.ejectedUntil.compareAndSet(until, now + ejectionNanos)) {
+                return node;
+            } else if (soonest == null || until - soonest.ejectedUntil.get() < 0) {
+                soonest = node;
+            }
+        }
+        if (healthy.isEmpty()) {
+            return soonest;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Node first = healthy.get(random.nextInt(healthy.size()));
+        if (healthy.size() == 1) {
+            return first;
+        }
+        int other = random.nextInt(healthy.size() - 1);
+        Node second = healthy.get(other >= healthy.indexOf(first) ? other + 1 : other);
+        return first.load(now) <= second.load(now) ? first : second;
+    }
+
+    /**
+     * Returns connection to the pool of its node, closing it if client was closed meanwhile.
+     * @param node -- node of connection
+     * @param client -- connection which is free now
+     */
+    private void release(Node node, Client client) {
+        node.idle.add(client);
+        if (closed) {
+            node.closeIdle();
+        }
+    }
+
+    /**
+     * Registers failed request: closes its connection and ejects node which failed too many times in a row.
+     * Each ejection in a row doubles ejection time, up to {@code MAX_BACKOFF} times.
+     * @param node -- node which request failed on
+     * @param client -- connection of request or {@code null} if it could not be made
+     */
+    private void failed(Node node, Client client) {
+        node.requests.incrementAndGet();
+        node.failures.incrementAndGet();
+        if (client != null) {
+            closeQuietly(client);
+        }
+        if (node.failuresInRow.incrementAndGet() >= failureThreshold) {
+            int backoff = Math.min(MAX_BACKOFF, 1 << Math.min(30, node.ejections.getAndIncrement()));
+            node.ejectedUntil.set(System.nanoTime() + ejectionNanos * backoff);
+            node.closeIdle();
+        }
+    }
+
+    /**
+     * Closes client ignoring errors, its connection is not used anymore.
+     * @param client -- client to close
+     */
+    private static void closeQuietly(Client client) {
+        try {
+            client.close();
+        } catch (DataStreamException | SocketException ignored) {
+            // Connection is already broken.
+        }
+    }
+
+    /**Closes all pooled connections, connections of running requests are closed when they finish.*/
+    @Override
+    public void close() {
+        closed = true;
+        for (Node node : nodes) {
+            node.closeIdle();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package logic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+
+/**Interface of one two-way connection between client and server, independent of transport.*/
+public interface Connection extends Closeable {
+    /**
+     * Get stream to read data sent by other side.
+     * @return input stream of the connection
+     * @throws IOException if stream could not be created
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * Get stream to send data to other side.
+     * @return output stream of the connection
+     * @throws IOException if stream could not be created
+     */
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Get address of other side which is used to share bandwidth between clients.
+     * @return address of other side, loopback address for local transports
+     */
+    InetAddress getInetAddress();
+
+    /**
+     * Get description of other side for logging.
+     * @return address of other side
+     */
+    Object getRemoteAddress();
+
+    /**
+     * Set time which reading from the connection could block. Transports without timeouts ignore it.
+     * @param millis -- time in milliseconds, {@code 0} to wait forever
+     * @throws IOException if timeout could not be set
+     */
+    void setReadTimeout(int millis) throws IOException;
+
+    /**
+     * Applies options of transport profile to the connection: Nagle's algorithm and sizes of socket buffers.
+     * Transports without such options ignore them.
+     * @param profile -- parameters of transport
+     * @throws IOException if options could not be set
+     */
+    default void tune(TransportProfile profile) throws IOException {
+    }
+
+    /**
+     * Shuts both directions down and closes the connection. Closing of already closed connection does nothing.
+     * @throws IOException if an error appears while closing
+     */
+    @Override
+    void close() throws IOException;
+}
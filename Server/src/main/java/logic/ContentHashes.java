@@ -0,0 +1,112 @@
+package logic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class which computes SHA-256 hashes of content of files and remembers them by path, size and modification time,
+ * so a file is read for hashing only once while it is not changed.
+ * The most recently used {@code capacity} hashes are kept.
+ */
+class ContentHashes {
+    /**Name of hash algorithm, every Java has it.*/
+    static final String ALGORITHM = "SHA-256";
+    /**Size of hash in bytes.*/
+    static final int LENGTH = 32;
+    /**Maximum number of remembered hashes.*/
+    private final int capacity;
+    /**Hashes by path, size and modification time of file, in order of use.*/
+    private final Map<String, byte[]> hashes;
+
+    /**
+     * Constructs {@code ContentHashes} object by capacity.
+     * @param capacity -- maximum number of remembered hashes
+     */
+    ContentHashes(int capacity) {
+        this.capacity = capacity;
+        hashes = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > ContentHashes.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Get hash of content of file, reading it only if this version of file was not hashed yet.
+     * @param body -- opened file
+     * @return hash of content
+     * @throws IOException if the file could not be read
+     */
+    byte[] hash(FileBody body) throws IOException {
+        String key = body.path() + "|" + body.size() + "|" + body.lastModified();
+        synchronized (hashes) {
+            byte[] known = hashes.get(key);
+            if (known != null) {
+                return known;
+            }
+        }
+        byte[] hash;
+        try (InputStream content = body.stream()) {
+            hash = digest(content);
+        }
+        synchronized (hashes) {
+            hashes.put(key, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Computes hash of the whole stream.
+     * @param content -- stream to read
+     * @return hash of content
+     * @throws IOException if an error appears while reading
+     */
+    static byte[] digest(InputStream content) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[64 * 1024];
+        int count;
+        while ((count = content.read(buffer)) != -1) {
+            digest.update(buffer, 0, count);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Computes hash of array.
+     * @param content -- data to hash
+     * @return hash of content
+     */
+    static byte[] digest(byte[] content) {
+        return newDigest().digest(content);
+    }
+
+    /**
+     * Converts hash to hexadecimal string, which is used as name of file in content store.
+     * @param hash -- hash to convert
+     * @return lower case hexadecimal string
+     */
+    static String toHex(byte[] hash) {
+        StringBuilder result = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Creates digest of the algorithm.
+     * @return new {@code MessageDigest} object
+     */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " is required by every Java", e);
+        }
+    }
+}
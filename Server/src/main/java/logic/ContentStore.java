@@ -0,0 +1,229 @@
+package logic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class of local store of downloaded content addressed by its SHA-256 hash.
+ * A file whose hash is already stored is made by copy of stored one, without downloading it.
+ * Total size of stored content is bounded, the least recently used content is evicted.
+ * Stored content is checked against its hash before it is used, corrupted content is removed.
+ * Content is kept in files named by hash, so the store survives restarts;
+ * order of use is taken from modification times of the files.
+ */
+public class ContentStore {
+    /**Directory of stored content.*/
+    private final Path directory;
+    /**Maximum total size in bytes of stored content.*/
+    private final long capacity;
+    /**Sizes of stored content by hexadecimal hashes, in order of use.*/
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /**Total size in bytes of stored content.*/
+    private long size;
+    /**Number of files made from stored content.*/
+    private long hits;
+    /**Number of files which were not stored.*/
+    private long misses;
+    /**Number of evicted contents.*/
+    private long evictions;
+    /**Number of stored contents which did not match their hashes.*/
+    private long corrupted;
+
+    /**
+     * Constructs {@code ContentStore} object by directory and capacity, loading content stored before.
+     * @param directory -- directory of stored content, it is created if needed
+     * @param capacity -- maximum total size in bytes of stored content
+     * @throws IOException if directory could not be created or read
+     */
+    public ContentStore(Path directory, long capacity) throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity should be positive");
+        }
+        this.directory = directory;
+        this.capacity = capacity;
+        Files.createDirectories(directory);
+        List<Path> stored = new ArrayList<>();
+        try (DirectoryStream<Path> content = Files.newDirectoryStream(directory)) {
+            for (Path file : content) {
+                if (file.getFileName().toString().endsWith(".tmp")) {
+                    Files.deleteIfExists(file);
+                } else {
+                    stored.add(file);
+                }
+            }
+        }
+        Map<Path, BasicFileAttributes> attributes = new LinkedHashMap<>();
+        for (Path file : stored) {
+            attributes.put(file, Files.readAttributes(file, BasicFileAttributes.class));
+        }
+        stored.sort(Comparator.comparing(file -> attributes.get(file).lastModifiedTime()));
+        for (Path file : stored) {
+            long length = attributes.get(file).size();
+            entries.put(file.getFileName().toString(), length);
+            size += length;
+        }
+        evict();
+    }
+
+    /**
+     * Makes file from stored content with given hash. The file is an independent copy, so it could be changed
+     * without changing the store and other files made from it; hard links would share content with all of them.
+     * @param hash -- SHA-256 hash of content
+     * @param target -- file to make, it is replaced if it exists
+     * @return {@code false} if content is not stored or it is corrupted
+     * @throws IOException if target could not be written
+     */
+    public synchronized boolean materialize(byte[] hash, Path target) throws IOException {
+        String name = ContentHashes.toHex(hash);
+        Long length = entries.get(name);
+        Path stored = directory.resolve(name);
+        if (length == null || !isIntact(stored, length, hash)) {
+            if (length != null) {
+                corrupted++;
+                remove(name);
+            }
+            misses++;
+            return false;
+        }
+        Files.setLastModifiedTime(stored, FileTime.fromMillis(System.currentTimeMillis()));
+        Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporary = parent.resolve("." + target.getFileName() + "." + name.substring(0, 8) + ".tmp");
+        Files.deleteIfExists(temporary);
+        Files.copy(stored, temporary, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        hits++;
+        return true;
+    }
+
+    /**
+     * Stores downloaded content, evicting the least recently used content if store is full.
+     * Content bigger than the whole store is not stored.
+     * @param hash -- SHA-256 hash of content, it should be checked by caller
+     * @param content -- downloaded content
+     * @throws IOException if content could not be written
+     */
+    synchronized void store(byte[] hash, byte[] content) throws IOException {
+        String name = ContentHashes.toHex(hash);
+        if (content.length > capacity || entries.containsKey(name)) {
+            return;
+        }
+        Path temporary = directory.resolve(name + ".tmp");
+        Files.write(temporary, content);
+        try {
+            Files.move(temporary, directory.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            Files.delete(temporary);
+        }
+        entries.put(name, (long) content.length);
+        size += content.length;
+        evict();
+    }
+
+    /**
+     * Whether stored file has expected size and hash.
+     * @param stored -- stored file
+     * @param length -- expected size
+     * @param hash -- expected hash
+     * @return {@code true} if content is intact
+     * @throws IOException if the file could not be read
+     */
+    private static boolean isIntact(Path stored, long length, byte[] hash) throws IOException {
+        try (InputStream content = Files.newInputStream(stored)) {
+            return Files.size(stored) == length && Arrays.equals(hash, ContentHashes.digest(content));
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Removes the least recently used content while total size is more than capacity.
+     * @throws IOException if a file could not be removed
+     */
+    private void evict() throws IOException {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (size > capacity && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            eldest.remove();
+            size -= entry.getValue();
+            Files.deleteIfExists(directory.resolve(entry.getKey()));
+            evictions++;
+        }
+    }
+
+    /**
+     * Removes content from the store.
+     * @param name -- hexadecimal hash of content
+     * @throws IOException if the file could not be removed
+     */
+    private void remove(String name) throws IOException {
+        Long length = entries.remove(name);
+        if (length != null) {
+            size -= length;
+        }
+        Files.deleteIfExists(directory.resolve(name));
+    }
+
+    /**
+     * Get total size of stored content.
+     * @return size in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Get number of stored contents.
+     * @return number of files in the store
+     */
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    /**
+     * Get number of files made from stored content.
+     * @return number of files which were not downloaded
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get number of files which content was not stored.
+     * @return number of files which were downloaded
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get number of evicted contents.
+     * @return number of contents removed to keep size under capacity
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Get number of stored contents which were found corrupted and removed.
+     * @return number of corrupted contents
+     */
+    public synchronized long getCorrupted() {
+        return corrupted;
+    }
+}
@@ -0,0 +1,231 @@
+package logic;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class of node of Merkle tree of a directory: content of directory and hash which covers the whole subtree.
+ * Hash of directory is SHA-256 of names, types, sizes and modification times of its files
+ * and of hashes of its subdirectories, so two trees with equal hashes have the same files
+ * and comparison descends only into subdirectories with different hashes.
+ * Content of files is not read, a file is considered unchanged while its size and modification time are the same.
+ * Symbolic links to directories are not part of the tree, so a link to an ancestor does not make it endless.
+ */
+public final class DirectoryDigest {
+    /**Hash of the whole subtree.*/
+    private final byte[] hash;
+    /**Content of directory sorted by names.*/
+    private final Client.Element[] elements;
+    /**Hashes of subdirectories by their names.*/
+    private final Map<String, byte[]> children;
+
+    /**
+     * Constructs {@code DirectoryDigest} object by content of directory and hashes of subdirectories.
+     * @param elements -- content of directory
+     * @param children -- hashes of subdirectories by their names
+     */
+    DirectoryDigest(Client.Element[] elements, Map<String, byte[]> children) {
+        this.elements = elements.clone();
+        Arrays.sort(this.elements, Comparator.comparing(Client.Element::getName));
+        this.children = children;
+        this.hash = computeHash(this.elements, children);
+    }
+
+    /**
+     * Constructs {@code DirectoryDigest} object received from server.
+     * @param hash -- hash of the whole subtree
+     * @param elements -- content of directory
+     * @param children -- hashes of subdirectories by their names
+     */
+    private DirectoryDigest(byte[] hash, Client.Element[] elements, Map<String, byte[]> children) {
+        this.hash = hash;
+        this.elements = elements;
+        this.children = children;
+    }
+
+    /**
+     * Get hash of the whole subtree.
+     * @return SHA-256 hash
+     */
+    public byte[] getHash() {
+        return hash.clone();
+    }
+
+    /**
+     * Get content of directory.
+     * @return files and subdirectories sorted by names, with sizes and modification times of files
+     */
+    public Client.Element[] getElements() {
+        return elements.clone();
+    }
+
+    /**
+     * Get hash of subdirectory.
+     * @param name -- name of subdirectory
+     * @return hash of its subtree or {@code null} if there is no such subdirectory
+     */
+    public byte[] getHash(String name) {
+        byte[] child = children.get(name);
+        return child == null ? null : child.clone();
+    }
+
+    /**
+     * Whether two directories have the same subtrees.
+     * @param other -- digest of other directory
+     * @return {@code true} if hashes are equal
+     */
+    public boolean sameAs(DirectoryDigest other) {
+        return Arrays.equals(hash, other.hash);
+    }
+
+    /**
+     * Computes digests of local directory and all its subdirectories.
+     * @param dir -- local directory
+     * @param digests -- map to put digests to, by relative {@code '/'}-separated paths, empty for {@code dir}
+     * @return digest of {@code dir} or {@code null} if it is not a directory
+     * @throws IOException if directory could not be read
+     */
+    public static DirectoryDigest ofLocal(Path dir, Map<String, DirectoryDigest> digests) throws IOException {
+        return ofLocal(dir, "", digests);
+    }
+
+    /**
+     * Computes digests of local directory and all its subdirectories.
+     * @param dir -- local directory
+     * @param path -- path of {@code dir} relative to the first one
+     * @param digests -- map to put digests to
+     * @return digest of {@code dir} or {@code null} if it is not a directory
+     * @throws IOException if directory could not be read
+     */
+    private static DirectoryDigest ofLocal(Path dir, String path, Map<String, DirectoryDigest> digests)
+            throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return null;
+        }
+        List<Client.Element> elements = new ArrayList<>();
+        Map<String, byte[]> children = new HashMap<>();
+        try (DirectoryStream<Path> content = Files.newDirectoryStream(dir)) {
+            for (Path inside : content) {
+                String name = inside.getFileName().toString();
+                BasicFileAttributes attributes = Files.readAttributes(inside, BasicFileAttributes.class);
+                if (attributes.isDirectory()) {
+                    if (Files.isSymbolicLink(inside)) {
+                        continue;
+                    }
+                    DirectoryDigest child = ofLocal(inside, path.isEmpty() ? name : path + "/" + name, digests);
+                    if (child == null) {
+                        continue;
+                    }
+                    children.put(name, child.hash);
+                    elements.add(new Client.Element(name, true));
+                } else {
+                    elements.add(new Client.Element(name, false, attributes.size(),
+                            attributes.lastModifiedTime().toMillis()));
+                }
+            }
+        }
+        DirectoryDigest digest = new DirectoryDigest(elements.toArray(new Client.Element[0]), children);
+        digests.put(path, digest);
+        return digest;
+    }
+
+    /**
+     * Writes digest to stream: hash, number of elements and for each one its name, type
+     * and hash of subdirectory or size and modification time of file.
+     * @param out -- stream to write to
+     * @throws IOException if an error appears while writing
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.write(hash);
+        out.writeInt(elements.length);
+        writeElements(out, elements, children);
+    }
+
+    /**
+     * Reads digest from stream.
+     * @param in -- stream to read from
+     * @return read digest
+     * @throws IOException if an error appears while reading
+     */
+    static DirectoryDigest read(DataInputStream in) throws IOException {
+        byte[] hash = new byte[ContentHashes.LENGTH];
+        in.readFully(hash);
+        Client.Element[] elements = new Client.Element[in.readInt()];
+        Map<String, byte[]> children = new HashMap<>();
+        for (int i = 0; i < elements.length; i++) {
+            String name = in.readUTF();
+            if (in.readBoolean()) {
+                byte[] child = new byte[ContentHashes.LENGTH];
+                in.readFully(child);
+                children.put(name, child);
+                elements[i] = new Client.Element(name, true);
+            } else {
+                elements[i] = new Client.Element(name, false, in.readLong(), in.readLong());
+            }
+        }
+        return new DirectoryDigest(hash, elements, children);
+    }
+
+    /**
+     * Writes elements in the format which is both sent to client and hashed.
+     * @param out -- stream to write to
+     * @param elements -- content of directory sorted by names
+     * @param children -- hashes of subdirectories
+     * @throws IOException if an error appears while writing
+     */
+    private static void writeElements(DataOutputStream out, Client.Element[] elements, Map<String, byte[]> children)
+            throws IOException {
+        for (Client.Element element : elements) {
+            out.writeUTF(element.getName());
+            out.writeBoolean(element.isDirectory());
+            if (element.isDirectory()) {
+                out.write(children.get(element.getName()));
+            } else {
+                out.writeLong(element.getSize());
+                out.writeLong(element.getLastModified());
+            }
+        }
+    }
+
+    /**
+     * Computes hash of directory.
+     * @param elements -- content of directory sorted by names
+     * @param children -- hashes of subdirectories
+     * @return SHA-256 hash
+     */
+    private static byte[] computeHash(Client.Element[] elements, Map<String, byte[]> children) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(ContentHashes.ALGORITHM);
+            OutputStream sink = new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                }
+            };
+            DataOutputStream out = new DataOutputStream(new DigestOutputStream(sink, digest));
+            writeElements(out, elements, children);
+            out.flush();
+            return digest.digest();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
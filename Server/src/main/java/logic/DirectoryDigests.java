@@ -0,0 +1,190 @@
+package logic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Class of Merkle tree of root: digests of directories by {@code '/'}-separated relative paths.
+ * Digests are computed when they are asked for and kept until a change inside the directory arrives
+ * from {@code DirectoryWatcher}, then the changed directory and all its ancestors are computed again,
+ * reusing kept digests of unchanged subdirectories.
+ * Symbolic links to directories are left out of the tree, as in {@code DirectoryDigest.ofLocal}: a link to an ancestor
+ * would make it endless and changes behind a link to outside of root are not watched.
+ * Digests of pack are never changed, so pack is not watched.
+ */
+class DirectoryDigests implements DirectoryWatcher.Listener, Closeable {
+    /**Character greater than any character of paths, it bounds ranges of prefixes.*/
+    private static final char MAX_CHAR = '\uffff';
+    /**Absolute normalized path to root directory.*/
+    private final Path root;
+    /**Executor of listings.*/
+    private final RequestHandler handler;
+    /**Kept digests by relative paths of directories, empty path for root.*/
+    private final ConcurrentSkipListMap<String, DirectoryDigest> digests = new ConcurrentSkipListMap<>();
+    /**
+     * Tokens of digests which are being computed by relative paths of directories. A change removes tokens
+     * of the directories which it makes stale, so only digests computed across a change of their own subtree
+     * are not kept, and changes elsewhere do not stop caching.
+     */
+    private final ConcurrentSkipListMap<String, Object> computing = new ConcurrentSkipListMap<>();
+    /**Lock of invalidation, so digest computed before a change is never kept after it.*/
+    private final Object lock = new Object();
+    /**Subscription to changes of root, {@code null} if root is served from pack.*/
+    private final DirectoryWatcher.Watch watch;
+
+    /**
+     * Constructs {@code DirectoryDigests} object and subscribes to changes of root.
+     * @param root -- path to root directory
+     * @param handler -- executor of listings
+     * @param watcher -- watcher which gives changes of root, {@code null} if root is not changed
+     * @throws IOException if root could not be watched
+     */
+    DirectoryDigests(Path root, RequestHandler handler, DirectoryWatcher watcher) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        this.handler = handler;
+        watch = watcher == null ? null : watcher.watch(this.root, true, this);
+    }
+
+    /**
+     * Get digest of directory. Directories outside of root are not watched, so their digests are not kept.
+     * @param name -- path to directory given by client
+     * @return digest or {@code null} if it is not a directory
+     * @throws IOException if an error appears while listing directories
+     */
+    DirectoryDigest digest(String name) throws IOException {
+        Path dir = root.resolve(name).normalize();
+        return compute(name, dir.startsWith(root) ? toKey(root.relativize(dir)) : null);
+    }
+
+    /**
+     * Get kept digest of directory or computes it, reusing kept digests of subdirectories.
+     * @param request -- path to directory to list
+     * @param key -- relative path of directory, {@code null} if digest should not be kept
+     * @return digest or {@code null} if it is not a directory
+     * @throws IOException if an error appears while listing directories
+     */
+    private DirectoryDigest compute(String request, String key) throws IOException {
+        if (key != null) {
+            DirectoryDigest known = digests.get(key);
+            if (known != null) {
+                return known;
+            }
+        }
+        Object token = new Object();
+        if (key != null) {
+            synchronized (lock) {
+                computing.put(key, token);
+            }
+        }
+        try {
+            return compute(request, key, token);
+        } finally {
+            if (key != null) {
+                computing.remove(key, token);
+            }
+        }
+    }
+
+    /**
+     * Computes digest of directory, reusing kept digests of subdirectories, and keeps it
+     * if no change of its subtree arrived since its token was put.
+     * @param request -- path to directory to list
+     * @param key -- relative path of directory, {@code null} if digest should not be kept
+     * @param token -- token of this computation in {@code computing}
+     * @return digest or {@code null} if it is not a directory
+     * @throws IOException if an error appears while listing directories
+     */
+    private DirectoryDigest compute(String request, String key, Object token) throws IOException {
+        Client.Element[] content = handler.list(request);
+        if (content == null) {
+            return null;
+        }
+        List<Client.Element> elements = new ArrayList<>();
+        Map<String, byte[]> children = new HashMap<>();
+        for (Client.Element element : content) {
+            if (element.isDirectory()) {
+                String name = element.getName();
+                String inside = request.isEmpty() ? name : request + "/" + name;
+                if (Files.isSymbolicLink(root.resolve(inside))) {
+                    continue;
+                }
+                DirectoryDigest child = compute(inside, key == null ? null : key.isEmpty() ? name : key + "/" + name);
+                if (child == null) {
+                    continue;
+                }
+                children.put(name, child.getHash());
+            }
+            elements.add(element);
+        }
+        DirectoryDigest digest = new DirectoryDigest(elements.toArray(new Client.Element[0]), children);
+        if (key != null) {
+            synchronized (lock) {
+                if (computing.get(key) == token) {
+                    digests.put(key, digest);
+                }
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * Receives change from watcher and forgets digests which it makes stale:
+     * of directory which contains changed file and of all its ancestors, and of removed subtree.
+     * Digests of these directories which are being computed now are not kept.
+     * @param event -- change with path relative to root
+     */
+    @Override
+    public void changed(ChangeEvent event) {
+        synchronized (lock) {
+            if (event.getKind() == ChangeEvent.Kind.OVERFLOW) {
+                digests.clear();
+                computing.clear();
+                return;
+            }
+            String key = toKey(root.relativize(root.resolve(event.getPath()).normalize()));
+            if (event.getKind() == ChangeEvent.Kind.REMOVED) {
+                digests.subMap(key + "/", key + "/" + MAX_CHAR).clear();
+                computing.subMap(key + "/", key + "/" + MAX_CHAR).clear();
+            }
+            forget(key);
+            while (!key.isEmpty()) {
+                int slash = key.lastIndexOf('/');
+                key = slash < 0 ? "" : key.substring(0, slash);
+                forget(key);
+            }
+        }
+    }
+
+    /**
+     * Forgets kept digest of directory and token of its computation.
+     * @param key -- relative path of directory
+     */
+    private void forget(String key) {
+        digests.remove(key);
+        computing.remove(key);
+    }
+
+    /**
+     * Converts path relative to root to key of digests.
+     * @param relative -- path relative to root
+     * @return {@code '/'}-separated path
+     */
+    private static String toKey(Path relative) {
+        return relative.toString().replace(relative.getFileSystem().getSeparator(), "/");
+    }
+
+    /**Stops receiving changes.*/
+    @Override
+    public void close() {
+        if (watch != null) {
+            watch.close();
+        }
+    }
+}
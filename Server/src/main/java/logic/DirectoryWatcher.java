@@ -0,0 +1,329 @@
+package logic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class which watches directories by one {@code WatchService} shared by all subscribers.
+ * Every directory is registered once however many subscribers watch it.
+ * Events which come within a short window are coalesced per file before they are given to subscribers.
+ */
+class DirectoryWatcher implements Closeable {
+    /**Time in milliseconds which watcher waits for more events after the first one.*/
+    private static final long COALESCE_MILLIS = 50;
+    /**Service which gets events from file system.*/
+    private final WatchService service;
+    /**Thread which takes events from service and gives them to subscribers.*/
+    private final Thread thread;
+    /**Watched directories by their keys.*/
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    /**Keys of watched directories.*/
+    private final Map<Path, WatchKey> keys = new HashMap<>();
+    /**Number of subscriptions which use each watched directory.*/
+    private final Map<Path, Integer> users = new HashMap<>();
+    /**All active subscriptions.*/
+    private final List<Watch> watches = new CopyOnWriteArrayList<>();
+
+    /**Interface of receiver of coalesced changes. It is called in watcher's thread, so it should be fast.*/
+    interface Listener {
+        /**
+         * Receives one change.
+         * @param event -- change with path relative to watched directory
+         */
+        void changed(ChangeEvent event);
+    }
+
+    /**Class of one subscription to changes of directory.*/
+    final class Watch implements Closeable {
+        /**Watched directory.*/
+        private final Path dir;
+        /**Whether subdirectories are watched too.*/
+        private final boolean recursive;
+        /**Receiver of changes.*/
+        private final Listener listener;
+        /**Directories registered for this subscription.*/
+        private final Set<Path> registered = new HashSet<>();
+
+        /**
+         * Constructs {@code Watch} object by directory and receiver of changes.
+         * @param dir -- absolute normalized path to watched directory
+         * @param recursive -- whether subdirectories are watched too
+         * @param listener -- receiver of changes
+         */
+        private Watch(Path dir, boolean recursive, Listener listener) {
+            this.dir = dir;
+            this.recursive = recursive;
+            this.listener = listener;
+        }
+
+        /**
+         * Whether change of given file should be given to this subscription.
+         * @param path -- absolute path to changed file
+         * @return {@code true} if the file is inside watched directory
+         */
+        private boolean covers(Path path) {
+            return recursive ? path.startsWith(dir) && !path.equals(dir) : dir.equals(path.getParent());
+        }
+
+        /**
+         * Whether watched directory is still registered; it is not after the directory was deleted.
+         * @return {@code false} if changes of the directory are not received anymore
+         */
+        boolean isWatching() {
+            synchronized (DirectoryWatcher.this) {
+                return registered.contains(dir);
+            }
+        }
+
+        /**Stops the subscription and releases its directories.*/
+        @Override
+        public void close() {
+            if (watches.remove(this)) {
+                synchronized (DirectoryWatcher.this) {
+                    registered.forEach(DirectoryWatcher.this::release);
+                }
+            }
+        }
+    }
+
+    /**
+     * Constructs {@code DirectoryWatcher} object and starts its thread.
+     * @throws IOException if {@code WatchService} could not be created
+     */
+    DirectoryWatcher() throws IOException {
+        service = FileSystems.getDefault().newWatchService();
+        thread = new Thread(this::run, "directory-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Subscribes to changes of given directory.
+     * @param dir -- path to directory
+     * @param recursive -- whether subdirectories should be watched too
+     * @param listener -- receiver of changes
+     * @return subscription which should be closed when changes are not needed anymore
+     * @throws IOException if directory could not be registered
+     */
+    Watch watch(Path dir, boolean recursive, Listener listener) throws IOException {
+        Watch watch = new Watch(dir.toAbsolutePath().normalize(), recursive, listener);
+        synchronized (this) {
+            try {
+                register(watch, watch.dir);
+            } catch (IOException e) {
+                watch.registered.forEach(this::release);
+                throw e;
+            }
+        }
+        watches.add(watch);
+        return watch;
+    }
+
+    /**
+     * Registers directory (and all its subdirectories for recursive subscription) for given subscription.
+     * @param watch -- subscription
+     * @param dir -- directory to register
+     * @throws IOException if directory or one of its subdirectories could not be registered
+     */
+    private synchronized void register(Watch watch, Path dir) throws IOException {
+        if (!watch.recursive) {
+            acquire(watch, dir);
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path inside, BasicFileAttributes attrs) throws IOException {
+                acquire(watch, inside);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                // subdirectory could vanish while it is walked, but watched directory itself should be there
+                if (file.equals(dir)) {
+                    throw exc;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Registers one directory for given subscription, if it is not registered yet.
+     * @param watch -- subscription
+     * @param dir -- directory to register
+     * @throws IOException if directory could not be registered
+     */
+    private void acquire(Watch watch, Path dir) throws IOException {
+        WatchKey known = keys.get(dir);
+        if (known != null && !known.isValid()) {
+            // directory was deleted and created again before its old key was taken from service
+            forget(known);
+        }
+        if (!watch.registered.add(dir)) {
+            return;
+        }
+        if (!keys.containsKey(dir)) {
+            WatchKey key = dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            keys.put(dir, key);
+            directories.put(key, dir);
+        }
+        users.merge(dir, 1, Integer::sum);
+    }
+
+    /**
+     * Releases directory used by a subscription and stops watching it if nobody else uses it.
+     * @param dir -- directory to release
+     */
+    private void release(Path dir) {
+        Integer count = users.get(dir);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            users.put(dir, count - 1);
+            return;
+        }
+        users.remove(dir);
+        WatchKey key = keys.remove(dir);
+        if (key != null) {
+            key.cancel();
+            directories.remove(key);
+        }
+    }
+
+    /**
+     * Forgets key of deleted directory, so the directory is registered again if it is created again.
+     * Old key of directory which is already registered again is only dropped.
+     * @param key -- key which is not valid anymore
+     */
+    private void forget(WatchKey key) {
+        Path dir = directories.remove(key);
+        if (dir == null || keys.get(dir) != key) {
+            return;
+        }
+        keys.remove(dir);
+        users.remove(dir);
+        for (Watch watch : watches) {
+            watch.registered.remove(dir);
+        }
+    }
+
+    /**Takes events from service, coalesces them and gives them to subscribers until watcher is closed.*/
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                Map<Path, ChangeEvent.Kind> batch = new LinkedHashMap<>();
+                boolean overflow = false;
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(COALESCE_MILLIS);
+                while (key != null) {
+                    overflow |= collect(key, batch);
+                    long left = deadline - System.nanoTime();
+                    key = left > 0 ? service.poll(left, TimeUnit.NANOSECONDS) : service.poll();
+                }
+                dispatch(batch, overflow);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignored) {
+        }
+    }
+
+    /**
+     * Moves events of given key into batch, merging them with earlier events of the same files.
+     * Temporary files of uploads are skipped, their commit is seen as change of the target.
+     * @param key -- signalled key
+     * @param batch -- changes collected so far by absolute paths
+     * @return {@code true} if some events were lost
+     */
+    private boolean collect(WatchKey key, Map<Path, ChangeEvent.Kind> batch) {
+        Path dir;
+        synchronized (this) {
+            dir = directories.get(key);
+        }
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            if (dir == null || Uploads.isTemporary(event.context().toString())) {
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            ChangeEvent.Kind kind = event.kind() == StandardWatchEventKinds.ENTRY_CREATE ? ChangeEvent.Kind.ADDED
+                    : event.kind() == StandardWatchEventKinds.ENTRY_DELETE ? ChangeEvent.Kind.REMOVED
+                    : ChangeEvent.Kind.MODIFIED;
+            ChangeEvent.Kind earlier = batch.remove(path);
+            ChangeEvent.Kind merged = earlier == null ? kind : ChangeEvent.coalesce(earlier, kind);
+            if (merged != null) {
+                batch.put(path, merged);
+            }
+        }
+        if (!key.reset()) {
+            synchronized (this) {
+                forget(key);
+            }
+        }
+        return overflow;
+    }
+
+    /**
+     * Gives coalesced changes to subscribers and starts watching new subdirectories of recursive subscriptions.
+     * @param batch -- changes by absolute paths
+     * @param overflow -- whether some events were lost
+     */
+    private void dispatch(Map<Path, ChangeEvent.Kind> batch, boolean overflow) {
+        for (Map.Entry<Path, ChangeEvent.Kind> change : batch.entrySet()) {
+            Path path = change.getKey();
+            boolean isDirectory = change.getValue() != ChangeEvent.Kind.REMOVED && Files.isDirectory(path);
+            for (Watch watch : watches) {
+                if (!watch.covers(path)) {
+                    continue;
+                }
+                if (isDirectory && watch.recursive && change.getValue() == ChangeEvent.Kind.ADDED) {
+                    try {
+                        register(watch, path);
+                    } catch (IOException ignored) {
+                    }
+                }
+                watch.listener.changed(new ChangeEvent(change.getValue(),
+                        watch.dir.relativize(path).toString(), isDirectory));
+            }
+        }
+        if (overflow) {
+            for (Watch watch : watches) {
+                watch.listener.changed(new ChangeEvent(ChangeEvent.Kind.OVERFLOW, "", true));
+            }
+        }
+    }
+
+    /**
+     * Stops watching all directories.
+     * @throws IOException if {@code WatchService} could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        service.close();
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,202 @@
+package logic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**Class of opened file which is going to be sent to client.*/
+class FileBody implements Closeable {
+    /**Channel of the opened file, {@code null} if content is taken from pack.*/
+    private final FileChannel channel;
+    /**Content of packed file, {@code null} if file is read from its channel.*/
+    private final ByteBuffer content;
+    /**Path to the file.*/
+    private final Path path;
+    /**Size of the file at the moment of opening.*/
+    private final long size;
+    /**Time of the last modification of the file in milliseconds, it identifies version of the file.*/
+    private final long lastModified;
+
+    /**
+     * Constructs {@code FileBody} object by opened channel and attributes of the file.
+     * @param path -- path to the file
+     * @param channel -- channel of the opened file
+     * @param size -- size of the file
+     * @param lastModified -- time of the last modification of the file in milliseconds
+     */
+    FileBody(Path path, FileChannel channel, long size, long lastModified) {
+        this.path = path;
+        this.channel = channel;
+        this.content = null;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Constructs {@code FileBody} object by content of packed file.
+     * @param path -- path to the file in root
+     * @param content -- read-only buffer with content of the file
+     * @param lastModified -- time of the last modification of the file in milliseconds
+     */
+    FileBody(Path path, ByteBuffer content, long lastModified) {
+        this.path = path;
+        this.channel = null;
+        this.content = content;
+        this.size = content.remaining();
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Whether content is taken from pack, not from the file itself.
+     * @return {@code true} if the file is packed
+     */
+    boolean isPacked() {
+        return content != null;
+    }
+
+    /**
+     * Get path to the file.
+     * @return path to the file
+     */
+    Path path() {
+        return path;
+    }
+
+    /**
+     * Get time of the last modification of the file.
+     * @return time in milliseconds
+     */
+    long lastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Get size of the file.
+     * @return size in bytes
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Get stream to read the file from the beginning.
+     * @return input stream over file's channel or packed content
+     */
+    InputStream stream() {
+        return content != null ? new BufferStream(content.duplicate()) : Channels.newInputStream(channel);
+    }
+
+    /**
+     * Get stream to read the file from given position.
+     * @param position -- position in bytes to start reading from
+     * @return input stream over file's channel or packed content
+     * @throws IOException if position could not be set
+     */
+    InputStream stream(long position) throws IOException {
+        if (content != null) {
+            ByteBuffer rest = content.duplicate();
+            rest.position((int) position);
+            return new BufferStream(rest);
+        }
+        channel.position(position);
+        return Channels.newInputStream(channel);
+    }
+
+    /**
+     * Get read-only view of the whole file without copying it to heap.
+     * @return memory mapped buffer of the file or slice of mapped pack
+     * @throws IOException if the file could not be mapped
+     */
+    ByteBuffer buffer() throws IOException {
+        if (content != null) {
+            return content.duplicate();
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    /**
+     * Reads part of the file into given buffer without allocating anything for a file on disk.
+     * @param target -- buffer to read to, up to its remaining bytes are read
+     * @param position -- position in the file to read from
+     * @return number of read bytes or {@code -1} if position is at the end of file
+     * @throws IOException if the file could not be read
+     */
+    int read(ByteBuffer target, long position) throws IOException {
+        if (content == null) {
+            return channel.read(target, position);
+        }
+        if (position >= content.limit()) {
+            return -1;
+        }
+        ByteBuffer part = content.duplicate();
+        part.position((int) position);
+        part.limit((int) Math.min(part.limit(), position + target.remaining()));
+        int count = part.remaining();
+        target.put(part);
+        return count;
+    }
+
+    /**
+     * Reads the whole file into given buffer.
+     * @param target -- buffer with at least {@code size} bytes remaining
+     * @throws IOException if the file could not be read
+     */
+    void readFully(ByteBuffer target) throws IOException {
+        if (content != null) {
+            target.put(content.duplicate());
+            return;
+        }
+        long position = 0;
+        while (position < size) {
+            int count = channel.read(target, position);
+            if (count < 0) {
+                break;
+            }
+            position += count;
+        }
+    }
+
+    /**
+     * Closes the file.
+     * @throws IOException if the file could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**Class of stream over buffer with content of packed file.*/
+    private static final class BufferStream extends InputStream {
+        /**Rest of content to read.*/
+        private final ByteBuffer rest;
+
+        /**
+         * Constructs {@code BufferStream} object by buffer.
+         * @param rest -- content to read
+         */
+        BufferStream(ByteBuffer rest) {
+            this.rest = rest;
+        }
+
+        @Override
+        public int read() {
+            return rest.hasRemaining() ? rest.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!rest.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, rest.remaining());
+            rest.get(b, off, count);
+            return count;
+        }
+    }
+}
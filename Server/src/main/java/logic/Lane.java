@@ -0,0 +1,81 @@
+package logic;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Class of a lane -- limited number of slots reserved for disk work of one class of requests.
+ * Connection's thread enters the lane only for reading files or listing directories and leaves it before
+ * writing to its client, so waiting for bandwidth or for a slow peer never holds a slot.
+ * Requests of one lane never wait for slots of another lane, so a burst of heavy requests could not delay
+ * cheap ones.
+ */
+class Lane {
+    /**Free slots of this lane, given in the order of waiting.*/
+    private final Semaphore slots;
+    /**Counters of this lane.*/
+    private final ServerStats.LaneStats stats;
+    /**Name of lane.*/
+    private final String name;
+
+    /**Class of one piece of request's work which could fail with {@code IOException}.*/
+    interface Work<T> {
+        /**
+         * Executes the work.
+         * @return result of the work
+         * @throws IOException if an error appears while working with files or streams
+         */
+        T execute() throws IOException;
+    }
+
+    /**
+     * Constructs {@code Lane} object by name and number of slots.
+     * @param name -- name of lane which is used in tracing events
+     * @param slots -- number of works which are done in the lane at the same time
+     * @param stats -- counters of this lane
+     */
+    Lane(String name, int slots, ServerStats.LaneStats stats) {
+        this.slots = new Semaphore(slots, true);
+        this.stats = stats;
+        this.name = name;
+    }
+
+    /**
+     * Waits for a free slot and takes it. Every {@code enter} must be followed by {@code leave}.
+     * @throws InterruptedIOException if thread was interrupted while waiting
+     */
+    void enter() throws InterruptedIOException {
+        long start = System.nanoTime();
+        Object wait = Tracing.begin(Tracing.LANE_WAIT);
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for lane");
+        }
+        stats.started(System.nanoTime() - start);
+        Tracing.laneWait(wait, name);
+    }
+
+    /**Gives the taken slot back to the lane.*/
+    void leave() {
+        slots.release();
+    }
+
+    /**
+     * Executes given work by the calling thread while holding a slot of the lane.
+     * Work should only read from disk, it must not write to the connection.
+     * @param work -- work to execute
+     * @return result of the work
+     * @throws IOException if the work failed with {@code IOException} or waiting was interrupted
+     */
+    <T> T run(Work<T> work) throws IOException {
+        enter();
+        try {
+            return work.execute();
+        } finally {
+            leave();
+        }
+    }
+}
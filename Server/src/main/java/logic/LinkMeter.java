@@ -0,0 +1,107 @@
+package logic;
+
+/**
+ * Class which measures link of one connection and chooses auto profile of transport for it.
+ * Round trip time is the minimum of the latest samples, since a sample also contains time of work of scheduler.
+ * Samples are measured only by connect and echo: latency of a request also contains work of server on disk,
+ * and gap between an answer and the next request contains think time of client, so neither of them is taken.
+ * Connection without such samples is never retuned and keeps buffers of system.
+ * Throughput is a moving average of transfers which are big enough to fill the window.
+ * New profile is reported only when it differs noticeably, so socket is not retuned by noise of measurements.
+ * Object is used by one thread of connection, so it is not synchronized.
+ */
+class LinkMeter {
+    /**Minimum size in bytes of transfer which throughput is measured by.*/
+    static final long MIN_TRANSFER = 256 * 1024;
+    /**Number of the latest samples of round trip time which minimum is taken.*/
+    private static final int RTT_SAMPLES = 16;
+    /**Weight of new sample of throughput in moving average.*/
+    private static final double THROUGHPUT_WEIGHT = 0.25;
+    /**Relative change of socket buffer from which connection is retuned.*/
+    private static final double RETUNE_CHANGE = 0.25;
+    /**The latest samples of round trip time in nanoseconds, cyclic.*/
+    private final long[] rtts = new long[RTT_SAMPLES];
+    /**Number of samples of round trip time taken.*/
+    private int rttCount;
+    /**Average throughput in bytes per second, {@code 0} before the first big transfer.*/
+    private double bytesPerSecond;
+    /**Profile which connection is tuned by now.*/
+    private TransportProfile profile = TransportProfile.AUTO;
+
+    /**
+     * Registers sample of round trip time measured by connect or echo.
+     * @param nanos -- time in nanoseconds from sending to receiving, without work of other side
+     * @return new profile if connection should be retuned, {@code null} otherwise
+     */
+    TransportProfile rtt(long nanos) {
+        rtts[rttCount++ % RTT_SAMPLES] = Math.max(0, nanos);
+        return update();
+    }
+
+    /**
+     * Registers finished transfer; transfers smaller than {@code MIN_TRANSFER} are ignored.
+     * @param bytes -- number of transferred bytes
+     * @param nanos -- time in nanoseconds of the transfer
+     * @return new profile if connection should be retuned, {@code null} otherwise
+     */
+    TransportProfile transfer(long bytes, long nanos) {
+        if (bytes < MIN_TRANSFER || nanos <= 0) {
+            return null;
+        }
+        double sample = bytes * 1e9 / nanos;
+        bytesPerSecond = bytesPerSecond == 0 ? sample
+                : bytesPerSecond + (sample - bytesPerSecond) * THROUGHPUT_WEIGHT;
+        return update();
+    }
+
+    /**
+     * Chooses profile by current measurements.
+     * @return chosen profile if it differs noticeably from the current one, {@code null} otherwise
+     */
+    private TransportProfile update() {
+        long rtt = getRttNanos();
+        if (rtt < 0) {
+            return null;
+        }
+        TransportProfile chosen = TransportProfile.forLink(rtt, bytesPerSecond);
+        int before = profile.getSocketBuffer();
+        int after = chosen.getSocketBuffer();
+        if (chosen.getChunk() == profile.getChunk()
+                && Math.abs(after - before) <= RETUNE_CHANGE * Math.max(before, after)) {
+            return null;
+        }
+        profile = chosen;
+        return chosen;
+    }
+
+    /**
+     * Get estimated round trip time.
+     * @return time in nanoseconds, {@code -1} before the first sample
+     */
+    long getRttNanos() {
+        if (rttCount == 0) {
+            return -1;
+        }
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < Math.min(rttCount, RTT_SAMPLES); i++) {
+            min = Math.min(min, rtts[i]);
+        }
+        return min;
+    }
+
+    /**
+     * Get estimated throughput.
+     * @return bytes per second, {@code 0} before the first big transfer
+     */
+    double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Get profile which connection is tuned by now.
+     * @return auto profile
+     */
+    TransportProfile getProfile() {
+        return profile;
+    }
+}
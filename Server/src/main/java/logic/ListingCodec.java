@@ -0,0 +1,355 @@
+package logic;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class which encodes listings of compact list command and decodes them. Listing is sent as format,
+ * number of files and frames of about {@code FRAME} bytes: length of frame, number of its files, names and bits
+ * of types. Sorted names are front-coded: each name is number of chars shared with the previous name of the frame
+ * and UTF-8 bytes of the rest, both numbers as variable-length integers; types are packed eight in a byte.
+ * Frame is written by one call and read whole, so listing of big directory costs few large writes and reads.
+ * Object reuses its buffers and is used by one thread only.
+ */
+class ListingCodec {
+    /**Format of listing which this codec writes and reads.*/
+    static final byte FORMAT = 1;
+    /**Format answered instead of listing if client reads only formats older than this codec writes.*/
+    static final byte NONE = 0;
+    /**Size in bytes after which frame is sent.*/
+    static final int FRAME = 64 * 1024;
+    /**Reused buffer of encoded or received frames.*/
+    private byte[] buffer = new byte[1024];
+    /**Chars of the current name while decoding.*/
+    private char[] chars = new char[256];
+    /**Position after the last read variable-length integer.*/
+    private int next;
+
+    /**
+     * Chooses format of answer to client which reads given format and older ones: the newer of two formats
+     * which both sides know, that is the minimum of requested and written formats.
+     * @param requested -- the newest format which client reads
+     * @return chosen format or {@code NONE} if there is no common format
+     */
+    static byte choose(byte requested) {
+        return requested >= FORMAT ? FORMAT : NONE;
+    }
+
+    /**
+     * Writes listing to stream: format, number of files or {@code -1} if it is not a directory, and frames.
+     * @param content -- content of directory sorted by names or {@code null} if it is not a directory
+     * @param out -- stream to write to
+     * @throws IOException if an error appears while writing
+     */
+    void write(Client.Element[] content, OutputStream out) throws IOException {
+        int length = 0;
+        buffer[length++] = FORMAT;
+        length = putInt(length, content == null ? -1 : content.length);
+        int first = 0;
+        while (content != null && first < content.length) {
+            int start = length;
+            length += 8;
+            String previous = "";
+            int last = first;
+            while (last < content.length && length - start < FRAME) {
+                String name = content[last].getName();
+                int shared = sharedPrefix(previous, name);
+                length = putVarint(length, shared);
+                length = putSuffix(putVarint(length, utf8Length(name, shared)), name, shared);
+                previous = name;
+                last++;
+            }
+            int flags = (last - first + 7) / 8;
+            ensure(length + flags);
+            for (int i = 0; i < flags; i++) {
+                int bits = 0;
+                for (int bit = 0; bit < 8 && first + i * 8 + bit < last; bit++) {
+                    if (content[first + i * 8 + bit].isDirectory()) {
+                        bits |= 1 << bit;
+                    }
+                }
+                buffer[length++] = (byte) bits;
+            }
+            putInt(start, length - start - 4);
+            putInt(start + 4, last - first);
+            first = last;
+            if (length >= FRAME) {
+                out.write(buffer, 0, length);
+                length = 0;
+            }
+        }
+        if (length > 0) {
+            out.write(buffer, 0, length);
+        }
+    }
+
+    /**
+     * Reads listing written by {@code write} after its format, taking elements of names seen recently from cache.
+     * @param in -- stream to read from
+     * @param format -- format of listing which was read by caller
+     * @param cache -- elements of recent listings by hashes of names, its length is a power of two
+     * @return content of directory or {@code null} if it is not a directory
+     * @throws IOException if an error appears while reading or format is unknown
+     */
+    Client.Element[] read(DataInputStream in, byte format, Client.Element[] cache) throws IOException {
+        if (format != FORMAT) {
+            throw new IOException("Unknown format of listing: " + format);
+        }
+        int count = in.readInt();
+        if (count < 0) {
+            return null;
+        }
+        Client.Element[] result = new Client.Element[count];
+        int filled = 0;
+        while (filled < count) {
+            int length = in.readInt();
+            if (length < 4) {
+                throw new IOException("Invalid length of frame of listing: " + length);
+            }
+            if (buffer.length < length) {
+                buffer = new byte[Math.max(length, buffer.length * 2)];
+            }
+            in.readFully(buffer, 0, length);
+            int entries = getInt(0);
+            if (entries <= 0 || entries > count - filled) {
+                throw new IOException("Invalid number of files in frame of listing: " + entries);
+            }
+            int flags = length - (entries + 7) / 8;
+            int position = 4;
+            int size = 0;
+            for (int i = 0; i < entries; i++) {
+                int shared = getVarint(position, flags);
+                position = next;
+                int bytes = getVarint(position, flags);
+                position = next;
+                if (shared > size || position + bytes > flags) {
+                    throw new IOException("Invalid name in frame of listing");
+                }
+                size = decode(shared, position, bytes);
+                position += bytes;
+                boolean isDirectory = (buffer[flags + i / 8] & (1 << (i % 8))) != 0;
+                result[filled++] = element(size, isDirectory, cache);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get element of current name, taking it from cache if the same name and type were read recently.
+     * @param size -- number of chars of name
+     * @param isDirectory -- type of file
+     * @param cache -- elements of recent listings by hashes of names
+     * @return element of file
+     */
+    private Client.Element element(int size, boolean isDirectory, Client.Element[] cache) {
+        int hash = 0;
+        for (int i = 0; i < size; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int slot = hash & (cache.length - 1);
+        Client.Element known = cache[slot];
+        if (known == null || known.isDirectory() != isDirectory || !matches(known.getName(), size)) {
+            known = new Client.Element(new String(chars, 0, size), isDirectory);
+            cache[slot] = known;
+        }
+        return known;
+    }
+
+    /**
+     * Whether name has the same chars as the current one.
+     * @param name -- name to compare
+     * @param size -- number of chars of current name
+     * @return {@code true} if they are equal
+     */
+    private boolean matches(String name, int size) {
+        if (name.length() != size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (name.charAt(i) != chars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes UTF-8 suffix of name after chars shared with the previous name.
+     * @param shared -- number of chars kept from the previous name
+     * @param position -- position of suffix in buffer
+     * @param bytes -- number of bytes of suffix
+     * @return number of chars of the name
+     */
+    private int decode(int shared, int position, int bytes) {
+        if (chars.length < shared + bytes) {
+            char[] grown = new char[Math.max(shared + bytes, chars.length * 2)];
+            System.arraycopy(chars, 0, grown, 0, shared);
+            chars = grown;
+        }
+        int size = shared;
+        int end = position + bytes;
+        while (position < end && buffer[position] >= 0) {
+            chars[size++] = (char) buffer[position++];
+        }
+        if (position == end) {
+            return size;
+        }
+        String rest = new String(buffer, position, end - position, StandardCharsets.UTF_8);
+        rest.getChars(0, rest.length(), chars, size);
+        return size + rest.length();
+    }
+
+    /**
+     * Get number of chars which name shares with the previous one, not splitting surrogate pair.
+     * @param previous -- previous name
+     * @param name -- current name
+     * @return length of common prefix
+     */
+    private static int sharedPrefix(String previous, String name) {
+        int limit = Math.min(previous.length(), name.length());
+        int shared = 0;
+        while (shared < limit && previous.charAt(shared) == name.charAt(shared)) {
+            shared++;
+        }
+        if (shared > 0 && Character.isHighSurrogate(name.charAt(shared - 1))) {
+            shared--;
+        }
+        return shared;
+    }
+
+    /**
+     * Get number of UTF-8 bytes of name after given position.
+     * @param name -- name
+     * @param from -- index of the first char
+     * @return number of bytes
+     */
+    private static int utf8Length(String name, int from) {
+        int bytes = 0;
+        for (int i = from; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < name.length()
+                    && Character.isLowSurrogate(name.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Puts UTF-8 bytes of name after given position into buffer.
+     * @param length -- position in buffer
+     * @param name -- name
+     * @param from -- index of the first char
+     * @return position after the bytes
+     */
+    private int putSuffix(int length, String name, int from) {
+        ensure(length + (name.length() - from) * 3);
+        for (int i = from; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < 0x80) {
+                buffer[length++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[length++] = (byte) (0xc0 | c >> 6);
+                buffer[length++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < name.length()
+                    && Character.isLowSurrogate(name.charAt(i + 1))) {
+                int code = Character.toCodePoint(c, name.charAt(++i));
+                buffer[length++] = (byte) (0xf0 | code >> 18);
+                buffer[length++] = (byte) (0x80 | code >> 12 & 0x3f);
+                buffer[length++] = (byte) (0x80 | code >> 6 & 0x3f);
+                buffer[length++] = (byte) (0x80 | code & 0x3f);
+            } else {
+                buffer[length++] = (byte) (0xe0 | c >> 12);
+                buffer[length++] = (byte) (0x80 | c >> 6 & 0x3f);
+                buffer[length++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Puts unsigned variable-length integer into buffer, seven bits in a byte from the lowest ones.
+     * @param length -- position in buffer
+     * @param value -- not negative value
+     * @return position after the integer
+     */
+    private int putVarint(int length, int value) {
+        ensure(length + 5);
+        while ((value & ~0x7f) != 0) {
+            buffer[length++] = (byte) (value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        buffer[length++] = (byte) value;
+        return length;
+    }
+
+    /**
+     * Reads unsigned variable-length integer from buffer and sets {@code next} to position after it.
+     * @param position -- position in buffer
+     * @param limit -- position of the end of names in frame
+     * @return value
+     * @throws IOException if integer is too long or it does not end before limit
+     */
+    private int getVarint(int position, int limit) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (position >= limit) {
+                throw new EOFException("Frame of listing ends in the middle of number");
+            }
+            byte b = buffer[position++];
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                next = position;
+                return value;
+            }
+        }
+        throw new IOException("Too long number in frame of listing");
+    }
+
+    /**
+     * Puts big-endian integer into buffer.
+     * @param length -- position in buffer
+     * @param value -- value
+     * @return position after the integer
+     */
+    private int putInt(int length, int value) {
+        ensure(length + 4);
+        buffer[length] = (byte) (value >>> 24);
+        buffer[length + 1] = (byte) (value >>> 16);
+        buffer[length + 2] = (byte) (value >>> 8);
+        buffer[length + 3] = (byte) value;
+        return length + 4;
+    }
+
+    /**
+     * Get big-endian integer from buffer.
+     * @param position -- position in buffer
+     * @return value
+     */
+    private int getInt(int position) {
+        return (buffer[position] & 0xff) << 24 | (buffer[position + 1] & 0xff) << 16
+                | (buffer[position + 2] & 0xff) << 8 | buffer[position + 3] & 0xff;
+    }
+
+    /**
+     * Grows buffer, keeping its content, so it has at least given size.
+     * @param size -- needed size in bytes
+     */
+    private void ensure(int size) {
+        if (buffer.length < size) {
+            byte[] grown = new byte[Math.max(size, buffer.length * 2)];
+            System.arraycopy(buffer, 0, grown, 0, buffer.length);
+            buffer = grown;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package logic;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class of answer of listing since token: either the whole detailed listing of directory or only files
+ * which were added, modified or removed since the listing which gave the token.
+ * Token of answer should be given to the next request, so refresh of big directory costs only its changes.
+ */
+public final class ListingDelta {
+    /**Token of this listing.*/
+    private final long token;
+    /**Whether it is the whole listing and not changes.*/
+    private final boolean full;
+    /**Whole content of directory for full listing, added files for changes.*/
+    private final Client.Element[] added;
+    /**Modified files, empty for full listing.*/
+    private final Client.Element[] modified;
+    /**Names of removed files, empty for full listing.*/
+    private final String[] removed;
+
+    /**
+     * Constructs {@code ListingDelta} object by token and changes.
+     * @param token -- token of this listing
+     * @param full -- whether it is the whole listing
+     * @param added -- content of directory or added files
+     * @param modified -- modified files
+     * @param removed -- names of removed files
+     */
+    private ListingDelta(long token, boolean full, Client.Element[] added, Client.Element[] modified,
+                         String[] removed) {
+        this.token = token;
+        this.full = full;
+        this.added = added;
+        this.modified = modified;
+        this.removed = removed;
+    }
+
+    /**
+     * Constructs whole listing.
+     * @param token -- token of this listing
+     * @param content -- content of directory sorted by names
+     * @return {@code ListingDelta} object
+     */
+    static ListingDelta full(long token, Client.Element[] content) {
+        return new ListingDelta(token, true, content, new Client.Element[0], new String[0]);
+    }
+
+    /**
+     * Constructs changes of listing.
+     * @param token -- token of this listing
+     * @param added -- added files
+     * @param modified -- modified files
+     * @param removed -- names of removed files
+     * @return {@code ListingDelta} object
+     */
+    static ListingDelta changes(long token, Client.Element[] added, Client.Element[] modified, String[] removed) {
+        return new ListingDelta(token, false, added, modified, removed);
+    }
+
+    /**
+     * Get token which should be given to the next listing since token.
+     * @return token of this listing
+     */
+    public long getToken() {
+        return token;
+    }
+
+    /**
+     * Whether it is the whole listing. It is so for the first listing and when changes since the given token
+     * are not known anymore.
+     * @return {@code true} if {@code getAdded} gives the whole content of directory
+     */
+    public boolean isFull() {
+        return full;
+    }
+
+    /**
+     * Get added files or the whole content of directory for full listing.
+     * @return files sorted by names
+     */
+    public Client.Element[] getAdded() {
+        return added;
+    }
+
+    /**
+     * Get modified files.
+     * @return files sorted by names, empty for full listing
+     */
+    public Client.Element[] getModified() {
+        return modified;
+    }
+
+    /**
+     * Get names of removed files.
+     * @return names sorted, empty for full listing
+     */
+    public String[] getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Applies this listing to the previous one.
+     * @param previous -- listing which gave the token of this request
+     * @return content of directory sorted by names
+     */
+    public Client.Element[] applyTo(Client.Element[] previous) {
+        if (full) {
+            return added;
+        }
+        Map<String, Client.Element> content = new TreeMap<>();
+        for (Client.Element element : previous) {
+            content.put(element.getName(), element);
+        }
+        for (String name : removed) {
+            content.remove(name);
+        }
+        for (Client.Element element : added) {
+            content.put(element.getName(), element);
+        }
+        for (Client.Element element : modified) {
+            content.put(element.getName(), element);
+        }
+        return content.values().toArray(new Client.Element[0]);
+    }
+
+    /**
+     * Writes listing to stream of answer.
+     * @param out -- stream to write to
+     * @throws IOException if an error appears while writing
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeLong(token);
+        out.writeBoolean(full);
+        writeElements(out, added);
+        if (!full) {
+            writeElements(out, modified);
+            out.writeInt(removed.length);
+            for (String name : removed) {
+                out.writeUTF(name);
+            }
+        }
+    }
+
+    /**
+     * Reads listing written by {@code write}.
+     * @param in -- stream to read from
+     * @return {@code ListingDelta} object
+     * @throws IOException if an error appears while reading
+     */
+    static ListingDelta read(DataInputStream in) throws IOException {
+        long token = in.readLong();
+        if (in.readBoolean()) {
+            return full(token, readElements(in));
+        }
+        Client.Element[] added = readElements(in);
+        Client.Element[] modified = readElements(in);
+        String[] removed = new String[in.readInt()];
+        for (int i = 0; i < removed.length; i++) {
+            removed[i] = in.readUTF();
+        }
+        return changes(token, added, modified, removed);
+    }
+
+    /**
+     * Writes number of files and their names, types, sizes and modification times.
+     * @param out -- stream to write to
+     * @param elements -- files to write
+     * @throws IOException if an error appears while writing
+     */
+    private static void writeElements(DataOutputStream out, Client.Element[] elements) throws IOException {
+        out.writeInt(elements.length);
+        for (Client.Element element : elements) {
+            out.writeUTF(element.getName());
+            out.writeBoolean(element.isDirectory());
+            out.writeLong(element.getSize());
+            out.writeLong(element.getLastModified());
+        }
+    }
+
+    /**
+     * Reads files written by {@code writeElements}.
+     * @param in -- stream to read from
+     * @return read files
+     * @throws IOException if an error appears while reading
+     */
+    private static Client.Element[] readElements(DataInputStream in) throws IOException {
+        Client.Element[] elements = new Client.Element[in.readInt()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = new Client.Element(in.readUTF(), in.readBoolean(), in.readLong(), in.readLong());
+        }
+        return elements;
+    }
+}
@@ -0,0 +1,294 @@
+package logic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Class of journals of changes of directories which were listed since token, fed by {@code DirectoryWatcher}.
+ * Journal of directory watches only that directory, not recursively, from its first listing on;
+ * directory which could not be watched is listed whole.
+ * Token is number of the last change known when listing was made, with random epoch of this object in high bits,
+ * so tokens given before restart of server are never taken for current ones.
+ * Journal of directory keeps a bounded number of its latest changes; a token older than kept changes,
+ * than the journal itself or from other epoch gets the whole listing.
+ * Changes are answered by attributes of files read at the time of request, so a change which also happened
+ * after the listing is given once more by the next request, which does no harm.
+ */
+class ListingJournal implements Closeable {
+    /**Logger for directories which could not be watched.*/
+    private static final Logger LOG = Logger.getLogger(ListingJournal.class.getName());
+    /**Maximum number of directories with journals, all journals are dropped when it is exceeded.*/
+    static final int MAX_DIRECTORIES = 1024;
+    /**Number of low bits of token which hold number of change.*/
+    private static final int EPOCH_SHIFT = 48;
+    /**Absolute normalized path to root directory.*/
+    private final Path root;
+    /**Executor of full listings.*/
+    private final RequestHandler handler;
+    /**Maximum number of changes kept for one directory.*/
+    private final int capacity;
+    /**Epoch of this object in high bits of tokens.*/
+    private final long epoch;
+    /**Number of the last change of a journaled directory or creation of journal.*/
+    private final AtomicLong sequence = new AtomicLong();
+    /**Journals by relative paths of directories, empty path for root.*/
+    private final Map<String, Journal> journals = new ConcurrentHashMap<>();
+    /**Watcher which gives changes of journaled directories.*/
+    private final DirectoryWatcher watcher;
+    /**Counters of failed watches.*/
+    private final ServerStats stats;
+
+    /**Class of one change of directory.*/
+    private static final class Change {
+        /**Number of change.*/
+        private final long number;
+        /**Name of changed file.*/
+        private final String name;
+        /**Kind of change.*/
+        private final ChangeEvent.Kind kind;
+
+        /**
+         * Constructs {@code Change} object.
+         * @param number -- number of change
+         * @param name -- name of changed file
+         * @param kind -- kind of change
+         */
+        private Change(long number, String name, ChangeEvent.Kind kind) {
+            this.number = number;
+            this.name = name;
+            this.kind = kind;
+        }
+    }
+
+    /**Class of bounded journal of one directory, it receives changes of the directory from its own watch.*/
+    private final class Journal implements DirectoryWatcher.Listener {
+        /**Number of the latest dropped change or of creation of journal, older tokens are not covered by it.*/
+        private long truncated = Long.MAX_VALUE;
+        /**Kept changes from the oldest to the latest.*/
+        private final Deque<Change> changes = new ArrayDeque<>();
+        /**Subscription to changes of the directory.*/
+        private DirectoryWatcher.Watch watch;
+
+        /**
+         * Starts journal after its directory is watched.
+         * @param watch -- subscription to changes of the directory
+         * @param start -- number taken by creation of journal, it is greater than all tokens given before
+         */
+        private synchronized void start(DirectoryWatcher.Watch watch, long start) {
+            this.watch = watch;
+            this.truncated = start;
+        }
+
+        /**
+         * Receives change of file of the directory; lost events could be of this directory,
+         * so then no earlier token is covered.
+         * Every change takes a number, so a journal created later never covers tokens given before it.
+         * @param event -- change with name of file
+         */
+        @Override
+        public void changed(ChangeEvent event) {
+            long number = sequence.incrementAndGet();
+            synchronized (this) {
+                if (event.getKind() == ChangeEvent.Kind.OVERFLOW) {
+                    changes.clear();
+                    truncated = number;
+                    return;
+                }
+                changes.addLast(new Change(number, event.getPath(), event.getKind()));
+                if (changes.size() > capacity) {
+                    truncated = changes.removeFirst().number;
+                }
+            }
+        }
+    }
+
+    /**
+     * Constructs {@code ListingJournal} object, no directory is watched until it is listed since token.
+     * @param root -- path to root directory
+     * @param handler -- executor of full listings
+     * @param capacity -- maximum number of changes kept for one directory
+     * @param watcher -- watcher which gives changes of journaled directories
+     * @param stats -- counters of failed watches
+     */
+    ListingJournal(Path root, RequestHandler handler, int capacity, DirectoryWatcher watcher, ServerStats stats) {
+        this.root = root.toAbsolutePath().normalize();
+        this.handler = handler;
+        this.capacity = capacity;
+        this.watcher = watcher;
+        this.stats = stats;
+        this.epoch = (long) ThreadLocalRandom.current().nextInt(1, 1 << 15) << EPOCH_SHIFT;
+    }
+
+    /**
+     * Get listing of directory since given token: changes if journal covers the token, otherwise the whole listing.
+     * Journal of directory is started by its first listing, or again if the directory was deleted since.
+     * Directories outside of root and directories which could not be watched are listed whole,
+     * with token which no journal covers.
+     * @param name -- path to directory given by client
+     * @param token -- token of the previous listing, {@code 0} for the first one
+     * @return listing with new token or {@code null} if it is not a directory
+     * @throws IOException if an error appears while listing directory
+     */
+    ListingDelta since(String name, long token) throws IOException {
+        Path dir = root.resolve(name).normalize();
+        if (!dir.startsWith(root)) {
+            Client.Element[] content = handler.list(name);
+            return content == null ? null : ListingDelta.full(0, content);
+        }
+        if (!Files.isDirectory(dir)) {
+            return null;
+        }
+        String key = toKey(root.relativize(dir));
+        Journal journal = journals.get(key);
+        if (journal != null && !journal.watch.isWatching()) {
+            // directory was deleted since journal was started, changes of the new one were not received
+            if (journals.remove(key, journal)) {
+                journal.watch.close();
+            }
+            journal = null;
+        }
+        if (journal == null) {
+            journal = start(key, dir);
+            if (journal == null) {
+                Client.Element[] content = handler.list(name);
+                return content == null ? null : ListingDelta.full(0, content);
+            }
+        }
+        long current = sequence.get();
+        Map<String, ChangeEvent.Kind> changed = changedSince(journal, token);
+        if (changed == null) {
+            Client.Element[] content = handler.list(name);
+            return content == null ? null : ListingDelta.full(epoch | current, content);
+        }
+        List<Client.Element> added = new ArrayList<>();
+        List<Client.Element> modified = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (Map.Entry<String, ChangeEvent.Kind> change : changed.entrySet()) {
+            Client.Element element = read(dir.resolve(change.getKey()), change.getKey());
+            if (element == null) {
+                removed.add(change.getKey());
+            } else if (change.getValue() == ChangeEvent.Kind.ADDED) {
+                added.add(element);
+            } else {
+                modified.add(element);
+            }
+        }
+        return ListingDelta.changes(epoch | current, added.toArray(new Client.Element[0]),
+                modified.toArray(new Client.Element[0]), removed.toArray(new String[0]));
+    }
+
+    /**
+     * Starts journal of directory, watching the directory before the journal takes its number,
+     * so changes after the full listing which follows are not missed.
+     * @param key -- relative path of directory
+     * @param dir -- absolute path to directory
+     * @return journal of directory or {@code null} if the directory could not be watched
+     */
+    private Journal start(String key, Path dir) {
+        if (journals.size() >= MAX_DIRECTORIES) {
+            for (String known : journals.keySet()) {
+                Journal dropped = journals.remove(known);
+                if (dropped != null) {
+                    dropped.watch.close();
+                }
+            }
+        }
+        Journal created = new Journal();
+        DirectoryWatcher.Watch watch;
+        try {
+            watch = watcher.watch(dir, false, created);
+        } catch (IOException e) {
+            LOG.warning("Listing of " + dir + " is sent whole, it could not be watched: " + e.getMessage());
+            stats.watchFailed();
+            return null;
+        }
+        created.start(watch, sequence.incrementAndGet());
+        Journal known = journals.putIfAbsent(key, created);
+        if (known != null) {
+            watch.close();
+            return known;
+        }
+        return created;
+    }
+
+    /**
+     * Get changes of journal after the token, merging changes of the same file.
+     * @param journal -- journal of directory
+     * @param token -- token given by client
+     * @return kinds of changes by names of files sorted, {@code null} if journal does not cover the token
+     */
+    private Map<String, ChangeEvent.Kind> changedSince(Journal journal, long token) {
+        long number = token & ((1L << EPOCH_SHIFT) - 1);
+        if ((token & ~((1L << EPOCH_SHIFT) - 1)) != epoch || number > sequence.get()) {
+            return null;
+        }
+        Map<String, ChangeEvent.Kind> changed = new TreeMap<>();
+        synchronized (journal) {
+            if (number < journal.truncated) {
+                return null;
+            }
+            for (Change change : journal.changes) {
+                if (change.number <= number) {
+                    continue;
+                }
+                ChangeEvent.Kind earlier = changed.get(change.name);
+                ChangeEvent.Kind merged = earlier == null ? change.kind : ChangeEvent.coalesce(earlier, change.kind);
+                if (merged == null) {
+                    changed.remove(change.name);
+                } else {
+                    changed.put(change.name, merged);
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Reads attributes of changed file.
+     * @param file -- path to file
+     * @param name -- name of file
+     * @return file with its attributes or {@code null} if it does not exist now
+     * @throws IOException if attributes could not be read
+     */
+    private static Client.Element read(Path file, String name) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return new Client.Element(name, attributes.isDirectory(),
+                    attributes.isDirectory() ? 0 : attributes.size(), attributes.lastModifiedTime().toMillis());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Converts path relative to root to key of journals.
+     * @param relative -- path relative to root
+     * @return {@code '/'}-separated path
+     */
+    private static String toKey(Path relative) {
+        return relative.toString().replace(relative.getFileSystem().getSeparator(), "/");
+    }
+
+    /**Stops receiving changes of all journaled directories.*/
+    @Override
+    public void close() {
+        for (Journal journal : journals.values()) {
+            journal.watch.close();
+        }
+        journals.clear();
+    }
+}
@@ -3,10 +3,16 @@ package logic;
 import exceptions.DataStreamException;
 import exceptions.SocketException;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.Socket;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Class needed to make work with clients and server easy.
@@ -15,29 +21,41 @@ import java.util.Random;
  * Shutdowns everything at the end of working.
  */
 public class Manager {
-    /**Number of maximum port that could be used.*/
-    private static final int MAX_PORT = 20000;
-    /**Number of minimum port that could be used.*/
-    private static final int MIN_PORT = 10000;
     /**Server which manager works with.*/
     private Server server;
     /**Client which manager works with.*/
     private Client client;
+    /**Transport which server listens on, {@code null} for embedded server.*/
+    private Transport transport;
+    /**Local store of downloaded content, {@code null} if files are always downloaded.*/
+    private ContentStore store;
 
     /**
      * Public constructor of {@code Manager} object.
-     * Creates {@code Server} object and {@code Client} object which connected to server.
+     * Creates embedded {@code Server} object and {@code Client} object which calls it directly,
+     * so no port is taken and requests cost as much as function calls.
      * @throws SocketException when appears problem with using any {@code Socket} object
      * @throws IOException when appears problem with internal stuff like filesystem.
      * @throws DataStreamException when appears problem with using
      * {@code DataInputStream} or {@code DataOutputStream}.
      */
     public Manager() throws SocketException, IOException, DataStreamException{
-        int port;
-        Random rnd = new Random();
-        port = rnd.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
-        server = Server.start(port, Paths.get(""));
-        client = new Client(new Socket("localhost", port));
+        server = Server.embedded(Paths.get(""), new ServerSettings());
+        client = server.connectLocal();
+    }
+
+    /**
+     * Constructor of {@code Manager} object which connects client to server over given transport.
+     * @param transport -- transport, like TCP or Unix domain socket, which server listens on
+     * @throws SocketException when appears problem with using any {@code Socket} object
+     * @throws IOException when appears problem with internal stuff like filesystem.
+     * @throws DataStreamException when appears problem with using
+     * {@code DataInputStream} or {@code DataOutputStream}.
+     */
+    public Manager(Transport transport) throws SocketException, IOException, DataStreamException{
+        server = Server.start(transport, Paths.get(""), new ServerSettings());
+        client = Client.connect(transport);
+        this.transport = transport;
     }
 
     /**
@@ -60,6 +78,148 @@ public class Manager {
         return client.get(path);
     }
 
+    /**
+     * Set local store of downloaded content which is used by {@code downloadTo}.
+     * @param store -- content store, {@code null} to always download files
+     */
+    public void setContentStore(ContentStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Downloads given file to local file. If content store is set, hash of content is asked first
+     * and file with already stored content is made from the store without downloading it.
+     * Downloaded content is stored if it matches the hash, so file changed between the requests is not stored.
+     * @param path -- path to remote file
+     * @param target -- local file, it is replaced if it exists
+     * @return {@code true} if file was made from the store and {@code false} if it was downloaded
+     * @throws DataStreamException when appears problem with using streams
+     * @throws IOException when local file or store could not be written
+     */
+    public boolean downloadTo(String path, Path target) throws DataStreamException, IOException {
+        byte[] hash = store == null ? null : client.hash(path);
+        if (hash != null && store.materialize(hash, target)) {
+            return true;
+        }
+        byte[] content = client.get(path);
+        if (hash != null && Arrays.equals(hash, ContentHashes.digest(content))) {
+            store.store(hash, content);
+        }
+        Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Files.write(target, content);
+        return false;
+    }
+
+    /**
+     * Calls {@code Client.put} function to upload local file, continuing interrupted upload of the same file.
+     * @param path -- path to remote file
+     * @param source -- local file
+     * @return number of bytes sent by this call
+     * @throws DataStreamException when server rejected upload or appears problem with using streams
+     * @throws IOException when local file could not be read
+     */
+    public long upload(String path, Path source) throws DataStreamException, IOException {
+        return client.put(path, source);
+    }
+
+    /**
+     * Calls {@code Client.saveArchive} function to download directory as zip archive.
+     * @param path -- path to directory
+     * @param compress -- whether entries are compressed
+     * @param target -- stream to write archive to
+     * @return {@code false} if it is not a directory
+     * @throws DataStreamException when appears problem with using
+     */
+    public boolean saveArchive(String path, boolean compress, OutputStream target) throws DataStreamException {
+        return client.saveArchive(path, compress, target);
+    }
+
+    /**
+     * Calls {@code Client.extractArchive} function to download directory and extract it while it arrives.
+     * @param path -- path to directory
+     * @param compress -- whether entries are compressed
+     * @param target -- local directory
+     * @return number of extracted files or {@code -1} if it is not a directory
+     * @throws DataStreamException when appears problem with using
+     */
+    public int extractArchive(String path, boolean compress, Path target) throws DataStreamException {
+        return client.extractArchive(path, compress, target);
+    }
+
+    /**
+     * Subscribes to changes of given directory, so its listing could be updated without polling.
+     * Remote subscription uses its own connection, so manager's client stays free for other requests.
+     * @param path -- path to directory
+     * @param recursive -- whether changes in subdirectories are needed too
+     * @param listener -- receiver of changes, it is called in a separate thread
+     * @return object which stops the subscription when it is closed
+     * @throws DataStreamException when appears problem with using streams or given path is not a directory
+     * @throws SocketException when new connection could not be established
+     */
+    public Closeable subscribe(String path, boolean recursive, Consumer<ChangeEvent> listener)
+            throws DataStreamException, SocketException {
+        if (transport == null) {
+            return client.subscribe(path, recursive, listener);
+        }
+        Client subscriber = Client.connect(transport);
+        try {
+            return subscriber.subscribe(path, recursive, listener);
+        } catch (DataStreamException e) {
+            subscriber.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Copies remote directory with all its content to local directory over 4 connections,
+     * keeping at most 64 megabytes of files in flight.
+     * @param path -- path to remote directory
+     * @param target -- path to local directory, it is created if needed
+     * @param listener -- receiver of progress, it is called after each file in one of mirroring threads
+     * @return counters of finished mirroring
+     * @throws DataStreamException when some request failed or local file could not be written
+     * @throws SocketException when new connection could not be established
+     */
+    public MirrorProgress mirror(String path, Path target, Consumer<MirrorProgress> listener)
+            throws DataStreamException, SocketException {
+        return mirror(path, target, 4, 64 * 1024 * 1024, listener);
+    }
+
+    /**
+     * Copies remote directory with all its content to local directory.
+     * Directories are walked and files are streamed to disk concurrently, each over one of pooled connections.
+     * Local files which have the same size and modification time as remote ones are skipped.
+     * @param path -- path to remote directory
+     * @param target -- path to local directory, it is created if needed
+     * @param connections -- number of connections, it is also number of mirroring threads
+     * @param budget -- maximum number of bytes of buffers which files are streamed through at once
+     * @param listener -- receiver of progress, it is called after each file in one of mirroring threads
+     * @return counters of finished mirroring
+     * @throws DataStreamException when some request failed or local file could not be written
+     * @throws SocketException when new connection could not be established
+     */
+    public MirrorProgress mirror(String path, Path target, int connections, int budget,
+                                 Consumer<MirrorProgress> listener) throws DataStreamException, SocketException {
+        if (connections <= 0 || budget <= 0) {
+            throw new IllegalArgumentException("Connections and budget should be positive");
+        }
+        List<Client> clients = new ArrayList<>();
+        try {
+            for (int i = 0; i < connections; i++) {
+                clients.add(transport == null ? server.connectLocal() : Client.connect(transport));
+            }
+            return new Mirror(clients, budget, listener).run(path, target);
+        } finally {
+            for (Client pooled : clients) {
+                try {
+                    pooled.close();
+                } catch (Exception ignored) {
+                }
+            }
+        }
+    }
+
     /**Turn off Server and client and shuts everything down.*/
     public void shutdown(){
         try {
@@ -0,0 +1,353 @@
+package logic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class which serves big files from memory mapped windows shared by all connections.
+ * Windows are mapped lazily when some connection reaches them and are unmapped
+ * when their file was not requested for a long time or when mapped space is needed for other files.
+ * Total size of mapped windows never exceeds the capacity, parts of files which could not be mapped
+ * are read from the file as usual.
+ * It is meant for roots which files are not changed in place: new version of file
+ * (other size or modification time) gets new mapping, but the old one is not updated.
+ */
+class MappedFiles {
+    /**Method which unmaps direct buffer, {@code null} if it is not accessible and buffers are unmapped by GC.*/
+    private static final Unmapper UNMAPPER = findUnmapper();
+    /**Size in bytes of portion which is read from file when its window could not be mapped.*/
+    private static final int READ_PORTION = 64 * 1024;
+    /**Files with mapped windows ordered from the least recently used, by path and version of file.*/
+    private final LinkedHashMap<String, MappedFile> files = new LinkedHashMap<>(16, 0.75f, true);
+    /**Minimum size of file which is served from mapping.*/
+    private final long threshold;
+    /**Size of one window in bytes.*/
+    private final int windowSize;
+    /**Maximum total size of mapped windows in bytes.*/
+    private final long capacity;
+    /**Time in milliseconds after which mapping of not requested file is removed.*/
+    private final long idleTimeout;
+    /**Counters of mapped serving.*/
+    private final ServerStats stats;
+    /**Thread which removes idle mappings.*/
+    private final ScheduledExecutorService sweeper;
+    /**Total size of mapped windows in bytes.*/
+    private long mapped;
+    /**Whether server was shut down, so mappings are removed as soon as they are not used.*/
+    private boolean stopped;
+
+    /**Interface of a way to unmap direct buffer.*/
+    private interface Unmapper {
+        /**
+         * Unmaps buffer, it should not be used anymore.
+         * @param buffer -- buffer to unmap
+         * @throws Exception if unmapping failed
+         */
+        void unmap(MappedByteBuffer buffer) throws Exception;
+    }
+
+    /**
+     * Constructs {@code MappedFiles} object by sizes and timeout.
+     * @param threshold -- minimum size of file which is served from mapping
+     * @param windowSize -- size of one window in bytes
+     * @param capacity -- maximum total size of mapped windows in bytes
+     * @param idleTimeout -- time in milliseconds after which mapping of not requested file is removed
+     * @param stats -- counters of mapped serving
+     */
+    MappedFiles(long threshold, int windowSize, long capacity, long idleTimeout, ServerStats stats) {
+        this.threshold = threshold;
+        this.windowSize = windowSize;
+        this.capacity = capacity;
+        this.idleTimeout = idleTimeout;
+        this.stats = stats;
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mapping-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, idleTimeout / 2);
+        sweeper.scheduleAtFixedRate(this::sweep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes mapping of given file. Each successful call should be paired with closing of the lease.
+     * @param file -- path to file
+     * @return lease of file's mapping or {@code null} if the file is missing, is a directory or is small
+     * @throws IOException if an error appears while opening the file
+     */
+    Lease acquire(Path file) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (!attributes.isRegularFile()) {
+            return null;
+        }
+        return acquire(file, attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * Takes mapping of given file whose attributes are known.
+     * Each successful call should be paired with closing of the lease.
+     * @param file -- path to regular file
+     * @param size -- size of file in bytes
+     * @param lastModified -- time of the last modification of file in milliseconds
+     * @return lease of file's mapping or {@code null} if the file is small
+     * @throws IOException if an error appears while opening the file
+     */
+    Lease acquire(Path file, long size, long lastModified) throws IOException {
+        if (size < threshold || size == 0) {
+            return null;
+        }
+        String key = file.toAbsolutePath() + "|" + size + "|" + lastModified;
+        synchronized (this) {
+            MappedFile result = files.get(key);
+            if (result != null) {
+                result.users++;
+                return new Lease(result);
+            }
+        }
+        MappedFile created = new MappedFile(FileChannel.open(file, StandardOpenOption.READ), size);
+        synchronized (this) {
+            MappedFile result = files.get(key);
+            if (result == null) {
+                files.put(key, created);
+                result = created;
+            } else {
+                created.channel.close();
+            }
+            result.users++;
+            return new Lease(result);
+        }
+    }
+
+    /**Removes all mappings and stops removing idle ones.*/
+    synchronized void shutdown() {
+        stopped = true;
+        sweeper.shutdownNow();
+        for (Iterator<MappedFile> it = files.values().iterator(); it.hasNext(); ) {
+            MappedFile file = it.next();
+            if (file.users == 0) {
+                release(file);
+                it.remove();
+            }
+        }
+    }
+
+    /**Removes mappings of files which were not requested for longer than idle timeout.*/
+    private synchronized void sweep() {
+        long now = System.nanoTime();
+        for (Iterator<MappedFile> it = files.values().iterator(); it.hasNext(); ) {
+            MappedFile file = it.next();
+            if (file.users == 0 && TimeUnit.NANOSECONDS.toMillis(now - file.lastUsed) > idleTimeout) {
+                release(file);
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Maps window of file if it is not mapped yet, removing least recently used idle mappings if needed.
+     * @param file -- file of the window
+     * @param index -- number of window in the file
+     * @return duplicate of the window or {@code null} if there is no space for it
+     * @throws IOException if the file could not be mapped
+     */
+    private synchronized ByteBuffer window(MappedFile file, int index) throws IOException {
+        MappedByteBuffer window = file.windows[index];
+        if (window == null) {
+            long position = (long) index * windowSize;
+            long length = Math.min(windowSize, file.size - position);
+            for (Iterator<MappedFile> it = files.values().iterator(); mapped + length > capacity && it.hasNext(); ) {
+                MappedFile other = it.next();
+                if (other.users == 0) {
+                    release(other);
+                    it.remove();
+                }
+            }
+            if (mapped + length > capacity) {
+                return null;
+            }
+            window = file.channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            file.windows[index] = window;
+            mapped += length;
+            stats.mappedBytes(length);
+        }
+        return window.duplicate();
+    }
+
+    /**
+     * Unmaps all windows of file and closes it. File should not be used by any connection.
+     * @param file -- file to release
+     */
+    private void release(MappedFile file) {
+        for (int i = 0; i < file.windows.length; i++) {
+            MappedByteBuffer window = file.windows[i];
+            if (window != null) {
+                file.windows[i] = null;
+                mapped -= window.capacity();
+                stats.mappedBytes(-window.capacity());
+                if (UNMAPPER != null) {
+                    try {
+                        UNMAPPER.unmap(window);
+                    } catch (Exception ignored) {
+                        // The window is unmapped by GC.
+                    }
+                }
+            }
+        }
+        try {
+            file.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Finds a way to unmap buffer at once: {@code Unsafe.invokeCleaner} since Java 9, cleaner of buffer in Java 8.
+     * @return unmapper or {@code null} if none is accessible
+     */
+    private static Unmapper findUnmapper() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            return buffer -> invokeCleaner.invoke(unsafe, buffer);
+        } catch (Exception ignored) {
+            // Java 8 has no invokeCleaner.
+        }
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> clean.invoke(cleaner.invoke(buffer));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**Class of one file with its mapped windows.*/
+    private final class MappedFile {
+        /**Channel of the file, it is kept open while file has mapping.*/
+        private final FileChannel channel;
+        /**Size of the file.*/
+        private final long size;
+        /**Mapped windows, {@code null} for windows which were not needed yet.*/
+        private final MappedByteBuffer[] windows;
+        /**Number of connections which are sending the file now.*/
+        private int users;
+        /**Time in nanoseconds when the file was requested last time.*/
+        private long lastUsed = System.nanoTime();
+
+        /**
+         * Constructs {@code MappedFile} object by opened file.
+         * @param channel -- channel of the file
+         * @param size -- size of the file
+         */
+        MappedFile(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+            windows = new MappedByteBuffer[(int) ((size + windowSize - 1) / windowSize)];
+        }
+    }
+
+    /**Class of one connection's use of mapped file.*/
+    final class Lease implements Closeable {
+        /**File which is used.*/
+        private final MappedFile file;
+        /**Whether lease was closed.*/
+        private boolean closed;
+
+        /**
+         * Constructs {@code Lease} object by file.
+         * @param file -- file which is used
+         */
+        private Lease(MappedFile file) {
+            this.file = file;
+        }
+
+        /**
+         * Get size of the file.
+         * @return size in bytes
+         */
+        long size() {
+            return file.size;
+        }
+
+        /**
+         * Sends the whole file window by window. Windows which could not be mapped are read from the file by portions.
+         * Every portion is read in the lane, which is left before it is sent.
+         * @param shaper -- bandwidth limiter of the connection
+         * @param out -- stream to send the file to
+         * @param lane -- lane of reads
+         * @throws IOException if an error appears while reading the file or writing
+         */
+        void send(Shaper shaper, OutputStream out, Lane lane) throws IOException {
+            stats.mappedRequest();
+            ByteBuffer portion = null;
+            for (int i = 0; i < file.windows.length; i++) {
+                ByteBuffer window = window(file, i);
+                if (window != null) {
+                    shaper.copy(window, out, lane);
+                    continue;
+                }
+                if (portion == null) {
+                    portion = ByteBuffer.allocate(READ_PORTION);
+                }
+                long position = (long) i * windowSize;
+                long end = Math.min(position + windowSize, file.size);
+                while (position < end) {
+                    portion.clear();
+                    portion.limit((int) Math.min(READ_PORTION, end - position));
+                    int count;
+                    lane.enter();
+                    try {
+                        count = file.channel.read(portion, position);
+                    } finally {
+                        lane.leave();
+                    }
+                    if (count < 0) {
+                        throw new IOException("File was truncated while it was sent");
+                    }
+                    portion.flip();
+                    position += portion.remaining();
+                    shaper.copy(portion, out);
+                }
+            }
+        }
+
+        /**Releases the file, so its mapping could be removed when it is idle.*/
+        @Override
+        public void close() {
+            synchronized (MappedFiles.this) {
+                if (!closed) {
+                    closed = true;
+                    file.users--;
+                    file.lastUsed = System.nanoTime();
+                    if (stopped && file.users == 0 && files.values().remove(file)) {
+                        release(file);
+                    }
+                }
+            }
+        }
+    }
+}
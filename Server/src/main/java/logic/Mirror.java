@@ -0,0 +1,275 @@
+package logic;
+
+import exceptions.DataStreamException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Class which copies remote directory with all its content to local directory.
+ * Directories are listed and files are downloaded by tasks of a work-stealing pool,
+ * each task borrows one of pooled clients for one request.
+ * Every file is streamed to its temporary file through a buffer of at most {@code CHUNK} bytes,
+ * and total size of buffers of files which are being downloaded at once is bounded by the budget.
+ * Local files with the same size and modification time as remote ones are not downloaded again.
+ * Names sent by server are trusted only as names of children: a name which leads out of its local directory
+ * fails the mirroring, as entries of archives do.
+ */
+class Mirror {
+    /**Maximum size in bytes of buffer which one file is downloaded through.*/
+    static final int CHUNK = 256 * 1024;
+    /**Clients which are free now.*/
+    private final BlockingQueue<Client> clients;
+    /**Number of pooled clients, it is also parallelism of the pool.*/
+    private final int connections;
+    /**Bytes of files which could be downloaded now.*/
+    private final Semaphore budget;
+    /**Maximum number of bytes of buffers of files which are downloaded at once.*/
+    private final int budgetBytes;
+    /**Counters of this mirroring.*/
+    private final MirrorProgress progress = new MirrorProgress();
+    /**Receiver of progress, it is called after each file.*/
+    private final Consumer<MirrorProgress> listener;
+
+    /**Class of unchecked wrapper which carries failure out of pool's tasks.*/
+    private static final class Failure extends RuntimeException {
+        /**
+         * Constructs {@code Failure} object by message.
+         * @param message -- description of failure
+         */
+        Failure(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Constructs {@code Mirror} object by clients and budget.
+     * @param clients -- clients connected to the same server, they are not closed by mirror
+     * @param budgetBytes -- maximum number of bytes of buffers of files which are downloaded at once
+     * @param listener -- receiver of progress, it is called in pool's threads
+     */
+    Mirror(List<Client> clients, int budgetBytes, Consumer<MirrorProgress> listener) {
+        this.clients = new ArrayBlockingQueue<>(clients.size(), false, clients);
+        this.connections = clients.size();
+        this.budget = new Semaphore(budgetBytes);
+        this.budgetBytes = budgetBytes;
+        this.listener = listener;
+    }
+
+    /**
+     * Copies remote directory to local one.
+     * @param remote -- path to remote directory
+     * @param local -- path to local directory, it is created if needed
+     * @return counters of finished mirroring
+     * @throws DataStreamException if some request or writing of local file failed
+     */
+    MirrorProgress run(String remote, Path local) throws DataStreamException {
+        ForkJoinPool pool = new ForkJoinPool(connections);
+        try {
+            pool.invoke(new DirectoryTask(remote, local.toAbsolutePath().normalize()));
+        } catch (Failure e) {
+            throw new DataStreamException(e.getMessage());
+        } finally {
+            pool.shutdown();
+            progress.finished();
+        }
+        listener.accept(progress);
+        return progress;
+    }
+
+    /**
+     * Borrows one of pooled clients, waiting until one is free.
+     * @return free client which should be given back by {@code giveBack}
+     */
+    private Client borrow() {
+        try {
+            return clients.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Failure("Interrupted when waiting for connection in logic.Manager.mirror");
+        }
+    }
+
+    /**
+     * Gives borrowed client back to the pool.
+     * @param client -- borrowed client
+     */
+    private void giveBack(Client client) {
+        clients.add(client);
+    }
+
+    /**
+     * Joins remote path with a name.
+     * @param remote -- path to remote directory
+     * @param name -- name of file in it
+     * @return path to remote file
+     */
+    private static String child(String remote, String name) {
+        return remote.isEmpty() ? name : remote + "/" + name;
+    }
+
+    /**Class of task which lists one remote directory and forks tasks for its content.*/
+    private final class DirectoryTask extends RecursiveAction {
+        /**Path to remote directory.*/
+        private final String remote;
+        /**Path to local directory.*/
+        private final Path local;
+
+        /**
+         * Constructs {@code DirectoryTask} object by remote and local paths.
+         * @param remote -- path to remote directory
+         * @param local -- absolute normalized path to local directory
+         */
+        DirectoryTask(String remote, Path local) {
+            this.remote = remote;
+            this.local = local;
+        }
+
+        @Override
+        protected void compute() {
+            Client.Element[] content;
+            Client client = borrow();
+            try {
+                content = client.listDetailed(remote);
+            } catch (DataStreamException e) {
+                throw new Failure("Error when listing " + remote + " in logic.Manager.mirror");
+            } finally {
+                giveBack(client);
+            }
+            try {
+                Files.createDirectories(local);
+            } catch (IOException e) {
+                throw new Failure("Error when creating " + local + " in logic.Manager.mirror");
+            }
+            List<RecursiveAction> tasks = new ArrayList<>();
+            int files = 0;
+            for (Client.Element element : content) {
+                String path = child(remote, element.getName());
+                Path target = local.resolve(element.getName()).normalize();
+                if (!local.equals(target.getParent())) {
+                    throw new Failure("Name " + element.getName() + " in " + remote + " is outside of " + local
+                            + " in logic.Manager.mirror");
+                }
+                if (element.isDirectory()) {
+                    tasks.add(new DirectoryTask(path, target));
+                } else {
+                    files++;
+                    tasks.add(new FileTask(path, target, element.getSize(), element.getLastModified()));
+                }
+            }
+            progress.directoryFound(files);
+            invokeAll(tasks);
+        }
+    }
+
+    /**Class of task which downloads one remote file if local copy is not up to date.*/
+    private final class FileTask extends RecursiveAction {
+        /**Path to remote file.*/
+        private final String remote;
+        /**Path to local file.*/
+        private final Path local;
+        /**Size of remote file.*/
+        private final long size;
+        /**Time of the last modification of remote file in milliseconds.*/
+        private final long lastModified;
+
+        /**
+         * Constructs {@code FileTask} object by paths and attributes of remote file.
+         * @param remote -- path to remote file
+         * @param local -- path to local file
+         * @param size -- size of remote file
+         * @param lastModified -- time of the last modification of remote file in milliseconds
+         */
+        FileTask(String remote, Path local, long size, long lastModified) {
+            this.remote = remote;
+            this.local = local;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        protected void compute() {
+            if (isUpToDate()) {
+                progress.fileSkipped();
+                listener.accept(progress);
+                return;
+            }
+            // buffer is the only memory which file takes, so it is what budget is held for
+            int permits = (int) Math.max(1, Math.min(size, Math.min(CHUNK, budgetBytes)));
+            try {
+                budget.acquire(permits);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new Failure("Interrupted when waiting for budget in logic.Manager.mirror");
+            }
+            try {
+                progress.fileDownloaded(download(new byte[permits]));
+            } finally {
+                budget.release(permits);
+            }
+            listener.accept(progress);
+        }
+
+        /**
+         * Whether local file has the same size and modification time as remote one.
+         * @return {@code true} if local file need not be downloaded
+         */
+        private boolean isUpToDate() {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(local, BasicFileAttributes.class);
+                return attributes.isRegularFile() && attributes.size() == size
+                        && attributes.lastModifiedTime().toMillis() == lastModified;
+            } catch (NoSuchFileException e) {
+                return false;
+            } catch (IOException e) {
+                throw new Failure("Error when reading attributes of " + local + " in logic.Manager.mirror");
+            }
+        }
+
+        /**
+         * Streams remote file to temporary file and replaces local file by it,
+         * so local file is never seen half-written.
+         * @param buffer -- buffer which content passes through
+         * @return number of downloaded bytes
+         */
+        private long download(byte[] buffer) {
+            try {
+                Path temporary = Files.createTempFile(local.getParent(), "." + local.getFileName(), ".part");
+                try {
+                    long downloaded;
+                    try (OutputStream target = Files.newOutputStream(temporary)) {
+                        Client client = borrow();
+                        try {
+                            downloaded = client.save(remote, target, buffer);
+                        } catch (DataStreamException e) {
+                            throw new Failure("Error when downloading " + remote + " in logic.Manager.mirror");
+                        } finally {
+                            giveBack(client);
+                        }
+                    }
+                    Files.setLastModifiedTime(temporary, FileTime.fromMillis(lastModified));
+                    Files.move(temporary, local, StandardCopyOption.REPLACE_EXISTING);
+                    return downloaded;
+                } finally {
+                    Files.deleteIfExists(temporary);
+                }
+            } catch (IOException e) {
+                throw new Failure("Error when writing " + local + " in logic.Manager.mirror");
+            }
+        }
+    }
+}
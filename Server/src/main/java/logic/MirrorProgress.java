@@ -0,0 +1,126 @@
+package logic;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**Class which collects counters of one mirroring of directory. All counters could be read while mirroring works.*/
+public class MirrorProgress {
+    /**Time in nanoseconds of the start of mirroring.*/
+    private final long start = System.nanoTime();
+    /**Number of found remote files.*/
+    private final AtomicLong filesFound = new AtomicLong();
+    /**Number of downloaded files.*/
+    private final AtomicLong filesDownloaded = new AtomicLong();
+    /**Number of files skipped because local copy is up to date.*/
+    private final AtomicLong filesSkipped = new AtomicLong();
+    /**Number of found remote directories.*/
+    private final AtomicLong directories = new AtomicLong();
+    /**Number of downloaded bytes.*/
+    private final AtomicLong bytesDownloaded = new AtomicLong();
+    /**Time in nanoseconds of the end of mirroring, {@code 0} while it works.*/
+    private volatile long end;
+
+    /**
+     * Registers found remote directory.
+     * @param files -- number of files in it
+     */
+    void directoryFound(int files) {
+        directories.incrementAndGet();
+        filesFound.addAndGet(files);
+    }
+
+    /**
+     * Registers downloaded file.
+     * @param bytes -- size of file
+     */
+    void fileDownloaded(long bytes) {
+        filesDownloaded.incrementAndGet();
+        bytesDownloaded.addAndGet(bytes);
+    }
+
+    /**Registers file which local copy is up to date.*/
+    void fileSkipped() {
+        filesSkipped.incrementAndGet();
+    }
+
+    /**Registers the end of mirroring.*/
+    void finished() {
+        end = System.nanoTime();
+    }
+
+    /**
+     * Get number of found remote files.
+     * @return number of files found so far
+     */
+    public long getFilesFound() {
+        return filesFound.get();
+    }
+
+    /**
+     * Get number of downloaded files.
+     * @return number of files downloaded so far
+     */
+    public long getFilesDownloaded() {
+        return filesDownloaded.get();
+    }
+
+    /**
+     * Get number of skipped files.
+     * @return number of files which local copies have the same size and modification time
+     */
+    public long getFilesSkipped() {
+        return filesSkipped.get();
+    }
+
+    /**
+     * Get number of found remote directories.
+     * @return number of directories found so far, including mirrored one
+     */
+    public long getDirectories() {
+        return directories.get();
+    }
+
+    /**
+     * Get number of downloaded bytes.
+     * @return number of bytes downloaded so far
+     */
+    public long getBytesDownloaded() {
+        return bytesDownloaded.get();
+    }
+
+    /**
+     * Whether mirroring is finished.
+     * @return {@code true} if all files are downloaded or skipped
+     */
+    public boolean isFinished() {
+        return end != 0;
+    }
+
+    /**
+     * Get time of mirroring.
+     * @return time in milliseconds since start till now or till the end
+     */
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis((end != 0 ? end : System.nanoTime()) - start);
+    }
+
+    /**
+     * Get aggregate throughput of all connections.
+     * @return downloaded megabytes per second
+     */
+    public double getMegabytesPerSecond() {
+        long millis = Math.max(1, getElapsedMillis());
+        return bytesDownloaded.get() / (1024.0 * 1024.0) / (millis / 1000.0);
+    }
+
+    /**
+     * Get all counters as one line.
+     * @return counters as {@code String} object
+     */
+    @Override
+    public String toString() {
+        return String.format("%d/%d files (%d skipped), %d directories, %.1f MB in %.1f s, %.1f MB/s",
+                getFilesDownloaded() + getFilesSkipped(), getFilesFound(), getFilesSkipped(), getDirectories(),
+                getBytesDownloaded() / (1024.0 * 1024.0), getElapsedMillis() / 1000.0, getMegabytesPerSecond());
+    }
+}
@@ -0,0 +1,91 @@
+package logic;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class which reads strings written by {@code writeUTF} without allocating a new string for a name seen before.
+ * Bytes of string are read into reused array and looked up by their hash in a direct-mapped table of known names,
+ * a new name takes the slot of the old one. Format of stream is the same as of {@code readUTF}.
+ * Object is used by one thread only.
+ */
+class NameReader {
+    /**Number of remembered names, a power of two.*/
+    static final int SLOTS = 256;
+    /**Reused array for bytes of the string being read.*/
+    private byte[] buffer = new byte[256];
+    /**Bytes of remembered names by slots.*/
+    private final byte[][] keys = new byte[SLOTS][];
+    /**Remembered names by slots.*/
+    private final String[] names = new String[SLOTS];
+
+    /**
+     * Reads string written by {@code writeUTF}.
+     * @param in -- stream to read from
+     * @return read string, the same object as before if this name was read recently
+     * @throws IOException if an error appears while reading or bytes are not modified UTF-8
+     */
+    String read(DataInputStream in) throws IOException {
+        int length = in.readUnsignedShort();
+        if (buffer.length < length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+        }
+        in.readFully(buffer, 0, length);
+        int hash = length;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (SLOTS - 1);
+        byte[] key = keys[slot];
+        if (key != null && matches(key, length)) {
+            return names[slot];
+        }
+        String name = decode(length);
+        byte[] copy = new byte[length];
+        System.arraycopy(buffer, 0, copy, 0, length);
+        keys[slot] = copy;
+        names[slot] = name;
+        return name;
+    }
+
+    /**
+     * Whether remembered name has the same bytes as the read one.
+     * @param key -- bytes of remembered name
+     * @param length -- number of read bytes
+     * @return {@code true} if bytes are equal
+     */
+    private boolean matches(byte[] key, int length) {
+        if (key.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key[i] != buffer[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes read bytes: ASCII is copied as is, other strings are decoded by {@code readUTF}.
+     * @param length -- number of read bytes
+     * @return decoded string
+     * @throws IOException if bytes are not modified UTF-8
+     */
+    private String decode(int length) throws IOException {
+        boolean ascii = true;
+        for (int i = 0; i < length && ascii; i++) {
+            ascii = buffer[i] > 0;
+        }
+        if (ascii) {
+            return new String(buffer, 0, length, StandardCharsets.US_ASCII);
+        }
+        byte[] encoded = new byte[length + 2];
+        encoded[0] = (byte) (length >>> 8);
+        encoded[1] = (byte) length;
+        System.arraycopy(buffer, 0, encoded, 2, length);
+        return new DataInputStream(new ByteArrayInputStream(encoded)).readUTF();
+    }
+}
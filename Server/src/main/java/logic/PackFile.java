@@ -0,0 +1,426 @@
+package logic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Class of read-only root packed into data segments with one sorted index.
+ * Index is kept in memory as sorted keys {@code parent + '\0' + name} with parallel arrays of attributes,
+ * so children of each directory are adjacent and both listings and lookups are binary searches.
+ * Segments are memory mapped, so content of a file is a slice of a mapping without any system calls.
+ * Files bigger than a segment are not packed and are read from the root as usual.
+ * Every packing writes segments of a new generation and replaces the index by rename only then, so a server
+ * which maps the previous pack keeps serving it unchanged; segments of other generations are deleted afterwards.
+ */
+class PackFile implements Closeable {
+    /**First bytes of index file.*/
+    private static final int MAGIC = 0x5041434B;
+    /**Version of format of index file.*/
+    private static final int VERSION = 2;
+    /**Version of format of index file without generation, its segments are named by their numbers only.*/
+    private static final int VERSION_WITHOUT_GENERATION = 1;
+    /**Maximum size in bytes of one data segment.*/
+    static final long SEGMENT_LIMIT = 1024L * 1024 * 1024;
+    /**Separator of parent and name in keys, it is less than any character of names.*/
+    private static final char SEPARATOR = '\0';
+    /**Number of segment of files which are not packed.*/
+    private static final int NOT_PACKED = -1;
+    /**Sorted keys of all files and directories.*/
+    private final String[] keys;
+    /**Whether entry is a directory.*/
+    private final boolean[] directories;
+    /**Segment of entry's content.*/
+    private final int[] segments;
+    /**Offset of entry's content in its segment.*/
+    private final long[] offsets;
+    /**Size of entry's content.*/
+    private final long[] lengths;
+    /**Time of the last modification of entry in milliseconds at the moment of packing.*/
+    private final long[] modified;
+    /**Mapped data segments.*/
+    private final MappedByteBuffer[] mappings;
+
+    /**
+     * Constructs {@code PackFile} object by index and mapped segments.
+     * @param keys -- sorted keys of entries
+     * @param directories -- whether entries are directories
+     * @param segments -- segments of entries' content
+     * @param offsets -- offsets of entries' content
+     * @param lengths -- sizes of entries' content
+     * @param modified -- times of the last modification of entries
+     * @param mappings -- mapped data segments
+     */
+    private PackFile(String[] keys, boolean[] directories, int[] segments, long[] offsets, long[] lengths,
+                     long[] modified, MappedByteBuffer[] mappings) {
+        this.keys = keys;
+        this.directories = directories;
+        this.segments = segments;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.modified = modified;
+        this.mappings = mappings;
+    }
+
+    /**
+     * Packs all files of root directory. Index is written to given path and segments -- near it
+     * with generation and numbers appended to its name. Pack should be outside of root.
+     * Segments are never written in place: the new generation is complete before the index is renamed to it,
+     * then segments of previous packs are deleted. If packing fails, the previous pack stays as it was.
+     * @param root -- path to root directory
+     * @param index -- path to index file
+     * @throws IOException if an error appears while reading root or writing pack
+     */
+    static void pack(Path root, Path index) throws IOException {
+        if (index.toAbsolutePath().normalize().startsWith(root.toAbsolutePath().normalize())) {
+            throw new IOException("Pack " + index + " should be outside of root " + root);
+        }
+        Map<String, BasicFileAttributes> tree = walk(root);
+        String[] keys = tree.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
+        Path directory = index.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        long generation = System.currentTimeMillis();
+        while (Files.exists(segmentPath(index, generation, 0))) {
+            generation++;
+        }
+        Path temporary = Files.createTempFile(directory, index.getFileName().toString(), ".tmp");
+        try {
+            write(root, index, generation, keys, tree, temporary);
+            Files.move(temporary, index, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            deleteSegments(index, generation, true);
+            throw e;
+        }
+        deleteSegments(index, generation, false);
+    }
+
+    /**
+     * Writes segments of new generation and index of them into temporary file.
+     * @param root -- path to root directory
+     * @param index -- path to index file
+     * @param generation -- generation of new segments
+     * @param keys -- sorted keys of entries
+     * @param tree -- attributes of entries by keys
+     * @param temporary -- temporary file of index
+     * @throws IOException if an error appears while reading root or writing pack
+     */
+    private static void write(Path root, Path index, long generation, String[] keys,
+                              Map<String, BasicFileAttributes> tree, Path temporary) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            out.writeInt(keys.length);
+            int segment = -1;
+            long offset = 0;
+            FileChannel data = null;
+            try {
+                for (String key : keys) {
+                    BasicFileAttributes attributes = tree.get(key);
+                    long length = attributes.isDirectory() ? 0 : attributes.size();
+                    int entrySegment = NOT_PACKED;
+                    long entryOffset = 0;
+                    if (!attributes.isDirectory() && length <= SEGMENT_LIMIT) {
+                        if (data == null || offset + length > SEGMENT_LIMIT) {
+                            if (data != null) {
+                                data.close();
+                            }
+                            segment++;
+                            offset = 0;
+                            data = FileChannel.open(segmentPath(index, generation, segment),
+                                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                        }
+                        try (FileChannel file = FileChannel.open(root.resolve(toPath(key)), StandardOpenOption.READ)) {
+                            long copied = 0;
+                            while (copied < length) {
+                                long count = file.transferTo(copied, length - copied, data);
+                                if (count == 0 && copied >= file.size()) {
+                                    throw new IOException("File " + toPath(key) + " was changed while packing");
+                                }
+                                copied += count;
+                            }
+                        }
+                        entrySegment = segment;
+                        entryOffset = offset;
+                        offset += length;
+                    }
+                    out.writeUTF(key);
+                    out.writeBoolean(attributes.isDirectory());
+                    out.writeInt(entrySegment);
+                    out.writeLong(entryOffset);
+                    out.writeLong(length);
+                    out.writeLong(attributes.lastModifiedTime().toMillis());
+                }
+            } finally {
+                if (data != null) {
+                    data.close();
+                }
+            }
+            out.writeInt(segment + 1);
+        }
+    }
+
+    /**
+     * Deletes segments of pack of one generation or of all other generations. Segments which could not be deleted,
+     * e.g. because they are mapped on a system which does not allow it, are left for the next packing.
+     * @param index -- path to index file
+     * @param generation -- generation of segments
+     * @param same -- {@code true} to delete segments of given generation, {@code false} to delete all others
+     * @throws IOException if directory of pack could not be listed
+     */
+    private static void deleteSegments(Path index, long generation, boolean same) throws IOException {
+        Pattern pattern = Pattern.compile(Pattern.quote(index.getFileName().toString()) + "\\.(\\d+)(\\.\\d+)?");
+        List<Path> stale = new ArrayList<>();
+        try (Stream<Path> files = Files.list(index.toAbsolutePath().getParent())) {
+            files.forEach(file -> {
+                Matcher matcher = pattern.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    boolean current = matcher.group(2) != null && Long.parseLong(matcher.group(1)) == generation;
+                    if (current == same) {
+                        stale.add(file);
+                    }
+                }
+            });
+        }
+        for (Path file : stale) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                // the segment is still used, it is deleted by one of the next packings
+            }
+        }
+    }
+
+    /**
+     * Loads pack from given index file and maps its segments.
+     * @param index -- path to index file
+     * @return loaded pack
+     * @throws IOException if index is damaged or could not be read
+     */
+    static PackFile open(Path index) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Unknown format of pack " + index);
+            }
+            int version = in.readInt();
+            if (version != VERSION && version != VERSION_WITHOUT_GENERATION) {
+                throw new IOException("Unknown format of pack " + index);
+            }
+            long generation = version == VERSION ? in.readLong() : -1;
+            int count = in.readInt();
+            String[] keys = new String[count];
+            boolean[] directories = new boolean[count];
+            int[] segments = new int[count];
+            long[] offsets = new long[count];
+            long[] lengths = new long[count];
+            long[] modified = new long[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = in.readUTF();
+                directories[i] = in.readBoolean();
+                segments[i] = in.readInt();
+                offsets[i] = in.readLong();
+                lengths[i] = in.readLong();
+                modified[i] = in.readLong();
+            }
+            MappedByteBuffer[] mappings = new MappedByteBuffer[in.readInt()];
+            for (int i = 0; i < mappings.length; i++) {
+                try (FileChannel data = FileChannel.open(segmentPath(index, generation, i), StandardOpenOption.READ)) {
+                    mappings[i] = data.map(FileChannel.MapMode.READ_ONLY, 0, data.size());
+                }
+            }
+            return new PackFile(keys, directories, segments, offsets, lengths, modified, mappings);
+        }
+    }
+
+    /**
+     * Compares pack with live tree of root directory.
+     * @param root -- path to root directory
+     * @return descriptions of differences, empty list if pack is consistent with the tree
+     * @throws IOException if an error appears while reading root
+     */
+    List<String> check(Path root) throws IOException {
+        Map<String, BasicFileAttributes> tree = walk(root);
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < keys.length; i++) {
+            String path = toPath(keys[i]);
+            BasicFileAttributes attributes = tree.remove(keys[i]);
+            if (attributes == null) {
+                result.add("removed: " + path);
+            } else if (attributes.isDirectory() != directories[i]) {
+                result.add("type changed: " + path);
+            } else if (!directories[i] && (attributes.size() != lengths[i]
+                    || attributes.lastModifiedTime().toMillis() != modified[i])) {
+                result.add("modified: " + path);
+            }
+        }
+        for (String key : tree.keySet()) {
+            result.add("added: " + toPath(key));
+        }
+        return result;
+    }
+
+    /**
+     * Get list of files in given directory sorted by names, with sizes and modification times at packing.
+     * @param name -- path to directory relative to root
+     * @return content of directory or {@code null} if it is not a packed directory
+     */
+    Client.Element[] list(String name) {
+        String path = normalize(name);
+        if (path == null || !path.isEmpty() && !isDirectory(find(path))) {
+            return null;
+        }
+        String prefix = path + SEPARATOR;
+        int from = lowerBound(prefix);
+        int to = from;
+        while (to < keys.length && keys[to].startsWith(prefix)) {
+            to++;
+        }
+        Client.Element[] result = new Client.Element[to - from];
+        for (int i = from; i < to; i++) {
+            result[i - from] = new Client.Element(keys[i].substring(prefix.length()), directories[i], lengths[i],
+                    modified[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Get content of given file.
+     * @param name -- path to file relative to root
+     * @param root -- path to root directory, files which are not packed are opened from it
+     * @return opened file or {@code null} if there is no such file in pack
+     * @throws IOException if not packed file could not be opened
+     */
+    FileBody open(String name, Path root) throws IOException {
+        String path = normalize(name);
+        int entry = path == null || path.isEmpty() ? -1 : find(path);
+        if (entry < 0 || directories[entry]) {
+            return null;
+        }
+        Path file = root.resolve(path);
+        if (segments[entry] == NOT_PACKED) {
+            return new FileBody(file, FileChannel.open(file, StandardOpenOption.READ), lengths[entry],
+                    modified[entry]);
+        }
+        ByteBuffer content = mappings[segments[entry]].duplicate();
+        content.position((int) offsets[entry]);
+        content.limit((int) (offsets[entry] + lengths[entry]));
+        return new FileBody(file, content.slice().asReadOnlyBuffer(), modified[entry]);
+    }
+
+    /**Drops mappings, segments are unmapped by GC.*/
+    @Override
+    public void close() {
+        Arrays.fill(mappings, null);
+    }
+
+    /**
+     * Whether entry is a directory.
+     * @param entry -- number of entry or negative number if there is no entry
+     * @return {@code true} if entry exists and is a directory
+     */
+    private boolean isDirectory(int entry) {
+        return entry >= 0 && directories[entry];
+    }
+
+    /**
+     * Finds entry of given path.
+     * @param path -- normalized path relative to root
+     * @return number of entry or negative number if there is no entry
+     */
+    private int find(String path) {
+        int slash = path.lastIndexOf('/');
+        String key = slash < 0 ? SEPARATOR + path
+                : path.substring(0, slash) + SEPARATOR + path.substring(slash + 1);
+        return Arrays.binarySearch(keys, key);
+    }
+
+    /**
+     * Finds the first key which is not less than given one.
+     * @param key -- key to search
+     * @return number of the first such key
+     */
+    private int lowerBound(String key) {
+        int found = Arrays.binarySearch(keys, key);
+        return found >= 0 ? found : -found - 1;
+    }
+
+    /**
+     * Normalizes path given by client to {@code '/'}-separated path relative to root.
+     * @param name -- path given by client
+     * @return normalized path, empty for root, {@code null} if path leaves root
+     */
+    private static String normalize(String name) {
+        Path path = Paths.get(name).normalize();
+        if (path.isAbsolute() || path.startsWith("..")) {
+            return null;
+        }
+        return path.toString().replace(path.getFileSystem().getSeparator(), "/");
+    }
+
+    /**
+     * Converts key of entry to path.
+     * @param key -- key of entry
+     * @return {@code '/'}-separated path relative to root
+     */
+    private static String toPath(String key) {
+        int separator = key.indexOf(SEPARATOR);
+        return separator == 0 ? key.substring(1) : key.substring(0, separator) + "/" + key.substring(separator + 1);
+    }
+
+    /**
+     * Get path of data segment.
+     * @param index -- path to index file
+     * @param generation -- generation of pack, {@code -1} for packs of the first format
+     * @param segment -- number of segment
+     * @return path to segment file
+     */
+    private static Path segmentPath(Path index, long generation, int segment) {
+        String prefix = generation < 0 ? "." : "." + generation + ".";
+        return index.resolveSibling(index.getFileName() + prefix + segment);
+    }
+
+    /**
+     * Reads attributes of all files and directories of root.
+     * @param root -- path to root directory
+     * @return attributes by keys of entries
+     * @throws IOException if an error appears while reading root
+     */
+    private static Map<String, BasicFileAttributes> walk(Path root) throws IOException {
+        Map<String, BasicFileAttributes> result = new HashMap<>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (path.equals(root)) {
+                    continue;
+                }
+                Path relative = root.relativize(path);
+                Path parent = relative.getParent();
+                String key = (parent == null ? "" : parent.toString().replace(root.getFileSystem().getSeparator(), "/"))
+                        + SEPARATOR + relative.getFileName();
+                result.put(key, Files.readAttributes(path, BasicFileAttributes.class));
+            }
+        }
+        return result;
+    }
+}
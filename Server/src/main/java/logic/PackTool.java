@@ -0,0 +1,63 @@
+package logic;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Offline tool which packs read-only roots for {@code ServerSettings.setPack} and checks packs against roots.
+ * Usage: {@code PackTool pack <root> <index>} or {@code PackTool check <root> <index>}.
+ */
+public final class PackTool {
+    private PackTool() {
+    }
+
+    /**
+     * Packs root or checks pack against root. Check prints differences and exits with code 1 if there are any.
+     * @param args -- command, path to root directory and path to index of pack
+     * @throws IOException if an error appears while reading root or pack
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !args[0].equals("pack") && !args[0].equals("check")) {
+            System.err.println("Usage: PackTool pack|check <root> <index>");
+            System.exit(2);
+        }
+        Path root = Paths.get(args[1]);
+        Path index = Paths.get(args[2]);
+        if (args[0].equals("pack")) {
+            pack(root, index);
+            return;
+        }
+        List<String> differences = check(root, index);
+        for (String difference : differences) {
+            System.out.println(difference);
+        }
+        if (!differences.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Checks pack against root.
+     * @param root -- path to root directory
+     * @param index -- path to index of pack
+     * @return descriptions of differences, empty list if pack is consistent with root
+     * @throws IOException if an error appears while reading root or pack
+     */
+    public static List<String> check(Path root, Path index) throws IOException {
+        try (PackFile pack = PackFile.open(index)) {
+            return pack.check(root);
+        }
+    }
+
+    /**
+     * Packs root.
+     * @param root -- path to root directory
+     * @param index -- path to index of pack outside of root
+     * @throws IOException if an error appears while reading root or writing pack
+     */
+    public static void pack(Path root, Path index) throws IOException {
+        PackFile.pack(root, index);
+    }
+}
@@ -0,0 +1,49 @@
+package logic;
+
+/**Numbers of commands which client sends to server.*/
+final class Protocol {
+    /**Command list -- get content of directory.*/
+    static final int LIST = 1;
+    /**Command get -- get content of file.*/
+    static final int GET = 2;
+    /**Command subscribe -- get events about changes in directory until connection is closed.*/
+    static final int SUBSCRIBE = 3;
+    /**Command search -- find files and directories of the whole root by prefix, glob and size.*/
+    static final int SEARCH = 4;
+    /**Command detailed list -- get content of directory with sizes and modification times of files.*/
+    static final int LIST_DETAILED = 5;
+    /**Command archive -- get directory with all its content as zip archive sent by chunks.*/
+    static final int ARCHIVE = 6;
+    /**Command checked get -- get content of file by blocks, each followed by its checksum.*/
+    static final int GET_CHECKED = 7;
+    /**Command get block -- get one block of file with its checksum again, if it came corrupted.*/
+    static final int GET_BLOCK = 8;
+    /**Command hash -- get SHA-256 hash of content of file, so client could take it from its content store.*/
+    static final int HASH = 9;
+    /**Command digest -- get content of directory with hashes of its subtree and of its subdirectories.*/
+    static final int DIGEST = 10;
+    /**Command put -- upload content of file, which replaces the file only when it has arrived whole.*/
+    static final int PUT = 11;
+    /**Command list since -- get changes of directory since token of the previous listing or the whole listing.*/
+    static final int LIST_SINCE = 12;
+    /**Command compact list -- get content of directory as front-coded names and packed types sent by frames.*/
+    static final int LIST_COMPACT = 13;
+    /**Command echo -- server sends one byte and client sends it back at once, both sides time the round trip.*/
+    static final int ECHO = 14;
+
+    /**Names of commands by their numbers.*/
+    private static final String[] NAMES = {null, "list", "get", "subscribe", "search", "detailed list", "archive",
+            "checked get", "get block", "hash", "digest", "put", "list since", "compact list", "echo"};
+
+    private Protocol() {
+    }
+
+    /**
+     * Get name of command.
+     * @param command -- number of command
+     * @return name of command or {@code "unknown"}
+     */
+    static String name(int command) {
+        return command > 0 && command < NAMES.length ? NAMES[command] : "unknown";
+    }
+}
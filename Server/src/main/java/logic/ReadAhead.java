@@ -0,0 +1,259 @@
+package logic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Class which reads small files of a directory ahead of gets, so they are in page cache when client asks for them.
+ * Clients often list a directory and then fetch its files one by one in listing order. Every directory has
+ * a score: it grows when a listing is followed by a get of its file and halves when the listing is not followed.
+ * Files of a directory with high enough score are read by one background thread, keeping a window of files
+ * after the latest get; attributes are read through the cache of attributes, so it is warmed too.
+ * Work is strictly bounded: reads are limited by rate, files over size limit are skipped, the queue is short
+ * and drops files when it is full, and a bounded number of the latest listings is remembered.
+ */
+class ReadAhead {
+    /**Number of files which are kept read ahead of the latest get of directory.*/
+    static final int WINDOW = 16;
+    /**Score of directory from which its files are read ahead.*/
+    static final int CONFIDENT = 2;
+    /**Maximum score of directory, so directory which is not fetched anymore loses trust quickly.*/
+    private static final int MAX_SCORE = 8;
+    /**Maximum number of directories which listings are remembered.*/
+    private static final int MAX_DIRECTORIES = 64;
+    /**Maximum number of names of one listing which are remembered.*/
+    private static final int MAX_NAMES = 1024;
+    /**Maximum number of files waiting to be read.*/
+    private static final int QUEUE = 4 * WINDOW;
+    /**Time in milliseconds after listing during which gets of its files are taken as following it.*/
+    private static final long FOLLOW_MILLIS = 10_000;
+    /**Size in bytes of buffer which files are read into.*/
+    private static final int BUFFER = 64 * 1024;
+    /**Executor of reads of files and their attributes.*/
+    private final RequestHandler handler;
+    /**Maximum size in bytes of a file which is read.*/
+    private final long maxFileSize;
+    /**Limit of rate of reads.*/
+    private final TokenBucket budget;
+    /**Counters of read-ahead.*/
+    private final ServerStats stats;
+    /**Paths of files waiting to be read.*/
+    private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE);
+    /**Remembered directories by their paths, the least recently used one is forgotten first.*/
+    private final Map<String, Directory> directories = new LinkedHashMap<String, Directory>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Directory> eldest) {
+            return size() > MAX_DIRECTORIES;
+        }
+    };
+    /**Thread which reads files.*/
+    private final Thread reader;
+
+    /**Class of learned state of one directory.*/
+    private static final class Directory {
+        /**Score of listings followed by gets.*/
+        private int score;
+        /**Sorted names of files of the latest listing, {@code null} before the first listing.*/
+        private String[] names;
+        /**Time in milliseconds of the latest listing.*/
+        private long listedAt;
+        /**Whether a get followed the latest listing.*/
+        private boolean followed;
+        /**Index of the first file of the latest listing which was not scheduled yet.*/
+        private int scheduledTo;
+        /**Indices of scheduled files which were not asked for yet.*/
+        private final BitSet scheduled = new BitSet();
+    }
+
+    /**
+     * Constructs {@code ReadAhead} object and starts its thread.
+     * @param handler -- executor of reads of files
+     * @param rate -- maximum rate in bytes per second of reads
+     * @param maxFileSize -- maximum size in bytes of a file which is read
+     * @param stats -- counters of read-ahead
+     */
+    ReadAhead(RequestHandler handler, long rate, long maxFileSize, ServerStats stats) {
+        this.handler = handler;
+        this.maxFileSize = maxFileSize;
+        this.budget = new TokenBucket(rate, Math.max(BUFFER, maxFileSize));
+        this.stats = stats;
+        reader = new Thread(this::readFiles, "read-ahead");
+        reader.setDaemon(true);
+        reader.setPriority(Thread.MIN_PRIORITY);
+        reader.start();
+    }
+
+    /**
+     * Registers served listing of directory: a listing which was not followed by gets lowers score of directory,
+     * and if the score is still high, the first files of the new listing are scheduled.
+     * @param name -- path to directory given by client
+     * @param content -- content of directory sorted by names or {@code null} if it is not a directory
+     */
+    void listed(String name, Client.Element[] content) {
+        if (content == null) {
+            return;
+        }
+        List<String> files = new ArrayList<>();
+        for (Client.Element element : content) {
+            if (!element.isDirectory()) {
+                files.add(element.getName());
+                if (files.size() == MAX_NAMES) {
+                    break;
+                }
+            }
+        }
+        String key = key(name);
+        synchronized (directories) {
+            Directory directory = directories.get(key);
+            if (directory == null) {
+                directory = new Directory();
+                directories.put(key, directory);
+            } else if (directory.names != null && !directory.followed) {
+                directory.score /= 2;
+            }
+            directory.names = files.toArray(new String[0]);
+            directory.listedAt = System.currentTimeMillis();
+            directory.followed = false;
+            directory.scheduledTo = 0;
+            directory.scheduled.clear();
+            if (directory.score >= CONFIDENT) {
+                schedule(key, directory, WINDOW);
+            }
+        }
+    }
+
+    /**
+     * Registers get of file: get which follows listing of its directory raises score of directory,
+     * and if the score is high enough, files after the requested one are scheduled.
+     * @param name -- path to file given by client
+     */
+    void requested(String name) {
+        String path = key(name);
+        int slash = path.lastIndexOf('/');
+        String key = slash < 0 ? "" : path.substring(0, slash);
+        synchronized (directories) {
+            Directory directory = directories.get(key);
+            if (directory == null || directory.names == null
+                    || System.currentTimeMillis() - directory.listedAt > FOLLOW_MILLIS) {
+                return;
+            }
+            int index = Arrays.binarySearch(directory.names, path.substring(slash + 1));
+            if (index < 0) {
+                return;
+            }
+            if (directory.scheduled.get(index)) {
+                directory.scheduled.clear(index);
+                stats.readAheadHit();
+            }
+            if (!directory.followed) {
+                directory.followed = true;
+                directory.score = Math.min(MAX_SCORE, directory.score + 1);
+            }
+            if (directory.score >= CONFIDENT) {
+                directory.scheduledTo = Math.max(directory.scheduledTo, index + 1);
+                schedule(key, directory, index + 1 + WINDOW);
+            }
+        }
+    }
+
+    /**
+     * Puts files of the latest listing from the first not scheduled one up to given index into queue.
+     * Files which do not fit into queue are dropped, they are read as usual when they are asked for.
+     * @param key -- path to directory
+     * @param directory -- state of directory
+     * @param to -- index after the last file which should be scheduled
+     */
+    private void schedule(String key, Directory directory, int to) {
+        int end = Math.min(to, directory.names.length);
+        String prefix = key.isEmpty() ? "" : key + "/";
+        for (int i = directory.scheduledTo; i < end; i++) {
+            if (queue.offer(prefix + directory.names[i])) {
+                directory.scheduled.set(i);
+            } else {
+                stats.readAheadDropped();
+            }
+        }
+        directory.scheduledTo = Math.max(directory.scheduledTo, end);
+    }
+
+    /**Reads scheduled files until thread is interrupted.*/
+    private void readFiles() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                String name = queue.take();
+                try {
+                    read(name, buffer);
+                } catch (IOException ignored) {
+                    // file was removed or could not be read, get will report it if it is asked for
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads attributes and content of file, taking tokens of rate for its size.
+     * @param name -- path to file relative to root
+     * @param buffer -- reused buffer to read into
+     * @throws IOException if file could not be read
+     * @throws InterruptedException if thread was interrupted while waiting for tokens
+     */
+    private void read(String name, ByteBuffer buffer) throws IOException, InterruptedException {
+        if (Uploads.isTemporary(name)) {
+            return;
+        }
+        AttributeCache.Entry attributes = handler.cachedAttributes(name);
+        if (attributes != null && !attributes.isFile()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(handler.resolve(name), StandardOpenOption.READ)) {
+            long size = attributes == null ? channel.size() : attributes.size();
+            if (size > maxFileSize) {
+                stats.readAheadDropped();
+                return;
+            }
+            budget.acquire(size);
+            buffer.clear();
+            while (channel.read(buffer) > 0) {
+                buffer.clear();
+            }
+            stats.readAhead(size);
+        }
+    }
+
+    /**
+     * Converts path given by client to key of directories.
+     * @param name -- path given by client
+     * @return {@code '/'}-separated path without leading and trailing separators, empty for root
+     */
+    private static String key(String name) {
+        String key = name.replace('\\', '/');
+        int start = 0;
+        int end = key.length();
+        while (start < end && key.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && key.charAt(end - 1) == '/') {
+            end--;
+        }
+        return key.substring(start, end);
+    }
+
+    /**Stops thread of reads, scheduled files are dropped.*/
+    void shutdown() {
+        reader.interrupt();
+        queue.clear();
+    }
+}
@@ -0,0 +1,438 @@
+package logic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class which executes requests of clients independently of how they are delivered.
+ * {@code RunnableTask} sends its results over connections, embedded {@code Client} calls it directly.
+ */
+class RequestHandler implements Closeable {
+    /**Path to root directory.*/
+    private final Path root;
+    /**Pack of root which answers listings and gets, {@code null} if files are read from root.*/
+    private final PackFile pack;
+    /**Watcher of directories, created by the first subscription.*/
+    private DirectoryWatcher watcher;
+    /**Index of the whole root, created by the first search or at server's start.*/
+    private TreeIndex index;
+    /**Merkle tree of root, created by the first request of digest.*/
+    private DirectoryDigests digests;
+    /**Hashes of content of files which were asked for.*/
+    private final ContentHashes hashes = new ContentHashes(10_000);
+    /**Maximum number of remembered resolved paths, all of them are forgotten when it is exceeded.*/
+    static final int RESOLVED_CAPACITY = 10_000;
+    /**Resolved paths by names given by clients, so a repeated request does not parse its path again.*/
+    private final Map<String, Path> resolved = new ConcurrentHashMap<>();
+    /**Cache of attributes of requested files, {@code null} if gets read attributes every time.*/
+    private volatile AttributeCache attributes;
+    /**Maximum number of changes kept for one listed directory, {@code 0} if listings are always whole.*/
+    private int journalCapacity;
+    /**Counters of directories which could not be watched for journals.*/
+    private ServerStats journalStats;
+    /**Journals of changes of listed directories, created by the first listing since token.*/
+    private ListingJournal journal;
+    /**Uploads into root, {@code null} if they are rejected.*/
+    private volatile Uploads uploads;
+
+    /**
+     * Constructs {@code RequestHandler} object by path to root directory.
+     * @param root -- path to root directory
+     */
+    RequestHandler(Path root) {
+        this(root, null);
+    }
+
+    /**
+     * Constructs {@code RequestHandler} object by path to root directory and its pack.
+     * @param root -- path to root directory
+     * @param pack -- pack of root which answers listings and gets, {@code null} to read files from root
+     */
+    RequestHandler(Path root, PackFile pack) {
+        this.root = root;
+        this.pack = pack;
+    }
+
+    /**
+     * Resolves path given by client against root directory.
+     * Resolved paths are remembered, names read by {@code NameReader} are the same objects,
+     * so a repeated request finds its path by reference comparison.
+     * @param name -- path given by client
+     * @return resolved path
+     */
+    Path resolve(String name) {
+        Path path = resolved.get(name);
+        if (path == null) {
+            if (resolved.size() >= RESOLVED_CAPACITY) {
+                resolved.clear();
+            }
+            path = root.resolve(name);
+            resolved.put(name, path);
+        }
+        return path;
+    }
+
+    /**
+     * Get list of files in given directory sorted by names, with their sizes and modification times.
+     * @param name -- path to directory relative to root
+     * @return content of directory or {@code null} if it is not a directory
+     * @throws IOException if an error appears while reading directory
+     */
+    Client.Element[] list(String name) throws IOException {
+        Object trace = Tracing.begin(Tracing.FILE_LIST);
+        Client.Element[] result = listEntries(name);
+        Tracing.fileList(trace, name, result == null ? -1 : result.length);
+        return result;
+    }
+
+    /**
+     * Reads content of given directory from pack or file system.
+     * @param name -- path to directory relative to root
+     * @return content of directory or {@code null} if it is not a directory
+     * @throws IOException if an error appears while reading directory
+     */
+    private Client.Element[] listEntries(String name) throws IOException {
+        if (pack != null) {
+            return pack.list(name);
+        }
+        Path dir = resolve(name);
+        if (!Files.isDirectory(dir)) {
+            return null;
+        }
+        // Paths have the same parent, so they are sorted as names without taking names for every comparison.
+        List<Path> content = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(dir)) {
+            for (Path inside : paths) {
+                if (!Uploads.isTemporary(inside.getFileName().toString())) {
+                    content.add(inside);
+                }
+            }
+        }
+        Collections.sort(content);
+        Client.Element[] result = new Client.Element[content.size()];
+        for (int i = 0; i < result.length; i++) {
+            Path inside = content.get(i);
+            String fileName = inside.getFileName().toString();
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(inside, BasicFileAttributes.class);
+                result[i] = new Client.Element(fileName, attributes.isDirectory(),
+                        attributes.isDirectory() ? 0 : attributes.size(), attributes.lastModifiedTime().toMillis());
+            } catch (NoSuchFileException e) {
+                result[i] = new Client.Element(fileName, false);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get listing of directory since token of the previous one: only changed files if they are known,
+     * otherwise the whole listing. Pack is not changed and journals could be disabled, then listing is always whole.
+     * @param name -- path to directory relative to root
+     * @param token -- token of the previous listing, {@code 0} for the first one
+     * @return listing with new token or {@code null} if it is not a directory
+     * @throws IOException if watcher could not be created or directory could not be listed
+     */
+    ListingDelta listSince(String name, long token) throws IOException {
+        ListingJournal current = journal();
+        if (current == null) {
+            Client.Element[] content = list(name);
+            return content == null ? null : ListingDelta.full(0, content);
+        }
+        return current.since(name, token);
+    }
+
+    /**
+     * Enables journals of changes of listed directories.
+     * @param capacity -- maximum number of changes kept for one directory, {@code 0} to always list whole
+     * @param stats -- counters of directories which could not be watched
+     */
+    synchronized void setListingJournal(int capacity, ServerStats stats) {
+        journalCapacity = capacity;
+        journalStats = stats;
+    }
+
+    /**
+     * Get journals of changes of listed directories, creating them if needed.
+     * @return journals or {@code null} if they are disabled or root is served from pack
+     * @throws IOException if watcher could not be created
+     */
+    private synchronized ListingJournal journal() throws IOException {
+        if (journal == null && journalCapacity > 0 && pack == null) {
+            journal = new ListingJournal(root, this, journalCapacity, watcher(), journalStats);
+        }
+        return journal;
+    }
+
+    /**
+     * Opens given file for sending.
+     * @param name -- path to file relative to root
+     * @return opened file or {@code null} if there is no such file
+     * @throws IOException if an error appears while opening file
+     */
+    FileBody open(String name) throws IOException {
+        Object trace = Tracing.begin(Tracing.FILE_OPEN);
+        FileBody body = openFile(name);
+        Tracing.fileOpen(trace, name, body == null ? -1 : body.size());
+        return body;
+    }
+
+    /**
+     * Opens given file of pack or file system.
+     * @param name -- path to file relative to root
+     * @return opened file or {@code null} if there is no such file
+     * @throws IOException if an error appears while opening file
+     */
+    private FileBody openFile(String name) throws IOException {
+        if (pack != null) {
+            return pack.open(name, root);
+        }
+        if (Uploads.isTemporary(name)) {
+            return null;
+        }
+        Path file = resolve(name);
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (attributes.isDirectory()) {
+                return null;
+            }
+            return new FileBody(file, FileChannel.open(file, StandardOpenOption.READ), attributes.size(),
+                    attributes.lastModifiedTime().toMillis());
+        } catch (NoSuchFileException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Enables cache of attributes of files for gets and of listings for list requests, subscribing it to changes
+     * of the whole root at once, so no request waits for the watch. Pack is not changed, so its files are never
+     * cached.
+     * @param ttlMillis -- time in milliseconds for which attributes are kept, {@code 0} to disable cache
+     * @param capacity -- maximum number of cached files and of cached listings
+     * @param stats -- counters of hits and misses
+     * @throws IOException if root could not be watched, then gets read attributes every time
+     */
+    synchronized void setAttributeCache(long ttlMillis, int capacity, ServerStats stats) throws IOException {
+        if (ttlMillis > 0 && pack == null) {
+            attributes = new AttributeCache(root, ttlMillis, capacity, this::list, watcher(), stats);
+        }
+    }
+
+    /**
+     * Get attributes of file for get from cache, reading them only if they are not cached.
+     * Attributes could be stale for up to time to live of cache, if change of the file was not reported yet.
+     * @param name -- path to file relative to root
+     * @return attributes or {@code null} if cache is disabled or it is a temporary file of upload
+     * @throws IOException if attributes could not be read
+     */
+    AttributeCache.Entry cachedAttributes(String name) throws IOException {
+        AttributeCache cache = attributes;
+        return cache == null || Uploads.isTemporary(name) ? null : cache.get(name, resolve(name));
+    }
+
+    /**
+     * Get list of files in given directory for list request from cache, listing it only if it is not cached.
+     * Listing could be stale for up to time to live of cache, if change of the directory was not reported yet.
+     * Returned array is shared by requests, so it must not be changed.
+     * @param name -- path to directory relative to root
+     * @return content of directory or {@code null} if it is not a directory
+     * @throws IOException if an error appears while reading directory
+     */
+    Client.Element[] cachedList(String name) throws IOException {
+        AttributeCache cache = attributes;
+        return cache == null ? list(name) : cache.list(name);
+    }
+
+    /**
+     * Opens file with known attributes, so file system is not asked for them again.
+     * @param name -- path to file relative to root
+     * @param attributes -- attributes of existing file taken from cache
+     * @return opened file or {@code null} if the file was removed since attributes were read
+     * @throws IOException if an error appears while opening file
+     */
+    FileBody open(String name, AttributeCache.Entry attributes) throws IOException {
+        Object trace = Tracing.begin(Tracing.FILE_OPEN);
+        Path file = resolve(name);
+        FileBody body;
+        try {
+            body = new FileBody(file, FileChannel.open(file, StandardOpenOption.READ), attributes.size(),
+                    attributes.lastModified());
+        } catch (NoSuchFileException e) {
+            this.attributes.forget(name);
+            body = null;
+        }
+        Tracing.fileOpen(trace, name, body == null ? -1 : body.size());
+        return body;
+    }
+
+    /**
+     * Enables uploads into root. Pack is read-only, so uploads are never enabled for it.
+     * @param enabled -- whether uploads are accepted
+     * @param stats -- counters of uploads
+     */
+    void setUploads(boolean enabled, ServerStats stats) {
+        uploads = enabled && pack == null ? new Uploads(root, stats) : null;
+    }
+
+    /**
+     * Starts or continues upload of file.
+     * @param name -- path to file relative to root
+     * @param size -- size of the whole content in bytes
+     * @param hash -- expected SHA-256 hash of content, {@code null} if it is not checked
+     * @return session of upload or {@code null} if upload is rejected
+     * @throws IOException if temporary file could not be created
+     */
+    Uploads.Upload beginUpload(String name, long size, byte[] hash) throws IOException {
+        Uploads current = uploads;
+        return current == null ? null : current.begin(name, size, hash);
+    }
+
+    /**
+     * Finishes session of upload, forgetting cached attributes of the replaced file.
+     * @param name -- path to file relative to root
+     * @param upload -- session of upload
+     * @return {@code Uploads.COMMITTED}, {@code Uploads.PARTIAL} or {@code Uploads.CORRUPTED}
+     * @throws IOException if the file could not be replaced
+     */
+    byte finishUpload(String name, Uploads.Upload upload) throws IOException {
+        byte result = upload.finish();
+        AttributeCache cache = attributes;
+        if (result == Uploads.COMMITTED && cache != null) {
+            cache.forget(name);
+        }
+        return result;
+    }
+
+    /**
+     * Get SHA-256 hash of content of given file. Hash is computed once for each version of file.
+     * @param name -- path to file relative to root
+     * @return hash or {@code null} if it is not a file
+     * @throws IOException if the file could not be read
+     */
+    byte[] hash(String name) throws IOException {
+        try (FileBody body = open(name)) {
+            return body == null ? null : hash(body);
+        }
+    }
+
+    /**
+     * Get SHA-256 hash of content of opened file.
+     * @param body -- opened file
+     * @return hash of content
+     * @throws IOException if the file could not be read
+     */
+    byte[] hash(FileBody body) throws IOException {
+        return hashes.hash(body);
+    }
+
+    /**
+     * Subscribes to changes of given directory.
+     * @param name -- path to directory relative to root
+     * @param recursive -- whether changes in subdirectories are needed too
+     * @return subscription which should be closed when changes are not needed anymore,
+     * {@code null} if it is not a directory
+     * @throws IOException if directory could not be watched
+     */
+    Subscription subscribe(String name, boolean recursive) throws IOException {
+        Path dir = resolve(name);
+        if (!Files.isDirectory(dir)) {
+            return null;
+        }
+        Subscription subscription = new Subscription();
+        subscription.setWatch(watcher().watch(dir, recursive, subscription));
+        return subscription;
+    }
+
+    /**
+     * Finds files and directories of the whole root.
+     * @param query -- filters of paths and sizes
+     * @return matches sorted by paths
+     * @throws IOException if index could not be built
+     */
+    List<Client.Match> search(SearchQuery query) throws IOException {
+        return index().search(query);
+    }
+
+    /**
+     * Get index of the whole root, starting to build it if needed.
+     * @return {@code TreeIndex} object which is updated by changes of root
+     * @throws IOException if root could not be watched
+     */
+    synchronized TreeIndex index() throws IOException {
+        if (index == null) {
+            index = new TreeIndex(root, watcher());
+        }
+        return index;
+    }
+
+    /**
+     * Get digest of directory, which covers its whole subtree.
+     * @param name -- path to directory relative to root
+     * @return digest or {@code null} if it is not a directory
+     * @throws IOException if root could not be watched or directories could not be listed
+     */
+    DirectoryDigest digest(String name) throws IOException {
+        return digests().digest(name);
+    }
+
+    /**
+     * Get Merkle tree of root, creating it if needed. Pack is not changed, so it is not watched.
+     * @return {@code DirectoryDigests} object which is updated by changes of root
+     * @throws IOException if root could not be watched
+     */
+    private synchronized DirectoryDigests digests() throws IOException {
+        if (digests == null) {
+            digests = new DirectoryDigests(root, this, pack == null ? watcher() : null);
+        }
+        return digests;
+    }
+
+    /**
+     * Get watcher of directories, creating it if needed.
+     * @return {@code DirectoryWatcher} object shared by all subscriptions
+     * @throws IOException if watcher could not be created
+     */
+    private synchronized DirectoryWatcher watcher() throws IOException {
+        if (watcher == null) {
+            watcher = new DirectoryWatcher();
+        }
+        return watcher;
+    }
+
+    /**
+     * Stops watching directories and updating index, releases pack.
+     * @throws IOException if watcher could not be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (pack != null) {
+            pack.close();
+        }
+        if (index != null) {
+            index.close();
+        }
+        if (digests != null) {
+            digests.close();
+        }
+        if (attributes != null) {
+            attributes.close();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+}
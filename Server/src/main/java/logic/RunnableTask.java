@@ -1,95 +1,810 @@
 package logic;
 
-import org.apache.commons.io.IOUtils;
-
 import java.io.*;
-import java.net.Socket;
-import java.nio.file.Files;
-import java.nio.file.NoSuchFileException;
-import java.nio.file.Path;
-import java.util.Comparator;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.Checksum;
 
 /**Class which represents one task of one client.*/
 class RunnableTask implements Runnable {
-    /**Path to root directory for this particular task.*/
-    private Path path;
+    /**Logger for timeouts of connection.*/
+    private static final Logger LOG = Logger.getLogger(RunnableTask.class.getName());
+    /**Time in milliseconds after which empty batch of changes is sent to check that subscriber is alive.*/
+    static final long HEARTBEAT_MILLIS = 30_000;
+    /**Minimum size in bytes of block of checked get.*/
+    static final int MIN_CHECKED_BLOCK = 4 * 1024;
+    /**Maximum size in bytes of block of checked get.*/
+    static final int MAX_CHECKED_BLOCK = 4 * 1024 * 1024;
+    /**Server which has accepted the client.*/
+    private final Server server;
     /**logic.Client which hash sent this task to server.*/
-    private Socket client;
+    private Connection client;
+    /**Time in nanoseconds of the end of last request or of the connection start.*/
+    private volatile long lastActivity = System.nanoTime();
+    /**Time in nanoseconds of the start of current request.*/
+    private volatile long requestStart;
+    /**Whether some request is being handled now.*/
+    private volatile boolean busy;
+    /**Whether connection was closed by server's reaper.*/
+    private volatile boolean aborted;
+    /**Whether connection is used to send changes of directory, so it is never idle.*/
+    private volatile boolean subscribed;
+    /**Bandwidth limiter of this connection.*/
+    private Shaper shaper;
+    /**Reader of paths sent by the client, which does not allocate names asked for again.*/
+    private final NameReader names = new NameReader();
+    /**Encoder of compact listings, which reuses its buffer.*/
+    private final ListingCodec listings = new ListingCodec();
+    /**Reused buffer for content of uploads, created by the first put.*/
+    private byte[] uploadBuffer;
 
     /**
-     * Constructs new {@code logic.RunnableTask} object by a path to root directory and a clientSocket.
-     * @param path -- path to root directory
+     * Constructs new {@code logic.RunnableTask} object by a server and a client's connection.
+     * @param server -- server which has accepted the client
      * @param client -- client which has given this task
      */
-    RunnableTask(Path path, Socket client) {
-        this.path = path;
+    RunnableTask(Server server, Connection client) {
+        this.server = server;
         this.client = client;
     }
 
+    /**
+     * Whether some request is being handled now.
+     * @return {@code true} if task is handling request and {@code false} if it waits for the next one
+     */
+    boolean isBusy() {
+        return busy;
+    }
+
+    /**
+     * Whether connection is used to send changes of directory.
+     * @return {@code true} if client has subscribed to changes
+     */
+    boolean isSubscribed() {
+        return subscribed;
+    }
+
+    /**
+     * Get time passed since the end of last request.
+     * @param now -- current time in nanoseconds
+     * @return time in milliseconds
+     */
+    long millisSinceActivity(long now) {
+        return TimeUnit.NANOSECONDS.toMillis(now - lastActivity);
+    }
+
+    /**
+     * Get time passed since the start of current request.
+     * @param now -- current time in nanoseconds
+     * @return time in milliseconds
+     */
+    long millisSinceRequestStart(long now) {
+        return TimeUnit.NANOSECONDS.toMillis(now - requestStart);
+    }
+
+    /**
+     * Get address of the client.
+     * @return address of the client's socket
+     */
+    Object getRemoteAddress() {
+        return client.getRemoteAddress();
+    }
+
+    /**
+     * Marks the connection as closed by server's reaper and unregisters it.
+     * @return {@code true} if connection was marked by this call and {@code false} if it was marked before
+     */
+    synchronized boolean markAborted() {
+        if (aborted) {
+            return false;
+        }
+        aborted = true;
+        server.taskFinished(this);
+        return true;
+    }
+
+    /**Closes the connection from other thread, so blocked reading or writing fails at once.*/
+    void closeConnection() {
+        try {
+            client.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**Class of stream of answers which counts bytes of every answer.*/
+    private static final class AnswerStream extends DataOutputStream {
+        /**
+         * Constructs {@code AnswerStream} object over stream of connection.
+         * @param out -- stream of connection
+         */
+        AnswerStream(OutputStream out) {
+            super(out);
+        }
+
+        /**
+         * Get number of bytes written since the previous call and starts counting again.
+         * @return number of written bytes
+         */
+        int takeWritten() {
+            int count = written;
+            written = 0;
+            return count;
+        }
+    }
+
+    /**
+     * Sends list of files in given directory. Listing is made in the fast lane and sent outside of it,
+     * then read-ahead learns about it.
+     * @param name -- path to directory relative to root
+     * @param out -- stream to send answer to
+     * @return {@code false} if directory does not exist and connection should be closed
+     * @throws IOException if an error appears while working with files or streams
+     */
+    private boolean list(String name, DataOutputStream out) throws IOException {
+        Client.Element[] content = server.getFastLane().run(() -> server.getHandler().cachedList(name));
+        if (content == null) {
+            out.writeInt(0);
+            return false;
+        }
+        out.writeInt(content.length);
+        for (Client.Element inside : content) {
+            out.writeUTF(inside.getName());
+            out.writeBoolean(inside.isDirectory());
+        }
+        listed(name, content);
+        return true;
+    }
+
+    /**
+     * Sends list of files in given directory in compact format: client gives the newest format it reads, server
+     * answers the format it chose by {@code ListingCodec.choose}, then the listing follows by frames, each written
+     * by one call. If there is no common format, only {@code ListingCodec.NONE} is sent and client lists
+     * by the plain list command. {@code -1} is sent instead of number of files if it is not a directory.
+     * Listing is made in the fast lane and sent outside of it.
+     * @param name -- path to directory relative to root
+     * @param format -- format of listing which client reads
+     * @param out -- stream to send answer to
+     * @return always {@code true}
+     * @throws IOException if an error appears while working with files or streams
+     */
+    private boolean listCompact(String name, byte format, DataOutputStream out) throws IOException {
+        if (ListingCodec.choose(format) == ListingCodec.NONE) {
+            out.writeByte(ListingCodec.NONE);
+            return true;
+        }
+        Client.Element[] content = server.getFastLane().run(() -> server.getHandler().cachedList(name));
+        listings.write(content, out);
+        listed(name, content);
+        return true;
+    }
+
+    /**
+     * Tells read-ahead about sent listing, if it is enabled.
+     * @param name -- path to directory relative to root
+     * @param content -- content of directory or {@code null} if it is not a directory
+     */
+    private void listed(String name, Client.Element[] content) {
+        ReadAhead readAhead = server.getReadAhead();
+        if (readAhead != null) {
+            readAhead.listed(name, content);
+        }
+    }
+
+    /**
+     * Sends list of files in given directory with their sizes and modification times.
+     * Listing is made in the fast lane and sent outside of it.
+     * @param name -- path to directory relative to root
+     * @param out -- stream to send answer to
+     * @return always {@code true}, {@code -1} is sent instead of size of list if it is not a directory
+     * @throws IOException if an error appears while working with files or streams
+     */
+    private boolean listDetailed(String name, DataOutputStream out) throws IOException {
+        Client.Element[] content = server.getFastLane().run(() -> server.getHandler().cachedList(name));
+        if (content == null) {
+            out.writeInt(-1);
+            return true;
+        }
+        out.writeInt(content.length);
+        for (Client.Element inside : content) {
+            out.writeUTF(inside.getName());
+            out.writeBoolean(inside.isDirectory());
+            out.writeLong(inside.getSize());
+            out.writeLong(inside.getLastModified());
+        }
+        return true;
+    }
+
+    /**
+     * Sends listing of given directory since token: {@code true} and the listing or {@code false} if it is not
+     * a directory. Listing is made in the fast lane and sent outside of it, it holds only changed files
+     * if journal covers the token.
+     * @param name -- path to directory relative to root
+     * @param token -- token of the previous listing, {@code 0} for the first one
+     * @param out -- stream to send answer to
+     * @return always {@code true}
+     * @throws IOException if an error appears while working with files or streams
+     */
+    private boolean listSince(String name, long token, DataOutputStream out) throws IOException {
+        ListingDelta listing = server.getFastLane().run(() -> server.getHandler().listSince(name, token));
+        out.writeBoolean(listing != null);
+        if (listing != null) {
+            listing.write(out);
+        }
+        return true;
+    }
+
+    /**
+     * Sends content of given file.
+     * Small files are read in the fast lane, big files -- in the bulk lane, portion by portion, and every portion
+     * is sent outside of the lane, so a slow client does not hold a slot.
+     * Connections which ask for the same big file at the same time share one read of it, which is made
+     * by its own reader, so they do not take slots for it.
+     * If mapped serving is enabled, big files are sent from mapped windows without opening them.
+     * Read-ahead is told about the get before it is served, so the next files are read meanwhile.
+     * @param name -- path to file relative to root
+     * @param out -- stream to send answer to
+     * @return always {@code true}
+     * @throws IOException if an error appears while working with files or streams
+     */
+    private boolean get(String name, DataOutputStream out) throws IOException {
+        if (Uploads.isTemporary(name)) {
+            return sendMissing(out);
+        }
+        ReadAhead readAhead = server.getReadAhead();
+        if (readAhead != null) {
+            readAhead.requested(name);
+        }
+        RequestHandler handler = server.getHandler();
+        AttributeCache.Entry attributes = handler.cachedAttributes(name);
+        if (attributes != null && !attributes.isFile()) {
+            return sendMissing(out);
+        }
+        MappedFiles mapped = server.getMappedFiles();
+        if (mapped != null) {
+            MappedFiles.Lease lease = attributes == null ? mapped.acquire(handler.resolve(name))
+                    : mapped.acquire(handler.resolve(name), attributes.size(), attributes.lastModified());
+            if (lease != null) {
+                try {
+                    out.writeInt((int) lease.size());
+                    lease.send(shaper, out, server.getBulkLane());
+                    return true;
+                } finally {
+                    lease.close();
+                }
+            }
+        }
+        FileBody body = attributes == null ? handler.open(name) : handler.open(name, attributes);
+        if (body == null) {
+            return sendMissing(out);
+        }
+        try {
+            out.writeInt((int) body.size());
+            if (!server.getSharedReads().isShared(body)) {
+                shaper.copy(body, out, lane(body));
+                return true;
+            }
+            try (InputStream content = server.getSharedReads().open(body)) {
+                shaper.copy(content, out, null);
+            }
+            return true;
+        } finally {
+            body.close();
+        }
+    }
+
+    /**
+     * Chooses lane of reads of given file by its size.
+     * @param body -- opened file
+     * @return bulk lane for big files, fast lane for small ones
+     */
+    private Lane lane(FileBody body) {
+        return body.size() > server.getSettings().getSmallFileThreshold()
+                ? server.getBulkLane() : server.getFastLane();
+    }
+
+    /**
+     * Sends answer of get for missing file, which is the same as for empty one.
+     * @param out -- stream to send answer to
+     * @return always {@code true}
+     * @throws IOException if an error appears while writing
+     */
+    private boolean sendMissing(DataOutputStream out) throws IOException {
+        out.writeInt(0);
+        return true;
+    }
+
+    /**
+     * Sends content of given file by blocks, each followed by its checksum, so client could verify it
+     * while it arrives and ask again only for corrupted blocks.
+     * Header of answer is size, modification time, used algorithm and size of block.
+     * Lanes of reads are chosen as for {@code get}, missing file is sent as empty one.
+     * @param name -- path to file relative to root
+     * @param algorithm -- checksum algorithm which client asks for
+     * @param blockSize -- size of block which client asks for
+     * @param out -- stream to send answer to
+     * @return always {@code true}
+     * @throws IOException if an error appears while working with files or streams
+     */
+    private boolean getChecked(String name, byte algorithm, int blockSize, DataOutputStream out) throws IOException {
+        byte used = Checksums.agree(algorithm);
+        int block = Math.max(MIN_CHECKED_BLOCK, Math.min(MAX_CHECKED_BLOCK, blockSize));
+        FileBody body = server.getHandler().open(name);
+        if (body == null) {
+            out.writeInt(0);
+            out.writeLong(0);
+            out.writeByte(used);
+            out.writeInt(block);
+            return true;
+        }
+        try {
+            out.writeInt((int) body.size());
+            out.writeLong(body.lastModified());
+            out.writeByte(used);
+            out.writeInt(block);
+            Lane lane = server.getSharedReads().isShared(body) ? null : lane(body);
+            try (InputStream content = server.getSharedReads().open(body)) {
+                sendBlocks(content, body.size(), used, block, lane, out);
+            }
+            return true;
+        } finally {
+            body.close();
+        }
+    }
+
+    /**
+     * Sends one block of given file with its checksum again. Block is read in the fast lane.
+     * {@code -1} is sent instead of length if file was changed since the checked get or block is out of it.
+     * @param name -- path to file relative to root
+     * @param lastModified -- modification time of the file given by the checked get
+     * @param algorithm -- checksum algorithm given by the checked get
+     * @param offset -- position of block in the file
+     * @param length -- size of block
+     * @param out -- stream to send answer to
+     * @return always {@code true}
+     * @throws IOException if an error appears while working with files or streams
+     */
+    private boolean getBlock(String name, long lastModified, byte algorithm, long offset, int length,
+                             DataOutputStream out) throws IOException {
+        byte used = Checksums.agree(algorithm);
+        try (FileBody body = server.getHandler().open(name)) {
+            if (body == null || body.lastModified() != lastModified || offset < 0 || length <= 0
+                    || length > MAX_CHECKED_BLOCK || offset + length > body.size()) {
+                out.writeInt(-1);
+                return true;
+            }
+            out.writeInt(length);
+            try (InputStream content = body.stream(offset)) {
+                sendBlocks(content, length, used, length, server.getFastLane(), out);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sends content by blocks, computing checksum of each block while it is sent.
+     * Every block is read in the lane, which is left before the block is sent.
+     * @param content -- stream of content
+     * @param size -- number of bytes to send
+     * @param algorithm -- checksum algorithm
+     * @param block -- size of block
+     * @param lane -- lane of reads, {@code null} if the stream does not read disk by the calling thread
+     * @param out -- stream to send blocks to
+     * @throws IOException if content ends before {@code size} bytes or an error appears while writing
+     */
+    private void sendBlocks(InputStream content, long size, byte algorithm, int block, Lane lane,
+                            DataOutputStream out) throws IOException {
+        Checksum checksum = Checksums.create(algorithm);
+        byte[] buffer = new byte[(int) Math.min(block, size)];
+        long left = size;
+        while (left > 0) {
+            int length = (int) Math.min(block, left);
+            if (lane == null) {
+                readBlock(content, buffer, length);
+            } else {
+                lane.enter();
+                try {
+                    readBlock(content, buffer, length);
+                } finally {
+                    lane.leave();
+                }
+            }
+            checksum.reset();
+            checksum.update(buffer, 0, length);
+            shaper.copy(ByteBuffer.wrap(buffer, 0, length), out);
+            out.writeInt((int) checksum.getValue());
+            left -= length;
+        }
+    }
+
+    /**
+     * Reads one block of content.
+     * @param content -- stream of content
+     * @param buffer -- buffer to read block to
+     * @param length -- size of block
+     * @throws IOException if content ends before {@code length} bytes or an error appears while reading
+     */
+    private static void readBlock(InputStream content, byte[] buffer, int length) throws IOException {
+        int position = 0;
+        while (position < length) {
+            int count = content.read(buffer, position, length - position);
+            if (count < 0) {
+                throw new EOFException("File became shorter while it was sent");
+            }
+            position += count;
+        }
+    }
+
+    /**
+     * Sends SHA-256 hash of content of given file: its length and bytes, {@code 0} if it is not a file.
+     * Hash of a big file which was not hashed yet is computed in the bulk lane, others -- in the fast lane,
+     * it is sent outside of the lane.
+     * @param name -- path to file relative to root
+     * @param out -- stream to send answer to
+     * @return always {@code true}
+     * @throws IOException if an error appears while working with files or streams
+     */
+    private boolean hash(String name, DataOutputStream out) throws IOException {
+        FileBody body = server.getHandler().open(name);
+        if (body == null) {
+            out.writeInt(0);
+            return true;
+        }
+        byte[] hash;
+        try {
+            hash = lane(body).run(() -> server.getHandler().hash(body));
+        } finally {
+            body.close();
+        }
+        out.writeInt(hash.length);
+        out.write(hash);
+        return true;
+    }
+
+    /**
+     * Sends digest of given directory: {@code true} and the digest or {@code false} if it is not a directory.
+     * Digest is made in the fast lane and sent outside of it, kept digests are sent without listing the directory.
+     * @param name -- path to directory relative to root
+     * @param out -- stream to send answer to
+     * @return always {@code true}
+     * @throws IOException if an error appears while working with files or streams
+     */
+    private boolean digest(String name, DataOutputStream out) throws IOException {
+        DirectoryDigest digest = server.getFastLane().run(() -> server.getHandler().digest(name));
+        out.writeBoolean(digest != null);
+        if (digest != null) {
+            digest.write(out);
+        }
+        return true;
+    }
+
+    /**
+     * Sends files and directories of the whole root which match query.
+     * Search is made in the fast lane and sent outside of it.
+     * @param query -- filters of paths and sizes
+     * @param out -- stream to send answer to
+     * @return always {@code true}
+     * @throws IOException if an error appears while working with index or streams
+     */
+    private boolean search(SearchQuery query, DataOutputStream out) throws IOException {
+        List<Client.Match> matches = server.getFastLane().run(() -> server.getHandler().search(query));
+        out.writeInt(matches.size());
+        for (Client.Match match : matches) {
+            out.writeUTF(match.getPath());
+            out.writeBoolean(match.isDirectory());
+            out.writeLong(match.getSize());
+        }
+        return true;
+    }
+
+    /**
+     * Sends directory with all its content as zip archive, which is made while walking the directory.
+     * Archive is made in the bulk lane and sent by chunks outside of it, empty stream is sent if it is not
+     * a directory. If writing fails in the middle, connection is closed without the end mark, so client could
+     * not take truncated archive for the whole one.
+     * @param name -- path to directory relative to root
+     * @param compress -- whether entries are compressed
+     * @param out -- stream to send answer to
+     * @return always {@code true}
+     * @throws IOException if an error appears while working with files or streams
+     */
+    private boolean archive(String name, boolean compress, DataOutputStream out) throws IOException {
+        ChunkedOutputStream chunks = new ChunkedOutputStream(out, shaper, server.getSettings().getTransferChunk(),
+                server.getBulkLane());
+        try {
+            server.getArchiveWriter().write(server.getHandler(), name, compress, chunks);
+            chunks.close();
+        } finally {
+            chunks.release();
+        }
+        return true;
+    }
+
+    /**
+     * Receives content of given file and replaces the file by it when the whole content has arrived.
+     * Header of request is size and optional SHA-256 hash of content. Server answers whether upload is accepted
+     * and how many bytes of it were received by earlier attempts, then client sends the rest by chunks
+     * ended by empty one, and server answers result and number of received bytes.
+     * Content is written to disk by the connection's thread while it is read, through one reused buffer,
+     * so memory does not depend on size of file; read timeout applies to every chunk.
+     * @param name -- path to file relative to root
+     * @param size -- size of the whole content in bytes
+     * @param hash -- expected SHA-256 hash of content, {@code null} if it is not checked
+     * @param in -- stream to read content from
+     * @param out -- stream to send answers to
+     * @return always {@code true}
+     * @throws IOException if an error appears while working with files or streams
+     */
+    private boolean put(String name, long size, byte[] hash, DataInputStream in, DataOutputStream out)
+            throws IOException {
+        RequestHandler handler = server.getHandler();
+        Uploads.Upload upload = handler.beginUpload(name, size, hash);
+        if (upload == null) {
+            out.writeByte(Uploads.REJECTED);
+            out.writeLong(0);
+            return true;
+        }
+        try {
+            out.writeByte(Uploads.ACCEPTED);
+            out.writeLong(upload.received());
+            out.flush();
+            if (uploadBuffer == null) {
+                uploadBuffer = new byte[server.getSettings().getTransferChunk()];
+            }
+            ByteBuffer view = ByteBuffer.wrap(uploadBuffer);
+            int length;
+            while ((length = in.readInt()) != 0) {
+                if (length < 0) {
+                    throw new IOException("Invalid length of chunk of upload: " + length);
+                }
+                while (length > 0) {
+                    int count = Math.min(length, uploadBuffer.length);
+                    in.readFully(uploadBuffer, 0, count);
+                    view.clear();
+                    view.limit(count);
+                    upload.write(view);
+                    length -= count;
+                }
+            }
+            out.writeByte(handler.finishUpload(name, upload));
+            out.writeLong(upload.received());
+            return true;
+        } finally {
+            upload.close();
+        }
+    }
+
+    /**
+     * Subscribes to changes of given directory and sends them until connection is closed.
+     * Answers {@code false} and continues to handle commands if it is not a directory.
+     * Changes are sent by batches: number of changes and for each one its kind, path and type.
+     * Empty batch is sent as heartbeat when there were no changes for a long time.
+     * @param name -- path to directory relative to root
+     * @param recursive -- whether changes in subdirectories are needed too
+     * @param out -- stream to send changes to
+     * @return {@code true} if it is not a directory and connection should be kept open
+     * @throws IOException if an error appears while working with files or streams
+     */
+    private boolean subscribe(String name, boolean recursive, DataOutputStream out) throws IOException {
+        Subscription subscription = server.getHandler().subscribe(name, recursive);
+        if (subscription == null) {
+            out.writeBoolean(false);
+            return true;
+        }
+        subscribed = true;
+        try {
+            out.writeBoolean(true);
+            out.flush();
+            while (true) {
+                List<ChangeEvent> events = subscription.take(HEARTBEAT_MILLIS);
+                out.writeInt(events.size());
+                for (ChangeEvent event : events) {
+                    out.writeByte(event.getKind().ordinal());
+                    out.writeUTF(event.getPath());
+                    out.writeBoolean(event.isDirectory());
+                }
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            subscription.close();
+        }
+    }
+
+    /**
+     * Reads optional hash of header of put: {@code true} and the hash or {@code false}.
+     * @param in -- stream to read from
+     * @return hash or {@code null} if it was not sent
+     * @throws IOException if an error appears while reading
+     */
+    private static byte[] readHash(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        byte[] hash = new byte[ContentHashes.LENGTH];
+        in.readFully(hash);
+        return hash;
+    }
+
+    /**
+     * Applies options of transport profile to the connection; connection which could not be tuned
+     * keeps working with options of system.
+     * @param profile -- parameters of transport
+     */
+    private void tune(TransportProfile profile) {
+        try {
+            client.tune(profile);
+        } catch (IOException e) {
+            LOG.warning("Could not tune connection from " + getRemoteAddress() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Answers echo: sends one byte and waits for the byte which client sends back as soon as it reads it.
+     * Time between them is round trip time without work of server and without think time of client,
+     * so it is the only sample of round trip time which server takes.
+     * @param in -- stream to read client's byte from
+     * @param out -- stream to send byte to
+     * @param meter -- measurements of the connection, {@code null} if it is not auto tuned
+     * @return always {@code true}
+     * @throws IOException if an error appears while working with streams
+     */
+    private boolean echo(DataInputStream in, DataOutputStream out, LinkMeter meter) throws IOException {
+        out.writeByte(0);
+        out.flush();
+        long sent = System.nanoTime();
+        in.readByte();
+        if (meter != null) {
+            retune(meter.rtt(System.nanoTime() - sent), meter);
+        }
+        return true;
+    }
+
+    /**
+     * Retunes socket and portion size of the connection by profile chosen from its measurements.
+     * @param chosen -- new auto profile or {@code null} if it has not changed
+     * @param meter -- measurements of the connection
+     */
+    private void retune(TransportProfile chosen, LinkMeter meter) {
+        if (chosen == null) {
+            return;
+        }
+        tune(chosen);
+        shaper.resize(server.quantum(client.getInetAddress(), chosen.getChunk()));
+        server.getStats().transportRetuned(chosen, meter.getRttNanos(), meter.getBytesPerSecond());
+    }
+
     /**
      * Listens to client's input and output streams and handles its commands.
+     * Streams are buffered by transport profile of settings and every answer is flushed once, when it is complete;
+     * auto profile retunes the connection by round trip time measured by echo and by throughput of answers,
+     * so connection of client which sends no echo keeps buffers of system.
      * Command 1 -- command list
      * Command 2 -- command get
+     * Command 3 -- command subscribe
+     * Command 4 -- command search
+     * Command 5 -- command detailed list
+     * Command 6 -- command archive
+     * Command 7 -- command checked get
+     * Command 8 -- command get block
+     * Command 9 -- command hash
+     * Command 10 -- command digest
+     * Command 11 -- command put
+     * Command 12 -- command list since
+     * Command 13 -- command compact list
+     * Command 14 -- command echo
      */
     @Override
     public void run() {
-        try (DataInputStream in = new DataInputStream(client.getInputStream());
-             DataOutputStream out = new DataOutputStream(client.getOutputStream())){
+        server.taskStarted(this);
+        TransportProfile profile = server.getSettings().getTransportProfile();
+        shaper = server.createShaper(client.getInetAddress(), profile.getChunk());
+        LinkMeter meter = profile.isAuto() ? new LinkMeter() : null;
+        tune(profile);
+        server.getStats().transportTuned(profile);
+        int readTimeout = server.getSettings().getReadTimeout();
+        try (DataInputStream in = new DataInputStream(profile.buffer(client.getInputStream()));
+             AnswerStream out = new AnswerStream(profile.buffer(client.getOutputStream()))){
             while (true) {
+                client.setReadTimeout(0);
                 int command = in.readInt();
+                requestStart = System.nanoTime();
+                busy = true;
+                client.setReadTimeout(readTimeout);
+                Object trace = Tracing.begin(Tracing.REQUEST);
+                out.takeWritten();
+                String path = null;
+                boolean keepOpen;
                 switch (command) {
-                    case 1:
-                        Path dir = path.resolve(in.readUTF());
-                        if (!Files.isDirectory(dir)) {
-                            out.writeInt(0);
-                            return;
-                        }
-                        List<Path> content = Files.list(dir)
-                                        .sorted(Comparator.comparing(Path::getFileName))
-                                        .collect(Collectors.toList());
-                        out.writeInt(content.size());
-                        for (Path inside : content) {
-                            out.writeUTF(inside.getFileName().toString());
-                            out.writeBoolean(Files.isDirectory(inside));
-                        }
+                    case Protocol.LIST:
+                        path = names.read(in);
+                        keepOpen = list(path, out);
+                        break;
+                    case Protocol.GET:
+                        path = names.read(in);
+                        keepOpen = get(path, out);
                         break;
-                    case 2:
-                        Path file = path.resolve(in.readUTF());
-                        try (InputStream fin = Files.newInputStream(file)) {
-                            out.writeInt((int) Files.size(file));
-                            IOUtils.copyLarge(fin, out);
-                        } catch (NoSuchFileException | UnsupportedOperationException e) {
-                            out.writeInt(0);
-                        }
+                    case Protocol.SUBSCRIBE:
+                        path = names.read(in);
+                        keepOpen = subscribe(path, in.readBoolean(), out);
+                        break;
+                    case Protocol.LIST_DETAILED:
+                        path = names.read(in);
+                        keepOpen = listDetailed(path, out);
+                        break;
+                    case Protocol.SEARCH:
+                        keepOpen = search(SearchQuery.read(in), out);
+                        break;
+                    case Protocol.ARCHIVE:
+                        path = names.read(in);
+                        keepOpen = archive(path, in.readBoolean(), out);
+                        break;
+                    case Protocol.GET_CHECKED:
+                        path = names.read(in);
+                        keepOpen = getChecked(path, in.readByte(), in.readInt(), out);
+                        break;
+                    case Protocol.GET_BLOCK:
+                        path = names.read(in);
+                        keepOpen = getBlock(path, in.readLong(), in.readByte(), in.readLong(), in.readInt(),
+                                out);
+                        break;
+                    case Protocol.HASH:
+                        path = names.read(in);
+                        keepOpen = hash(path, out);
+                        break;
+                    case Protocol.DIGEST:
+                        path = names.read(in);
+                        keepOpen = digest(path, out);
+                        break;
+                    case Protocol.LIST_SINCE:
+                        path = names.read(in);
+                        keepOpen = listSince(path, in.readLong(), out);
+                        break;
+                    case Protocol.ECHO:
+                        keepOpen = echo(in, out, meter);
+                        break;
+                    case Protocol.LIST_COMPACT:
+                        path = names.read(in);
+                        keepOpen = listCompact(path, in.readByte(), out);
+                        break;
+                    case Protocol.PUT:
+                        path = names.read(in);
+                        keepOpen = put(path, in.readLong(), readHash(in), in, out);
                         break;
                     default:
                         throw new RuntimeException("Invalid command received from client");
                 }
+                out.flush();
+                int written = out.takeWritten();
+                Tracing.request(trace, command, path, written);
+                if (!keepOpen) {
+                    return;
+                }
+                lastActivity = System.nanoTime();
+                busy = false;
+                if (meter != null) {
+                    retune(meter.transfer(written, lastActivity - requestStart), meter);
+                }
             }
         } catch (EOFException ignored) {
+        } catch (SocketTimeoutException e) {
+            LOG.info("Closing connection from " + getRemoteAddress() + ": request was not read in "
+                    + readTimeout + " ms");
+            server.getStats().readTimeout();
         } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                if (!client.isInputShutdown() && !client.isClosed()) {
-                    client.shutdownInput();
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-            try {
-                if (!client.isOutputShutdown() && !client.isClosed()) {
-                    client.shutdownOutput();
-                }
-            } catch (Exception e) {
+            if (!aborted) {
                 e.printStackTrace();
             }
+        } finally {
+            server.taskFinished(this);
+            server.releaseShaper(client.getInetAddress());
             try {
-                if (!client.isClosed()) {
-                    client.close();
-                }
+                client.close();
             } catch (Exception e) {
                 e.printStackTrace();
             }
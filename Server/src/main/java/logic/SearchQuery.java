@@ -0,0 +1,266 @@
+package logic;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * Class of query of search command. Every setter returns the same object, so query could be filled in one expression.
+ * All given filters should match: path should start with the prefix and match the glob,
+ * size of file should be in the range. Directories are found only if size is not limited.
+ * Paths are relative to root and separated by {@code '/'}.
+ */
+public class SearchQuery {
+    /**Prefix of paths, empty for any path.*/
+    private String prefix = "";
+    /**Glob of paths, empty for any path.*/
+    private String glob = "";
+    /**Minimum size of files in bytes.*/
+    private long minSize = 0;
+    /**Maximum size of files in bytes.*/
+    private long maxSize = Long.MAX_VALUE;
+    /**Maximum number of matches.*/
+    private int limit = 1000;
+    /**Compiled glob, {@code null} until it is needed.*/
+    private Pattern pattern;
+    /**Literal end of glob which all matching paths have, it is checked before the pattern.*/
+    private String suffix;
+
+    /**
+     * Get prefix of paths.
+     * @return prefix, empty for any path
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Set prefix of paths, for example {@code "src/ma"} finds {@code "src/main"} and everything inside it.
+     * @param prefix -- prefix, empty for any path
+     * @return this {@code SearchQuery} object
+     */
+    public SearchQuery setPrefix(String prefix) {
+        this.prefix = prefix;
+        return this;
+    }
+
+    /**
+     * Get glob of paths.
+     * @return glob, empty for any path
+     */
+    public String getGlob() {
+        return glob;
+    }
+
+    /**
+     * Set glob of whole paths. {@code *} matches any part of a name, {@code **} -- any part of a path,
+     * {@code ?} -- one character of a name, {@code [..]} -- one of characters, {@code {a,b}} -- one of variants.
+     * @param glob -- glob, empty for any path
+     * @return this {@code SearchQuery} object
+     */
+    public SearchQuery setGlob(String glob) {
+        this.glob = glob;
+        pattern = null;
+        return this;
+    }
+
+    /**
+     * Get minimum size of files.
+     * @return size in bytes
+     */
+    public long getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * Set minimum size of files.
+     * @param minSize -- size in bytes
+     * @return this {@code SearchQuery} object
+     */
+    public SearchQuery setMinSize(long minSize) {
+        this.minSize = minSize;
+        return this;
+    }
+
+    /**
+     * Get maximum size of files.
+     * @return size in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Set maximum size of files.
+     * @param maxSize -- size in bytes
+     * @return this {@code SearchQuery} object
+     */
+    public SearchQuery setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * Get maximum number of matches.
+     * @return number of matches
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Set maximum number of matches. Matches are found in order of paths, so the first ones are returned.
+     * @param limit -- positive number of matches
+     * @return this {@code SearchQuery} object
+     */
+    public SearchQuery setLimit(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit should be positive");
+        }
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Whether size of files is limited, so directories could not match.
+     * @return {@code true} if size range is given
+     */
+    boolean limitsSize() {
+        return minSize > 0 || maxSize < Long.MAX_VALUE;
+    }
+
+    /**
+     * Get the longest prefix which all matching paths have, taking into account literal start of glob.
+     * @return prefix of all matches or {@code null} if prefix and glob contradict each other
+     */
+    String rangePrefix() {
+        int literal = 0;
+        while (literal < glob.length() && "*?[{\\".indexOf(glob.charAt(literal)) < 0) {
+            literal++;
+        }
+        String start = glob.substring(0, literal);
+        if (start.startsWith(prefix)) {
+            return start;
+        }
+        return prefix.startsWith(start) ? prefix : null;
+    }
+
+    /**
+     * Whether given path matches the glob.
+     * @param path -- path relative to root
+     * @return {@code true} if there is no glob or path matches it
+     */
+    boolean matchesGlob(String path) {
+        if (glob.isEmpty()) {
+            return true;
+        }
+        if (pattern == null) {
+            pattern = Pattern.compile(toRegex(glob));
+            int literal = glob.length();
+            while (literal > 0 && "*?[]{},\\".indexOf(glob.charAt(literal - 1)) < 0) {
+                literal--;
+            }
+            suffix = glob.substring(literal);
+        }
+        return path.endsWith(suffix) && pattern.matcher(path).matches();
+    }
+
+    /**
+     * Writes query to stream.
+     * @param out -- stream to write to
+     * @throws IOException if an error appears while writing
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeUTF(prefix);
+        out.writeUTF(glob);
+        out.writeLong(minSize);
+        out.writeLong(maxSize);
+        out.writeInt(limit);
+    }
+
+    /**
+     * Reads query from stream.
+     * @param in -- stream to read from
+     * @return read query
+     * @throws IOException if an error appears while reading
+     */
+    static SearchQuery read(DataInputStream in) throws IOException {
+        SearchQuery query = new SearchQuery().setPrefix(in.readUTF()).setGlob(in.readUTF());
+        query.minSize = in.readLong();
+        query.maxSize = in.readLong();
+        query.limit = Math.max(1, in.readInt());
+        return query;
+    }
+
+    /**
+     * Converts glob to regular expression.
+     * @param glob -- glob to convert
+     * @return regular expression which matches the same paths
+     */
+    private static String toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        boolean inGroup = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        regex.append(".*");
+                        i++;
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '[':
+                    int end = glob.indexOf(']', i + 1);
+                    if (end < 0) {
+                        regex.append("\\[");
+                    } else {
+                        String set = glob.substring(i + 1, end);
+                        regex.append('[').append(set.startsWith("!") ? "^" + set.substring(1) : set).append(']');
+                        i = end;
+                    }
+                    break;
+                case '{':
+                    inGroup = true;
+                    regex.append("(?:");
+                    break;
+                case '}':
+                    if (inGroup) {
+                        inGroup = false;
+                        regex.append(')');
+                    } else {
+                        regex.append("\\}");
+                    }
+                    break;
+                case ',':
+                    regex.append(inGroup ? "|" : ",");
+                    break;
+                case '\\':
+                    if (i + 1 < glob.length()) {
+                        appendLiteral(regex, glob.charAt(++i));
+                    }
+                    break;
+                default:
+                    appendLiteral(regex, c);
+            }
+        }
+        return regex.toString();
+    }
+
+    /**
+     * Appends character to regular expression, escaping it if it has special meaning.
+     * @param regex -- regular expression being built
+     * @param c -- character which should match itself
+     */
+    private static void appendLiteral(StringBuilder regex, char c) {
+        if (".^$+()|[]{}*?\\".indexOf(c) >= 0) {
+            regex.append('\\');
+        }
+        regex.append(c);
+    }
+}
@@ -1,22 +1,80 @@
 package logic;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetAddress;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
 
 import exceptions.SocketException;
 
 /**Class of server objects.*/
 public class Server {
-    /**Tread which handle all clients and create tasks.*/
+    /**Logger for events of connections' life.*/
+    private static final Logger LOG = Logger.getLogger(Server.class.getName());
+    /**Maximum period in milliseconds of checking connections by reaper.*/
+    private static final long MAX_REAPER_PERIOD = 1000;
+    /**Part of a second which rate limited transfer could send at once after being inactive.*/
+    private static final int BURST_DIVIDER = 10;
+    /**Tread which handle all clients and create tasks, {@code null} for embedded server.*/
     private final Thread listenThread;
     /**TreadPool for all clients' tasks.*/
     private final ExecutorService clientThreads;
-    /**ServerSocket which accepts clients which want to connect.*/
-    private final ServerSocket serverSocket;
+    /**Listener which accepts clients which want to connect, {@code null} for embedded server.*/
+    private final Transport.Listener listener;
+    /**Executor of clients' requests.*/
+    private final RequestHandler handler;
+    /**Parameters of server's work.*/
+    private final ServerSettings settings;
+    /**Counters of server's work.*/
+    private final ServerStats stats = new ServerStats();
+    /**All tasks which are handling open connections now.*/
+    private final Set<RunnableTask> tasks = ConcurrentHashMap.newKeySet();
+    /**Thread which closes idle and hung connections, {@code null} if all timeouts are disabled.*/
+    private final ScheduledExecutorService reaper;
+    /**Bandwidth limit shared by all connections.*/
+    private final TokenBucket globalBucket;
+    /**Bandwidth limits shared by connections from the same address.*/
+    private final Map<InetAddress, AddressBucket> addressBuckets = new ConcurrentHashMap<>();
+    /**Slots of disk work reserved for listings and small files.*/
+    private final Lane fastLane;
+    /**Slots of disk work of big files.*/
+    private final Lane bulkLane;
+    /**Reads of big files shared by connections which ask for them at the same time.*/
+    private final SharedReads sharedReads;
+    /**Mapped windows of big files, {@code null} if mapped serving is disabled.*/
+    private final MappedFiles mappedFiles;
+    /**Reads of small files ahead of gets which follow listings, {@code null} if read-ahead is disabled.*/
+    private final ReadAhead readAhead;
+    /**Threads which read small files ahead of writers of archives.*/
+    private final ExecutorService archiveReaders;
+    /**Writer of directories as archives.*/
+    private final ArchiveWriter archiveWriter;
+
+    /**Class of bandwidth limit of one address which knows how many connections use it.*/
+    private static final class AddressBucket {
+        /**Bandwidth limit of the address.*/
+        private final TokenBucket bucket;
+        /**Number of connections from the address.*/
+        private int users;
+
+        /**
+         * Constructs {@code AddressBucket} object by bucket.
+         * @param bucket -- bandwidth limit of the address
+         */
+        AddressBucket(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
 
     /**
      * Constructs {@code logic.Server} object by port (to listen from) and path to root directory.
@@ -26,62 +84,399 @@ public class Server {
      * @throws SocketException if an error appears while working with {@code Socket}
      */
      public static Server start(int port, Path rootPath) throws SocketException {
-        return new Server(port, rootPath);
+        return new Server(new TcpTransport(port), rootPath, new ServerSettings());
      }
 
     /**
-     * Constructs {@code logic.Server} object by port (to listen from) and path to root directory.
+     * Constructs {@code logic.Server} object by port (to listen from), path to root directory and settings.
+     * @param port -- port which server should listen from for the clients
+     * @param rootPath -- path to root directory
+     * @param settings -- parameters of server's work
+     * @return a new {@code logic.Server} object
+     * @throws SocketException if an error appears while working with {@code Socket}
+     */
+    public static Server start(int port, Path rootPath, ServerSettings settings) throws SocketException {
+        return new Server(new TcpTransport(port), rootPath, settings);
+    }
+
+    /**
+     * Constructs {@code logic.Server} object which listens on given transport.
+     * @param transport -- transport which server should listen on for the clients
+     * @param rootPath -- path to root directory
+     * @param settings -- parameters of server's work
+     * @return a new {@code logic.Server} object
+     * @throws SocketException if listening on the transport could not be started
+     */
+    public static Server start(Transport transport, Path rootPath, ServerSettings settings) throws SocketException {
+        return new Server(transport, rootPath, settings);
+    }
+
+    /**
+     * Constructs {@code logic.Server} object which does not listen on any transport.
+     * It is used by clients in the same JVM, which are connected by {@code connectLocal}.
+     * @param rootPath -- path to root directory
+     * @param settings -- parameters of server's work
+     * @return a new {@code logic.Server} object
+     * @throws SocketException never, declared for symmetry with other {@code start} methods
+     */
+    public static Server embedded(Path rootPath, ServerSettings settings) throws SocketException {
+        return new Server(null, rootPath, settings);
+    }
+
+    /**
+     * Constructs {@code logic.Server} object by transport (to listen from) and path to root directory.
      *
      * Creates new {@code logic.RunnableTask} object for each task of each client and add the tasks
      * to {@code clientThreads} array.
      * All clients are handled in main {@code listenTread} thread.
-     * @param port -- port which server should listen from for the clients
+     * @param transport -- transport which server should listen on for the clients, {@code null} for embedded server
      * @param rootPath -- path to root directory
+     * @param settings -- parameters of server's work
      * @throws SocketException if an error appears while working with {@code Socket}
      */
-    private Server(int port, Path rootPath) throws SocketException {
+    private Server(Transport transport, Path rootPath, ServerSettings settings) throws SocketException {
+        this.settings = settings;
+        handler = new RequestHandler(rootPath, loadPack(rootPath, settings.getPack()));
+        try {
+            handler.setAttributeCache(settings.getAttributeCacheTtl(), settings.getAttributeCacheSize(), stats);
+        } catch (IOException e) {
+            LOG.warning("Attributes are not cached, " + rootPath + " could not be watched: " + e.getMessage());
+            stats.watchFailed();
+        }
+        handler.setUploads(settings.isAcceptUploads(), stats);
+        handler.setListingJournal(settings.getListingJournalSize(), stats);
+        if (settings.isTreeIndex()) {
+            try {
+                handler.index();
+            } catch (IOException e) {
+                throw new SocketException("Error when indexing " + rootPath + " in logic.Server constructor");
+            }
+        }
+        globalBucket = newBucket(settings.getGlobalRate(), settings.getTransferChunk());
+        fastLane = new Lane("fast", settings.getFastLaneThreads(), stats.getFastLane());
+        bulkLane = new Lane("bulk", settings.getBulkLaneThreads(), stats.getBulkLane());
+        sharedReads = new SharedReads(settings.getSharedReadThreshold(), settings.getTransferChunk(),
+                settings.getSharedReadBuffer(), stats);
+        mappedFiles = settings.isMappedServing() && settings.getPack() == null ? new MappedFiles(
+                settings.getSmallFileThreshold() + 1, settings.getMappedWindow(), settings.getMappedCapacity(),
+                settings.getMappedIdleTimeout(), stats) : null;
+        readAhead = settings.getReadAheadRate() > 0 && settings.getPack() == null ? new ReadAhead(handler,
+                settings.getReadAheadRate(), settings.getReadAheadFileSize(), stats) : null;
+        AtomicInteger readerNumber = new AtomicInteger();
+        archiveReaders = Executors.newFixedThreadPool(Math.max(1, settings.getArchiveReadAhead()), runnable -> {
+            Thread thread = new Thread(runnable, "archive-reader-" + readerNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        archiveWriter = new ArchiveWriter(archiveReaders, settings.getArchiveReadAhead(),
+                settings.getSmallFileThreshold());
+        reaper = startReaper();
+        clientThreads = Executors.newCachedThreadPool();
+        if (transport == null) {
+            listener = null;
+            listenThread = null;
+            return;
+        }
         try {
-            clientThreads = Executors.newCachedThreadPool();
-            serverSocket = new ServerSocket(port);
+            listener = transport.listen();
             listenThread = new Thread(() -> {
                 while (!Thread.interrupted()) {
-                    Socket client;
+                    Connection client;
                     try {
-                        client = serverSocket.accept();
+                        client = listener.accept();
                     } catch (Exception e) {
                         break;
                     }
-                    clientThreads.submit(new RunnableTask(rootPath, client));
+                    Tracing.accepted(client.getRemoteAddress());
+                    clientThreads.submit(new RunnableTask(this, client));
                 }
                 try {
-                    if (!serverSocket.isClosed()) {
-                        serverSocket.close();
-                    }
+                    listener.close();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
             });
             listenThread.start();
         } catch (IOException e){
-            throw new SocketException("Error when handling a ServerSocket object in logic.Server constructor");
+            sharedReads.shutdown();
+            archiveReaders.shutdown();
+            if (mappedFiles != null) {
+                mappedFiles.shutdown();
+            }
+            if (readAhead != null) {
+                readAhead.shutdown();
+            }
+            if (reaper != null) {
+                reaper.shutdownNow();
+            }
+            clientThreads.shutdown();
+            throw new SocketException("Error when listening on " + transport + " in logic.Server constructor");
         }
     }
 
+    /**
+     * Creates client which executes requests by direct calls in the same JVM, without any transport.
+     * Files are given to such client as memory mapped buffers, without copying.
+     * @return new {@code Client} object
+     */
+    public Client connectLocal() {
+        return new Client(handler);
+    }
+
+    /**
+     * Get counters of server's work.
+     * @return {@code ServerStats} object which is updated while server works
+     */
+    public ServerStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Get parameters of server's work.
+     * @return {@code ServerSettings} object given at start
+     */
+    ServerSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Get executor of clients' requests.
+     * @return {@code RequestHandler} object of root directory
+     */
+    RequestHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * Get lane of listings and small files.
+     * @return fast {@code Lane} object
+     */
+    Lane getFastLane() {
+        return fastLane;
+    }
+
+    /**
+     * Get lane of big files.
+     * @return bulk {@code Lane} object
+     */
+    Lane getBulkLane() {
+        return bulkLane;
+    }
+
+    /**
+     * Get reads of big files shared by concurrent connections.
+     * @return {@code SharedReads} object of the server
+     */
+    SharedReads getSharedReads() {
+        return sharedReads;
+    }
+
+    /**
+     * Get mapped windows of big files.
+     * @return {@code MappedFiles} object or {@code null} if mapped serving is disabled
+     */
+    MappedFiles getMappedFiles() {
+        return mappedFiles;
+    }
+
+    /**
+     * Get reads of small files ahead of gets.
+     * @return {@code ReadAhead} object or {@code null} if read-ahead is disabled
+     */
+    ReadAhead getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Get writer of directories as archives.
+     * @return {@code ArchiveWriter} object which reads ahead by server's threads
+     */
+    ArchiveWriter getArchiveWriter() {
+        return archiveWriter;
+    }
+
+    /**
+     * Registers task which started to handle a connection.
+     * @param task -- task which handles new connection
+     */
+    void taskStarted(RunnableTask task) {
+        tasks.add(task);
+        stats.connectionOpened();
+    }
+
+    /**
+     * Unregisters task which finished to handle a connection.
+     * @param task -- task which has closed its connection
+     */
+    void taskFinished(RunnableTask task) {
+        if (tasks.remove(task)) {
+            stats.connectionClosed();
+        }
+    }
+
+    /**
+     * Creates bandwidth limiter for new connection from given address.
+     * Each {@code createShaper} call should be paired with {@code releaseShaper} call.
+     * @param address -- address of client
+     * @param chunk -- chunk of transport profile of the connection, {@code 0} for transfer chunk of settings
+     * @return {@code Shaper} object for the connection
+     */
+    Shaper createShaper(InetAddress address, int chunk) {
+        int quantum = quantum(address, chunk);
+        AddressBucket shared = addressBuckets.compute(address, (key, value) -> {
+            if (value == null) {
+                value = new AddressBucket(newBucket(settings.getAddressRate(), quantum));
+            }
+            value.users++;
+            return value;
+        });
+        return new Shaper(newBucket(settings.getConnectionRate(), quantum), shared.bucket, globalBucket,
+                quantum, stats);
+    }
+
+    /**
+     * Get portion size of connection from given address, which is proportional to the weight of the address.
+     * @param address -- address of client
+     * @param chunk -- chunk of transport profile of the connection, {@code 0} for transfer chunk of settings
+     * @return number of bytes sent by one turn
+     */
+    int quantum(InetAddress address, int chunk) {
+        int size = chunk == 0 ? settings.getTransferChunk() : chunk;
+        return size * settings.getAddressWeight(address.getHostAddress());
+    }
+
+    /**
+     * Releases bandwidth limit of given address taken by {@code createShaper}.
+     * @param address -- address of client
+     */
+    void releaseShaper(InetAddress address) {
+        addressBuckets.computeIfPresent(address, (key, value) -> --value.users == 0 ? null : value);
+    }
+
+    /**
+     * Loads pack of root, packing root if there is no pack or it differs from the root.
+     * @param root -- path to root directory
+     * @param index -- path to index of pack, {@code null} if files are read from root
+     * @return loaded pack or {@code null} if files are read from root
+     * @throws SocketException if pack could not be written or read
+     */
+    private static PackFile loadPack(Path root, Path index) throws SocketException {
+        if (index == null) {
+            return null;
+        }
+        try {
+            if (Files.exists(index)) {
+                PackFile pack = PackFile.open(index);
+                List<String> differences = pack.check(root);
+                if (differences.isEmpty()) {
+                    return pack;
+                }
+                pack.close();
+                LOG.warning("Pack " + index + " differs from root in " + differences.size()
+                        + " entries, for example " + differences.get(0) + ", packing again");
+            }
+            PackFile.pack(root, index);
+            return PackFile.open(index);
+        } catch (IOException e) {
+            throw new SocketException("Error when loading pack " + index + " in logic.Server constructor");
+        }
+    }
+
+    /**
+     * Creates token bucket with given rate which allows short bursts.
+     * @param rate -- rate in bytes per second, {@code 0} for no limit
+     * @param quantum -- number of bytes taken by one transfer at once
+     * @return new {@code TokenBucket} object
+     */
+    private static TokenBucket newBucket(long rate, int quantum) {
+        return new TokenBucket(rate, Math.max(rate / BURST_DIVIDER, quantum));
+    }
+
+    /**
+     * Starts thread which periodically closes connections that exceeded idle or transfer timeout.
+     * @return started reaper or {@code null} if both timeouts are disabled
+     */
+    private ScheduledExecutorService startReaper() {
+        long shortest = Math.min(nonZero(settings.getIdleTimeout()), nonZero(settings.getTransferTimeout()));
+        if (shortest == Long.MAX_VALUE) {
+            return null;
+        }
+        long period = Math.max(1, Math.min(MAX_REAPER_PERIOD, shortest / 4));
+        ScheduledExecutorService result = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        result.scheduleAtFixedRate(this::reap, period, period, TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    /**Closes all connections which exceeded idle or transfer timeout.*/
+    private void reap() {
+        long now = System.nanoTime();
+        long idleTimeout = settings.getIdleTimeout();
+        long transferTimeout = settings.getTransferTimeout();
+        for (RunnableTask task : tasks) {
+            if (task.isSubscribed()) {
+                continue;
+            }
+            if (task.isBusy()) {
+                if (transferTimeout > 0 && task.millisSinceRequestStart(now) > transferTimeout
+                        && task.markAborted()) {
+                    stats.transferTimeout();
+                    LOG.info("Closing connection from " + task.getRemoteAddress() + ": request took longer than "
+                            + transferTimeout + " ms");
+                    task.closeConnection();
+                }
+            } else if (idleTimeout > 0 && task.millisSinceActivity(now) > idleTimeout && task.markAborted()) {
+                stats.idleClosed();
+                LOG.info("Closing connection from " + task.getRemoteAddress() + ": idle for longer than "
+                        + idleTimeout + " ms");
+                task.closeConnection();
+            }
+        }
+    }
+
+    /**
+     * Maps disabled timeout to infinity.
+     * @param timeout -- timeout in milliseconds
+     * @return the same timeout or {@code Long.MAX_VALUE} if it is zero
+     */
+    private static long nonZero(long timeout) {
+        return timeout == 0 ? Long.MAX_VALUE : timeout;
+    }
+
     /**
      * Closes all threads with clients tasks and shuts down the main thread.
      * @throws SocketException if an error appears while working with {@code Socket}
      * @throws InterruptedException if there is a problem when joining {@code listenThread}
      */
     public void shutdown() throws InterruptedException, SocketException {
-        try {
-            if (!serverSocket.isClosed()) {
-                serverSocket.close();
+        if (listener != null) {
+            try {
+                listener.close();
+            } catch (Exception e) {
+                throw new SocketException("Error when closing a listener in logic.Server.shutdown");
             }
-        } catch (Exception e) {
-            throw new SocketException("Error when handling a ServerSocket object in logic.Server.shutdown");
+            listenThread.interrupt();
+            listenThread.join();
         }
-        listenThread.interrupt();
-        listenThread.join();
         clientThreads.shutdown();
+        sharedReads.shutdown();
+        archiveReaders.shutdown();
+        if (mappedFiles != null) {
+            mappedFiles.shutdown();
+        }
+        if (readAhead != null) {
+            readAhead.shutdown();
+        }
+        if (reaper != null) {
+            reaper.shutdownNow();
+        }
+        try {
+            handler.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,667 @@
+package logic;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class which keeps all tunable parameters of {@code Server}.
+ * Every setter returns the same object, so settings could be filled in one expression.
+ * Zero value of any timeout or rate means that this limit is disabled.
+ */
+public class ServerSettings {
+    /**Time in milliseconds which server waits for the rest of already started request.*/
+    private int readTimeout = 30_000;
+    /**Time in milliseconds after which connection without any requests is closed, disabled by default.*/
+    private long idleTimeout = 0;
+    /**Maximum time in milliseconds which one request (including sending of file) could take.*/
+    private long transferTimeout = 0;
+    /**Maximum rate in bytes per second of sending files to one connection.*/
+    private long connectionRate = 0;
+    /**Maximum rate in bytes per second of sending files to all connections from one address.*/
+    private long addressRate = 0;
+    /**Maximum rate in bytes per second of sending files to all connections.*/
+    private long globalRate = 0;
+    /**Number of bytes which one transfer sends by one turn when bandwidth is shared.*/
+    private int transferChunk = 64 * 1024;
+    /**Weights of clients' addresses, address with weight 2 gets twice more bandwidth than with weight 1.*/
+    private final Map<String, Integer> addressWeights = new ConcurrentHashMap<>();
+    /**Number of threads reserved for listings and small files.*/
+    private int fastLaneThreads = 4;
+    /**Number of threads which send big files.*/
+    private int bulkLaneThreads = 4;
+    /**Maximum size in bytes of a file which is sent in the fast lane.*/
+    private long smallFileThreshold = 1024 * 1024;
+    /**Minimum size in bytes of a file which concurrent reads are coalesced into one.*/
+    private long sharedReadThreshold = 4 * 1024 * 1024;
+    /**Size in bytes of buffer which one coalesced read keeps for connections behind, allocated on the second one.*/
+    private long sharedReadBuffer = 8 * 1024 * 1024;
+    /**Whether files bigger than small file threshold are served from memory mapped windows.*/
+    private boolean mappedServing = false;
+    /**Size in bytes of one mapped window of a file.*/
+    private int mappedWindow = 64 * 1024 * 1024;
+    /**Maximum total size in bytes of mapped windows.*/
+    private long mappedCapacity = 1024L * 1024 * 1024;
+    /**Time in milliseconds after which mapping of a file which was not requested is removed.*/
+    private long mappedIdleTimeout = 60_000;
+    /**Path to index of pack which serves read-only root, {@code null} if files are read from root.*/
+    private Path pack;
+    /**Whether index of the whole root for search is built at start, not by the first search.*/
+    private boolean treeIndex = false;
+    /**Number of small files which are read ahead of the writer of archive, it is also number of reader threads.*/
+    private int archiveReadAhead = 8;
+    /**Time in milliseconds for which attributes of requested and missing files are cached, {@code 0} to disable.*/
+    private long attributeCacheTtl = 0;
+    /**Maximum number of files which attributes are cached.*/
+    private int attributeCacheSize = 10_000;
+    /**Maximum number of changes kept for one directory listed since token, {@code 0} to always list whole.*/
+    private int listingJournalSize = 1024;
+    /**Whether clients could upload files into root by command put.*/
+    private boolean acceptUploads = false;
+    /**Maximum rate in bytes per second of reading files ahead of gets, {@code 0} to disable read-ahead.*/
+    private long readAheadRate = 0;
+    /**Maximum size in bytes of a file which is read ahead.*/
+    private long readAheadFileSize = 256 * 1024;
+    /**Parameters of transport of accepted connections.*/
+    private TransportProfile transportProfile = TransportProfile.AUTO;
+
+    /**
+     * Get read timeout.
+     * @return time in milliseconds which server waits for the rest of already started request
+     */
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Set read timeout. It is applied as {@code SO_TIMEOUT} of client's socket while request is read.
+     * @param readTimeout -- time in milliseconds, {@code 0} to wait forever
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setReadTimeout(int readTimeout) {
+        this.readTimeout = checkTimeout(readTimeout);
+        return this;
+    }
+
+    /**
+     * Get idle timeout.
+     * @return time in milliseconds after which connection without any requests is closed
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Set idle timeout. It is disabled by default, so clients which keep connection open between rare requests
+     * are not disconnected unless it is asked for.
+     * @param idleTimeout -- time in milliseconds, {@code 0} to keep idle connections forever
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = checkTimeout(idleTimeout);
+        return this;
+    }
+
+    /**
+     * Get whole-transfer timeout.
+     * @return maximum time in milliseconds which one request could take
+     */
+    public long getTransferTimeout() {
+        return transferTimeout;
+    }
+
+    /**
+     * Set whole-transfer timeout.
+     * @param transferTimeout -- time in milliseconds, {@code 0} to let requests take any time
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setTransferTimeout(long transferTimeout) {
+        this.transferTimeout = checkTimeout(transferTimeout);
+        return this;
+    }
+
+    /**
+     * Get rate limit of one connection.
+     * @return rate in bytes per second
+     */
+    public long getConnectionRate() {
+        return connectionRate;
+    }
+
+    /**
+     * Set rate limit of one connection.
+     * @param connectionRate -- rate in bytes per second, {@code 0} for no limit
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setConnectionRate(long connectionRate) {
+        this.connectionRate = checkRate(connectionRate);
+        return this;
+    }
+
+    /**
+     * Get rate limit of all connections from one address.
+     * @return rate in bytes per second
+     */
+    public long getAddressRate() {
+        return addressRate;
+    }
+
+    /**
+     * Set rate limit of all connections from one address.
+     * @param addressRate -- rate in bytes per second, {@code 0} for no limit
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setAddressRate(long addressRate) {
+        this.addressRate = checkRate(addressRate);
+        return this;
+    }
+
+    /**
+     * Get rate limit of the whole server.
+     * @return rate in bytes per second
+     */
+    public long getGlobalRate() {
+        return globalRate;
+    }
+
+    /**
+     * Set rate limit of the whole server.
+     * @param globalRate -- rate in bytes per second, {@code 0} for no limit
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setGlobalRate(long globalRate) {
+        this.globalRate = checkRate(globalRate);
+        return this;
+    }
+
+    /**
+     * Get size of portion which one transfer sends by one turn.
+     * @return number of bytes
+     */
+    public int getTransferChunk() {
+        return transferChunk;
+    }
+
+    /**
+     * Set size of portion which one transfer sends by one turn.
+     * Smaller portions give lower latency to small requests, bigger ones give less overhead.
+     * @param transferChunk -- positive number of bytes
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setTransferChunk(int transferChunk) {
+        if (transferChunk <= 0) {
+            throw new IllegalArgumentException("Transfer chunk should be positive");
+        }
+        this.transferChunk = transferChunk;
+        return this;
+    }
+
+    /**
+     * Get weight of given client's address.
+     * @param host -- address of client as it is returned by {@code InetAddress.getHostAddress}
+     * @return weight of address, {@code 1} if it was not set
+     */
+    public int getAddressWeight(String host) {
+        return addressWeights.getOrDefault(host, 1);
+    }
+
+    /**
+     * Set weight of given client's address. Transfers of this address send {@code weight} portions by one turn.
+     * @param host -- address of client as it is returned by {@code InetAddress.getHostAddress}
+     * @param weight -- positive weight
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setAddressWeight(String host, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight should be positive");
+        }
+        addressWeights.put(host, weight);
+        return this;
+    }
+
+    /**
+     * Get number of slots of the fast lane.
+     * @return number of connections which list directories or read small files at the same time
+     */
+    public int getFastLaneThreads() {
+        return fastLaneThreads;
+    }
+
+    /**
+     * Set number of slots of the fast lane. Connection holds a slot only while it reads from disk,
+     * not while it writes to its client.
+     * @param fastLaneThreads -- positive number of connections which list directories or read small files
+     *                        at the same time
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setFastLaneThreads(int fastLaneThreads) {
+        this.fastLaneThreads = checkThreads(fastLaneThreads);
+        return this;
+    }
+
+    /**
+     * Get number of slots of the bulk lane.
+     * @return number of connections which read big files at the same time
+     */
+    public int getBulkLaneThreads() {
+        return bulkLaneThreads;
+    }
+
+    /**
+     * Set number of slots of the bulk lane. Connection holds a slot only while it reads a chunk of file,
+     * not while it writes the chunk to its client.
+     * @param bulkLaneThreads -- positive number of connections which read big files at the same time
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setBulkLaneThreads(int bulkLaneThreads) {
+        this.bulkLaneThreads = checkThreads(bulkLaneThreads);
+        return this;
+    }
+
+    /**
+     * Get maximum size of a file which is sent in the fast lane.
+     * @return size in bytes
+     */
+    public long getSmallFileThreshold() {
+        return smallFileThreshold;
+    }
+
+    /**
+     * Set maximum size of a file which is sent in the fast lane.
+     * @param smallFileThreshold -- size in bytes
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setSmallFileThreshold(long smallFileThreshold) {
+        if (smallFileThreshold < 0) {
+            throw new IllegalArgumentException("Threshold could not be negative");
+        }
+        this.smallFileThreshold = smallFileThreshold;
+        return this;
+    }
+
+    /**
+     * Get minimum size of a file which concurrent reads are coalesced.
+     * @return size in bytes, {@code 0} if reads are never coalesced
+     */
+    public long getSharedReadThreshold() {
+        return sharedReadThreshold;
+    }
+
+    /**
+     * Set minimum size of a file which concurrent reads are coalesced.
+     * Connections which ask for the same version of such file at the same time get it from one read of disk.
+     * @param sharedReadThreshold -- size in bytes, {@code 0} to read file separately for each connection
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setSharedReadThreshold(long sharedReadThreshold) {
+        if (sharedReadThreshold < 0) {
+            throw new IllegalArgumentException("Threshold could not be negative");
+        }
+        this.sharedReadThreshold = sharedReadThreshold;
+        return this;
+    }
+
+    /**
+     * Get size of buffer of one coalesced read.
+     * @return size in bytes
+     */
+    public long getSharedReadBuffer() {
+        return sharedReadBuffer;
+    }
+
+    /**
+     * Set size of buffer of one coalesced read. Connection which falls behind the fastest one
+     * by more than this size continues to read the file by itself.
+     * @param sharedReadBuffer -- positive size in bytes
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setSharedReadBuffer(long sharedReadBuffer) {
+        if (sharedReadBuffer <= 0) {
+            throw new IllegalArgumentException("Buffer size should be positive");
+        }
+        this.sharedReadBuffer = sharedReadBuffer;
+        return this;
+    }
+
+    /**
+     * Whether big files are served from memory mapped windows.
+     * @return {@code true} if mapped serving is enabled
+     */
+    public boolean isMappedServing() {
+        return mappedServing;
+    }
+
+    /**
+     * Enable or disable serving of files bigger than small file threshold from memory mapped windows,
+     * which are shared by all connections. It is meant for roots which files are not changed in place.
+     * @param mappedServing -- {@code true} to serve big files from mappings
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setMappedServing(boolean mappedServing) {
+        this.mappedServing = mappedServing;
+        return this;
+    }
+
+    /**
+     * Get size of one mapped window.
+     * @return size in bytes
+     */
+    public int getMappedWindow() {
+        return mappedWindow;
+    }
+
+    /**
+     * Set size of one mapped window. Files are mapped by windows when connections reach them.
+     * @param mappedWindow -- positive size in bytes
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setMappedWindow(int mappedWindow) {
+        if (mappedWindow <= 0) {
+            throw new IllegalArgumentException("Window size should be positive");
+        }
+        this.mappedWindow = mappedWindow;
+        return this;
+    }
+
+    /**
+     * Get maximum total size of mapped windows.
+     * @return size in bytes
+     */
+    public long getMappedCapacity() {
+        return mappedCapacity;
+    }
+
+    /**
+     * Set maximum total size of mapped windows. Parts of files which do not fit are read as usual.
+     * @param mappedCapacity -- size in bytes
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setMappedCapacity(long mappedCapacity) {
+        if (mappedCapacity < 0) {
+            throw new IllegalArgumentException("Capacity could not be negative");
+        }
+        this.mappedCapacity = mappedCapacity;
+        return this;
+    }
+
+    /**
+     * Get time after which mapping of not requested file is removed.
+     * @return time in milliseconds
+     */
+    public long getMappedIdleTimeout() {
+        return mappedIdleTimeout;
+    }
+
+    /**
+     * Set time after which mapping of not requested file is removed.
+     * @param mappedIdleTimeout -- positive time in milliseconds
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setMappedIdleTimeout(long mappedIdleTimeout) {
+        if (mappedIdleTimeout <= 0) {
+            throw new IllegalArgumentException("Timeout should be positive");
+        }
+        this.mappedIdleTimeout = mappedIdleTimeout;
+        return this;
+    }
+
+    /**
+     * Get path to index of pack of root.
+     * @return path to index or {@code null} if files are read from root
+     */
+    public Path getPack() {
+        return pack;
+    }
+
+    /**
+     * Set path to index of pack of read-only root. Listings and gets are answered from the mapped pack.
+     * Server packs root at start if there is no pack yet or if the pack differs from the root;
+     * {@code PackTool} packs and checks roots offline.
+     * @param pack -- path to index outside of root, {@code null} to read files from root
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setPack(Path pack) {
+        this.pack = pack;
+        return this;
+    }
+
+    /**
+     * Whether index of the whole root is built at start.
+     * @return {@code true} if index is built at start
+     */
+    public boolean isTreeIndex() {
+        return treeIndex;
+    }
+
+    /**
+     * Set whether index of the whole root which answers search is built at start.
+     * Otherwise it is built by the first search, which waits for it.
+     * @param treeIndex -- {@code true} to build index at start
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setTreeIndex(boolean treeIndex) {
+        this.treeIndex = treeIndex;
+        return this;
+    }
+
+    /**
+     * Get number of files which are read ahead of the writer of archive.
+     * @return number of files
+     */
+    public int getArchiveReadAhead() {
+        return archiveReadAhead;
+    }
+
+    /**
+     * Set number of files which are read ahead of the writer of archive.
+     * Only files not bigger than small file threshold are read ahead, by threads shared by all archives.
+     * @param archiveReadAhead -- number of files, {@code 0} to read every file by the writer
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setArchiveReadAhead(int archiveReadAhead) {
+        if (archiveReadAhead < 0) {
+            throw new IllegalArgumentException("Read ahead could not be negative");
+        }
+        this.archiveReadAhead = archiveReadAhead;
+        return this;
+    }
+
+    /**
+     * Get time for which attributes of requested files and listings of requested directories are cached.
+     * @return time in milliseconds, {@code 0} if attributes are not cached
+     */
+    public long getAttributeCacheTtl() {
+        return attributeCacheTtl;
+    }
+
+    /**
+     * Set time for which attributes of requested files and listings of requested directories are cached.
+     * Get of a file whose attributes are cached, or which is known to be missing, does not ask file system
+     * for them, list of a cached directory does not read it. Cached attributes are forgotten as soon as watcher
+     * of root reports change of the file, cached listing -- change of anything under the directory;
+     * time limits how long they could be stale when the change was not reported yet.
+     * @param attributeCacheTtl -- time in milliseconds, {@code 0} to read attributes for every get
+     *                          and directory for every list
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setAttributeCacheTtl(long attributeCacheTtl) {
+        if (attributeCacheTtl < 0) {
+            throw new IllegalArgumentException("Time to live could not be negative");
+        }
+        this.attributeCacheTtl = attributeCacheTtl;
+        return this;
+    }
+
+    /**
+     * Get maximum number of files which attributes are cached.
+     * @return number of files
+     */
+    public int getAttributeCacheSize() {
+        return attributeCacheSize;
+    }
+
+    /**
+     * Set maximum number of files which attributes are cached, the same number of listings is cached.
+     * When cache is full, it is emptied.
+     * @param attributeCacheSize -- number of files
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setAttributeCacheSize(int attributeCacheSize) {
+        if (attributeCacheSize <= 0) {
+            throw new IllegalArgumentException("Size of cache should be positive");
+        }
+        this.attributeCacheSize = attributeCacheSize;
+        return this;
+    }
+
+    /**
+     * Get maximum number of changes kept for one directory listed since token.
+     * @return number of changes
+     */
+    public int getListingJournalSize() {
+        return listingJournalSize;
+    }
+
+    /**
+     * Set maximum number of changes kept for one directory listed since token. Directory which was listed
+     * with a token gets journal of its changes from watcher of root, so the next listing since that token sends
+     * only changed files; a token older than kept changes gets the whole listing.
+     * @param listingJournalSize -- number of changes, {@code 0} to always send the whole listing
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setListingJournalSize(int listingJournalSize) {
+        if (listingJournalSize < 0) {
+            throw new IllegalArgumentException("Size of journal could not be negative");
+        }
+        this.listingJournalSize = listingJournalSize;
+        return this;
+    }
+
+    /**
+     * Whether clients could upload files into root.
+     * @return {@code true} if command put is accepted
+     */
+    public boolean isAcceptUploads() {
+        return acceptUploads;
+    }
+
+    /**
+     * Enable or disable uploads of files into root by command put. Uploaded content is written into a hidden
+     * temporary file next to the target and replaces it by atomic rename, so readers never see a partial file.
+     * Uploads are always rejected when files are served from pack.
+     * @param acceptUploads -- {@code true} to accept uploads
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setAcceptUploads(boolean acceptUploads) {
+        this.acceptUploads = acceptUploads;
+        return this;
+    }
+
+    /**
+     * Get rate of read-ahead.
+     * @return maximum rate in bytes per second of reading files ahead of gets, {@code 0} if it is disabled
+     */
+    public long getReadAheadRate() {
+        return readAheadRate;
+    }
+
+    /**
+     * Set rate of read-ahead. Server learns which directories are fetched file by file after their listings
+     * and reads their next small files in one background thread, so they are in page cache when asked for.
+     * Read-ahead is disabled when files are served from pack.
+     * @param readAheadRate -- maximum rate in bytes per second, {@code 0} to disable read-ahead
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setReadAheadRate(long readAheadRate) {
+        this.readAheadRate = checkRate(readAheadRate);
+        return this;
+    }
+
+    /**
+     * Get maximum size of file which is read ahead.
+     * @return size in bytes
+     */
+    public long getReadAheadFileSize() {
+        return readAheadFileSize;
+    }
+
+    /**
+     * Set maximum size of file which is read ahead, bigger files are left to the usual reads.
+     * @param readAheadFileSize -- size in bytes
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setReadAheadFileSize(long readAheadFileSize) {
+        if (readAheadFileSize <= 0) {
+            throw new IllegalArgumentException("Size of file read ahead should be positive");
+        }
+        this.readAheadFileSize = readAheadFileSize;
+        return this;
+    }
+
+    /**
+     * Get parameters of transport of accepted connections.
+     * @return transport profile
+     */
+    public TransportProfile getTransportProfile() {
+        return transportProfile;
+    }
+
+    /**
+     * Set parameters of transport of accepted connections: Nagle's algorithm, socket buffers, flushing of answers
+     * and chunk of copies. Auto profile retunes every connection by its measured round trip time and throughput.
+     * @param transportProfile -- transport profile, e.g. {@code TransportProfile.PLAIN} for options of system
+     * @return this {@code ServerSettings} object
+     */
+    public ServerSettings setTransportProfile(TransportProfile transportProfile) {
+        if (transportProfile == null) {
+            throw new IllegalArgumentException("Transport profile should not be null");
+        }
+        this.transportProfile = transportProfile;
+        return this;
+    }
+
+    /**
+     * Checks that given number of threads is positive.
+     * @param threads -- number of threads to check
+     * @return the same number
+     */
+    private static int checkThreads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Number of threads should be positive");
+        }
+        return threads;
+    }
+
+    /**
+     * Checks that given rate is not negative.
+     * @param rate -- rate to check
+     * @return the same rate
+     */
+    private static long checkRate(long rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("Rate could not be negative");
+        }
+        return rate;
+    }
+
+    /**
+     * Checks that given timeout is not negative.
+     * @param timeout -- timeout to check
+     * @return the same timeout
+     */
+    private static int checkTimeout(int timeout) {
+        return (int) checkTimeout((long) timeout);
+    }
+
+    /**
+     * Checks that given timeout is not negative.
+     * @param timeout -- timeout to check
+     * @return the same timeout
+     */
+    private static long checkTimeout(long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout could not be negative");
+        }
+        return timeout;
+    }
+}
@@ -0,0 +1,565 @@
+package logic;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**Class which collects counters of server's work. All counters could be read while server works.*/
+public class ServerStats {
+    /**Number of accepted connections.*/
+    private final AtomicLong accepted = new AtomicLong();
+    /**Number of currently open connections.*/
+    private final AtomicLong active = new AtomicLong();
+    /**Number of connections closed by reaper because they were idle for too long.*/
+    private final AtomicLong idleClosed = new AtomicLong();
+    /**Number of connections closed because request was not read in time.*/
+    private final AtomicLong readTimeouts = new AtomicLong();
+    /**Number of connections closed by reaper because request took too long.*/
+    private final AtomicLong transferTimeouts = new AtomicLong();
+    /**Number of bytes of files sent to clients.*/
+    private final AtomicLong bytesSent = new AtomicLong();
+    /**Total time in nanoseconds which transfers spent waiting for bandwidth.*/
+    private final AtomicLong throttledNanos = new AtomicLong();
+    /**Number of reads of files from disk shared by concurrent connections.*/
+    private final AtomicLong sharedReads = new AtomicLong();
+    /**Number of connections which joined a shared read started by other connection.*/
+    private final AtomicLong sharedJoins = new AtomicLong();
+    /**Number of connections which fell behind a shared read and continued by themselves.*/
+    private final AtomicLong sharedFallbacks = new AtomicLong();
+    /**Number of files sent from memory mapped windows.*/
+    private final AtomicLong mappedRequests = new AtomicLong();
+    /**Total size in bytes of currently mapped windows.*/
+    private final AtomicLong mappedBytes = new AtomicLong();
+    /**Number of gets which took attributes of existing file from cache.*/
+    private final AtomicLong attributeHits = new AtomicLong();
+    /**Number of gets which found in cache that there is no such file.*/
+    private final AtomicLong attributeNegativeHits = new AtomicLong();
+    /**Number of gets which read attributes of file from file system.*/
+    private final AtomicLong attributeMisses = new AtomicLong();
+    /**Number of listings which were taken from cache.*/
+    private final AtomicLong listingHits = new AtomicLong();
+    /**Number of listings which were read from file system.*/
+    private final AtomicLong listingMisses = new AtomicLong();
+    /**Number of failed watches, after which gets read attributes every time or listings are sent whole.*/
+    private final AtomicLong watchFailures = new AtomicLong();
+    /**Number of uploads which replaced their files.*/
+    private final AtomicLong uploadsCommitted = new AtomicLong();
+    /**Number of uploads dropped because content did not match its hash.*/
+    private final AtomicLong uploadsCorrupted = new AtomicLong();
+    /**Total size in bytes of committed uploads.*/
+    private final AtomicLong bytesUploaded = new AtomicLong();
+    /**Number of files read ahead of gets.*/
+    private final AtomicLong readAheadFiles = new AtomicLong();
+    /**Total size in bytes of files read ahead of gets.*/
+    private final AtomicLong readAheadBytes = new AtomicLong();
+    /**Number of gets of files which were scheduled for read-ahead.*/
+    private final AtomicLong readAheadHits = new AtomicLong();
+    /**Number of files not read ahead because queue was full or they were too big.*/
+    private final AtomicLong readAheadDropped = new AtomicLong();
+    /**Number of times auto profile of some connection was retuned by its measurements.*/
+    private final AtomicLong transportRetunes = new AtomicLong();
+    /**Profile which the latest connection was tuned by, {@code null} before the first connection.*/
+    private volatile TransportProfile lastTransport;
+    /**Round trip time in microseconds measured by the latest retune, {@code -1} if it was not measured.*/
+    private volatile long lastRttMicros = -1;
+    /**Throughput in bytes per second measured by the latest retune, {@code 0} if it was not measured.*/
+    private volatile long lastThroughput;
+    /**Counters of the lane of listings and small files.*/
+    private final LaneStats fastLane = new LaneStats();
+    /**Counters of the lane of big files.*/
+    private final LaneStats bulkLane = new LaneStats();
+
+    /**Class which collects counters of one lane of requests.*/
+    public static final class LaneStats {
+        /**Number of works admitted to the lane.*/
+        private final AtomicLong requests = new AtomicLong();
+        /**Total time in nanoseconds which works waited for a slot of the lane.*/
+        private final AtomicLong queueNanos = new AtomicLong();
+        /**Maximum time in nanoseconds which one work waited for a slot of the lane.*/
+        private final AtomicLong maxQueueNanos = new AtomicLong();
+
+        /**
+         * Registers work admitted to the lane after waiting for a slot.
+         * @param waited -- time in nanoseconds which work waited for a slot
+         */
+        void started(long waited) {
+            requests.incrementAndGet();
+            queueNanos.addAndGet(waited);
+            maxQueueNanos.accumulateAndGet(waited, Math::max);
+        }
+
+        /**
+         * Get number of works of the lane. A big file is read by several works, one for each chunk.
+         * @return number of works admitted to the lane
+         */
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * Get average queueing delay of the lane.
+         * @return average time in microseconds which work waited for a slot
+         */
+        public long getAverageQueueMicros() {
+            long count = requests.get();
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(queueNanos.get() / count);
+        }
+
+        /**
+         * Get maximum queueing delay of the lane.
+         * @return maximum time in microseconds which work waited for a slot
+         */
+        public long getMaxQueueMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(maxQueueNanos.get());
+        }
+
+        /**
+         * Get all counters of the lane as one line.
+         * @return counters as {@code String} object
+         */
+        @Override
+        public String toString() {
+            return "{requests=" + getRequests()
+                    + " avgQueueMicros=" + getAverageQueueMicros()
+                    + " maxQueueMicros=" + getMaxQueueMicros() + "}";
+        }
+    }
+
+    /**Registers new accepted connection.*/
+    void connectionOpened() {
+        accepted.incrementAndGet();
+        active.incrementAndGet();
+    }
+
+    /**Registers closing of a connection.*/
+    void connectionClosed() {
+        active.decrementAndGet();
+    }
+
+    /**Registers a connection closed because of idle timeout.*/
+    void idleClosed() {
+        idleClosed.incrementAndGet();
+    }
+
+    /**Registers a connection closed because of read timeout.*/
+    void readTimeout() {
+        readTimeouts.incrementAndGet();
+    }
+
+    /**Registers a connection closed because of transfer timeout.*/
+    void transferTimeout() {
+        transferTimeouts.incrementAndGet();
+    }
+
+    /**
+     * Registers bytes of a file sent to client.
+     * @param count -- number of sent bytes
+     */
+    void bytesSent(long count) {
+        bytesSent.addAndGet(count);
+    }
+
+    /**
+     * Registers time spent by a transfer waiting for bandwidth.
+     * @param nanos -- time in nanoseconds
+     */
+    void throttled(long nanos) {
+        throttledNanos.addAndGet(nanos);
+    }
+
+    /**Registers new read of a file shared by concurrent connections.*/
+    void sharedRead() {
+        sharedReads.incrementAndGet();
+    }
+
+    /**Registers a connection which joined a shared read.*/
+    void sharedJoin() {
+        sharedJoins.incrementAndGet();
+    }
+
+    /**Registers a connection which fell behind a shared read.*/
+    void sharedFallback() {
+        sharedFallbacks.incrementAndGet();
+    }
+
+    /**Registers a file sent from mapped windows.*/
+    void mappedRequest() {
+        mappedRequests.incrementAndGet();
+    }
+
+    /**
+     * Registers attributes taken from cache.
+     * @param exists -- whether cached attributes are of existing file
+     */
+    void attributeHit(boolean exists) {
+        (exists ? attributeHits : attributeNegativeHits).incrementAndGet();
+    }
+
+    /**Registers attributes read from file system because cache had no fresh ones.*/
+    void attributeMiss() {
+        attributeMisses.incrementAndGet();
+    }
+
+    /**Registers listing taken from cache.*/
+    void listingHit() {
+        listingHits.incrementAndGet();
+    }
+
+    /**Registers listing read from file system because cache had no fresh one.*/
+    void listingMiss() {
+        listingMisses.incrementAndGet();
+    }
+
+    /**Registers directory which could not be watched, so requests about it read file system every time.*/
+    void watchFailed() {
+        watchFailures.incrementAndGet();
+    }
+
+    /**
+     * Registers upload which replaced its file.
+     * @param size -- size of uploaded file in bytes
+     */
+    void uploadCommitted(long size) {
+        uploadsCommitted.incrementAndGet();
+        bytesUploaded.addAndGet(size);
+    }
+
+    /**Registers upload dropped because content did not match its hash.*/
+    void uploadCorrupted() {
+        uploadsCorrupted.incrementAndGet();
+    }
+
+    /**
+     * Registers file read ahead of gets.
+     * @param size -- size of file in bytes
+     */
+    void readAhead(long size) {
+        readAheadFiles.incrementAndGet();
+        readAheadBytes.addAndGet(size);
+    }
+
+    /**Registers get of file which was scheduled for read-ahead.*/
+    void readAheadHit() {
+        readAheadHits.incrementAndGet();
+    }
+
+    /**Registers file not read ahead because queue was full or it was too big.*/
+    void readAheadDropped() {
+        readAheadDropped.incrementAndGet();
+    }
+
+    /**
+     * Registers profile which connection is tuned by when it starts.
+     * @param profile -- parameters of transport
+     */
+    void transportTuned(TransportProfile profile) {
+        lastTransport = profile;
+    }
+
+    /**
+     * Registers retune of auto profile of connection by its measurements.
+     * @param profile -- new parameters of transport
+     * @param rttNanos -- measured round trip time in nanoseconds
+     * @param bytesPerSecond -- measured throughput, {@code 0} if no big transfer was measured
+     */
+    void transportRetuned(TransportProfile profile, long rttNanos, double bytesPerSecond) {
+        transportRetunes.incrementAndGet();
+        lastTransport = profile;
+        lastRttMicros = rttNanos / 1000;
+        lastThroughput = (long) bytesPerSecond;
+    }
+
+    /**
+     * Registers change of mapped space.
+     * @param delta -- size in bytes of mapped window, negative for unmapped one
+     */
+    void mappedBytes(long delta) {
+        mappedBytes.addAndGet(delta);
+    }
+
+    /**
+     * Get number of accepted connections.
+     * @return number of connections accepted since start of server
+     */
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    /**
+     * Get number of open connections.
+     * @return number of currently open connections
+     */
+    public long getActive() {
+        return active.get();
+    }
+
+    /**
+     * Get number of connections closed by idle timeout.
+     * @return number of connections closed because they were idle for too long
+     */
+    public long getIdleClosed() {
+        return idleClosed.get();
+    }
+
+    /**
+     * Get number of connections closed by read timeout.
+     * @return number of connections closed because request was not read in time
+     */
+    public long getReadTimeouts() {
+        return readTimeouts.get();
+    }
+
+    /**
+     * Get number of connections closed by transfer timeout.
+     * @return number of connections closed because request took too long
+     */
+    public long getTransferTimeouts() {
+        return transferTimeouts.get();
+    }
+
+    /**
+     * Get number of sent bytes of files.
+     * @return number of bytes sent since start of server
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Get time which transfers spent waiting for bandwidth.
+     * @return total time in milliseconds
+     */
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.get());
+    }
+
+    /**
+     * Get number of shared reads of files.
+     * @return number of reads of files from disk which concurrent connections could join
+     */
+    public long getSharedReads() {
+        return sharedReads.get();
+    }
+
+    /**
+     * Get number of joins to shared reads.
+     * @return number of connections which got a file from read started by other connection
+     */
+    public long getSharedJoins() {
+        return sharedJoins.get();
+    }
+
+    /**
+     * Get number of connections which fell behind shared reads.
+     * @return number of connections which continued to read a file by themselves
+     */
+    public long getSharedFallbacks() {
+        return sharedFallbacks.get();
+    }
+
+    /**
+     * Get number of files sent from mapped windows.
+     * @return number of requests served from mappings
+     */
+    public long getMappedRequests() {
+        return mappedRequests.get();
+    }
+
+    /**
+     * Get number of gets which took attributes of existing file from cache.
+     * @return number of positive hits of cache of attributes
+     */
+    public long getAttributeHits() {
+        return attributeHits.get();
+    }
+
+    /**
+     * Get number of gets of missing files which were answered without asking file system.
+     * @return number of negative hits of cache of attributes
+     */
+    public long getAttributeNegativeHits() {
+        return attributeNegativeHits.get();
+    }
+
+    /**
+     * Get number of gets which read attributes from file system.
+     * @return number of misses of cache of attributes
+     */
+    public long getAttributeMisses() {
+        return attributeMisses.get();
+    }
+
+    /**
+     * Get number of listings which were sent without reading directory.
+     * @return number of hits of cache of listings
+     */
+    public long getListingHits() {
+        return listingHits.get();
+    }
+
+    /**
+     * Get number of listings which read directory from file system.
+     * @return number of misses of cache of listings
+     */
+    public long getListingMisses() {
+        return listingMisses.get();
+    }
+
+    /**
+     * Get number of failed watches, after which gets read attributes every time or listings are sent whole.
+     * @return number of failed watches
+     */
+    public long getWatchFailures() {
+        return watchFailures.get();
+    }
+
+    /**
+     * Get number of uploads which replaced their files.
+     * @return number of committed uploads
+     */
+    public long getUploadsCommitted() {
+        return uploadsCommitted.get();
+    }
+
+    /**
+     * Get number of uploads whose content did not match its hash.
+     * @return number of dropped uploads
+     */
+    public long getUploadsCorrupted() {
+        return uploadsCorrupted.get();
+    }
+
+    /**
+     * Get size of committed uploads.
+     * @return total size in bytes of uploaded files
+     */
+    public long getBytesUploaded() {
+        return bytesUploaded.get();
+    }
+
+    /**
+     * Get number of files read ahead of gets.
+     * @return number of files
+     */
+    public long getReadAheadFiles() {
+        return readAheadFiles.get();
+    }
+
+    /**
+     * Get size of files read ahead of gets.
+     * @return total size in bytes
+     */
+    public long getReadAheadBytes() {
+        return readAheadBytes.get();
+    }
+
+    /**
+     * Get number of gets of files which were scheduled for read-ahead before.
+     * @return number of gets
+     */
+    public long getReadAheadHits() {
+        return readAheadHits.get();
+    }
+
+    /**
+     * Get number of files which were not read ahead because queue was full or they were too big.
+     * @return number of files
+     */
+    public long getReadAheadDropped() {
+        return readAheadDropped.get();
+    }
+
+    /**
+     * Get number of retunes of auto profiles of connections.
+     * @return number of retunes
+     */
+    public long getTransportRetunes() {
+        return transportRetunes.get();
+    }
+
+    /**
+     * Get parameters of transport which the latest connection was tuned or retuned by.
+     * @return transport profile, {@code null} before the first connection
+     */
+    public TransportProfile getLastTransport() {
+        return lastTransport;
+    }
+
+    /**
+     * Get round trip time measured by the latest retune.
+     * @return time in microseconds, {@code -1} if nothing was retuned
+     */
+    public long getLastRttMicros() {
+        return lastRttMicros;
+    }
+
+    /**
+     * Get throughput measured by the latest retune.
+     * @return bytes per second, {@code 0} if no big transfer was measured
+     */
+    public long getLastThroughput() {
+        return lastThroughput;
+    }
+
+    /**
+     * Get size of mapped windows.
+     * @return total size in bytes of currently mapped windows
+     */
+    public long getMappedBytes() {
+        return mappedBytes.get();
+    }
+
+    /**
+     * Get counters of the lane of listings and small files.
+     * @return {@code LaneStats} object of the fast lane
+     */
+    public LaneStats getFastLane() {
+        return fastLane;
+    }
+
+    /**
+     * Get counters of the lane of big files.
+     * @return {@code LaneStats} object of the bulk lane
+     */
+    public LaneStats getBulkLane() {
+        return bulkLane;
+    }
+
+    /**
+     * Get all counters as one line.
+     * @return counters as {@code String} object
+     */
+    @Override
+    public String toString() {
+        return "accepted=" + getAccepted()
+                + " active=" + getActive()
+                + " idleClosed=" + getIdleClosed()
+                + " readTimeouts=" + getReadTimeouts()
+                + " transferTimeouts=" + getTransferTimeouts()
+                + " bytesSent=" + getBytesSent()
+                + " throttledMillis=" + getThrottledMillis()
+                + " sharedReads=" + getSharedReads()
+                + " sharedJoins=" + getSharedJoins()
+                + " sharedFallbacks=" + getSharedFallbacks()
+                + " mappedRequests=" + getMappedRequests()
+                + " mappedBytes=" + getMappedBytes()
+                + " attributeHits=" + getAttributeHits()
+                + " attributeNegativeHits=" + getAttributeNegativeHits()
+                + " attributeMisses=" + getAttributeMisses()
+                + " listingHits=" + getListingHits()
+                + " listingMisses=" + getListingMisses()
+                + " watchFailures=" + getWatchFailures()
+                + " uploadsCommitted=" + getUploadsCommitted()
+                + " uploadsCorrupted=" + getUploadsCorrupted()
+                + " bytesUploaded=" + getBytesUploaded()
+                + " readAheadFiles=" + getReadAheadFiles()
+                + " readAheadBytes=" + getReadAheadBytes()
+                + " readAheadHits=" + getReadAheadHits()
+                + " readAheadDropped=" + getReadAheadDropped()
+                + " transportRetunes=" + getTransportRetunes()
+                + " lastTransport=" + getLastTransport()
+                + " lastRttMicros=" + getLastRttMicros()
+                + " lastThroughput=" + getLastThroughput()
+                + " fastLane=" + fastLane
+                + " bulkLane=" + bulkLane;
+    }
+}
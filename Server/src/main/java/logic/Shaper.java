@@ -0,0 +1,205 @@
+package logic;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Class which limits bandwidth of one connection.
+ * Every portion of data passes limits of the connection, of client's address and the global one.
+ * Portion size is proportional to the weight of the client, so weighted round robin is made
+ * between all transfers which are waiting for the same bucket.
+ */
+class Shaper {
+    /**Bucket of this connection only.*/
+    private final TokenBucket connection;
+    /**Bucket shared by all connections from the same address.*/
+    private final TokenBucket address;
+    /**Bucket shared by all connections of the server.*/
+    private final TokenBucket global;
+    /**Buffer for copying, its size is the portion taken from buckets at once.*/
+    private byte[] buffer;
+    /**View of the buffer for reading from channels, so it is not wrapped again for every read.*/
+    private ByteBuffer view;
+    /**Counters to register sent bytes and waiting time.*/
+    private final ServerStats stats;
+
+    /**
+     * Constructs {@code Shaper} object by buckets and portion size.
+     * @param connection -- bucket of this connection only
+     * @param address -- bucket shared by all connections from the same address
+     * @param global -- bucket shared by all connections of the server
+     * @param quantum -- number of bytes sent by one turn
+     * @param stats -- counters to register sent bytes and waiting time
+     */
+    Shaper(TokenBucket connection, TokenBucket address, TokenBucket global, int quantum, ServerStats stats) {
+        this.connection = connection;
+        this.address = address;
+        this.global = global;
+        this.buffer = new byte[quantum];
+        this.view = ByteBuffer.wrap(buffer);
+        this.stats = stats;
+    }
+
+    /**
+     * Changes portion size when transport of the connection is retuned. Portion bigger than capacity of buckets
+     * takes them below zero, so the limits hold on average. It is called by the thread of connection between copies.
+     * @param quantum -- number of bytes sent by one turn
+     */
+    void resize(int quantum) {
+        if (quantum != buffer.length) {
+            buffer = new byte[quantum];
+            view = ByteBuffer.wrap(buffer);
+        }
+    }
+
+    /**
+     * Copies whole input stream to output stream, sending it by portions in turn with other transfers.
+     * Every portion is read in the lane, which is left before waiting for bandwidth and writing.
+     * @param in -- stream to read data from
+     * @param out -- stream to write data to
+     * @param lane -- lane of reads, {@code null} if the stream does not read disk by the calling thread
+     * @return number of copied bytes
+     * @throws IOException if reading or writing fails or thread was interrupted
+     */
+    long copy(InputStream in, OutputStream out, Lane lane) throws IOException {
+        long total = 0;
+        while (true) {
+            Object read = Tracing.begin(Tracing.FILE_READ);
+            int count;
+            if (lane == null) {
+                count = in.read(buffer);
+            } else {
+                lane.enter();
+                try {
+                    count = in.read(buffer);
+                } finally {
+                    lane.leave();
+                }
+            }
+            if (count == -1) {
+                break;
+            }
+            Tracing.fileRead(read, count);
+            acquire(count);
+            write(out, count);
+            total += count;
+            stats.bytesSent(count);
+        }
+        return total;
+    }
+
+    /**
+     * Copies the whole opened file to output stream, reading it into the buffer of this connection by positions,
+     * so no stream or buffer is allocated for the copy. Exactly the size of the file which was sent to client
+     * is copied, even if the file has grown since it was opened.
+     * Every portion is read in the lane, which is left before waiting for bandwidth and writing.
+     * @param body -- opened file
+     * @param out -- stream to write data to
+     * @param lane -- lane of reads
+     * @return number of copied bytes
+     * @throws IOException if reading or writing fails, file became shorter or thread was interrupted
+     */
+    long copy(FileBody body, OutputStream out, Lane lane) throws IOException {
+        long total = 0;
+        while (total < body.size()) {
+            view.clear();
+            if (body.size() - total < view.capacity()) {
+                view.limit((int) (body.size() - total));
+            }
+            Object read = Tracing.begin(Tracing.FILE_READ);
+            int count;
+            lane.enter();
+            try {
+                count = body.read(view, total);
+            } finally {
+                lane.leave();
+            }
+            if (count < 0) {
+                throw new EOFException("File became shorter while it was sent");
+            }
+            Tracing.fileRead(read, count);
+            acquire(count);
+            write(out, count);
+            total += count;
+            stats.bytesSent(count);
+        }
+        return total;
+    }
+
+    /**
+     * Copies remaining content of buffer to output stream, sending it by portions in turn with other transfers.
+     * @param source -- buffer to take data from, its position is moved to its limit
+     * @param out -- stream to write data to
+     * @return number of copied bytes
+     * @throws IOException if an error appears while writing
+     */
+    long copy(ByteBuffer source, OutputStream out) throws IOException {
+        return copy(source, out, null);
+    }
+
+    /**
+     * Copies remaining content of buffer to output stream, sending it by portions in turn with other transfers.
+     * Every portion is taken from the buffer in the lane, so pages of mapped file are read from disk in it.
+     * @param source -- buffer to take data from, its position is moved to its limit
+     * @param out -- stream to write data to
+     * @param lane -- lane of reads, {@code null} if the buffer is in memory
+     * @return number of copied bytes
+     * @throws IOException if an error appears while writing or thread was interrupted
+     */
+    long copy(ByteBuffer source, OutputStream out, Lane lane) throws IOException {
+        long total = 0;
+        while (source.hasRemaining()) {
+            int count = Math.min(buffer.length, source.remaining());
+            if (lane == null) {
+                source.get(buffer, 0, count);
+            } else {
+                lane.enter();
+                try {
+                    source.get(buffer, 0, count);
+                } finally {
+                    lane.leave();
+                }
+            }
+            acquire(count);
+            write(out, count);
+            total += count;
+            stats.bytesSent(count);
+        }
+        return total;
+    }
+
+    /**
+     * Writes beginning of the buffer to output stream.
+     * @param out -- stream to write data to
+     * @param count -- number of bytes to write
+     * @throws IOException if an error appears while writing
+     */
+    private void write(OutputStream out, int count) throws IOException {
+        Object write = Tracing.begin(Tracing.SOCKET_WRITE);
+        out.write(buffer, 0, count);
+        Tracing.socketWrite(write, count);
+    }
+
+    /**
+     * Waits until given number of bytes could be sent.
+     * @param count -- number of bytes which are going to be sent
+     * @throws InterruptedIOException if thread was interrupted while waiting
+     */
+    private void acquire(int count) throws InterruptedIOException {
+        try {
+            long waited = connection.acquire(count);
+            waited += address.acquire(count);
+            waited += global.acquire(count);
+            if (waited > 0) {
+                stats.throttled(waited);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+        }
+    }
+}
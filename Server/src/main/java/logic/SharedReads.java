@@ -0,0 +1,365 @@
+package logic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Class which coalesces concurrent reads of the same version of a big file into one reader.
+ * The first connection reads the file from its own channel until a second one joins; only then the ring
+ * of chunks is allocated and the reader is started from the position of the first connection, so a single
+ * client costs no extra memory. Every connection streams from the ring, so disk reads do not grow with
+ * the number of clients; a joined connection reads the part before the start of the ring by itself.
+ * Connection which falls so far behind that its chunk was overwritten continues from its own channel.
+ */
+class SharedReads {
+    /**Reads in progress which still could be joined, by path and version of file.*/
+    private final Map<String, SharedRead> active = new ConcurrentHashMap<>();
+    /**Threads of readers.*/
+    private final ExecutorService readers;
+    /**Minimum size of file which reads are coalesced, {@code 0} if coalescing is disabled.*/
+    private final long threshold;
+    /**Size of one chunk in bytes.*/
+    private final int chunkSize;
+    /**Number of chunks in the ring.*/
+    private final int chunks;
+    /**Counters of shared reads.*/
+    private final ServerStats stats;
+
+    /**
+     * Constructs {@code SharedReads} object by sizes of files and buffers.
+     * @param threshold -- minimum size of file which reads are coalesced, {@code 0} to disable coalescing
+     * @param chunkSize -- size of one chunk in bytes
+     * @param bufferSize -- size of the ring of one read in bytes
+     * @param stats -- counters of shared reads
+     */
+    SharedReads(long threshold, int chunkSize, long bufferSize, ServerStats stats) {
+        this.threshold = threshold;
+        this.chunkSize = chunkSize;
+        this.chunks = (int) Math.max(2, bufferSize / chunkSize);
+        this.stats = stats;
+        readers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "shared-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Whether reads of the file are shared with other connections.
+     * @param body -- opened file
+     * @return {@code false} if the file is small or packed, so it is read by the connection itself
+     */
+    boolean isShared(FileBody body) {
+        return threshold != 0 && body.size() >= threshold && !body.isPacked();
+    }
+
+    /**
+     * Get stream of content of opened file, shared with other connections if they read the same file now.
+     * @param body -- file opened by the connection, it is used when the read could not be shared
+     * @return stream which should be closed after reading
+     * @throws IOException if an error appears while working with the file
+     */
+    InputStream open(FileBody body) throws IOException {
+        if (!isShared(body)) {
+            return body.stream();
+        }
+        String key = body.path().toAbsolutePath() + "|" + body.size() + "|" + body.lastModified();
+        while (true) {
+            SharedRead read = active.get(key);
+            if (read == null) {
+                SharedRead created = new SharedRead(key, body.path(), body.size());
+                if (active.putIfAbsent(key, created) != null) {
+                    continue;
+                }
+                return created.join(body);
+            }
+            InputStream cursor = read.join(body);
+            if (cursor != null) {
+                stats.sharedJoin();
+                return cursor;
+            }
+            return body.stream();
+        }
+    }
+
+    /**Stops threads of readers.*/
+    void shutdown() {
+        readers.shutdownNow();
+    }
+
+    /**Class of one shared read of a file into ring of chunks, which is allocated when a second connection joins.*/
+    private final class SharedRead implements Runnable {
+        /**Path and version of the file.*/
+        private final String key;
+        /**Path to the file.*/
+        private final Path file;
+        /**Size of the file.*/
+        private final long size;
+        /**Buffers of chunks, {@code null} while only one connection reads the file.*/
+        private byte[][] ring;
+        /**Offset in file of chunk which is in each buffer, {@code -1} if buffer is being filled.*/
+        private long[] offsets;
+        /**Length of chunk which is in each buffer.*/
+        private int[] lengths;
+        /**Offset in file of the first chunk of the ring, {@code -1} before the ring is started.*/
+        private long start = -1;
+        /**Offset in file up to which the reader has read it.*/
+        private long produced;
+        /**Number of chunks read by the reader.*/
+        private long producedChunks;
+        /**Position of the fastest connection.*/
+        private long maxPosition;
+        /**Number of connections which read from the ring.*/
+        private int users;
+        /**Whether reader has stopped.*/
+        private boolean done;
+
+        /**
+         * Constructs {@code SharedRead} object by file.
+         * @param key -- path and version of the file
+         * @param file -- path to the file
+         * @param size -- size of the file
+         */
+        SharedRead(String key, Path file, long size) {
+            this.key = key;
+            this.file = file;
+            this.size = size;
+        }
+
+        /**
+         * Adds a connection if it could still catch up: the first connection is not further than the ring holds,
+         * or the first chunk of started ring is not overwritten yet. The second connection starts the ring.
+         * @param body -- file opened by the connection, used before the start of the ring and if it falls behind
+         * @return stream of the file or {@code null} if it is too late to join
+         */
+        synchronized InputStream join(FileBody body) {
+            boolean late = start < 0 ? maxPosition >= (long) (chunks - 1) * chunkSize : producedChunks >= chunks;
+            if (late || done) {
+                active.remove(key, this);
+                return null;
+            }
+            users++;
+            if (users == 2 && start < 0) {
+                start = maxPosition / chunkSize * chunkSize;
+                produced = start;
+                ring = new byte[chunks][chunkSize];
+                offsets = new long[chunks];
+                lengths = new int[chunks];
+                Arrays.fill(offsets, -1);
+                readers.execute(this);
+                stats.sharedRead();
+            }
+            return new Cursor(this, body);
+        }
+
+        /**
+         * Get slot of the ring which keeps chunk at given offset.
+         * @param offset -- offset of chunk in file
+         * @return index of buffer in the ring
+         */
+        private int slot(long offset) {
+            return (int) (offset / chunkSize % chunks);
+        }
+
+        /**Reads the file chunk by chunk until it is read or all connections have left.*/
+        @Override
+        public void run() {
+            long capacity = (long) chunks * chunkSize;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long offset;
+                synchronized (this) {
+                    offset = start;
+                }
+                while (offset < size) {
+                    int slot = slot(offset);
+                    synchronized (this) {
+                        while (users > 0 && offset - maxPosition >= capacity - chunkSize) {
+                            wait();
+                        }
+                        if (users == 0) {
+                            break;
+                        }
+                        if (producedChunks == chunks) {
+                            active.remove(key, this);
+                        }
+                        offsets[slot] = -1;
+                    }
+                    int length = (int) Math.min(chunkSize, size - offset);
+                    ByteBuffer buffer = ByteBuffer.wrap(ring[slot], 0, length);
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, offset + buffer.position()) < 0) {
+                            return;
+                        }
+                    }
+                    synchronized (this) {
+                        offsets[slot] = offset;
+                        lengths[slot] = length;
+                        offset += length;
+                        produced = offset;
+                        producedChunks++;
+                        notifyAll();
+                    }
+                }
+            } catch (IOException | InterruptedException ignored) {
+                // Connections continue from their own channels.
+            } finally {
+                active.remove(key, this);
+                synchronized (this) {
+                    done = true;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**Class of one connection's stream over shared read.*/
+    private final class Cursor extends InputStream {
+        /**Shared read of the file.*/
+        private final SharedRead shared;
+        /**File opened by the connection.*/
+        private final FileBody body;
+        /**Position of the next byte to read.*/
+        private long position;
+        /**Own stream of the connection after it has fallen behind, {@code null} before.*/
+        private InputStream fallback;
+        /**Whether the cursor has left the shared read.*/
+        private boolean closed;
+
+        /**
+         * Constructs {@code Cursor} object by shared read and opened file.
+         * @param shared -- shared read of the file
+         * @param body -- file opened by the connection
+         */
+        Cursor(SharedRead shared, FileBody body) {
+            this.shared = shared;
+            this.body = body;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (fallback != null) {
+                return fallback.read(b, off, len);
+            }
+            if (position >= shared.size) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            long ringStart;
+            synchronized (shared) {
+                ringStart = shared.start;
+            }
+            if (ringStart < 0 || position < ringStart) {
+                return readOwn(b, off, ringStart < 0 ? len : (int) Math.min(len, ringStart - position));
+            }
+            long chunkOffset = position / chunkSize * chunkSize;
+            int slot = shared.slot(chunkOffset);
+            int length;
+            synchronized (shared) {
+                while (shared.offsets[slot] != chunkOffset) {
+                    if (chunkOffset < shared.produced || shared.done) {
+                        return fallBack(b, off, len);
+                    }
+                    try {
+                        shared.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for shared read");
+                    }
+                }
+                length = shared.lengths[slot];
+            }
+            int inChunk = (int) (position - chunkOffset);
+            int count = Math.min(len, length - inChunk);
+            System.arraycopy(shared.ring[slot], inChunk, b, off, count);
+            synchronized (shared) {
+                if (shared.offsets[slot] != chunkOffset) {
+                    return fallBack(b, off, len);
+                }
+                advance(count);
+            }
+            return count;
+        }
+
+        /**
+         * Reads part of the file which is not in the ring from own channel of the connection.
+         * @param b -- buffer to read to
+         * @param off -- offset in buffer
+         * @param len -- maximum number of bytes to read
+         * @return number of read bytes or {@code -1} if the file became shorter
+         * @throws IOException if an error appears while reading the file
+         */
+        private int readOwn(byte[] b, int off, int len) throws IOException {
+            int count = body.read(ByteBuffer.wrap(b, off, len), position);
+            if (count > 0) {
+                synchronized (shared) {
+                    advance(count);
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Moves position forward and lets the reader go on if this connection is the fastest one.
+         * It is called with lock of the shared read held.
+         * @param count -- number of read bytes
+         */
+        private void advance(int count) {
+            position += count;
+            if (position > shared.maxPosition) {
+                shared.maxPosition = position;
+                shared.notifyAll();
+            }
+        }
+
+        /**
+         * Leaves the shared read and continues from own channel.
+         * @param b -- buffer to read to
+         * @param off -- offset in buffer
+         * @param len -- maximum number of bytes to read
+         * @return number of read bytes or {@code -1} at the end of file
+         * @throws IOException if an error appears while reading the file
+         */
+        private int fallBack(byte[] b, int off, int len) throws IOException {
+            leave();
+            stats.sharedFallback();
+            fallback = body.stream(position);
+            return fallback.read(b, off, len);
+        }
+
+        /**Leaves the shared read, so reader could stop when nobody needs it.*/
+        private void leave() {
+            synchronized (shared) {
+                if (!closed) {
+                    closed = true;
+                    shared.users--;
+                    if (shared.users == 0 && shared.start < 0) {
+                        active.remove(shared.key, shared);
+                    }
+                    shared.notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            leave();
+        }
+    }
+}
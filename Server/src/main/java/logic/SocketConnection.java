@@ -0,0 +1,72 @@
+package logic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**Class of connection over TCP {@code Socket}.*/
+class SocketConnection implements Connection {
+    /**Socket of the connection.*/
+    private final Socket socket;
+
+    /**
+     * Constructs {@code SocketConnection} object by connected socket.
+     * @param socket -- connected socket
+     */
+    SocketConnection(Socket socket) {
+        this.socket = socket;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return socket.getInetAddress();
+    }
+
+    @Override
+    public Object getRemoteAddress() {
+        return socket.getRemoteSocketAddress();
+    }
+
+    @Override
+    public void setReadTimeout(int millis) throws IOException {
+        socket.setSoTimeout(millis);
+    }
+
+    @Override
+    public void tune(TransportProfile profile) throws IOException {
+        socket.setTcpNoDelay(!profile.isNagle());
+        if (profile.getSocketBuffer() > 0) {
+            socket.setSendBufferSize(profile.getSocketBuffer());
+            socket.setReceiveBufferSize(profile.getSocketBuffer());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (socket.isClosed()) {
+            return;
+        }
+        try {
+            if (!socket.isInputShutdown()) {
+                socket.shutdownInput();
+            }
+            if (!socket.isOutputShutdown()) {
+                socket.shutdownOutput();
+            }
+        } finally {
+            socket.close();
+        }
+    }
+}
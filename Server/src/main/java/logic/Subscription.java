@@ -0,0 +1,92 @@
+package logic;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class of one client's subscription to changes of directory.
+ * Changes which were not taken yet are merged per file, so slow client gets fewer events, not more;
+ * when too many files are pending, they are replaced by one {@code OVERFLOW} event.
+ */
+class Subscription implements DirectoryWatcher.Listener, Closeable {
+    /**Maximum number of pending changed files.*/
+    private static final int MAX_PENDING = 10_000;
+    /**Changes which were not taken yet by their paths.*/
+    private final Map<String, ChangeEvent> pending = new LinkedHashMap<>();
+    /**Registration in watcher, set right after creation.*/
+    private DirectoryWatcher.Watch watch;
+    /**Whether subscription was closed.*/
+    private boolean closed;
+
+    /**
+     * Sets registration in watcher which is closed together with subscription.
+     * @param watch -- registration in watcher
+     */
+    void setWatch(DirectoryWatcher.Watch watch) {
+        this.watch = watch;
+    }
+
+    @Override
+    public synchronized void changed(ChangeEvent event) {
+        if (closed) {
+            return;
+        }
+        if (event.getKind() == ChangeEvent.Kind.OVERFLOW || pending.size() >= MAX_PENDING) {
+            pending.clear();
+            pending.put("", new ChangeEvent(ChangeEvent.Kind.OVERFLOW, "", true));
+        } else if (!pending.containsKey("")) {
+            ChangeEvent earlier = pending.remove(event.getPath());
+            ChangeEvent.Kind kind = earlier == null ? event.getKind()
+                    : ChangeEvent.coalesce(earlier.getKind(), event.getKind());
+            if (kind != null) {
+                pending.put(event.getPath(), new ChangeEvent(kind, event.getPath(), event.isDirectory()));
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Takes all pending changes, waiting for them if there are none.
+     * @param timeout -- maximum time in milliseconds to wait
+     * @return pending changes, empty if timeout passed or subscription was closed
+     * @throws InterruptedException if thread was interrupted while waiting
+     */
+    synchronized List<ChangeEvent> take(long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        long left;
+        while (pending.isEmpty() && !closed && (left = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        if (pending.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<ChangeEvent> result = new ArrayList<>(pending.values());
+        pending.clear();
+        return result;
+    }
+
+    /**
+     * Whether subscription was closed.
+     * @return {@code true} if subscription was closed
+     */
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**Stops receiving changes and wakes up waiting thread.*/
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        if (watch != null) {
+            watch.close();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package logic;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**Class of transport over TCP sockets.*/
+public class TcpTransport implements Transport {
+    /**Host which client connects to.*/
+    private final String host;
+    /**Port which server listens on and client connects to.*/
+    private final int port;
+
+    /**
+     * Constructs {@code TcpTransport} object for server on this host.
+     * @param port -- port which server listens on
+     */
+    public TcpTransport(int port) {
+        this("localhost", port);
+    }
+
+    /**
+     * Constructs {@code TcpTransport} object by host and port of server.
+     * @param host -- host which client connects to
+     * @param port -- port which server listens on
+     */
+    public TcpTransport(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public Listener listen() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port);
+        return new Listener() {
+            @Override
+            public Connection accept() throws IOException {
+                return new SocketConnection(serverSocket.accept());
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!serverSocket.isClosed()) {
+                    serverSocket.close();
+                }
+            }
+        };
+    }
+
+    @Override
+    public Connection connect() throws IOException {
+        return new SocketConnection(new Socket(host, port));
+    }
+
+    @Override
+    public Connection connect(int timeoutMillis) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return new SocketConnection(socket);
+    }
+
+    /**
+     * Get description of transport.
+     * @return host and port
+     */
+    @Override
+    public String toString() {
+        return "tcp://" + host + ":" + port;
+    }
+}
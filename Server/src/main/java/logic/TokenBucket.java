@@ -0,0 +1,75 @@
+package logic;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class of token bucket which limits rate of sending bytes.
+ * Waiting threads are served in order of arrival, so transfers which take tokens
+ * by equal portions share the bandwidth in round robin order.
+ */
+class TokenBucket {
+    /**Rate in bytes per second, not positive value means no limit.*/
+    private final long rate;
+    /**Maximum number of tokens which could be saved up.*/
+    private final long capacity;
+    /**Fair lock, so waiting transfers take turns.*/
+    private final ReentrantLock lock = new ReentrantLock(true);
+    /**Number of available tokens, could be negative after taking a portion bigger than capacity.*/
+    private double tokens;
+    /**Time in nanoseconds of the last refill.*/
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * Constructs {@code TokenBucket} object by rate and capacity.
+     * @param rate -- rate in bytes per second, {@code 0} for unlimited bucket
+     * @param capacity -- maximum number of tokens which could be saved up
+     */
+    TokenBucket(long rate, long capacity) {
+        this.rate = rate;
+        this.capacity = Math.max(1, capacity);
+        tokens = this.capacity;
+    }
+
+    /**
+     * Whether this bucket limits anything.
+     * @return {@code true} if bucket has no limit
+     */
+    boolean isUnlimited() {
+        return rate <= 0;
+    }
+
+    /**
+     * Takes given number of tokens, waiting until they are available.
+     * @param count -- number of bytes which are going to be sent
+     * @return time in nanoseconds spent in waiting
+     * @throws InterruptedException if thread was interrupted while waiting
+     */
+    long acquire(long count) throws InterruptedException {
+        if (isUnlimited()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        lock.lockInterruptibly();
+        try {
+            long needed = Math.min(count, capacity);
+            refill();
+            while (tokens < needed) {
+                long nanos = (long) ((needed - tokens) * TimeUnit.SECONDS.toNanos(1) / rate);
+                TimeUnit.NANOSECONDS.sleep(Math.max(1, nanos));
+                refill();
+            }
+            tokens -= count;
+        } finally {
+            lock.unlock();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**Adds tokens collected since the last refill.*/
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (double) (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+    }
+}
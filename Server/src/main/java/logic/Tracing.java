@@ -0,0 +1,222 @@
+package logic;
+
+/**
+ * Class which records phases of requests as Java Flight Recorder events, see {@code FlightEvents}.
+ * Events are recorded only while a recording has enabled them, otherwise every call is a check of a flag
+ * and nothing is allocated. {@code FlightEvents} is built from its own source set on JDK 11 or newer
+ * and is found by reflection, so this class compiles for Java 8; on Java without JFR or without that class
+ * nothing is recorded.
+ * Event is started by {@code begin} and committed by a method of its kind, both accept {@code null} events.
+ */
+final class Tracing {
+    /**Kind of event of accepted connection.*/
+    static final int ACCEPT = 0;
+    /**Kind of event of request handled by server.*/
+    static final int REQUEST = 1;
+    /**Kind of event of waiting for a slot of lane.*/
+    static final int LANE_WAIT = 2;
+    /**Kind of event of listing of directory.*/
+    static final int FILE_LIST = 3;
+    /**Kind of event of opening of file.*/
+    static final int FILE_OPEN = 4;
+    /**Kind of event of reading of portion of file.*/
+    static final int FILE_READ = 5;
+    /**Kind of event of writing of portion of answer to socket.*/
+    static final int SOCKET_WRITE = 6;
+    /**Kind of event of request made by client.*/
+    static final int CLIENT_REQUEST = 7;
+    /**Recorder of flight recorder events, {@code null} if Java or build has no flight recorder.*/
+    private static final Recorder RECORDER = load();
+
+    /**Interface of recorder of events, it is implemented by {@code FlightEvents}.*/
+    interface Recorder {
+        /**
+         * Starts event if a recording has enabled its kind.
+         * @param kind -- kind of event
+         * @return started event or {@code null} if it is disabled
+         */
+        Object begin(int kind);
+
+        /**
+         * Commits event of accepted connection.
+         * @param event -- started event
+         * @param remoteAddress -- address of the client
+         */
+        void accepted(Object event, Object remoteAddress);
+
+        /**
+         * Commits event of request.
+         * @param event -- started event
+         * @param command -- number of command
+         * @param path -- path given by client
+         * @param bytesWritten -- number of bytes of answer
+         */
+        void request(Object event, int command, String path, long bytesWritten);
+
+        /**
+         * Commits event of waiting for lane.
+         * @param event -- started event
+         * @param lane -- name of lane
+         */
+        void laneWait(Object event, String lane);
+
+        /**
+         * Commits event of listing.
+         * @param event -- started event
+         * @param path -- path given by client
+         * @param entries -- number of files in directory
+         */
+        void fileList(Object event, String path, int entries);
+
+        /**
+         * Commits event of opening.
+         * @param event -- started event
+         * @param path -- path given by client
+         * @param size -- size of file
+         */
+        void fileOpen(Object event, String path, long size);
+
+        /**
+         * Commits event of reading.
+         * @param event -- started event
+         * @param bytes -- number of read bytes
+         */
+        void fileRead(Object event, long bytes);
+
+        /**
+         * Commits event of writing to socket.
+         * @param event -- started event
+         * @param bytes -- number of written bytes
+         */
+        void socketWrite(Object event, long bytes);
+
+        /**
+         * Commits event of client's request.
+         * @param event -- started event
+         * @param command -- number of command
+         * @param path -- path of request
+         * @param bytes -- number of bytes of received content
+         */
+        void clientRequest(Object event, int command, String path, long bytes);
+    }
+
+    private Tracing() {
+    }
+
+    /**
+     * Loads recorder of flight recorder events if Java and build have it.
+     * @return recorder or {@code null} if events could not be used
+     */
+    private static Recorder load() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            Class<?> events = Class.forName(Tracing.class.getPackage().getName() + ".FlightEvents");
+            return (Recorder) events.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts event if a recording has enabled its kind.
+     * @param kind -- kind of event
+     * @return started event or {@code null} if it is not recorded
+     */
+    static Object begin(int kind) {
+        return RECORDER == null ? null : RECORDER.begin(kind);
+    }
+
+    /**
+     * Records accepted connection.
+     * @param remoteAddress -- address of the client
+     */
+    static void accepted(Object remoteAddress) {
+        Object event = begin(ACCEPT);
+        if (event != null) {
+            RECORDER.accepted(event, remoteAddress);
+        }
+    }
+
+    /**
+     * Ends event of request handled by server.
+     * @param event -- started event or {@code null}
+     * @param command -- number of command
+     * @param path -- path given by client, {@code null} if command has no path
+     * @param bytesWritten -- number of bytes of answer
+     */
+    static void request(Object event, int command, String path, long bytesWritten) {
+        if (event != null) {
+            RECORDER.request(event, command, path, bytesWritten);
+        }
+    }
+
+    /**
+     * Ends event of waiting for lane.
+     * @param event -- started event or {@code null}
+     * @param lane -- name of lane
+     */
+    static void laneWait(Object event, String lane) {
+        if (event != null) {
+            RECORDER.laneWait(event, lane);
+        }
+    }
+
+    /**
+     * Ends event of listing.
+     * @param event -- started event or {@code null}
+     * @param path -- path given by client
+     * @param entries -- number of files in directory, {@code -1} if it is not a directory
+     */
+    static void fileList(Object event, String path, int entries) {
+        if (event != null) {
+            RECORDER.fileList(event, path, entries);
+        }
+    }
+
+    /**
+     * Ends event of opening.
+     * @param event -- started event or {@code null}
+     * @param path -- path given by client
+     * @param size -- size of file, {@code -1} if there is no such file
+     */
+    static void fileOpen(Object event, String path, long size) {
+        if (event != null) {
+            RECORDER.fileOpen(event, path, size);
+        }
+    }
+
+    /**
+     * Ends event of reading.
+     * @param event -- started event or {@code null}
+     * @param bytes -- number of read bytes
+     */
+    static void fileRead(Object event, long bytes) {
+        if (event != null) {
+            RECORDER.fileRead(event, bytes);
+        }
+    }
+
+    /**
+     * Ends event of writing to socket.
+     * @param event -- started event or {@code null}
+     * @param bytes -- number of written bytes
+     */
+    static void socketWrite(Object event, long bytes) {
+        if (event != null) {
+            RECORDER.socketWrite(event, bytes);
+        }
+    }
+
+    /**
+     * Ends event of request made by client.
+     * @param event -- started event or {@code null}
+     * @param command -- number of command
+     * @param path -- path of request
+     * @param bytes -- number of bytes of received content
+     */
+    static void clientRequest(Object event, int command, String path, long bytes) {
+        if (event != null) {
+            RECORDER.clientRequest(event, command, path, bytes);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package logic;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**Interface of a way to connect clients with server, like TCP or Unix domain sockets.*/
+public interface Transport {
+    /**Interface of server's side of transport which accepts clients.*/
+    interface Listener extends Closeable {
+        /**
+         * Waits for next client.
+         * @return connection to new client
+         * @throws IOException if listener was closed or an error appears while accepting
+         */
+        Connection accept() throws IOException;
+    }
+
+    /**
+     * Starts listening for clients.
+     * @return listener which accepts clients
+     * @throws IOException if listening could not be started
+     */
+    Listener listen() throws IOException;
+
+    /**
+     * Connects to server which listens on this transport.
+     * @return new connection to server
+     * @throws IOException if connection could not be established
+     */
+    Connection connect() throws IOException;
+
+    /**
+     * Connects to server which listens on this transport, waiting for it at most given time.
+     * Transports which connect at once or fail at once ignore the time.
+     * @param timeoutMillis -- time in milliseconds, {@code 0} to wait as long as system does
+     * @return new connection to server
+     * @throws IOException if connection could not be established in time
+     */
+    default Connection connect(int timeoutMillis) throws IOException {
+        return connect();
+    }
+}
@@ -0,0 +1,215 @@
+package logic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Class of parameters of transport of one connection: Nagle's algorithm, sizes of socket buffers,
+ * size of buffer of streams which is flushed once per request or answer, and size of chunk of copies.
+ * Size {@code 0} leaves the value of the system or of server settings. Profile {@code AUTO} starts as
+ * {@code LOOPBACK} and its socket buffers and chunk are retuned by round trip time and throughput measured
+ * on the connection; buffer of streams is chosen once, when connection starts.
+ */
+public final class TransportProfile {
+    /**Behaviour without tuning: Nagle's algorithm is on, buffers of system, every write goes to socket.*/
+    public static final TransportProfile PLAIN = new TransportProfile("plain", false, true, 0, 0);
+    /**Loopback and LAN: no Nagle's delay, buffers of system which they tune themselves, small stream buffer.*/
+    public static final TransportProfile LOOPBACK = new TransportProfile("loopback", false, false, 0,
+            16 * 1024);
+    /**Long fat pipe: no Nagle's delay, socket buffers for a few megabytes in flight, big chunks of copies.*/
+    public static final TransportProfile WAN = new TransportProfile("wan", false, false, 8 * 1024 * 1024,
+            64 * 1024, 1024 * 1024);
+    /**Parameters chosen by measurements of connection, see {@code forLink}.*/
+    public static final TransportProfile AUTO = new TransportProfile("auto", true, false, 0, 16 * 1024);
+    /**Round trip time in nanoseconds below which link is taken as local.*/
+    static final long LOCAL_RTT = 1_000_000;
+    /**Throughput in bytes per second which is assumed until a transfer is measured, 1 Gbit/s.*/
+    static final double ASSUMED_THROUGHPUT = 125_000_000;
+    /**Minimum size in bytes of socket buffer chosen for remote link.*/
+    private static final int MIN_SOCKET_BUFFER = 256 * 1024;
+    /**Maximum size in bytes of socket buffer chosen for remote link.*/
+    private static final int MAX_SOCKET_BUFFER = 16 * 1024 * 1024;
+    /**Minimum size in bytes of chunk chosen for remote link.*/
+    private static final int MIN_CHUNK = 64 * 1024;
+    /**Maximum size in bytes of chunk chosen for remote link.*/
+    private static final int MAX_CHUNK = 1024 * 1024;
+    /**Name of profile for stats and logs.*/
+    private final String name;
+    /**Whether parameters are retuned by measurements of connection.*/
+    private final boolean auto;
+    /**Whether Nagle's algorithm is on.*/
+    private final boolean nagle;
+    /**Size in bytes of send and receive buffers of socket, {@code 0} for size of system.*/
+    private final int socketBuffer;
+    /**Size in bytes of buffer of streams, {@code 0} for unbuffered streams.*/
+    private final int streamBuffer;
+    /**Size in bytes of chunk of copies, {@code 0} for transfer chunk of server settings.*/
+    private final int chunk;
+
+    /**
+     * Constructs {@code TransportProfile} object with chunk of server settings.
+     * @param name -- name of profile
+     * @param auto -- whether parameters are retuned by measurements
+     * @param nagle -- whether Nagle's algorithm is on
+     * @param socketBuffer -- size in bytes of socket buffers, {@code 0} for size of system
+     * @param streamBuffer -- size in bytes of buffer of streams, {@code 0} for unbuffered streams
+     */
+    private TransportProfile(String name, boolean auto, boolean nagle, int socketBuffer, int streamBuffer) {
+        this(name, auto, nagle, socketBuffer, streamBuffer, 0);
+    }
+
+    /**
+     * Constructs {@code TransportProfile} object.
+     * @param name -- name of profile
+     * @param auto -- whether parameters are retuned by measurements
+     * @param nagle -- whether Nagle's algorithm is on
+     * @param socketBuffer -- size in bytes of socket buffers, {@code 0} for size of system
+     * @param streamBuffer -- size in bytes of buffer of streams, {@code 0} for unbuffered streams
+     * @param chunk -- size in bytes of chunk of copies, {@code 0} for transfer chunk of server settings
+     */
+    private TransportProfile(String name, boolean auto, boolean nagle, int socketBuffer, int streamBuffer,
+                             int chunk) {
+        this.name = name;
+        this.auto = auto;
+        this.nagle = nagle;
+        this.socketBuffer = socketBuffer;
+        this.streamBuffer = streamBuffer;
+        this.chunk = chunk;
+    }
+
+    /**
+     * Constructs profile of fixed parameters.
+     * @param name -- name of profile for stats and logs
+     * @param nagle -- whether Nagle's algorithm is on
+     * @param socketBuffer -- size in bytes of send and receive buffers of socket, {@code 0} for size of system
+     * @param streamBuffer -- size in bytes of buffer of streams, {@code 0} for unbuffered streams
+     * @param chunk -- size in bytes of chunk of copies, {@code 0} for transfer chunk of server settings
+     * @return new profile
+     * @throws IllegalArgumentException if some size is negative
+     */
+    public static TransportProfile of(String name, boolean nagle, int socketBuffer, int streamBuffer, int chunk) {
+        if (socketBuffer < 0 || streamBuffer < 0 || chunk < 0) {
+            throw new IllegalArgumentException("Sizes of transport profile should not be negative");
+        }
+        return new TransportProfile(name, false, nagle, socketBuffer, streamBuffer, chunk);
+    }
+
+    /**
+     * Chooses parameters of auto profile for link of measured round trip time and throughput.
+     * Local link keeps buffers of system, remote one gets socket buffers for twice its bandwidth-delay product,
+     * so window never stops sender, and chunks of a quarter of it, so few writes fill the window.
+     * @param rttNanos -- round trip time in nanoseconds
+     * @param bytesPerSecond -- throughput in bytes per second, {@code 0} if it is not measured yet
+     * @return auto profile for the link
+     */
+    static TransportProfile forLink(long rttNanos, double bytesPerSecond) {
+        if (rttNanos < LOCAL_RTT) {
+            return AUTO;
+        }
+        double throughput = bytesPerSecond > 0 ? bytesPerSecond : ASSUMED_THROUGHPUT;
+        long product = (long) (throughput * rttNanos / 1e9);
+        int socketBuffer = (int) Math.max(MIN_SOCKET_BUFFER, Math.min(MAX_SOCKET_BUFFER, 2 * product));
+        int chunk = Integer.highestOneBit((int) Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, product / 4)));
+        return new TransportProfile("auto", true, false, roundUp(socketBuffer), AUTO.streamBuffer, chunk);
+    }
+
+    /**
+     * Rounds size up to multiple of 64 KB, so small changes of measurements do not change profile.
+     * @param size -- size in bytes
+     * @return rounded size
+     */
+    private static int roundUp(int size) {
+        int unit = 64 * 1024;
+        return (size + unit - 1) / unit * unit;
+    }
+
+    /**
+     * Wraps stream of connection into buffer of this profile.
+     * @param in -- stream of connection
+     * @return buffered stream or the same stream if streams are unbuffered
+     */
+    InputStream buffer(InputStream in) {
+        return streamBuffer == 0 ? in : new BufferedInputStream(in, streamBuffer);
+    }
+
+    /**
+     * Wraps stream of connection into buffer of this profile, which should be flushed at the end of every message.
+     * @param out -- stream of connection
+     * @return buffered stream or the same stream if streams are unbuffered
+     */
+    OutputStream buffer(OutputStream out) {
+        return streamBuffer == 0 ? out : new BufferedOutputStream(out, streamBuffer);
+    }
+
+    /**
+     * Get name of profile.
+     * @return name for stats and logs
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get whether parameters are retuned by measurements of connection.
+     * @return {@code true} for auto profile
+     */
+    public boolean isAuto() {
+        return auto;
+    }
+
+    /**
+     * Get whether Nagle's algorithm is on.
+     * @return {@code false} if small writes are sent at once
+     */
+    public boolean isNagle() {
+        return nagle;
+    }
+
+    /**
+     * Get size of send and receive buffers of socket.
+     * @return size in bytes, {@code 0} for size of system
+     */
+    public int getSocketBuffer() {
+        return socketBuffer;
+    }
+
+    /**
+     * Get size of buffer of streams, which are flushed once per request or answer.
+     * @return size in bytes, {@code 0} for unbuffered streams
+     */
+    public int getStreamBuffer() {
+        return streamBuffer;
+    }
+
+    /**
+     * Get size of chunk of copies.
+     * @return size in bytes, {@code 0} for transfer chunk of server settings
+     */
+    public int getChunk() {
+        return chunk;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof TransportProfile)) {
+            return false;
+        }
+        TransportProfile profile = (TransportProfile) other;
+        return name.equals(profile.name) && auto == profile.auto && nagle == profile.nagle
+                && socketBuffer == profile.socketBuffer && streamBuffer == profile.streamBuffer
+                && chunk == profile.chunk;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((name.hashCode() * 31 + socketBuffer) * 31 + streamBuffer) * 31 + chunk;
+    }
+
+    @Override
+    public String toString() {
+        return name + "(nagle=" + nagle + ", socketBuffer=" + socketBuffer + ", streamBuffer=" + streamBuffer
+                + ", chunk=" + chunk + ")";
+    }
+}
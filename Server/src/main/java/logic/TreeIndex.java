@@ -0,0 +1,221 @@
+package logic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Class of index of the whole root: sorted map from {@code '/'}-separated relative paths to sizes.
+ * Index is built by parallel walk and then is updated by changes from {@code DirectoryWatcher},
+ * so search is a range scan of the map without any access to file system.
+ * Changes are applied by one thread in order of their arrival; lost changes cause rebuilding.
+ */
+class TreeIndex implements DirectoryWatcher.Listener, Closeable {
+    /**Size which marks directories in the index.*/
+    private static final long DIRECTORY = -1;
+    /**Character greater than any character of paths, it bounds ranges of prefixes.*/
+    private static final char MAX_CHAR = '\uffff';
+    /**Path to root directory.*/
+    private final Path root;
+    /**Thread which builds the index and applies changes.*/
+    private final ExecutorService updater;
+    /**Released when the first build is finished.*/
+    private final CountDownLatch built = new CountDownLatch(1);
+    /**Subscription to changes of root.*/
+    private final DirectoryWatcher.Watch watch;
+    /**Sizes of files and {@code DIRECTORY} for directories by relative paths.*/
+    private volatile ConcurrentSkipListMap<String, Long> entries = new ConcurrentSkipListMap<>();
+
+    /**
+     * Constructs {@code TreeIndex} object and starts to build it.
+     * @param root -- path to root directory
+     * @param watcher -- watcher which gives changes of root
+     * @throws IOException if root could not be watched
+     */
+    TreeIndex(Path root, DirectoryWatcher watcher) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        updater = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tree-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watch = watcher.watch(this.root, true, this);
+        updater.execute(this::rebuild);
+    }
+
+    /**
+     * Finds entries which match query, waiting for the first build if it is not finished.
+     * @param query -- filters of entries
+     * @return matches sorted by paths, at most {@code limit} of them
+     * @throws IOException if waiting was interrupted
+     */
+    List<Client.Match> search(SearchQuery query) throws IOException {
+        try {
+            built.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for index");
+        }
+        List<Client.Match> result = new ArrayList<>();
+        String start = query.rangePrefix();
+        if (start == null) {
+            return result;
+        }
+        Map<String, Long> range = start.isEmpty() ? entries : entries.subMap(start, start + MAX_CHAR);
+        for (Map.Entry<String, Long> entry : range.entrySet()) {
+            String path = entry.getKey();
+            long size = entry.getValue();
+            if (!path.startsWith(query.getPrefix())) {
+                continue;
+            }
+            if (size == DIRECTORY ? query.limitsSize() : size < query.getMinSize() || size > query.getMaxSize()) {
+                continue;
+            }
+            if (!query.matchesGlob(path)) {
+                continue;
+            }
+            result.add(new Client.Match(path, size == DIRECTORY, size == DIRECTORY ? 0 : size));
+            if (result.size() == query.getLimit()) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get number of indexed files and directories.
+     * @return size of the index
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Receives change from watcher and queues it for the updater.
+     * @param event -- change with path relative to root
+     */
+    @Override
+    public void changed(ChangeEvent event) {
+        try {
+            updater.execute(() -> apply(event));
+        } catch (RejectedExecutionException ignored) {
+            // Index is closed.
+        }
+    }
+
+    /**
+     * Applies one change to the index.
+     * @param event -- change with path relative to root
+     */
+    private void apply(ChangeEvent event) {
+        if (event.getKind() == ChangeEvent.Kind.OVERFLOW) {
+            rebuild();
+            return;
+        }
+        Path file = root.resolve(event.getPath());
+        String path = toKey(root.relativize(file));
+        if (event.getKind() == ChangeEvent.Kind.REMOVED) {
+            entries.remove(path);
+            entries.subMap(path + "/", path + "/" + MAX_CHAR).clear();
+            return;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (attributes.isDirectory()) {
+                if (entries.put(path, DIRECTORY) == null) {
+                    ForkJoinPool.commonPool().invoke(new Scan(file, entries));
+                }
+            } else {
+                entries.put(path, attributes.size());
+            }
+        } catch (NoSuchFileException e) {
+            entries.remove(path);
+        } catch (IOException ignored) {
+            // The file is indexed when it is changed next time.
+        }
+    }
+
+    /**Walks the whole root in parallel and replaces the index by the result.*/
+    private void rebuild() {
+        ConcurrentSkipListMap<String, Long> fresh = new ConcurrentSkipListMap<>();
+        ForkJoinPool.commonPool().invoke(new Scan(root, fresh));
+        entries = fresh;
+        built.countDown();
+    }
+
+    /**
+     * Converts path relative to root to key of the index.
+     * @param relative -- path relative to root
+     * @return {@code '/'}-separated path
+     */
+    private static String toKey(Path relative) {
+        return relative.toString().replace(relative.getFileSystem().getSeparator(), "/");
+    }
+
+    /**Stops updating the index.*/
+    @Override
+    public void close() {
+        watch.close();
+        updater.shutdownNow();
+    }
+
+    /**Class of task which indexes content of one directory and forks tasks for its subdirectories.*/
+    private final class Scan extends RecursiveAction {
+        /**Directory to index.*/
+        private final Path dir;
+        /**Index to fill.*/
+        private final Map<String, Long> target;
+
+        /**
+         * Constructs {@code Scan} object by directory and index.
+         * @param dir -- directory to index
+         * @param target -- index to fill
+         */
+        Scan(Path dir, Map<String, Long> target) {
+            this.dir = dir;
+            this.target = target;
+        }
+
+        @Override
+        protected void compute() {
+            List<Scan> children = new ArrayList<>();
+            try (DirectoryStream<Path> content = Files.newDirectoryStream(dir)) {
+                for (Path inside : content) {
+                    if (Uploads.isTemporary(inside.getFileName().toString())) {
+                        continue;
+                    }
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(inside, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    String key = toKey(root.relativize(inside));
+                    if (attributes.isDirectory()) {
+                        target.put(key, DIRECTORY);
+                        children.add(new Scan(inside, target));
+                    } else {
+                        target.put(key, attributes.size());
+                    }
+                }
+            } catch (IOException ignored) {
+                // Directory was removed or could not be read, its content is not indexed.
+            }
+            invokeAll(children);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package logic;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Class of transport over Unix domain socket, for clients on the same host as server.
+ * Unix domain sockets appeared in Java 16, so the API is reached by reflection
+ * and the project still could be built and run with Java 8.
+ */
+public class UnixSocketTransport implements Transport {
+    /**Protocol family of Unix domain sockets, {@code null} if Java does not support them.*/
+    private static final ProtocolFamily UNIX;
+    /**Method {@code UnixDomainSocketAddress.of(Path)}.*/
+    private static final Method ADDRESS_OF;
+    /**Method {@code ServerSocketChannel.open(ProtocolFamily)}.*/
+    private static final Method OPEN_SERVER;
+    /**Method {@code SocketChannel.open(ProtocolFamily)}.*/
+    private static final Method OPEN_CLIENT;
+
+    static {
+        ProtocolFamily family = null;
+        Method addressOf = null;
+        Method openServer = null;
+        Method openClient = null;
+        try {
+            addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class);
+            openServer = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+            openClient = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+            family = StandardProtocolFamily.valueOf("UNIX");
+        } catch (ReflectiveOperationException | IllegalArgumentException ignored) {
+        }
+        UNIX = family;
+        ADDRESS_OF = addressOf;
+        OPEN_SERVER = openServer;
+        OPEN_CLIENT = openClient;
+    }
+
+    /**Path to socket file.*/
+    private final Path socketPath;
+
+    /**
+     * Constructs {@code UnixSocketTransport} object by path to socket file.
+     * @param socketPath -- path to socket file, it is created by server and removed when server stops
+     */
+    public UnixSocketTransport(Path socketPath) {
+        this.socketPath = socketPath;
+    }
+
+    /**
+     * Whether running Java supports Unix domain sockets.
+     * @return {@code true} if Java is 16 or newer
+     */
+    public static boolean isSupported() {
+        return UNIX != null;
+    }
+
+    @Override
+    public Listener listen() throws IOException {
+        Files.deleteIfExists(socketPath);
+        ServerSocketChannel serverChannel = (ServerSocketChannel) invoke(OPEN_SERVER);
+        try {
+            serverChannel.bind(address());
+        } catch (IOException e) {
+            serverChannel.close();
+            throw e;
+        }
+        return new Listener() {
+            @Override
+            public Connection accept() throws IOException {
+                return new ChannelConnection(serverChannel.accept(), socketPath);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    serverChannel.close();
+                } finally {
+                    Files.deleteIfExists(socketPath);
+                }
+            }
+        };
+    }
+
+    @Override
+    public Connection connect() throws IOException {
+        SocketChannel channel = (SocketChannel) invoke(OPEN_CLIENT);
+        try {
+            channel.connect(address());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new ChannelConnection(channel, socketPath);
+    }
+
+    /**
+     * Get address of socket file.
+     * @return {@code UnixDomainSocketAddress} object
+     * @throws IOException if Java does not support Unix domain sockets
+     */
+    private SocketAddress address() throws IOException {
+        return (SocketAddress) invoke(ADDRESS_OF, socketPath);
+    }
+
+    /**
+     * Calls static method of Unix domain sockets API.
+     * @param method -- method to call
+     * @param argument -- argument of the method, protocol family is used when it is not given
+     * @return result of the method
+     * @throws IOException if Java does not support Unix domain sockets or the method failed
+     */
+    private static Object invoke(Method method, Object... argument) throws IOException {
+        if (!isSupported()) {
+            throw new IOException("Unix domain sockets need Java 16 or newer");
+        }
+        try {
+            return method.invoke(null, argument.length == 0 ? UNIX : argument[0]);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Get description of transport.
+     * @return path to socket file
+     */
+    @Override
+    public String toString() {
+        return "unix://" + socketPath;
+    }
+}
@@ -0,0 +1,238 @@
+package logic;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class of uploads of files into root. Content is written into a hidden temporary file next to the target,
+ * which replaces the target by atomic rename only when the whole content has arrived and matches its hash,
+ * so readers never see a partially written file. Temporary files are not listed, sent or reported to watchers.
+ * Temporary file keeps the received part of content, so an interrupted upload continues from where it stopped;
+ * progress is kept in memory, after restart of server an upload starts again.
+ * Content is hashed as it arrives, so the whole file is not read again to be checked when it is complete.
+ */
+class Uploads {
+    /**Answer to the header of upload: content could be sent.*/
+    static final byte ACCEPTED = 0;
+    /**Answer to the header of upload: uploads are disabled, path is bad or the same upload is running now.*/
+    static final byte REJECTED = 1;
+    /**Result of upload: the file is replaced.*/
+    static final byte COMMITTED = 0;
+    /**Result of upload: content is not complete yet, the upload could be continued.*/
+    static final byte PARTIAL = 1;
+    /**Result of upload: content does not match its hash and is dropped.*/
+    static final byte CORRUPTED = 2;
+    /**Suffix of names of temporary files, which also start with a dot.*/
+    static final String SUFFIX = ".uploading";
+    /**Absolute normalized path to root directory.*/
+    private final Path root;
+    /**Counters of uploads.*/
+    private final ServerStats stats;
+    /**Received parts by temporary files of unfinished uploads.*/
+    private final Map<Path, Partial> progress = new HashMap<>();
+    /**Temporary files which are being written now.*/
+    private final Set<Path> running = new HashSet<>();
+
+    /**Class of received part of unfinished upload.*/
+    private static final class Partial {
+        /**Number of received bytes.*/
+        private final long received;
+        /**Digest of received bytes, {@code null} if hash is not checked.*/
+        private final MessageDigest digest;
+
+        /**
+         * Constructs {@code Partial} object.
+         * @param received -- number of received bytes
+         * @param digest -- digest of received bytes or {@code null}
+         */
+        Partial(long received, MessageDigest digest) {
+            this.received = received;
+            this.digest = digest;
+        }
+    }
+
+    /**Class of one session of upload, it should be closed after {@code finish}.*/
+    final class Upload implements Closeable {
+        /**Temporary file.*/
+        private final Path temporary;
+        /**File which is replaced.*/
+        private final Path target;
+        /**Size of the whole content in bytes.*/
+        private final long size;
+        /**Expected SHA-256 hash of content, {@code null} if it is not checked.*/
+        private final byte[] hash;
+        /**Channel of temporary file.*/
+        private final FileChannel channel;
+        /**Digest of received bytes, including ones received by earlier sessions, {@code null} if hash is not checked.*/
+        private final MessageDigest digest;
+        /**Number of received bytes, including ones received by earlier sessions.*/
+        private long received;
+
+        /**
+         * Constructs {@code Upload} object by opened temporary file.
+         * @param temporary -- temporary file
+         * @param target -- file which is replaced
+         * @param size -- size of the whole content
+         * @param hash -- expected hash or {@code null}
+         * @param channel -- channel of temporary file
+         * @param received -- part received by earlier sessions
+         */
+        private Upload(Path temporary, Path target, long size, byte[] hash, FileChannel channel, Partial received) {
+            this.temporary = temporary;
+            this.target = target;
+            this.size = size;
+            this.hash = hash;
+            this.channel = channel;
+            this.digest = received.digest;
+            this.received = received.received;
+        }
+
+        /**
+         * Get number of bytes received so far, the next content starts from this position.
+         * @return number of bytes
+         */
+        long received() {
+            return received;
+        }
+
+        /**
+         * Writes next part of content at its position and adds written bytes to digest.
+         * @param data -- buffer with part of content, its position is moved to its limit
+         * @throws IOException if content is longer than its size or could not be written
+         */
+        void write(ByteBuffer data) throws IOException {
+            if (data.remaining() > size - received) {
+                throw new IOException("Upload of " + target + " is longer than " + size + " bytes");
+            }
+            while (data.hasRemaining()) {
+                ByteBuffer written = data.duplicate();
+                int count = channel.write(data, received);
+                if (digest != null) {
+                    written.limit(written.position() + count);
+                    digest.update(written);
+                }
+                received += count;
+            }
+        }
+
+        /**
+         * Finishes session: if the whole content is received, checks its hash and replaces the target by it.
+         * @return {@code COMMITTED}, {@code PARTIAL} or {@code CORRUPTED}
+         * @throws IOException if temporary file could not be synced or renamed
+         */
+        byte finish() throws IOException {
+            if (received < size) {
+                return PARTIAL;
+            }
+            channel.force(false);
+            channel.close();
+            synchronized (Uploads.this) {
+                progress.remove(temporary);
+            }
+            if (hash != null) {
+                if (!MessageDigest.isEqual(hash, digest.digest())) {
+                    Files.deleteIfExists(temporary);
+                    stats.uploadCorrupted();
+                    return CORRUPTED;
+                }
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            stats.uploadCommitted(size);
+            return COMMITTED;
+        }
+
+        /**
+         * Ends session, keeping received content of unfinished upload.
+         * @throws IOException if temporary file could not be closed
+         */
+        @Override
+        public void close() throws IOException {
+            synchronized (Uploads.this) {
+                running.remove(temporary);
+                if (received < size) {
+                    progress.put(temporary, new Partial(received, digest));
+                }
+            }
+            channel.close();
+        }
+    }
+
+    /**
+     * Constructs {@code Uploads} object by root directory.
+     * @param root -- path to root directory
+     * @param stats -- counters of uploads
+     */
+    Uploads(Path root, ServerStats stats) {
+        this.root = root.toAbsolutePath().normalize();
+        this.stats = stats;
+    }
+
+    /**
+     * Whether given name is of temporary file of upload.
+     * @param name -- name or {@code '/'}-separated path of file
+     * @return {@code true} if it should be hidden from readers
+     */
+    static boolean isTemporary(String name) {
+        int slash = Math.max(name.lastIndexOf('/'), name.lastIndexOf(File.separatorChar));
+        return name.startsWith(".", slash + 1) && name.endsWith(SUFFIX);
+    }
+
+    /**
+     * Starts or continues upload of file. Temporary file grows as content arrives: Java has no way to allocate
+     * blocks without writing them, and writing zeros first would double writes of every upload.
+     * Temporary file is named by target, size and hash, so a different upload to the same path starts again.
+     * @param name -- path to file relative to root, missing directories are created
+     * @param size -- size of the whole content in bytes
+     * @param hash -- expected SHA-256 hash of content, {@code null} if it is not checked
+     * @return session of upload or {@code null} if path is outside of root, is a directory, is a temporary file
+     * or the same upload is running now
+     * @throws IOException if temporary file could not be created
+     */
+    Upload begin(String name, long size, byte[] hash) throws IOException {
+        Path target = root.resolve(name).normalize();
+        if (size < 0 || !target.startsWith(root) || target.equals(root) || isTemporary(target.toString())
+                || Files.isDirectory(target)) {
+            return null;
+        }
+        String suffix = hash == null ? "" : "." + ContentHashes.toHex(hash).substring(0, 16);
+        Path temporary = target.resolveSibling("." + target.getFileName() + "." + size + suffix + SUFFIX);
+        Partial received;
+        synchronized (this) {
+            if (!running.add(temporary)) {
+                return null;
+            }
+            received = progress.remove(temporary);
+        }
+        if (received == null || !Files.exists(temporary)) {
+            received = new Partial(0, hash == null ? null : ContentHashes.newDigest());
+        }
+        try {
+            Files.createDirectories(target.getParent());
+            FileChannel channel;
+            if (received.received > 0) {
+                channel = FileChannel.open(temporary, StandardOpenOption.WRITE);
+            } else {
+                channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            return new Upload(temporary, target, size, hash, channel, received);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                running.remove(temporary);
+            }
+            throw e;
+        }
+    }
+}
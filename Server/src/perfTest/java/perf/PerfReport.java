@@ -0,0 +1,174 @@
+package perf;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Class of JSON report of performance suite and its comparison with baseline.
+ * Report is a flat list of scenarios with their numbers; it is read back only from files written by this class,
+ * so reading is done by patterns and not by a general JSON parser.
+ */
+final class PerfReport {
+    /**Pattern of one scenario in report.*/
+    private static final Pattern SCENARIO = Pattern.compile("\\{\\s*\"name\"\\s*:\\s*\"([^\"]+)\"([^}]*)}");
+    /**Pattern of one number of scenario.*/
+    private static final Pattern NUMBER = Pattern.compile("\"(\\w+)\"\\s*:\\s*(-?[0-9.]+(?:[eE][-+]?[0-9]+)?)");
+
+    /**Class of results of one scenario.*/
+    static final class Result {
+        /**Name of scenario.*/
+        private final String name;
+        /**Numbers of scenario by their names, in order of report.*/
+        private final Map<String, Double> numbers = new LinkedHashMap<>();
+
+        /**
+         * Constructs {@code Result} object by measured times.
+         * @param name -- name of scenario
+         * @param sorted -- sorted times of operations in nanoseconds
+         * @param elapsed -- time of the whole scenario in nanoseconds
+         * @param bytes -- number of bytes transferred by scenario
+         */
+        Result(String name, long[] sorted, long elapsed, long bytes) {
+            this.name = name;
+            numbers.put("operations", (double) sorted.length);
+            numbers.put("opsPerSecond", sorted.length / (elapsed / 1e9));
+            numbers.put("megabytesPerSecond", bytes / (1024.0 * 1024.0) / (elapsed / 1e9));
+            numbers.put("p50Micros", percentile(sorted, 50));
+            numbers.put("p90Micros", percentile(sorted, 90));
+            numbers.put("p99Micros", percentile(sorted, 99));
+        }
+
+        /**
+         * Constructs {@code Result} object read from report.
+         * @param name -- name of scenario
+         */
+        private Result(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Get name of scenario.
+         * @return name
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * Get number of scenario.
+         * @param key -- name of number
+         * @return value or {@code null} if there is no such number
+         */
+        Double get(String key) {
+            return numbers.get(key);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-18s %10.1f ops/s %10.1f MB/s p50 %10.1f us p90 %10.1f us "
+                    + "p99 %10.1f us", name, get("opsPerSecond"), get("megabytesPerSecond"), get("p50Micros"),
+                    get("p90Micros"), get("p99Micros"));
+        }
+    }
+
+    private PerfReport() {
+    }
+
+    /**
+     * Get percentile of sorted times.
+     * @param sorted -- sorted times in nanoseconds
+     * @param percent -- percentile from 0 to 100
+     * @return time in microseconds
+     */
+    static double percentile(long[] sorted, double percent) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(percent / 100 * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1000.0;
+    }
+
+    /**
+     * Writes report, creating its directory.
+     * @param file -- path to report
+     * @param results -- results of scenarios
+     * @throws IOException if report could not be written
+     */
+    static void write(Path file, List<Result> results) throws IOException {
+        StringBuilder json = new StringBuilder("{\n  \"scenarios\": [\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            json.append("    {\"name\": \"").append(result.name).append('"');
+            for (Map.Entry<String, Double> number : result.numbers.entrySet()) {
+                json.append(String.format(Locale.ROOT, ", \"%s\": %.3f", number.getKey(), number.getValue()));
+            }
+            json.append(i + 1 < results.size() ? "},\n" : "}\n");
+        }
+        json.append("  ]\n}\n");
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.write(file, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads report written by {@code write}.
+     * @param file -- path to report
+     * @return results of scenarios by their names
+     * @throws IOException if report could not be read
+     */
+    static Map<String, Result> read(Path file) throws IOException {
+        Map<String, Result> results = new LinkedHashMap<>();
+        Matcher scenario = SCENARIO.matcher(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        while (scenario.find()) {
+            Result result = new Result(scenario.group(1));
+            Matcher number = NUMBER.matcher(scenario.group(2));
+            while (number.find()) {
+                result.numbers.put(number.group(1), Double.parseDouble(number.group(2)));
+            }
+            results.put(result.name, result);
+        }
+        return results;
+    }
+
+    /**
+     * Compares results with baseline. Throughput lower than baseline and median latency higher than baseline
+     * by more than threshold are regressions; tail latencies are reported only, they are too noisy to fail on.
+     * Scenarios missing in baseline are skipped.
+     * @param results -- current results
+     * @param baseline -- results of baseline by names of scenarios
+     * @param threshold -- allowed relative change, e.g. {@code 0.25} for 25%
+     * @return descriptions of regressions, empty if there are none
+     */
+    static List<String> compare(List<Result> results, Map<String, Result> baseline, double threshold) {
+        List<String> regressions = new ArrayList<>();
+        for (Result result : results) {
+            Result base = baseline.get(result.name);
+            if (base == null) {
+                continue;
+            }
+            for (String key : Arrays.asList("opsPerSecond", "p50Micros")) {
+                Double before = base.get(key);
+                Double now = result.get(key);
+                if (before == null || now == null || before <= 0) {
+                    continue;
+                }
+                boolean higherIsBetter = key.equals("opsPerSecond");
+                double change = (now - before) / before;
+                if (higherIsBetter ? change < -threshold : change > threshold) {
+                    regressions.add(String.format(Locale.ROOT, "%s %s: %.1f -> %.1f (%+.1f%%)",
+                            result.name, key, before, now, change * 100));
+                }
+            }
+        }
+        return regressions;
+    }
+}
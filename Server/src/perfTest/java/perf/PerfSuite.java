@@ -0,0 +1,200 @@
+package perf;
+
+import logic.Client;
+import logic.Server;
+import logic.ServerSettings;
+import logic.TcpTransport;
+import logic.Transport;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Performance regression suite: runs fixed list, get and concurrency scenarios against server over loopback TCP
+ * on a generated deterministic tree, writes JSON report and compares it with stored baseline.
+ * Process exits with status {@code 1} if some scenario regressed more than threshold or there is no baseline,
+ * unless the report is stored as the new baseline, so it fails the build.
+ * Run with {@code gradle perfTest}; configured by system properties which the task sets:
+ * {@code perf.tree}, {@code perf.report}, {@code perf.baseline}, {@code perf.threshold}, {@code perf.updateBaseline}.
+ */
+public final class PerfSuite {
+    /**Seed of chosen files, so all runs make the same requests.*/
+    private static final long SEED = 42;
+    /**Number of client threads of concurrent scenario.*/
+    private static final int THREADS = 8;
+
+    private PerfSuite() {
+    }
+
+    /**Interface of one measured request.*/
+    private interface Operation {
+        /**
+         * Makes request.
+         * @param client -- client connected to server
+         * @param index -- index of request in scenario
+         * @return number of received bytes of content, {@code 0} for listings
+         * @throws Exception if request failed
+         */
+        long run(Client client, int index) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path tree = Paths.get(System.getProperty("perf.tree", "build/perf/tree"));
+        Path report = Paths.get(System.getProperty("perf.report", "build/reports/perf/report.json"));
+        Path baseline = Paths.get(System.getProperty("perf.baseline", "src/perfTest/baseline.json"));
+        double threshold = Double.parseDouble(System.getProperty("perf.threshold", "0.25"));
+        boolean update = Boolean.getBoolean("perf.updateBaseline");
+
+        TreeGenerator.ensure(tree);
+        List<PerfReport.Result> results = run(tree);
+        PerfReport.write(report, results);
+        System.out.println("Report is written to " + report);
+        if (update) {
+            Files.createDirectories(baseline.toAbsolutePath().getParent());
+            Files.copy(report, baseline, StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Baseline is updated: " + baseline);
+            return;
+        }
+        if (!Files.exists(baseline)) {
+            System.out.println("No baseline at " + baseline + " to compare with; baselines depend on the machine,"
+                    + " so store one on it by running with -PperfUpdateBaseline, or give one by -PperfBaseline");
+            System.exit(1);
+        }
+        List<String> regressions = PerfReport.compare(results, PerfReport.read(baseline), threshold);
+        if (!regressions.isEmpty()) {
+            System.out.println("Regressions against " + baseline + " by more than " + threshold * 100 + "%:");
+            for (String regression : regressions) {
+                System.out.println("  " + regression);
+            }
+            System.exit(1);
+        }
+        System.out.println("No regressions against " + baseline + " by more than " + threshold * 100 + "%");
+    }
+
+    /**
+     * Starts server on tree and runs all scenarios.
+     * @param tree -- root directory of tree
+     * @return results of scenarios
+     * @throws Exception if server could not be started or request failed
+     */
+    private static List<PerfReport.Result> run(Path tree) throws Exception {
+        int port = new Random().nextInt(10000) + 20000;
+        Server server = Server.start(new TcpTransport(port), tree, new ServerSettings());
+        Transport transport = new TcpTransport("localhost", port);
+        List<PerfReport.Result> results = new ArrayList<>();
+        try {
+            int[] small = choose(TreeGenerator.SMALL_DIRS * TreeGenerator.SMALL_FILES_PER_DIR, 1000);
+            int[] dirs = choose(TreeGenerator.SMALL_DIRS, 1000);
+            results.add(measure("list-wide", transport, 3, 30, 1,
+                    (client, i) -> {
+                        client.list("wide");
+                        return 0;
+                    }));
+            results.add(measure("list-detailed", transport, 10, 100, 1,
+                    (client, i) -> {
+                        client.listDetailed(TreeGenerator.smallDir(dirs[i]));
+                        return 0;
+                    }));
+            results.add(measure("get-small", transport, 20, 200, 1,
+                    (client, i) -> client.get(smallFile(small[i])).length));
+            results.add(measure("get-huge", transport, 1, 2 * TreeGenerator.HUGE_FILES, 1,
+                    (client, i) -> client.get(TreeGenerator.hugeFile(i % TreeGenerator.HUGE_FILES)).length));
+            results.add(measure("get-small-parallel", transport, 5, 50, THREADS,
+                    (client, i) -> client.get(smallFile(small[i])).length));
+        } finally {
+            server.shutdown();
+        }
+        for (PerfReport.Result result : results) {
+            System.out.println(result);
+        }
+        return results;
+    }
+
+    /**
+     * Get path to small file by its global index.
+     * @param index -- index of file among all small files
+     * @return path relative to root of tree
+     */
+    private static String smallFile(int index) {
+        return TreeGenerator.smallFile(index / TreeGenerator.SMALL_FILES_PER_DIR,
+                index % TreeGenerator.SMALL_FILES_PER_DIR);
+    }
+
+    /**
+     * Chooses deterministic sequence of indices.
+     * @param bound -- upper bound of indices, exclusive
+     * @param count -- length of sequence
+     * @return indices
+     */
+    private static int[] choose(int bound, int count) {
+        Random random = new Random(SEED + bound);
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = random.nextInt(bound);
+        }
+        return result;
+    }
+
+    /**
+     * Runs scenario: each thread makes its own connection, warms it up and makes measured requests.
+     * Thread {@code t} makes requests with indices from {@code t * count}, so threads do not repeat each other.
+     * @param name -- name of scenario
+     * @param transport -- transport of server
+     * @param warmup -- number of not measured requests of each thread
+     * @param count -- number of measured requests of each thread
+     * @param threads -- number of threads
+     * @param operation -- request to make
+     * @return result of scenario
+     * @throws Exception if request failed
+     */
+    private static PerfReport.Result measure(String name, Transport transport, int warmup, int count, int threads,
+                                             Operation operation) throws Exception {
+        List<Client> clients = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int t = 0; t < threads; t++) {
+                Client client = Client.connect(transport);
+                clients.add(client);
+                for (int i = 0; i < warmup; i++) {
+                    operation.run(client, t * count + i);
+                }
+            }
+            List<Future<long[]>> futures = new ArrayList<>();
+            long[] bytes = new long[threads];
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    long[] times = new long[count];
+                    for (int i = 0; i < count; i++) {
+                        long begin = System.nanoTime();
+                        bytes[thread] += operation.run(clients.get(thread), thread * count + i);
+                        times[i] = System.nanoTime() - begin;
+                    }
+                    return times;
+                }));
+            }
+            long[] sorted = new long[threads * count];
+            for (int t = 0; t < threads; t++) {
+                System.arraycopy(futures.get(t).get(), 0, sorted, t * count, count);
+            }
+            long elapsed = System.nanoTime() - start;
+            Arrays.sort(sorted);
+            return new PerfReport.Result(name, sorted, elapsed, Arrays.stream(bytes).sum());
+        } finally {
+            executor.shutdownNow();
+            for (Client client : clients) {
+                client.close();
+            }
+        }
+    }
+}
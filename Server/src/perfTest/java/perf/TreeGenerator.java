@@ -0,0 +1,114 @@
+package perf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Class which generates deterministic tree for performance suite: many small files in nested directories,
+ * a few huge files and one very wide directory. Tree is generated once and reused by later runs
+ * while its version is the same, since writing it costs more than the suite itself.
+ */
+final class TreeGenerator {
+    /**Version of layout of tree, it should be changed with any change of generation.*/
+    private static final String VERSION = "1";
+    /**Name of file which marks completely generated tree.*/
+    private static final String MARKER = "tree-version";
+    /**Seed of generated sizes and content.*/
+    private static final long SEED = 20170423;
+    /**Number of directories with small files.*/
+    static final int SMALL_DIRS = 100;
+    /**Number of small files in each directory.*/
+    static final int SMALL_FILES_PER_DIR = 100;
+    /**Maximum size of small file in bytes.*/
+    private static final int SMALL_MAX_SIZE = 16 * 1024;
+    /**Number of huge files.*/
+    static final int HUGE_FILES = 3;
+    /**Size of huge file in bytes.*/
+    static final int HUGE_SIZE = 64 * 1024 * 1024;
+    /**Number of entries of wide directory.*/
+    static final int WIDE_ENTRIES = 50_000;
+    /**Every entry of wide directory with index divisible by it is a directory.*/
+    private static final int WIDE_DIRECTORY_EVERY = 50;
+
+    private TreeGenerator() {
+    }
+
+    /**
+     * Get path to directory with small files.
+     * @param dir -- index of directory
+     * @return path relative to root of tree
+     */
+    static String smallDir(int dir) {
+        return String.format("small/dir%03d", dir);
+    }
+
+    /**
+     * Get path to small file.
+     * @param dir -- index of directory
+     * @param file -- index of file in directory
+     * @return path relative to root of tree
+     */
+    static String smallFile(int dir, int file) {
+        return String.format("%s/file%05d.dat", smallDir(dir), dir * SMALL_FILES_PER_DIR + file);
+    }
+
+    /**
+     * Get path to huge file.
+     * @param index -- index of file
+     * @return path relative to root of tree
+     */
+    static String hugeFile(int index) {
+        return "huge/huge" + index + ".bin";
+    }
+
+    /**
+     * Generates tree unless it was generated before with the same version.
+     * @param root -- root directory of tree
+     * @throws IOException if tree could not be written
+     */
+    static void ensure(Path root) throws IOException {
+        Path marker = root.resolve(MARKER);
+        if (Files.exists(marker) && VERSION.equals(new String(Files.readAllBytes(marker), "UTF-8"))) {
+            return;
+        }
+        System.out.println("Generating tree in " + root);
+        Files.createDirectories(root);
+        Files.deleteIfExists(marker);
+        Random random = new Random(SEED);
+        byte[] content = new byte[SMALL_MAX_SIZE];
+        for (int dir = 0; dir < SMALL_DIRS; dir++) {
+            Files.createDirectories(root.resolve(smallDir(dir)));
+            for (int file = 0; file < SMALL_FILES_PER_DIR; file++) {
+                int size = 1 + random.nextInt(SMALL_MAX_SIZE);
+                random.nextBytes(content);
+                try (OutputStream out = Files.newOutputStream(root.resolve(smallFile(dir, file)))) {
+                    out.write(content, 0, size);
+                }
+            }
+        }
+        byte[] chunk = new byte[1024 * 1024];
+        for (int i = 0; i < HUGE_FILES; i++) {
+            Path file = root.resolve(hugeFile(i));
+            Files.createDirectories(file.getParent());
+            try (OutputStream out = Files.newOutputStream(file)) {
+                for (int written = 0; written < HUGE_SIZE; written += chunk.length) {
+                    random.nextBytes(chunk);
+                    out.write(chunk);
+                }
+            }
+        }
+        Path wide = Files.createDirectories(root.resolve("wide"));
+        for (int i = 0; i < WIDE_ENTRIES; i++) {
+            Path entry = wide.resolve(String.format("entry-%06d", i));
+            if (i % WIDE_DIRECTORY_EVERY == 0) {
+                Files.createDirectories(entry);
+            } else if (!Files.exists(entry)) {
+                Files.createFile(entry);
+            }
+        }
+        Files.write(marker, VERSION.getBytes("UTF-8"));
+    }
+}
@@ -1,17 +1,48 @@
+import exceptions.DataStreamException;
+import logic.ChangeEvent;
 import logic.Client;
+import logic.ClusterClient;
+import logic.Connection;
+import logic.ContentStore;
+import logic.ListingDelta;
+import logic.Manager;
+import logic.MirrorProgress;
+import logic.PackTool;
+import logic.SearchQuery;
 import logic.Server;
+import logic.ServerSettings;
+import logic.TcpTransport;
+import logic.Transport;
+import logic.TransportProfile;
+import logic.UnixSocketTransport;
+import org.junit.Assume;
 import org.junit.Before;
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
 import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.file.*;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.ZipInputStream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public final class Tests {
@@ -156,4 +187,1419 @@ public final class Tests {
         new File(root.toString() + File.separator + "tmp");
         test();
     }
+
+    @Test
+    public void test06_idle_connection_is_reaped() throws Exception {
+        // reaping of idle connections is opt-in
+        assertEquals(0, new ServerSettings().getIdleTimeout());
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        Server server = Server.start(port, root, new ServerSettings().setIdleTimeout(200));
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            assertEquals(-1, socket.getInputStream().read());
+            assertEquals(1, server.getStats().getIdleClosed());
+            assertEquals(0, server.getStats().getActive());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void test07_rate_limited_get() throws Exception {
+        byte[] content = new byte[256 * 1024];
+        RND.nextBytes(content);
+        Files.write(root.resolve("big"), content);
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        Server server = Server.start(port, root, new ServerSettings().setConnectionRate(512 * 1024));
+        Client client = new Client(new Socket("localhost", port));
+        try {
+            long start = System.nanoTime();
+            assertArrayEquals(content, client.get("big"));
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            assertTrue("Transfer took only " + millis + " ms", millis >= 300);
+            assertEquals(content.length, server.getStats().getBytesSent());
+        } finally {
+            server.shutdown();
+            try {
+                client.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void test08_listing_is_not_delayed_by_bulk_get() throws Exception {
+        Files.write(root.resolve("big"), new byte[512 * 1024]);
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        Server server = Server.start(port, root, new ServerSettings()
+                .setConnectionRate(256 * 1024)
+                .setBulkLaneThreads(1)
+                .setSmallFileThreshold(1024));
+        Client bulk = new Client(new Socket("localhost", port));
+        Client interactive = new Client(new Socket("localhost", port));
+        try {
+            Thread download = new Thread(() -> {
+                try {
+                    bulk.get("big");
+                } catch (Exception ignored) {
+                }
+            });
+            download.start();
+            Thread.sleep(100);
+            long start = System.nanoTime();
+            assertEquals(1, interactive.list("").length);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            assertTrue("Listing took " + millis + " ms", millis < 500);
+            download.join();
+            assertTrue(server.getStats().getBulkLane().getRequests() > 0);
+            assertEquals(1, server.getStats().getFastLane().getRequests());
+        } finally {
+            server.shutdown();
+            try {
+                bulk.close();
+            } catch (Exception ignored) {
+            }
+            try {
+                interactive.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void test09_unix_domain_socket() throws Exception {
+        Assume.assumeTrue(UnixSocketTransport.isSupported());
+        genDirectories();
+        genFiles();
+        Path socketPath = Files.createTempDirectory("sock").resolve("server.sock");
+        UnixSocketTransport transport = new UnixSocketTransport(socketPath);
+        Server server = Server.start(transport, root, new ServerSettings());
+        Client client = Client.connect(transport);
+        try {
+            testList(client, Paths.get(""));
+        } finally {
+            server.shutdown();
+            client.close();
+        }
+        assertTrue(Files.notExists(socketPath));
+    }
+
+    @Test
+    public void test10_in_process_client() throws Exception {
+        genDirectories();
+        genFiles();
+        Files.write(root.resolve("mapped"), "mapped content".getBytes());
+        Server server = Server.embedded(root, new ServerSettings());
+        try {
+            Client client = server.connectLocal();
+            testList(client, Paths.get(""));
+            ByteBuffer buffer = client.getBuffer("mapped");
+            byte[] content = new byte[buffer.remaining()];
+            buffer.get(content);
+            assertArrayEquals("mapped content".getBytes(), content);
+            assertEquals(0, client.getBuffer("missing").remaining());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void test11_subscribe_to_changes() throws Exception {
+        Files.createDirectory(root.resolve("sub"));
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        Server server = Server.start(port, root);
+        Client client = new Client(new Socket("localhost", port));
+        BlockingQueue<ChangeEvent> events = new LinkedBlockingQueue<>();
+        Closeable subscription = client.subscribe("", true, events::add);
+        try {
+            Files.write(root.resolve("added"), new byte[1]);
+            ChangeEvent event = events.poll(10, TimeUnit.SECONDS);
+            assertNotNull(event);
+            assertEquals(ChangeEvent.Kind.ADDED, event.getKind());
+            assertEquals("added", event.getPath());
+
+            Files.write(root.resolve("sub").resolve("nested"), new byte[1]);
+            do {
+                event = events.poll(10, TimeUnit.SECONDS);
+                assertNotNull(event);
+            } while (!event.getPath().equals(Paths.get("sub", "nested").toString()));
+            assertEquals(ChangeEvent.Kind.ADDED, event.getKind());
+        } finally {
+            subscription.close();
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void test12_concurrent_gets_share_read() throws Exception {
+        byte[] content = new byte[2 * 1024 * 1024];
+        RND.nextBytes(content);
+        Files.write(root.resolve("big"), content);
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        Server server = Server.start(port, root, new ServerSettings()
+                .setSharedReadThreshold(1).setConnectionRate(4 * 1024 * 1024));
+        Client[] clients = new Client[4];
+        Thread[] threads = new Thread[clients.length];
+        byte[][] results = new byte[clients.length][];
+        try {
+            // a single client reads by itself, no ring is allocated for it
+            try (Client single = new Client(new Socket("localhost", port))) {
+                assertArrayEquals(content, single.get("big"));
+            }
+            assertEquals(0, server.getStats().getSharedReads());
+            for (int i = 0; i < clients.length; i++) {
+                clients[i] = new Client(new Socket("localhost", port));
+                int index = i;
+                threads[i] = new Thread(() -> {
+                    try {
+                        results[index] = clients[index].get("big");
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                });
+                threads[i].start();
+            }
+            for (int i = 0; i < clients.length; i++) {
+                threads[i].join();
+                assertArrayEquals(content, results[i]);
+            }
+            assertTrue(server.getStats().getSharedJoins() > 0);
+            assertTrue(server.getStats().getSharedReads() < clients.length);
+        } finally {
+            server.shutdown();
+            for (Client client : clients) {
+                try {
+                    client.close();
+                } catch (Exception ignored) {
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test13_mapped_serving() throws Exception {
+        byte[] content = new byte[300 * 1024];
+        RND.nextBytes(content);
+        Files.write(root.resolve("big"), content);
+        Files.write(root.resolve("small"), "small".getBytes());
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        Server server = Server.start(port, root, new ServerSettings().setMappedServing(true)
+                .setSmallFileThreshold(16).setMappedWindow(64 * 1024).setMappedCapacity(128 * 1024));
+        Client client = new Client(new Socket("localhost", port));
+        try {
+            assertArrayEquals(content, client.get("big"));
+            assertArrayEquals(content, client.get("big"));
+            assertArrayEquals("small".getBytes(), client.get("small"));
+            assertEquals(0, client.get("missing").length);
+            assertEquals(2, server.getStats().getMappedRequests());
+            assertTrue(server.getStats().getMappedBytes() <= 128 * 1024);
+        } finally {
+            server.shutdown();
+            try {
+                client.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void test14_packed_root() throws Exception {
+        genDirectories();
+        genFiles();
+        Files.write(root.resolve("content"), "packed content".getBytes());
+        Path pack = Files.createTempDirectory("pack").resolve("root.pack");
+        Server server = Server.embedded(root, new ServerSettings().setPack(pack));
+        try {
+            Client client = server.connectLocal();
+            testList(client, Paths.get(""));
+            assertArrayEquals("packed content".getBytes(), client.get("content"));
+            assertEquals(0, client.get("missing").length);
+            assertEquals(0, client.list("content").length);
+            Files.write(root.resolve("content"), "repacked content".getBytes());
+            PackTool.pack(root, pack);
+            assertArrayEquals("packed content".getBytes(), client.get("content"));
+            try (Stream<Path> files = Files.list(pack.getParent())) {
+                assertEquals(2, files.count());
+            }
+        } finally {
+            server.shutdown();
+        }
+        assertTrue(PackTool.check(root, pack).isEmpty());
+        Files.write(root.resolve("added"), new byte[1]);
+        Files.delete(root.resolve("content"));
+        assertEquals(Arrays.asList("removed: content", "added: added"), PackTool.check(root, pack));
+    }
+
+    @Test
+    public void test15_search() throws Exception {
+        Files.createDirectories(root.resolve("a").resolve("b"));
+        Files.createDirectory(root.resolve("c"));
+        Files.write(root.resolve("a").resolve("b").resolve("x.txt"), new byte[100]);
+        Files.write(root.resolve("a").resolve("y.log"), new byte[10]);
+        Files.write(root.resolve("c").resolve("x.txt"), new byte[5]);
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        Server server = Server.start(port, root, new ServerSettings().setTreeIndex(true));
+        Client client = new Client(new Socket("localhost", port));
+        try {
+            assertEquals(Arrays.asList("a/b/x.txt", "c/x.txt"),
+                    paths(client.search(new SearchQuery().setGlob("**.txt"))));
+            assertEquals(Arrays.asList("a", "a/b", "a/b/x.txt", "a/y.log"),
+                    paths(client.search(new SearchQuery().setPrefix("a"))));
+            Client.Match[] big = client.search(new SearchQuery().setPrefix("a/").setMinSize(50));
+            assertEquals(1, big.length);
+            assertEquals(100, big[0].getSize());
+
+            Files.write(root.resolve("a").resolve("new.txt"), new byte[1]);
+            Files.delete(root.resolve("c").resolve("x.txt"));
+            Files.delete(root.resolve("c"));
+            long deadline = System.currentTimeMillis() + 10_000;
+            List<String> found;
+            do {
+                Thread.sleep(50);
+                found = paths(client.search(new SearchQuery().setGlob("**.txt")));
+            } while (!found.equals(Arrays.asList("a/b/x.txt", "a/new.txt")) && System.currentTimeMillis() < deadline);
+            assertEquals(Arrays.asList("a/b/x.txt", "a/new.txt"), found);
+        } finally {
+            server.shutdown();
+            try {
+                client.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void test16_mirror() throws Exception {
+        genDirectories();
+        genFiles();
+        byte[] big = new byte[3 * 1024 * 1024 + 1];
+        RND.nextBytes(big);
+        // file is much bigger than budget, so it passes through buffer by many chunks
+        Files.write(root.resolve("big"), big);
+        Path target = Files.createTempDirectory("mirror").resolve("copy");
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        Manager manager = new Manager(new TcpTransport(port));
+        try {
+            String source = root.toAbsolutePath().toString();
+            MirrorProgress progress = manager.mirror(source, target, 3, 100 * 1024, current -> { });
+            assertTrue(progress.isFinished());
+            assertEquals(progress.getFilesFound(), progress.getFilesDownloaded());
+            assertEquals(0, progress.getFilesSkipped());
+            assertSameTree(root, target);
+
+            Files.write(root.resolve("big"), new byte[10]);
+            progress = manager.mirror(source, target, 3, 1024 * 1024, current -> { });
+            assertEquals(1, progress.getFilesDownloaded());
+            assertEquals(progress.getFilesFound() - 1, progress.getFilesSkipped());
+            assertSameTree(root, target);
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    @Test
+    public void test17_archive() throws Exception {
+        genDirectories();
+        genFiles();
+        byte[] big = new byte[300 * 1024];
+        RND.nextBytes(big);
+        Files.write(root.resolve("big"), big);
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        Server server = Server.start(port, root, new ServerSettings().setSmallFileThreshold(64 * 1024));
+        Client client = new Client(new Socket("localhost", port));
+        try {
+            ByteArrayOutputStream archive = new ByteArrayOutputStream();
+            assertTrue(client.saveArchive("", false, archive));
+            int entries = 0;
+            try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()))) {
+                while (zip.getNextEntry() != null) {
+                    entries++;
+                }
+            }
+            assertEquals(Files.walk(root).count() - 1, entries);
+
+            Path target = Files.createTempDirectory("archive");
+            assertEquals(Files.walk(root).filter(Files::isRegularFile).count(),
+                    client.extractArchive("", true, target));
+            assertSameTree(root, target);
+            assertEquals(-1, client.extractArchive("big", true, target));
+            assertArrayEquals(big, client.get("big"));
+
+            Path local = Files.createTempDirectory("archive");
+            server.connectLocal().extractArchive("", false, local);
+            assertSameTree(root, local);
+        } finally {
+            server.shutdown();
+            try {
+                client.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void test18_checked_get() throws Exception {
+        byte[] content = new byte[1024 * 1024 + 123];
+        RND.nextBytes(content);
+        Files.write(root.resolve("file"), content);
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        TcpTransport transport = new TcpTransport(port);
+        Server server = Server.start(transport, root, new ServerSettings());
+        Client client = new Client(new CorruptingConnection(transport.connect(), 300_000));
+        try {
+            assertArrayEquals(content, client.getChecked("file"));
+            assertEquals(1, client.getRetriedBlocks());
+            assertArrayEquals(content, client.getChecked("file", 4096));
+            assertEquals(1, client.getRetriedBlocks());
+            assertEquals(0, client.getChecked("missing").length);
+        } finally {
+            server.shutdown();
+            try {
+                client.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void test19_content_store() throws Exception {
+        byte[] library = new byte[100_000];
+        RND.nextBytes(library);
+        Files.createDirectories(root.resolve("a"));
+        Files.createDirectories(root.resolve("b"));
+        Files.write(root.resolve("a").resolve("lib.jar"), library);
+        Files.write(root.resolve("b").resolve("lib.jar"), library);
+        for (int i = 0; i < 3; i++) {
+            byte[] other = new byte[100_000];
+            RND.nextBytes(other);
+            Files.write(root.resolve("other" + i), other);
+        }
+        Path storeDir = Files.createTempDirectory("store");
+        Path target = Files.createTempDirectory("target");
+        ContentStore store = new ContentStore(storeDir, 250_000);
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        Manager manager = new Manager(new TcpTransport(port));
+        manager.setContentStore(store);
+        try {
+            String source = root.toAbsolutePath().toString() + File.separator;
+            assertTrue(!manager.downloadTo(source + "a/lib.jar", target.resolve("a.jar")));
+            assertTrue(manager.downloadTo(source + "b/lib.jar", target.resolve("b.jar")));
+            assertArrayEquals(library, Files.readAllBytes(target.resolve("b.jar")));
+            assertEquals(1, store.getHits());
+            Files.write(target.resolve("b.jar"), new byte[10]);
+            assertTrue(manager.downloadTo(source + "b/lib.jar", target.resolve("d.jar")));
+            assertArrayEquals(library, Files.readAllBytes(target.resolve("d.jar")));
+            assertEquals(0, store.getCorrupted());
+
+            try (DirectoryStream<Path> stored = Files.newDirectoryStream(storeDir)) {
+                for (Path file : stored) {
+                    Files.write(file, new byte[100_000]);
+                }
+            }
+            assertTrue(!manager.downloadTo(source + "b/lib.jar", target.resolve("c.jar")));
+            assertEquals(1, store.getCorrupted());
+            assertArrayEquals(library, Files.readAllBytes(target.resolve("c.jar")));
+
+            for (int i = 0; i < 3; i++) {
+                manager.downloadTo(source + "other" + i, target.resolve("other" + i));
+            }
+            assertTrue(store.getEvictions() >= 2);
+            assertTrue(store.getSize() <= 250_000);
+            assertEquals(store.getCount(), new ContentStore(storeDir, 250_000).getCount());
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    @Test
+    public void test20_tree_digest() throws Exception {
+        Path deep = root.resolve("a").resolve("b").resolve("c");
+        Files.createDirectories(deep);
+        Files.createDirectories(root.resolve("d"));
+        Files.write(deep.resolve("deep.txt"), "deep".getBytes());
+        Files.write(root.resolve("a").resolve("x.txt"), "x".getBytes());
+        Files.write(root.resolve("d").resolve("y.txt"), "y".getBytes());
+        Files.write(root.resolve("top.txt"), "top".getBytes());
+        Path copy = Files.createTempDirectory("copy");
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) paths::iterator) {
+                Path target = copy.resolve(root.relativize(file).toString());
+                if (Files.isDirectory(file)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(file, target, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+            }
+        }
+        Files.createSymbolicLink(deep.getParent().resolve("up"), root.resolve("a"));
+        Files.createSymbolicLink(copy.resolve("a").resolve("b").resolve("up"), copy.resolve("a"));
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        Server server = Server.start(port, root, new ServerSettings());
+        Client client = new Client(new Socket("localhost", port));
+        try {
+            long requests = server.getStats().getFastLane().getRequests();
+            assertEquals(Collections.emptyList(), client.compare("", copy));
+            assertEquals(requests + 1, server.getStats().getFastLane().getRequests());
+
+            Files.write(deep.resolve("deep.txt"), "changed".getBytes());
+            Files.write(deep.resolve("new.txt"), "new".getBytes());
+            List<String> expected = Arrays.asList("modified: a/b/c/deep.txt", "added: a/b/c/new.txt");
+            long deadline = System.currentTimeMillis() + 10_000;
+            List<String> differences;
+            do {
+                Thread.sleep(50);
+                requests = server.getStats().getFastLane().getRequests();
+                differences = client.compare("", copy);
+            } while (!differences.equals(expected) && System.currentTimeMillis() < deadline);
+            assertEquals(expected, differences);
+            assertEquals(requests + 4, server.getStats().getFastLane().getRequests());
+        } finally {
+            server.shutdown();
+            try {
+                client.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void test21_repeated_requests_reuse_names() throws Exception {
+        try {
+            Files.createDirectories(root.resolve("d\u00e9j\u00e0"));
+        } catch (InvalidPathException e) {
+            Assume.assumeNoException(e);
+        }
+        Files.write(root.resolve("d\u00e9j\u00e0").resolve("\u043f\u0440\u0438\u0432\u0435\u0442.txt"), "hi".getBytes());
+        Files.write(root.resolve("d\u00e9j\u00e0").resolve("plain.txt"), "plain".getBytes());
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        Server server = Server.start(port, root, new ServerSettings());
+        Client client = new Client(new Socket("localhost", port));
+        try {
+            Client.Element[] first = client.list("d\u00e9j\u00e0");
+            Client.Element[] second = client.list("d\u00e9j\u00e0");
+            assertEquals(2, first.length);
+            assertEquals("plain.txt", first[0].getName());
+            assertEquals("\u043f\u0440\u0438\u0432\u0435\u0442.txt", first[1].getName());
+            for (int i = 0; i < first.length; i++) {
+                assertSame(first[i], second[i]);
+            }
+            assertArrayEquals("hi".getBytes(), client.get("d\u00e9j\u00e0/\u043f\u0440\u0438\u0432\u0435\u0442.txt"));
+            assertArrayEquals("hi".getBytes(), client.get("d\u00e9j\u00e0/\u043f\u0440\u0438\u0432\u0435\u0442.txt"));
+            assertArrayEquals("plain".getBytes(), client.get("d\u00e9j\u00e0/plain.txt"));
+            assertEquals(0, client.get("d\u00e9j\u00e0/missing").length);
+        } finally {
+            server.shutdown();
+            try {
+                client.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void test23_attribute_cache() throws Exception {
+        Files.write(root.resolve("hot.txt"), "hot".getBytes());
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        Server server = Server.start(port, root, new ServerSettings().setAttributeCacheTtl(60_000));
+        Client client = new Client(new Socket("localhost", port));
+        try {
+            assertEquals(0, client.get("missing.txt").length);
+            assertEquals(0, client.get("missing.txt").length);
+            assertEquals(1, server.getStats().getAttributeNegativeHits());
+            assertArrayEquals("hot".getBytes(), client.get("hot.txt"));
+            assertArrayEquals("hot".getBytes(), client.get("hot.txt"));
+            assertEquals(1, server.getStats().getAttributeHits());
+            assertEquals(2, server.getStats().getAttributeMisses());
+
+            Files.write(root.resolve("missing.txt"), "found".getBytes());
+            Files.write(root.resolve("hot.txt"), "changed".getBytes());
+            long deadline = System.currentTimeMillis() + 10_000;
+            while ((client.get("missing.txt").length == 0 || client.get("hot.txt").length != 7)
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertArrayEquals("found".getBytes(), client.get("missing.txt"));
+            assertArrayEquals("changed".getBytes(), client.get("hot.txt"));
+
+            Files.delete(root.resolve("hot.txt"));
+            deadline = System.currentTimeMillis() + 10_000;
+            while (client.get("hot.txt").length != 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(0, client.get("hot.txt").length);
+        } finally {
+            server.shutdown();
+            try {
+                client.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void test24_put() throws Exception {
+        byte[] content = new byte[1024 * 1024 + 321];
+        RND.nextBytes(content);
+        Path source = Files.createTempFile("upload", ".bin");
+        Files.write(source, content);
+        Files.write(root.resolve("file"), "old".getBytes());
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        TcpTransport transport = new TcpTransport(port);
+        Server server = Server.start(transport, root, new ServerSettings().setAcceptUploads(true));
+        try {
+            try {
+                new Client(new FaultySendConnection(transport.connect(), 300_000, true)).put("file", source);
+                fail("Interrupted upload should fail");
+            } catch (DataStreamException expected) {
+            }
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (server.getStats().getActive() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Client client = Client.connect(transport);
+            try {
+                assertEquals(1, client.list("").length);
+                assertArrayEquals("old".getBytes(), client.get("file"));
+                long sent = client.put("file", source);
+                assertTrue(sent > 0 && sent < content.length);
+                assertArrayEquals(content, client.get("file"));
+                assertEquals(1, client.list("").length);
+
+                assertEquals(content.length, client.put("dir/copy", source, false));
+                assertArrayEquals(content, client.get("dir/copy"));
+                try {
+                    client.put("../outside", source);
+                    fail("Upload outside of root should be rejected");
+                } catch (DataStreamException expected) {
+                }
+            } finally {
+                client.close();
+            }
+            Client corrupting = new Client(new FaultySendConnection(transport.connect(), 300_000, false));
+            try {
+                corrupting.put("dir/copy", Files.write(source, "new".getBytes()));
+                corrupting.put("dir/copy", Files.write(source, content));
+                fail("Corrupted upload should fail");
+            } catch (DataStreamException expected) {
+            } finally {
+                corrupting.close();
+            }
+            assertArrayEquals(content, Files.readAllBytes(root.resolve("file")));
+            assertArrayEquals("new".getBytes(), Files.readAllBytes(root.resolve("dir/copy")));
+            try (Stream<Path> files = Files.list(root); Stream<Path> inside = Files.list(root.resolve("dir"))) {
+                assertEquals(2, files.count());
+                assertEquals(1, inside.count());
+            }
+            assertEquals(3, server.getStats().getUploadsCommitted());
+            assertEquals(1, server.getStats().getUploadsCorrupted());
+        } finally {
+            server.shutdown();
+            Files.delete(source);
+        }
+    }
+
+    @Test
+    public void test25_cluster_client() throws Exception {
+        Files.write(root.resolve("file"), "replicated".getBytes());
+        int port = RND.nextInt(MAX_PORT - MIN_PORT - 3) + MIN_PORT;
+        Path sockets = Files.createTempDirectory("cluster");
+        List<Server> servers = new ArrayList<>();
+        List<SwitchedTransport> transports = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Transport transport = UnixSocketTransport.isSupported()
+                    ? new UnixSocketTransport(sockets.resolve("node" + i + ".sock")) : new TcpTransport(port + i);
+            servers.add(Server.start(transport, root, new ServerSettings()));
+            transports.add(new SwitchedTransport(transport));
+        }
+        ClusterClient cluster = new ClusterClient(transports, 1, 200);
+        try {
+            for (int i = 0; i < 300; i++) {
+                assertArrayEquals("replicated".getBytes(), cluster.get("file"));
+            }
+            for (ClusterClient.Node node : cluster.getNodes()) {
+                assertTrue(node.toString(), node.getRequests() > 0);
+            }
+
+            ClusterClient.Node broken = cluster.getNodes().get(1);
+            transports.get(1).setDown(true);
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (broken.getFailures() == 0 && System.currentTimeMillis() < deadline) {
+                assertEquals(1, cluster.list("").length);
+            }
+            assertTrue(broken.toString(), broken.isEjected());
+            for (int i = 0; i < 300; i++) {
+                assertEquals(1, cluster.list("").length);
+            }
+            assertTrue(broken.toString(), broken.getFailures() > 0 && broken.getFailures() < 10);
+
+            transports.get(1).setDown(false);
+            long requests = broken.getRequests();
+            long failures = broken.getFailures();
+            deadline = System.currentTimeMillis() + 10_000;
+            while (broken.isEjected() && System.currentTimeMillis() < deadline) {
+                cluster.get("file");
+            }
+            assertTrue(broken.toString(), !broken.isEjected() && broken.getRequests() > requests
+                    && broken.getFailures() == failures);
+
+            for (SwitchedTransport transport : transports) {
+                transport.setDown(true);
+            }
+            try {
+                cluster.get("file");
+                fail("Request should fail when all nodes are down");
+            } catch (DataStreamException expected) {
+            }
+        } finally {
+            cluster.close();
+            for (Server server : servers) {
+                server.shutdown();
+            }
+            Files.delete(sockets);
+        }
+    }
+
+    @Test
+    public void test26_list_since() throws Exception {
+        Path dir = Files.createDirectory(root.resolve("big"));
+        for (int i = 0; i < 2000; i++) {
+            Files.write(dir.resolve("file" + i), new byte[i % 10]);
+        }
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        Server server = Server.start(port, root, new ServerSettings().setListingJournalSize(8));
+        Client client = new Client(new Socket("localhost", port));
+        try {
+            ListingDelta first = client.listSince("big", 0);
+            assertTrue(first.isFull());
+            assertEquals(2000, first.getAdded().length);
+            ListingDelta same = client.listSince("big", first.getToken());
+            assertTrue(!same.isFull() && same.getAdded().length == 0 && same.getModified().length == 0
+                    && same.getRemoved().length == 0);
+
+            Files.write(dir.resolve("added"), "new".getBytes());
+            Files.write(dir.resolve("file1"), "changed".getBytes());
+            Files.delete(dir.resolve("file2"));
+            Files.createDirectory(dir.resolve("sub"));
+            Client.Element[] expected = client.listDetailed("big");
+            long deadline = System.currentTimeMillis() + 10_000;
+            ListingDelta delta;
+            do {
+                Thread.sleep(50);
+                delta = client.listSince("big", same.getToken());
+            } while (delta.getAdded().length + delta.getModified().length + delta.getRemoved().length < 4
+                    && System.currentTimeMillis() < deadline);
+            assertTrue(!delta.isFull());
+            assertEquals(Arrays.asList("added", "sub"), names(delta.getAdded()));
+            assertEquals(Collections.singletonList("file1"), names(delta.getModified()));
+            assertEquals(Collections.singletonList("file2"), Arrays.asList(delta.getRemoved()));
+            assertEquals(Arrays.asList(expected), Arrays.asList(delta.applyTo(first.getAdded())));
+
+            for (int i = 10; i < 30; i++) {
+                Files.delete(dir.resolve("file" + i));
+            }
+            deadline = System.currentTimeMillis() + 10_000;
+            do {
+                Thread.sleep(50);
+            } while (!client.listSince("big", delta.getToken()).isFull() && System.currentTimeMillis() < deadline);
+            assertEquals(1981, client.listSince("big", delta.getToken()).getAdded().length);
+            assertTrue(client.listSince("big", 12345).isFull());
+            assertEquals(null, client.listSince("big/file1", 0));
+
+            // journal of deleted directory is not taken for the one created in its place
+            ListingDelta sub = client.listSince("big/sub", 0);
+            Files.delete(dir.resolve("sub"));
+            Files.createDirectory(dir.resolve("sub"));
+            Files.write(dir.resolve("sub").resolve("inner"), new byte[1]);
+            deadline = System.currentTimeMillis() + 10_000;
+            ListingDelta again;
+            do {
+                Thread.sleep(50);
+                again = client.listSince("big/sub", sub.getToken());
+            } while (!again.isFull() && System.currentTimeMillis() < deadline);
+            assertEquals(Collections.singletonList("inner"), names(again.getAdded()));
+        } finally {
+            server.shutdown();
+            client.close();
+        }
+    }
+
+    @Test
+    public void test27_compact_listing() throws Exception {
+        Path dir = Files.createDirectory(root.resolve("wide"));
+        String prefix = "a-rather-long-common-prefix-of-generated-names-";
+        for (int i = 0; i < 10000; i++) {
+            if (i % 7 == 0) {
+                Files.createDirectory(dir.resolve(prefix + i));
+            } else {
+                Files.write(dir.resolve(prefix + i), new byte[0]);
+            }
+        }
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        Server server = Server.start(port, root, new ServerSettings());
+        Client client = Client.connect(new TcpTransport("localhost", port));
+        Client plain = new Client(new Socket("localhost", port));
+        try {
+            Client.Element[] listed = client.list("wide");
+            Client.Element[] detailed = client.listDetailed("wide");
+            assertEquals(10000, listed.length);
+            assertEquals(names(detailed), names(listed));
+            for (int i = 0; i < listed.length; i++) {
+                assertEquals(listed[i].getName(), detailed[i].isDirectory(), listed[i].isDirectory());
+            }
+            assertEquals(0, client.list("missing").length);
+            assertEquals(0, client.list("wide/" + prefix + "1").length);
+            assertEquals(0, client.list("wide/" + prefix + "7").length);
+            assertEquals(10000, client.list("wide").length);
+            // client of a given connection could not connect again after an older server, so it lists by command 1
+            assertEquals(names(listed), names(plain.list("wide")));
+
+            // compact list (13) of an empty directory: a newer format is downgraded, no common format is refused
+            String empty = "wide/" + prefix + "0";
+            try (Socket raw = new Socket("localhost", port)) {
+                DataOutputStream request = new DataOutputStream(raw.getOutputStream());
+                DataInputStream answer = new DataInputStream(raw.getInputStream());
+                for (byte format : new byte[] {7, 0, 1}) {
+                    request.writeInt(13);
+                    request.writeUTF(empty);
+                    request.writeByte(format);
+                    request.flush();
+                    assertEquals(format == 0 ? 0 : 1, answer.readByte());
+                    if (format != 0) {
+                        assertEquals(0, answer.readInt());
+                    }
+                }
+            }
+        } finally {
+            server.shutdown();
+            client.close();
+            plain.close();
+        }
+    }
+
+    @Test
+    public void test28_read_ahead() throws Exception {
+        Path photos = Files.createDirectory(root.resolve("photos"));
+        for (int i = 0; i < 100; i++) {
+            Files.write(photos.resolve(String.format("img%03d.jpg", i)), new byte[1000 + i]);
+        }
+        Files.write(photos.resolve("img050.jpg"), new byte[100_000]);
+        Path other = Files.createDirectory(root.resolve("other"));
+        for (int i = 0; i < 10; i++) {
+            Files.write(other.resolve("file" + i), new byte[10]);
+        }
+        Path sockets = Files.createTempDirectory("read-ahead");
+        Transport transport = UnixSocketTransport.isSupported()
+                ? new UnixSocketTransport(sockets.resolve("server.sock"))
+                : new TcpTransport(RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT);
+        Server server = Server.start(transport, root, new ServerSettings()
+                .setReadAheadRate(64 * 1024 * 1024).setReadAheadFileSize(10_000));
+        Client client = Client.connect(transport);
+        try {
+            for (int round = 0; round < 2; round++) {
+                client.list("other");
+                client.list("photos");
+                client.get("photos/img000.jpg");
+            }
+            assertEquals(0, server.getStats().getReadAheadHits());
+            client.list("photos");
+            for (int i = 0; i < 60; i++) {
+                assertEquals(i == 50 ? 100_000 : 1000 + i, client.get(String.format("photos/img%03d.jpg", i)).length);
+            }
+            // the second listing made directory trusted: 16 files after the get were read, then the third listing
+            // read the first 16 files and every get kept 16 files ahead, the big file was skipped
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (server.getStats().getReadAheadFiles() < 16 + 75 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(60, server.getStats().getReadAheadHits());
+            assertEquals(16 + 75, server.getStats().getReadAheadFiles());
+            assertEquals(1, server.getStats().getReadAheadDropped());
+
+            long files = server.getStats().getReadAheadFiles();
+            client.list("other");
+            client.list("other");
+            Thread.sleep(100);
+            assertEquals(files, server.getStats().getReadAheadFiles());
+        } finally {
+            server.shutdown();
+            client.close();
+            Files.delete(sockets);
+        }
+    }
+
+    @Test
+    public void test29_transport_profiles() throws Exception {
+        Files.write(root.resolve("small"), new byte[100]);
+        Files.write(root.resolve("big"), new byte[1024 * 1024]);
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        Server server = Server.start(new TcpTransport(port), root, new ServerSettings());
+        Transport transport = new TcpTransport("localhost", port);
+        Transport distant = new Transport() {
+            @Override
+            public Listener listen() throws IOException {
+                return transport.listen();
+            }
+
+            @Override
+            public Connection connect() throws IOException {
+                return new DelayedConnection(transport.connect(), 5);
+            }
+        };
+        Client client = Client.connect(transport);
+        Client idle = null;
+        Client legacy = null;
+        Client remote = null;
+        Client plain = null;
+        try {
+            // without Nagle's algorithm the path of request is not held until delayed acknowledgement of ~40 ms
+            long start = System.nanoTime();
+            for (int i = 0; i < 40; i++) {
+                assertEquals(100, client.get("small").length);
+            }
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 800);
+            // round trips of gets are local, whatever the first connection cost
+            assertEquals(TransportProfile.AUTO, client.getTransportProfile());
+            assertTrue(server.getStats().getLastTransport().isAuto());
+
+            // server measured the link by echo, so think time of client between requests is not taken for it
+            idle = Client.connect(transport);
+            for (int i = 0; i < 3; i++) {
+                Thread.sleep(200);
+                assertEquals(100, idle.get("small").length);
+            }
+            assertEquals(TransportProfile.AUTO, server.getStats().getLastTransport());
+
+            // client without echo is measured neither by think time nor by latency of gets, so it keeps system buffers
+            legacy = new Client(new Socket("localhost", port));
+            for (int i = 0; i < 3; i++) {
+                Thread.sleep(200);
+                assertEquals(100, legacy.get("small").length);
+            }
+            assertEquals(TransportProfile.AUTO, legacy.getTransportProfile());
+            assertEquals(TransportProfile.AUTO, server.getStats().getLastTransport());
+
+            // echo came late, so both sides chose buffers for remote link
+            remote = Client.connect(distant);
+            TransportProfile profile = remote.getTransportProfile();
+            assertTrue(profile.toString(), profile.isAuto());
+            assertTrue(profile.toString(), profile.getSocketBuffer() >= 256 * 1024);
+            assertTrue(profile.toString(), profile.getChunk() >= 64 * 1024);
+            assertEquals(1024 * 1024, remote.get("big").length);
+            assertTrue(server.getStats().getLastRttMicros() >= 5000);
+            assertTrue(server.getStats().getLastTransport().getSocketBuffer() >= 256 * 1024);
+
+            plain = Client.connect(transport, TransportProfile.PLAIN);
+            assertEquals(TransportProfile.PLAIN, plain.getTransportProfile());
+            assertEquals(1024 * 1024, plain.get("big").length);
+            assertEquals(100, plain.get("small").length);
+        } finally {
+            server.shutdown();
+            for (Client connected : Arrays.asList(client, idle, legacy, remote, plain)) {
+                if (connected != null) {
+                    connected.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test30_subscribe_to_recreated_directory() throws Exception {
+        Files.createDirectory(root.resolve("a"));
+        Server server = Server.embedded(root, new ServerSettings());
+        Client client = server.connectLocal();
+        BlockingQueue<ChangeEvent> events = new LinkedBlockingQueue<>();
+        Closeable subscription = client.subscribe("", true, events::add);
+        try {
+            Files.write(root.resolve("a").resolve("f1"), new byte[1]);
+            awaitEvent(events, ChangeEvent.Kind.ADDED, Paths.get("a", "f1").toString());
+            Files.delete(root.resolve("a").resolve("f1"));
+            Files.delete(root.resolve("a"));
+            awaitEvent(events, ChangeEvent.Kind.REMOVED, "a");
+            Files.createDirectory(root.resolve("a"));
+            awaitEvent(events, ChangeEvent.Kind.ADDED, "a");
+            // the new directory is watched again, not skipped as already registered
+            Files.write(root.resolve("a").resolve("f2"), new byte[1]);
+            awaitEvent(events, ChangeEvent.Kind.ADDED, Paths.get("a", "f2").toString());
+        } finally {
+            subscription.close();
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void test31_list_on_server_without_compact_listing() throws Exception {
+        ServerSocket old = new ServerSocket(0);
+        List<Integer> commands = Collections.synchronizedList(new ArrayList<>());
+        Thread server = new Thread(() -> {
+            // server older than compact listing: it closes connection on unknown command
+            try {
+                while (true) {
+                    try (Socket socket = old.accept()) {
+                        DataInputStream in = new DataInputStream(socket.getInputStream());
+                        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                        while (true) {
+                            int command = in.readInt();
+                            commands.add(command);
+                            if (command != 1) {
+                                break;
+                            }
+                            in.readUTF();
+                            out.writeInt(1);
+                            out.writeUTF("old");
+                            out.writeBoolean(true);
+                            out.flush();
+                        }
+                    } catch (EOFException ignored) {
+                    }
+                }
+            } catch (IOException ignored) {
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+        Client client = Client.connect(new TcpTransport("localhost", old.getLocalPort()));
+        try {
+            for (int i = 0; i < 2; i++) {
+                Client.Element[] listed = client.list("");
+                assertEquals(1, listed.length);
+                assertEquals("old", listed[0].getName());
+                assertTrue(listed[0].isDirectory());
+            }
+            // echo (14) of connect and compact list (13) each made client connect again
+            assertEquals(Arrays.asList(14, 13, 1, 1), commands);
+        } finally {
+            client.close();
+        }
+        // client of a given connection lists by command 1 at once, so it keeps working with older server
+        Client bare = new Client(new Socket("localhost", old.getLocalPort()));
+        try {
+            assertEquals("old", bare.list("")[0].getName());
+            assertEquals(Arrays.asList(14, 13, 1, 1, 1), commands);
+        } finally {
+            bare.close();
+            old.close();
+        }
+    }
+
+    @Test
+    public void test32_attribute_cache_without_watch() throws Exception {
+        // root which could not be watched at start, as when limit of watches is reached
+        Path later = root.resolve("later");
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        Server server = Server.start(port, later, new ServerSettings().setAttributeCacheTtl(60_000));
+        Client client = new Client(new Socket("localhost", port));
+        try {
+            assertEquals(1, server.getStats().getWatchFailures());
+            Files.createDirectory(later);
+            Files.write(later.resolve("file"), "content".getBytes());
+            for (int i = 0; i < 2; i++) {
+                assertArrayEquals("content".getBytes(), client.get("file"));
+            }
+            Files.write(later.resolve("file"), "changed".getBytes());
+            assertArrayEquals("changed".getBytes(), client.get("file"));
+            assertEquals(0, server.getStats().getAttributeHits() + server.getStats().getAttributeMisses());
+        } finally {
+            server.shutdown();
+            client.close();
+        }
+    }
+
+    @Test
+    public void test33_cluster_node_which_hangs() throws Exception {
+        Files.write(root.resolve("file"), "replicated".getBytes());
+        // node which accepts connections and reads requests but never answers
+        ServerSocket hung = new ServerSocket(0);
+        List<Socket> accepted = Collections.synchronizedList(new ArrayList<>());
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    accepted.add(hung.accept());
+                }
+            } catch (IOException ignored) {
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        Server server = Server.start(port, root, new ServerSettings());
+        ClusterClient cluster = new ClusterClient(Arrays.asList(new TcpTransport("localhost", hung.getLocalPort()),
+                new TcpTransport("localhost", port)), 1, 60_000, 1_000, 200);
+        ClusterClient alone = new ClusterClient(Collections.singletonList(
+                new TcpTransport("localhost", hung.getLocalPort())), 1, 60_000, 1_000, 200);
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < 20; i++) {
+                assertArrayEquals("replicated".getBytes(), cluster.get("file"));
+            }
+            ClusterClient.Node node = cluster.getNodes().get(0);
+            assertTrue(node.toString(), node.getFailures() > 0 && node.isEjected());
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5_000);
+
+            start = System.nanoTime();
+            try {
+                alone.get("file");
+                fail("Request should fail when the only node does not answer");
+            } catch (DataStreamException expected) {
+            }
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5_000);
+        } finally {
+            cluster.close();
+            alone.close();
+            server.shutdown();
+            hung.close();
+            for (Socket socket : accepted) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void test34_listing_is_not_delayed_by_throttled_clients() throws Exception {
+        Files.write(root.resolve("small"), new byte[256 * 1024]);
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        Server server = Server.start(port, root, new ServerSettings()
+                .setConnectionRate(64 * 1024)
+                .setFastLaneThreads(1)
+                .setSmallFileThreshold(1024 * 1024));
+        List<Client> throttled = new ArrayList<>();
+        Client interactive = new Client(new Socket("localhost", port));
+        try {
+            for (int i = 0; i < 3; i++) {
+                Client client = new Client(new Socket("localhost", port));
+                throttled.add(client);
+                Thread download = new Thread(() -> {
+                    try {
+                        client.get("small");
+                    } catch (Exception ignored) {
+                    }
+                });
+                download.setDaemon(true);
+                download.start();
+            }
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (server.getStats().getBytesSent() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(100);
+            long start = System.nanoTime();
+            assertEquals(1, interactive.list("").length);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            assertTrue("Listing took " + millis + " ms", millis < 1_000);
+        } finally {
+            for (Client client : throttled) {
+                try {
+                    client.close();
+                } catch (Exception ignored) {
+                }
+            }
+            interactive.close();
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void test35_cached_listing() throws Exception {
+        Files.createDirectories(root.resolve("a").resolve("sub"));
+        Files.write(root.resolve("a").resolve("x"), "x".getBytes());
+        int port = RND.nextInt(MAX_PORT - MIN_PORT) + MIN_PORT;
+        Server server = Server.start(port, root, new ServerSettings().setAttributeCacheTtl(60_000));
+        Client client = new Client(new Socket("localhost", port));
+        try {
+            assertEquals(2, client.list("a").length);
+            assertEquals(2, client.list("a").length);
+            assertEquals(1, server.getStats().getListingHits());
+            assertEquals(1, server.getStats().getListingMisses());
+
+            Files.write(root.resolve("a").resolve("y"), "y".getBytes());
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (client.list("a").length != 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(3, client.list("a").length);
+
+            // change under a subdirectory changes its modification time in the listing of the parent
+            assertEquals("sub", client.listDetailed("a")[0].getName());
+            long before = client.listDetailed("a")[0].getLastModified();
+            Thread.sleep(20);
+            Files.write(root.resolve("a").resolve("sub").resolve("z"), "z".getBytes());
+            deadline = System.currentTimeMillis() + 10_000;
+            while (client.listDetailed("a")[0].getLastModified() == before && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(Files.getLastModifiedTime(root.resolve("a").resolve("sub")).toMillis(),
+                    client.listDetailed("a")[0].getLastModified());
+            assertTrue(server.getStats().getListingHits() > 1);
+        } finally {
+            server.shutdown();
+            client.close();
+        }
+    }
+
+    private static void awaitEvent(BlockingQueue<ChangeEvent> events, ChangeEvent.Kind kind, String path)
+            throws InterruptedException {
+        ChangeEvent event;
+        do {
+            event = events.poll(10, TimeUnit.SECONDS);
+            assertNotNull(event);
+        } while (event.getKind() != kind || !event.getPath().equals(path));
+    }
+
+    /**Connection which flips one bit of received data at given position.*/
+    private static final class CorruptingConnection implements Connection {
+        private final Connection connection;
+        private final long position;
+
+        CorruptingConnection(Connection connection, long position) {
+            this.connection = connection;
+            this.position = position;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new FilterInputStream(connection.getInputStream()) {
+                private long read;
+
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0 && read++ == position) {
+                        b ^= 1;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int count = super.read(b, off, len);
+                    if (count > 0 && read <= position && position < read + count) {
+                        b[off + (int) (position - read)] ^= 1;
+                    }
+                    read += Math.max(0, count);
+                    return count;
+                }
+            };
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return connection.getOutputStream();
+        }
+
+        @Override
+        public InetAddress getInetAddress() {
+            return connection.getInetAddress();
+        }
+
+        @Override
+        public Object getRemoteAddress() {
+            return connection.getRemoteAddress();
+        }
+
+        @Override
+        public void setReadTimeout(int millis) throws IOException {
+            connection.setReadTimeout(millis);
+        }
+
+        @Override
+        public void close() throws IOException {
+            connection.close();
+        }
+    }
+
+    /**Connection which breaks sent data at given position: it is cut there or one bit of it is flipped.*/
+    private static final class FaultySendConnection implements Connection {
+        private final Connection connection;
+        private final long position;
+        private final boolean cut;
+
+        FaultySendConnection(Connection connection, long position, boolean cut) {
+            this.connection = connection;
+            this.position = position;
+            this.cut = cut;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return connection.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return new FilterOutputStream(connection.getOutputStream()) {
+                private long written;
+
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    if (written <= position && position < written + len) {
+                        if (cut) {
+                            out.write(b, off, (int) (position - written));
+                            connection.close();
+                            throw new IOException("Connection is cut");
+                        }
+                        byte[] copy = Arrays.copyOfRange(b, off, off + len);
+                        copy[(int) (position - written)] ^= 1;
+                        b = copy;
+                        off = 0;
+                    }
+                    out.write(b, off, len);
+                    written += len;
+                }
+            };
+        }
+
+        @Override
+        public InetAddress getInetAddress() {
+            return connection.getInetAddress();
+        }
+
+        @Override
+        public Object getRemoteAddress() {
+            return connection.getRemoteAddress();
+        }
+
+        @Override
+        public void setReadTimeout(int millis) throws IOException {
+            connection.setReadTimeout(millis);
+        }
+
+        @Override
+        public void close() throws IOException {
+            connection.close();
+        }
+    }
+
+    /**
+     * Connection whose every write to server is delayed, as on a long link.
+     * Delay is inside every round trip, whichever side measures it.
+     */
+    private static final class DelayedConnection implements Connection {
+        private final Connection connection;
+        private final long delayMillis;
+
+        DelayedConnection(Connection connection, long delayMillis) {
+            this.connection = connection;
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return connection.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return new FilterOutputStream(connection.getOutputStream()) {
+                @Override
+                public void write(int b) throws IOException {
+                    delay();
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    delay();
+                    out.write(b, off, len);
+                }
+
+                private void delay() throws IOException {
+                    try {
+                        Thread.sleep(delayMillis);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public InetAddress getInetAddress() {
+            return connection.getInetAddress();
+        }
+
+        @Override
+        public Object getRemoteAddress() {
+            return connection.getRemoteAddress();
+        }
+
+        @Override
+        public void setReadTimeout(int millis) throws IOException {
+            connection.setReadTimeout(millis);
+        }
+
+        @Override
+        public void close() throws IOException {
+            connection.close();
+        }
+    }
+
+    /**Transport whose connections could be broken and refused, as if the server went down.*/
+    private static final class SwitchedTransport implements Transport {
+        private final Transport transport;
+        private final List<Connection> connections = new ArrayList<>();
+        private boolean down;
+
+        SwitchedTransport(Transport transport) {
+            this.transport = transport;
+        }
+
+        synchronized void setDown(boolean down) throws IOException {
+            this.down = down;
+            if (down) {
+                for (Connection connection : connections) {
+                    connection.close();
+                }
+                connections.clear();
+            }
+        }
+
+        @Override
+        public Listener listen() throws IOException {
+            return transport.listen();
+        }
+
+        @Override
+        public synchronized Connection connect() throws IOException {
+            if (down) {
+                throw new IOException("Server is down");
+            }
+            Connection connection = transport.connect();
+            connections.add(connection);
+            return connection;
+        }
+    }
+
+    private static void assertSameTree(Path expected, Path actual) throws IOException {
+        List<Path> files = new ArrayList<>();
+        Files.walk(expected).forEach(files::add);
+        for (Path file : files) {
+            Path copy = actual.resolve(expected.relativize(file).toString());
+            if (Files.isDirectory(file)) {
+                assertTrue(Files.isDirectory(copy));
+            } else {
+                assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(copy));
+            }
+        }
+        assertEquals(files.size(), Files.walk(actual).count());
+    }
+
+    private static List<String> names(Client.Element[] elements) {
+        List<String> result = new ArrayList<>();
+        for (Client.Element element : elements) {
+            result.add(element.getName());
+        }
+        return result;
+    }
+
+    private static List<String> paths(Client.Match[] matches) {
+        List<String> result = new ArrayList<>();
+        for (Client.Match match : matches) {
+            result.add(match.getPath());
+        }
+        return result;
+    }
 }
@@ -0,0 +1,117 @@
+package benchmarks;
+
+import logic.Client;
+import logic.Server;
+import logic.ServerSettings;
+import logic.TcpTransport;
+import logic.Transport;
+import logic.UnixSocketTransport;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Measures bytes allocated on heap per request in steady state, separately by client's thread and by server's threads.
+ * Allocations are counted by {@code com.sun.management.ThreadMXBean} for all live threads,
+ * which gives the same numbers as {@code -prof gc} of JMH without taking a dependency on it.
+ * Unix domain socket is used when Java supports it, so Nagle's algorithm does not slow the loop down.
+ * Server is measured without cache and with cache of attributes and listings. Only the cached hot path is expected
+ * to allocate next to nothing on server: a cached listing and a get of a file known to be missing. A get of an
+ * existing file still opens a channel, which costs about half a kilobyte, and an uncached listing reads
+ * the directory with all its attributes. On client, only the returned arrays remain.
+ * Run with {@code gradle benchmark -Pbench=AllocationBenchmark}.
+ */
+public final class AllocationBenchmark {
+    /**Number of not measured requests, enough for JIT and for all caches to be filled.*/
+    private static final int WARMUP = 20_000;
+    /**Number of measured requests.*/
+    private static final int REQUESTS = 20_000;
+    /**Number of files in listed directory.*/
+    private static final int ENTRIES = 20;
+    /**Time to live of cached attributes and listings, longer than the whole measurement.*/
+    private static final long CACHE_TTL_MILLIS = 600_000;
+
+    private AllocationBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path root = Files.createTempDirectory("allocation-bench");
+        Path socketDir = Files.createTempDirectory("allocation-bench-sock");
+        try {
+            Measure.randomFile(root.resolve("small"), 4096);
+            Measure.wideDirectory(root.resolve("dir"), ENTRIES);
+            Transport transport = UnixSocketTransport.isSupported()
+                    ? new UnixSocketTransport(socketDir.resolve("uncached.sock"))
+                    : new TcpTransport(new Random().nextInt(10000) + 20000);
+            run("uncached", transport, root, new ServerSettings());
+            transport = UnixSocketTransport.isSupported()
+                    ? new UnixSocketTransport(socketDir.resolve("cached.sock"))
+                    : new TcpTransport(new Random().nextInt(10000) + 20000);
+            run("cached", transport, root, new ServerSettings().setAttributeCacheTtl(CACHE_TTL_MILLIS));
+        } finally {
+            Measure.delete(root);
+            Measure.delete(socketDir);
+        }
+    }
+
+    /**
+     * Starts server with given settings and measures all requests against it.
+     * @param title -- name of settings
+     * @param transport -- transport of server and client
+     * @param root -- root directory of server
+     * @param settings -- settings of server
+     * @throws Exception if something failed
+     */
+    private static void run(String title, Transport transport, Path root, ServerSettings settings) throws Exception {
+        Server server = Server.start(transport, root, settings);
+        Client client = Client.connect(transport);
+        try {
+            System.out.printf("%-28s %16s %16s%n", title + " " + transport.getClass().getSimpleName(),
+                    "client B/req", "server B/req");
+            measure("list " + ENTRIES, () -> client.list("dir"));
+            measure("get 4 KB", () -> client.get("small"));
+            measure("get missing", () -> client.get("missing"));
+        } finally {
+            client.close();
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Measures allocations of one request and prints one line of results.
+     * @param name -- name of request
+     * @param operation -- one request
+     * @throws Exception if something failed
+     */
+    private static void measure(String name, Measure.Operation operation) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long self = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUP; i++) {
+            operation.run();
+        }
+        long clientStart = threads.getThreadAllocatedBytes(self);
+        long totalStart = total(threads);
+        for (int i = 0; i < REQUESTS; i++) {
+            operation.run();
+        }
+        long client = threads.getThreadAllocatedBytes(self) - clientStart;
+        long server = total(threads) - totalStart - client;
+        System.out.printf("%-28s %16.1f %16.1f%n", name, (double) client / REQUESTS, (double) server / REQUESTS);
+    }
+
+    /**
+     * Get bytes allocated by all live threads.
+     * @param threads -- bean of threads
+     * @return sum of allocated bytes
+     */
+    private static long total(com.sun.management.ThreadMXBean threads) {
+        long sum = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            sum += Math.max(0, allocated);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,90 @@
+package benchmarks;
+
+import logic.Client;
+import logic.Server;
+import logic.ServerSettings;
+import logic.TcpTransport;
+import logic.Transport;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * Compares throughput of plain and checked downloads of a big file over loopback
+ * and raw speed of checksums on heap arrays.
+ * Run with {@code gradle benchmark -Pbench=ChecksumBenchmark}.
+ */
+public final class ChecksumBenchmark {
+    /**Size of the big file in bytes.*/
+    private static final int BIG_SIZE = 64 * 1024 * 1024;
+    /**Number of not measured downloads.*/
+    private static final int WARMUP = 3;
+    /**Number of measured downloads.*/
+    private static final int REQUESTS = 20;
+
+    private ChecksumBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        byte[] data = new byte[BIG_SIZE];
+        new Random(42).nextBytes(data);
+        System.out.printf("%-16s %12s%n", "", "GB/s");
+        checksum("crc32", new CRC32(), data);
+        try {
+            checksum("crc32c", (Checksum) Class.forName("java.util.zip.CRC32C").getConstructor().newInstance(), data);
+        } catch (ClassNotFoundException e) {
+            System.out.printf("%-16s %12s%n", "crc32c", "n/a");
+        }
+
+        Path root = Files.createTempDirectory("checksum-bench");
+        Transport transport = new TcpTransport(new Random().nextInt(10000) + 20000);
+        Server server = Server.start(transport, root, new ServerSettings());
+        Client client = Client.connect(transport);
+        try {
+            Measure.randomFile(root.resolve("big"), BIG_SIZE);
+            System.out.printf("%-16s %12s %12s %12s%n", "", "p50 ms", "p99 ms", "MB/s");
+            download("plain", () -> client.get("big"));
+            download("checked 64 KB", () -> client.getChecked("big"));
+            download("checked 1 MB", () -> client.getChecked("big", 1024 * 1024));
+        } finally {
+            client.close();
+            server.shutdown();
+            Measure.delete(root);
+        }
+    }
+
+    /**
+     * Measures one checksum over the whole array and prints one line of results.
+     * @param name -- name of algorithm
+     * @param checksum -- checksum to measure
+     * @param data -- data to check
+     */
+    private static void checksum(String name, Checksum checksum, byte[] data) {
+        for (int i = 0; i < WARMUP; i++) {
+            checksum.update(data, 0, data.length);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            checksum.reset();
+            checksum.update(data, 0, data.length);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-16s %12.1f%n", name, (double) data.length * REQUESTS / seconds / (1L << 30));
+    }
+
+    /**
+     * Measures downloads of the big file and prints one line of results.
+     * @param name -- name of download mode
+     * @param operation -- one download
+     * @throws Exception if something failed
+     */
+    private static void download(String name, Measure.Operation operation) throws Exception {
+        long[] times = Measure.times(WARMUP, REQUESTS, operation);
+        System.out.printf("%-16s %12.1f %12.1f %12.1f%n", name,
+                Measure.percentile(times, 50) / 1000, Measure.percentile(times, 99) / 1000,
+                Measure.megabytesPerSecond(BIG_SIZE, times[times.length / 2]));
+    }
+}
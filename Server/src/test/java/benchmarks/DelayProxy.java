@@ -0,0 +1,136 @@
+package benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process TCP proxy which emulates slow link between client and server: every portion of data is delivered
+ * after one-way delay and not faster than given rate, in both directions. The link holds about one bandwidth-delay
+ * product of data, more data waits in socket buffers of sender. It replaces {@code tc netem}, which needs root
+ * and changes the whole loopback interface, but each side talks TCP to the proxy only, so window of sender
+ * is not stretched by the delay.
+ */
+final class DelayProxy implements Closeable {
+    /**Size in bytes of portion read at once.*/
+    private static final int PORTION = 16 * 1024;
+    /**Marker of end of stream in queue of portions.*/
+    private static final Portion END = new Portion(new byte[0], 0);
+    /**Socket which accepts clients.*/
+    private final ServerSocket listener;
+    /**Port of server which connections are forwarded to.*/
+    private final int target;
+    /**One-way delay in nanoseconds.*/
+    private final long delayNanos;
+    /**Rate of each direction in bytes per second.*/
+    private final long rate;
+
+    /**Class of one portion of data on the link.*/
+    private static final class Portion {
+        /**Data of portion.*/
+        private final byte[] data;
+        /**Time in nanoseconds when portion leaves the link.*/
+        private final long due;
+
+        Portion(byte[] data, long due) {
+            this.data = data;
+            this.due = due;
+        }
+    }
+
+    /**
+     * Constructs {@code DelayProxy} object and starts accepting clients.
+     * @param port -- port which clients connect to
+     * @param target -- port of server on loopback
+     * @param delayMillis -- one-way delay in milliseconds
+     * @param rate -- rate of each direction in bytes per second
+     * @throws IOException if port could not be listened on
+     */
+    DelayProxy(int port, int target, long delayMillis, long rate) throws IOException {
+        this.listener = new ServerSocket(port);
+        this.target = target;
+        this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        this.rate = rate;
+        Thread acceptor = new Thread(this::accept, "delay-proxy");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**Accepts clients and connects each one to server until proxy is closed.*/
+    private void accept() {
+        try {
+            while (true) {
+                Socket client = listener.accept();
+                Socket server = new Socket("localhost", target);
+                client.setTcpNoDelay(true);
+                server.setTcpNoDelay(true);
+                forward(client, server);
+                forward(server, client);
+            }
+        } catch (IOException ignored) {
+            // proxy is closed
+        }
+    }
+
+    /**
+     * Starts threads which move data of one direction through the link.
+     * @param from -- socket to read data from
+     * @param to -- socket to write data to
+     */
+    private void forward(Socket from, Socket to) {
+        long capacity = Math.max(4, rate * delayNanos / TimeUnit.SECONDS.toNanos(1) / PORTION);
+        BlockingQueue<Portion> link = new ArrayBlockingQueue<>((int) Math.min(capacity, 1 << 16));
+        Thread reader = new Thread(() -> {
+            byte[] buffer = new byte[PORTION];
+            try (InputStream in = from.getInputStream()) {
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    link.put(new Portion(Arrays.copyOf(buffer, count), System.nanoTime() + delayNanos));
+                }
+            } catch (IOException | InterruptedException ignored) {
+                // connection is closed
+            }
+            try {
+                link.put(END);
+            } catch (InterruptedException ignored) {
+                // nobody waits for the rest
+            }
+        }, "delay-proxy-reader");
+        Thread writer = new Thread(() -> {
+            long free = 0;
+            try (OutputStream out = to.getOutputStream()) {
+                while (true) {
+                    Portion portion = link.take();
+                    if (portion == END) {
+                        to.shutdownOutput();
+                        return;
+                    }
+                    free = Math.max(free, portion.due) + portion.data.length * TimeUnit.SECONDS.toNanos(1) / rate;
+                    long wait = free - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                    out.write(portion.data);
+                }
+            } catch (IOException | InterruptedException ignored) {
+                // connection is closed
+            }
+        }, "delay-proxy-writer");
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        listener.close();
+    }
+}
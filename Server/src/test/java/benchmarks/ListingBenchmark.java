@@ -0,0 +1,149 @@
+package benchmarks;
+
+import logic.Server;
+import logic.ServerSettings;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Compares bytes on the wire, read calls and latency of listing of big directory by command 1 and by compact list.
+ * Answers are read by hand from the unbuffered stream of socket, so read calls are socket reads of the client.
+ * Run with {@code gradle benchmark -Pbench=ListingBenchmark}.
+ */
+public final class ListingBenchmark {
+    /**Command of plain listing.*/
+    private static final int LIST = 1;
+    /**Command of compact listing.*/
+    private static final int LIST_COMPACT = 13;
+    /**Format of compact listing.*/
+    private static final byte FORMAT = 1;
+    /**Number of files in listed directory.*/
+    private static final int FILES = 100_000;
+    /**Number of not measured listings.*/
+    private static final int WARMUP = 10;
+    /**Number of measured listings.*/
+    private static final int REPEATS = 50;
+
+    private ListingBenchmark() {
+    }
+
+    /**Stream which counts bytes and calls of reads.*/
+    private static final class CountingStream extends FilterInputStream {
+        private long bytes;
+        private long calls;
+
+        CountingStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            calls++;
+            bytes += b < 0 ? 0 : 1;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            calls++;
+            bytes += Math.max(0, count);
+            return count;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path root = Files.createTempDirectory("listing-bench");
+        try {
+            Path dir = Files.createDirectory(root.resolve("wide"));
+            for (int i = 0; i < FILES; i++) {
+                Files.createFile(dir.resolve(String.format("report-2024-%06d.csv", i)));
+            }
+            int port = new Random().nextInt(10000) + 20000;
+            Server server = Server.start(port, root, new ServerSettings());
+            try (Socket socket = new Socket("localhost", port)) {
+                CountingStream counting = new CountingStream(socket.getInputStream());
+                DataInputStream in = new DataInputStream(counting);
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                System.out.printf("%-8s %12s %12s %12s%n", "", "bytes", "reads", "ms");
+                measure("list", LIST, out, in, counting);
+                measure("compact", LIST_COMPACT, out, in, counting);
+            } finally {
+                server.shutdown();
+            }
+        } finally {
+            Measure.delete(root);
+        }
+    }
+
+    /**
+     * Measures listings by one command and prints one line of results.
+     * @param name -- name of command
+     * @param command -- number of command
+     * @param out -- stream of requests
+     * @param in -- stream of answers
+     * @param counting -- counter of stream of answers
+     * @throws IOException if request failed
+     */
+    private static void measure(String name, int command, DataOutputStream out, DataInputStream in,
+                                CountingStream counting) throws IOException {
+        for (int i = 0; i < WARMUP; i++) {
+            list(command, out, in);
+        }
+        counting.bytes = 0;
+        counting.calls = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++) {
+            list(command, out, in);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-8s %12d %12d %12.2f%n", name, counting.bytes / REPEATS, counting.calls / REPEATS,
+                elapsed / 1e6 / REPEATS);
+    }
+
+    /**
+     * Lists directory and reads the whole answer.
+     * @param command -- number of command
+     * @param out -- stream of requests
+     * @param in -- stream of answers
+     * @throws IOException if request failed
+     */
+    private static void list(int command, DataOutputStream out, DataInputStream in) throws IOException {
+        out.writeInt(command);
+        out.writeUTF("wide");
+        if (command == LIST_COMPACT) {
+            out.writeByte(FORMAT);
+        }
+        out.flush();
+        if (command == LIST) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                in.readUTF();
+                in.readBoolean();
+            }
+            return;
+        }
+        if (in.readByte() != FORMAT) {
+            throw new IOException("Unknown format of listing");
+        }
+        int count = in.readInt();
+        byte[] frame = new byte[0];
+        while (count > 0) {
+            int length = in.readInt();
+            if (frame.length < length) {
+                frame = new byte[length];
+            }
+            in.readFully(frame, 0, length);
+            count -= (frame[0] & 0xff) << 24 | (frame[1] & 0xff) << 16 | (frame[2] & 0xff) << 8 | frame[3] & 0xff;
+        }
+    }
+}
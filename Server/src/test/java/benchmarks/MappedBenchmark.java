@@ -0,0 +1,71 @@
+package benchmarks;
+
+import logic.Client;
+import logic.Server;
+import logic.ServerSettings;
+import logic.TcpTransport;
+import logic.Transport;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Compares latency and CPU time per gigabyte of sending big files by reading streams and from mapped windows.
+ * CPU time is measured for the whole process, so it includes the client, which is the same in both modes.
+ * Run with {@code gradle benchmark -Pbench=MappedBenchmark}.
+ */
+public final class MappedBenchmark {
+    /**Size of the big file in bytes.*/
+    private static final int BIG_SIZE = 64 * 1024 * 1024;
+    /**Number of not measured downloads.*/
+    private static final int WARMUP = 3;
+    /**Number of measured downloads.*/
+    private static final int REQUESTS = 20;
+
+    private MappedBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path root = Files.createTempDirectory("mapped-bench");
+        try {
+            Measure.randomFile(root.resolve("big"), BIG_SIZE);
+            System.out.printf("%-8s %12s %12s %12s %12s%n", "", "p50 ms", "p99 ms", "MB/s", "CPU ms/GB");
+            run("stream", root, new ServerSettings());
+            run("mapped", root, new ServerSettings().setMappedServing(true));
+        } finally {
+            Measure.delete(root);
+        }
+    }
+
+    /**
+     * Measures downloads of the big file from server with given settings and prints one line of results.
+     * @param name -- name of serving mode
+     * @param root -- root directory of server
+     * @param settings -- settings of server
+     * @throws Exception if something failed
+     */
+    private static void run(String name, Path root, ServerSettings settings) throws Exception {
+        Transport transport = new TcpTransport(new Random().nextInt(10000) + 20000);
+        Server server = Server.start(transport, root, settings);
+        Client client = Client.connect(transport);
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        try {
+            for (int i = 0; i < WARMUP; i++) {
+                client.get("big");
+            }
+            long cpuStart = os.getProcessCpuTime();
+            long[] times = Measure.times(0, REQUESTS, () -> client.get("big"));
+            long cpu = os.getProcessCpuTime() - cpuStart;
+            double gigabytes = (double) BIG_SIZE * REQUESTS / (1024.0 * 1024 * 1024);
+            System.out.printf("%-8s %12.1f %12.1f %12.1f %12.1f%n", name,
+                    Measure.percentile(times, 50) / 1000, Measure.percentile(times, 99) / 1000,
+                    Measure.megabytesPerSecond(BIG_SIZE, times[times.length / 2]), cpu / 1e6 / gigabytes);
+        } finally {
+            client.close();
+            server.shutdown();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**Helpers shared by benchmarks.*/
+final class Measure {
+    /**Seed of generated data, so all runs use the same content.*/
+    private static final long SEED = 42;
+
+    private Measure() {
+    }
+
+    /**Interface of one measured operation.*/
+    interface Operation {
+        /**
+         * Executes the operation once.
+         * @throws Exception if the operation failed
+         */
+        void run() throws Exception;
+    }
+
+    /**
+     * Executes operation given number of times after warming up.
+     * @param warmup -- number of not measured executions
+     * @param count -- number of measured executions
+     * @param operation -- operation to measure
+     * @return sorted times in nanoseconds of all measured executions
+     * @throws Exception if the operation failed
+     */
+    static long[] times(int warmup, int count, Operation operation) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            operation.run();
+        }
+        long[] result = new long[count];
+        for (int i = 0; i < count; i++) {
+            long start = System.nanoTime();
+            operation.run();
+            result[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Get percentile of sorted times.
+     * @param sorted -- sorted times in nanoseconds
+     * @param percent -- percentile from 0 to 100
+     * @return time in microseconds
+     */
+    static double percentile(long[] sorted, double percent) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(percent / 100 * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1000.0;
+    }
+
+    /**
+     * Get throughput.
+     * @param bytes -- number of transferred bytes
+     * @param nanos -- time of transfer in nanoseconds
+     * @return throughput in megabytes per second
+     */
+    static double megabytesPerSecond(long bytes, long nanos) {
+        return bytes / (1024.0 * 1024.0) / (nanos / 1e9);
+    }
+
+    /**
+     * Creates file with deterministic random content.
+     * @param file -- path to new file
+     * @param size -- size of file in bytes
+     * @throws IOException if file could not be written
+     */
+    static void randomFile(Path file, int size) throws IOException {
+        byte[] content = new byte[size];
+        new Random(SEED + size).nextBytes(content);
+        Files.write(file, content);
+    }
+
+    /**
+     * Creates directory with given number of small files.
+     * @param dir -- path to new directory
+     * @param count -- number of files
+     * @throws IOException if files could not be written
+     */
+    static void wideDirectory(Path dir, int count) throws IOException {
+        Files.createDirectories(dir);
+        for (int i = 0; i < count; i++) {
+            Files.write(dir.resolve("file" + i), new byte[i % 100]);
+        }
+    }
+
+    /**
+     * Removes directory with all its content.
+     * @param dir -- directory to remove
+     * @throws IOException if something could not be removed
+     */
+    static void delete(Path dir) throws IOException {
+        try (java.util.stream.Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted((a, b) -> b.compareTo(a))::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
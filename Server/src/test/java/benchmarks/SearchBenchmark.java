@@ -0,0 +1,64 @@
+package benchmarks;
+
+import logic.Client;
+import logic.SearchQuery;
+import logic.Server;
+import logic.ServerSettings;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures time of building index of a tree and latency of search queries of the in-process client.
+ * Run with {@code gradle benchmark -Pbench=SearchBenchmark}.
+ */
+public final class SearchBenchmark {
+    /**Number of directories of the tree.*/
+    private static final int DIRECTORIES = 200;
+    /**Number of files in each directory.*/
+    private static final int FILES = 500;
+    /**Number of not measured queries.*/
+    private static final int WARMUP = 100;
+    /**Number of measured queries.*/
+    private static final int QUERIES = 1000;
+
+    private SearchBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path root = Files.createTempDirectory("search-bench");
+        try {
+            for (int i = 0; i < DIRECTORIES; i++) {
+                Measure.wideDirectory(root.resolve("dir" + i), FILES);
+            }
+            long start = System.nanoTime();
+            Server server = Server.embedded(root, new ServerSettings());
+            Client client = server.connectLocal();
+            int found = client.search(new SearchQuery().setLimit(Integer.MAX_VALUE)).length;
+            System.out.printf("index of %d entries built in %.1f ms%n", found, (System.nanoTime() - start) / 1e6);
+            try {
+                System.out.printf("%-24s %12s %12s%n", "", "p50 us", "p99 us");
+                measure("prefix dir17/", client, new SearchQuery().setPrefix("dir17/"));
+                measure("glob dir1*/file4?", client, new SearchQuery().setGlob("dir1*/file4?"));
+                measure("glob **/file499", client, new SearchQuery().setGlob("**/file499"));
+                measure("size >= 99, limit 100", client, new SearchQuery().setMinSize(99).setLimit(100));
+            } finally {
+                server.shutdown();
+            }
+        } finally {
+            Measure.delete(root);
+        }
+    }
+
+    /**
+     * Measures one query and prints one line of results.
+     * @param name -- name of query
+     * @param client -- in-process client
+     * @param query -- query to measure
+     * @throws Exception if something failed
+     */
+    private static void measure(String name, Client client, SearchQuery query) throws Exception {
+        long[] times = Measure.times(WARMUP, QUERIES, () -> client.search(query));
+        System.out.printf("%-24s %12.1f %12.1f%n", name, Measure.percentile(times, 50), Measure.percentile(times, 99));
+    }
+}
@@ -0,0 +1,91 @@
+package benchmarks;
+
+import logic.Client;
+import logic.Server;
+import logic.ServerSettings;
+import logic.TcpTransport;
+import logic.Transport;
+import logic.UnixSocketTransport;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Compares latency and throughput of loopback TCP, Unix domain socket and in-process transports.
+ * Run with {@code gradle benchmark -Pbench=TransportBenchmark}.
+ */
+public final class TransportBenchmark {
+    /**Number of not measured requests.*/
+    private static final int WARMUP = 50;
+    /**Number of measured requests.*/
+    private static final int REQUESTS = 500;
+    /**Size of the big file in bytes.*/
+    private static final int BIG_SIZE = 64 * 1024 * 1024;
+    /**Number of downloads of the big file.*/
+    private static final int BIG_REPEATS = 5;
+
+    private TransportBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path root = Files.createTempDirectory("transport-bench");
+        Path socketDir = Files.createTempDirectory("transport-bench-sock");
+        try {
+            Measure.randomFile(root.resolve("small"), 4096);
+            Measure.randomFile(root.resolve("big"), BIG_SIZE);
+            Measure.wideDirectory(root.resolve("wide"), 1000);
+            System.out.printf("%-8s %12s %12s %12s %12s %12s%n",
+                    "", "list p50 us", "list p99 us", "get p50 us", "get p99 us", "big MB/s");
+            run("tcp", new TcpTransport(new Random().nextInt(10000) + 20000), root);
+            if (UnixSocketTransport.isSupported()) {
+                run("unix", new UnixSocketTransport(socketDir.resolve("bench.sock")), root);
+            } else {
+                System.out.println("unix     not supported by this Java");
+            }
+            Server embedded = Server.embedded(root, new ServerSettings());
+            try {
+                measure("inproc", embedded.connectLocal());
+            } finally {
+                embedded.shutdown();
+            }
+        } finally {
+            Measure.delete(root);
+            Measure.delete(socketDir);
+        }
+    }
+
+    /**
+     * Measures one transport and prints one line of results.
+     * @param name -- name of transport
+     * @param transport -- transport to measure
+     * @param root -- root directory of server
+     * @throws Exception if something failed
+     */
+    private static void run(String name, Transport transport, Path root) throws Exception {
+        Server server = Server.start(transport, root, new ServerSettings());
+        Client client = Client.connect(transport);
+        try {
+            measure(name, client);
+        } finally {
+            client.close();
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Measures requests of one client and prints one line of results.
+     * @param name -- name of transport
+     * @param client -- client connected to server
+     * @throws Exception if something failed
+     */
+    private static void measure(String name, Client client) throws Exception {
+        long[] list = Measure.times(WARMUP, REQUESTS, () -> client.list("wide"));
+        long[] get = Measure.times(WARMUP, REQUESTS, () -> client.get("small"));
+        long[] big = Measure.times(1, BIG_REPEATS, () -> client.get("big"));
+        System.out.printf("%-8s %12.1f %12.1f %12.1f %12.1f %12.1f%n", name,
+                Measure.percentile(list, 50), Measure.percentile(list, 99),
+                Measure.percentile(get, 50), Measure.percentile(get, 99),
+                Measure.megabytesPerSecond(BIG_SIZE, big[big.length / 2]));
+    }
+}
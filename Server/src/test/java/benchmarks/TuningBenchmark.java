@@ -0,0 +1,101 @@
+package benchmarks;
+
+import logic.Client;
+import logic.Server;
+import logic.ServerSettings;
+import logic.TcpTransport;
+import logic.Transport;
+import logic.TransportProfile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares transport profiles on loopback TCP and on emulated long link: latency of small requests and throughput
+ * of the big file, with the same profile on both sides. The long link is an in-process proxy with delay and rate,
+ * see {@code DelayProxy}. The last columns show profile which auto tuning of client and server ended with.
+ * The proxy ends TCP on both sides, so it shows costs of round trips and choices of tuning, but not limits
+ * of TCP window by socket buffers; for them run the loopback rows under
+ * {@code tc qdisc add dev lo root netem delay 20ms}.
+ * Run with {@code gradle benchmark -Pbench=TuningBenchmark}.
+ */
+public final class TuningBenchmark {
+    /**One-way delay of emulated link in milliseconds.*/
+    private static final long DELAY_MILLIS = 20;
+    /**Rate of emulated link in bytes per second.*/
+    private static final long RATE = 50L * 1024 * 1024;
+    /**Size of the big file in bytes.*/
+    private static final int BIG_SIZE = 32 * 1024 * 1024;
+    /**Number of downloads of the big file.*/
+    private static final int BIG_REPEATS = 3;
+    /**Compared profiles.*/
+    private static final List<TransportProfile> PROFILES = Arrays.asList(TransportProfile.PLAIN,
+            TransportProfile.LOOPBACK, TransportProfile.WAN, TransportProfile.AUTO);
+
+    private TuningBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path root = Files.createTempDirectory("tuning-bench");
+        try {
+            Measure.randomFile(root.resolve("small"), 4096);
+            Measure.randomFile(root.resolve("big"), BIG_SIZE);
+            Measure.wideDirectory(root.resolve("wide"), 100);
+            System.out.printf("%-10s %-10s %12s %12s %12s  %s%n",
+                    "link", "profile", "list p50 us", "get p50 us", "big MB/s", "tuned client / server");
+            for (TransportProfile profile : PROFILES) {
+                run("loopback", profile, root, false);
+            }
+            for (TransportProfile profile : PROFILES) {
+                run("delayed", profile, root, true);
+            }
+        } finally {
+            Measure.delete(root);
+        }
+    }
+
+    /**
+     * Measures one profile on one link and prints one line of results.
+     * @param link -- name of link
+     * @param profile -- profile of client and server
+     * @param root -- root directory of server
+     * @param delayed -- whether client connects through emulated long link
+     * @throws Exception if something failed
+     */
+    private static void run(String link, TransportProfile profile, Path root, boolean delayed) throws Exception {
+        int port = new Random().nextInt(10000) + 20000;
+        Server server = Server.start(new TcpTransport(port), root, new ServerSettings().setTransportProfile(profile));
+        DelayProxy proxy = delayed ? new DelayProxy(port + 1, port, DELAY_MILLIS, RATE) : null;
+        Transport transport = new TcpTransport("localhost", delayed ? port + 1 : port);
+        int warmup = delayed ? 5 : 50;
+        int requests = delayed ? 50 : 500;
+        Client client = Client.connect(transport, profile);
+        try {
+            long[] list = Measure.times(warmup, requests, () -> client.list("wide"));
+            long[] get = Measure.times(warmup, requests, () -> client.get("small"));
+            long[] big = Measure.times(1, BIG_REPEATS, () -> client.get("big"));
+            System.out.printf("%-10s %-10s %12.1f %12.1f %12.1f  %s / %s%n", link, profile.getName(),
+                    Measure.percentile(list, 50), Measure.percentile(get, 50),
+                    Measure.megabytesPerSecond(BIG_SIZE, big[big.length / 2]),
+                    describe(client.getTransportProfile()), describe(server.getStats().getLastTransport()));
+        } finally {
+            client.close();
+            server.shutdown();
+            if (proxy != null) {
+                proxy.close();
+            }
+        }
+    }
+
+    /**
+     * Describes tuned parameters shortly.
+     * @param profile -- profile of one side
+     * @return socket buffer and chunk in kilobytes
+     */
+    private static String describe(TransportProfile profile) {
+        return "buffer " + profile.getSocketBuffer() / 1024 + "K chunk " + profile.getChunk() / 1024 + "K";
+    }
+}